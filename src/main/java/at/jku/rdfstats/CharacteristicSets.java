@@ -0,0 +1,579 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.util.Base64;
+
+/**
+ * Characteristic sets of a dataset: the distinct sets of properties used by subjects, each
+ * with the number of subjects having exactly these properties and the number of triples
+ * per property. Unlike histograms, which describe each property independently, they capture
+ * which properties co-occur and are used to estimate star joins like
+ * { ?s :p1 ?o1 . ?s :p2 ?o2 }.
+ * 
+ * The generator collects them with a {@link Collector} and stores the most frequent sets as
+ * stats:characteristicSets of the dataset (see {@link RDFStatsUpdatableModel#updateCharacteristicSets(RDFStatsDataset, CharacteristicSets)}).
+ * Collecting them is disabled by default (see {@link RDFStatsConfiguration#getMaxCharacteristicSets()}) because the
+ * collector holds the properties of every subject in memory until the dataset has been scanned.
+ * Instances are immutable.
+ * 
+ * @author dorgon
+ *
+ */
+public class CharacteristicSets {
+	/** version of the binary encoding */
+	private static final byte FORMAT_VERSION = 2;
+	
+	/** sorted properties of each set */
+	private final String[][] properties;
+	
+	/** number of subjects of each set */
+	private final int[] subjects;
+	
+	/** number of triples of each property of each set, in the order of properties */
+	private final long[][] occurrences;
+	
+	/** number of subjects of each set merged from rare subsets, they may lack some properties of the set */
+	private final int[] mergedSubjects;
+	
+	/** maximum number of triples of each property of a single subject of each set, in the order of properties */
+	private final int[][] maxOccurrences;
+	
+	/** subjects of rare sets which have been dropped */
+	private final int droppedSubjects;
+	
+	/** property => maximum number of triples of a single subject of the dropped sets, null if unknown */
+	private final Map<String, Integer> droppedMaxOccurrences;
+	
+	CharacteristicSets(String[][] properties, int[] subjects, long[][] occurrences, int[] mergedSubjects, int[][] maxOccurrences,
+			int droppedSubjects, Map<String, Integer> droppedMaxOccurrences) {
+		this.properties = properties;
+		this.subjects = subjects;
+		this.occurrences = occurrences;
+		this.mergedSubjects = mergedSubjects;
+		this.maxOccurrences = maxOccurrences;
+		this.droppedSubjects = droppedSubjects;
+		this.droppedMaxOccurrences = droppedMaxOccurrences;
+	}
+	
+	/**
+	 * @return number of characteristic sets
+	 */
+	public int size() {
+		return subjects.length;
+	}
+	
+	/**
+	 * @return number of subjects described by the sets, including the dropped ones
+	 */
+	public int getSubjectsTotal() {
+		int total = droppedSubjects;
+		for (int s : subjects)
+			total += s;
+		return total;
+	}
+	
+	/**
+	 * @return number of subjects of rare sets which are neither stored nor merged into a stored superset
+	 */
+	public int getDroppedSubjects() {
+		return droppedSubjects;
+	}
+	
+	/**
+	 * @param i
+	 * @return the properties of set i
+	 */
+	public List<String> getProperties(int i) {
+		return Collections.unmodifiableList(Arrays.asList(properties[i]));
+	}
+	
+	/**
+	 * @param i
+	 * @return number of subjects of set i
+	 */
+	public int getSubjects(int i) {
+		return subjects[i];
+	}
+	
+	/**
+	 * @param i
+	 * @param p
+	 * @return number of triples with property p of the subjects of set i, 0 if p is not part of the set
+	 */
+	public long getOccurrences(int i, String p) {
+		int idx = Arrays.binarySearch(properties[i], p);
+		return (idx >= 0) ? occurrences[i][idx] : 0;
+	}
+	
+	/**
+	 * @param i
+	 * @return number of subjects merged into set i from rare subsets
+	 */
+	public int getMergedSubjects(int i) {
+		return mergedSubjects[i];
+	}
+	
+	/**
+	 * @param i
+	 * @param p
+	 * @return maximum number of triples with property p of a single subject of set i, 0 if p is not part of the set
+	 */
+	public int getMaxOccurrences(int i, String p) {
+		int idx = Arrays.binarySearch(properties[i], p);
+		return (idx >= 0) ? maxOccurrences[i][idx] : 0;
+	}
+	
+	/**
+	 * @param props
+	 * @return number of subjects having at least all properties of props
+	 */
+	public long getSubjects(Collection<String> props) {
+		long n = 0;
+		for (int i = 0; i < subjects.length; i++)
+			if (containsAll(i, props))
+				n += subjects[i];
+		return n;
+	}
+	
+	/**
+	 * Estimates the solutions of a star pattern { ?s p1 ?o1 . ?s p2 ?o2 . ... } with variable objects:
+	 * for each set containing all properties, the subjects multiplied by the average number of triples
+	 * of each property per subject.
+	 * 
+	 * @param props the properties of the triple patterns, a property used by several patterns is listed several times
+	 * @return expected number of solutions, 0 if no set contains all properties
+	 */
+	public double estimateStar(List<String> props) {
+		double n = 0;
+		for (int i = 0; i < subjects.length; i++) {
+			if (!containsAll(i, props))
+				continue;
+			
+			double card = subjects[i];
+			for (String p : props)
+				card *= (double) getOccurrences(i, p) / subjects[i];
+			n += card;
+		}
+		return n;
+	}
+	
+	/**
+	 * Bounds the solutions of a star pattern { ?s p1 ?o1 . ?s p2 ?o2 . ... } with distinct variable objects.
+	 * Each subject of a set containing all properties which has not been merged from a rare subset has at least
+	 * one solution. No subject has more solutions than the product of the maximum number of triples of each
+	 * property, which also bounds the dropped subjects.
+	 * 
+	 * @param props the properties of the triple patterns, a property used by several patterns is listed several times
+	 * @return { minimum, maximum } number of solutions, the maximum is Double.POSITIVE_INFINITY if the dropped
+	 * 	subjects can't be bounded
+	 */
+	public double[] boundStar(List<String> props) {
+		double min = 0, max = 0;
+		for (int i = 0; i < subjects.length; i++) {
+			if (!containsAll(i, props))
+				continue;
+			
+			min += subjects[i] - mergedSubjects[i];
+			double card = subjects[i];
+			for (String p : props)
+				card *= getMaxOccurrences(i, p);
+			max += card;
+		}
+		
+		if (droppedSubjects > 0) {
+			if (droppedMaxOccurrences == null)
+				return new double[] { min, Double.POSITIVE_INFINITY };
+			double card = droppedSubjects;
+			for (String p : props) {
+				Integer m = droppedMaxOccurrences.get(p);
+				card *= (m != null) ? m : 0;
+			}
+			max += card;
+		}
+		return new double[] { min, max };
+	}
+	
+	private boolean containsAll(int i, Collection<String> props) {
+		for (String p : props)
+			if (Arrays.binarySearch(properties[i], p) < 0)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * @return base64-encoded binary representation
+	 */
+	public String encode() {
+		try {
+			// property dictionary, each property URI is written once
+			Map<String, Integer> dict = new LinkedHashMap<String, Integer>();
+			for (String[] props : properties)
+				for (String p : props)
+					if (!dict.containsKey(p))
+						dict.put(p, dict.size());
+			Map<String, Integer> droppedMax = (droppedMaxOccurrences != null) ? droppedMaxOccurrences : Collections.<String, Integer>emptyMap();
+			for (String p : droppedMax.keySet())
+				if (!dict.containsKey(p))
+					dict.put(p, dict.size());
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt(droppedSubjects);
+			out.writeInt(dict.size());
+			for (String p : dict.keySet())
+				out.writeUTF(p);
+			out.writeInt(subjects.length);
+			for (int i = 0; i < subjects.length; i++) {
+				out.writeInt(subjects[i]);
+				out.writeInt(mergedSubjects[i]);
+				out.writeInt(properties[i].length);
+				for (int j = 0; j < properties[i].length; j++) {
+					out.writeInt(dict.get(properties[i][j]));
+					out.writeLong(occurrences[i][j]);
+					out.writeInt(maxOccurrences[i][j]);
+				}
+			}
+			out.writeBoolean(droppedMaxOccurrences != null);
+			out.writeInt(droppedMax.size());
+			for (Map.Entry<String, Integer> e : droppedMax.entrySet()) {
+				out.writeInt(dict.get(e.getKey()));
+				out.writeInt(e.getValue());
+			}
+			out.flush();
+			return Base64.encodeBytes(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown by a ByteArrayOutputStream
+		}
+	}
+	
+	/**
+	 * Sets of format version 1 don't record merged subjects and maximum occurrences, they are decoded with
+	 * all subjects considered merged, the total occurrences as maximum and unbounded dropped subjects.
+	 * 
+	 * @param encoded see {@link #encode()}
+	 * @return the decoded characteristic sets
+	 * @throws RDFStatsModelException if encoded is malformed or of an unknown version
+	 */
+	public static CharacteristicSets decode(String encoded) throws RDFStatsModelException {
+		try {
+			byte[] b = Base64.decode(encoded);
+			if (b == null)
+				throw new RDFStatsModelException("Malformed base64-encoded characteristic sets.");
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+			byte version = in.readByte();
+			if (version != FORMAT_VERSION && version != 1)
+				throw new RDFStatsModelException("Unknown characteristic sets format version " + version + ".");
+			
+			int dropped = in.readInt();
+			String[] dict = new String[in.readInt()];
+			for (int i = 0; i < dict.length; i++)
+				dict[i] = in.readUTF();
+			
+			int n = in.readInt();
+			String[][] properties = new String[n][];
+			int[] subjects = new int[n];
+			long[][] occurrences = new long[n][];
+			int[] merged = new int[n];
+			int[][] maxOccurrences = new int[n][];
+			for (int i = 0; i < n; i++) {
+				subjects[i] = in.readInt();
+				merged[i] = (version > 1) ? in.readInt() : subjects[i];
+				int k = in.readInt();
+				properties[i] = new String[k];
+				occurrences[i] = new long[k];
+				maxOccurrences[i] = new int[k];
+				for (int j = 0; j < k; j++) {
+					properties[i][j] = dict[in.readInt()];
+					occurrences[i][j] = in.readLong();
+					maxOccurrences[i][j] = (version > 1) ? in.readInt() : (int) Math.min(Integer.MAX_VALUE, occurrences[i][j]);
+				}
+			}
+			
+			Map<String, Integer> droppedMax = null;
+			if (version > 1) {
+				boolean known = in.readBoolean();
+				Map<String, Integer> m = new HashMap<String, Integer>();
+				for (int i = in.readInt(); i > 0; i--)
+					m.put(dict[in.readInt()], in.readInt());
+				if (known)
+					droppedMax = m;
+			} else if (dropped == 0)
+				droppedMax = Collections.emptyMap();
+			return new CharacteristicSets(properties, subjects, occurrences, merged, maxOccurrences, dropped, droppedMax);
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Malformed characteristic sets.", e);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new RDFStatsModelException("Malformed characteristic sets.", e);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "CharacteristicSets[sets=" + subjects.length + ", subjects=" + getSubjectsTotal() + "]";
+	}
+	
+	/**
+	 * Collects the properties of each subject during the generator's scans. A collector is not thread-safe,
+	 * parallel scans collect into their own collectors which are merged with {@link #addAll(Collector)}.
+	 * The collector is invalidated if a scan could not see all triples, e.g. because a property failed.
+	 * 
+	 * Memory grows with the number of distinct subjects: each subject is kept with its node and its properties
+	 * with their counts, in the order of 200 bytes per subject plus the node's URI or label.
+	 */
+	public static class Collector {
+		/** subject => properties */
+		private final Map<Node, SubjectProperties> subjects = new HashMap<Node, SubjectProperties>();
+		
+		/** shares the property URI strings of all subjects */
+		private final Map<String, String> names = new HashMap<String, String>();
+		
+		private boolean complete = true;
+		
+		/**
+		 * adds a triple of subject with property p
+		 * @param subject
+		 * @param p
+		 */
+		public void add(Node subject, String p) {
+			if (complete)
+				getProperties(subject).add(intern(p), 1);
+		}
+		
+		/**
+		 * adds the subjects collected by other, e.g. by the scan of another property,
+		 * and invalidates this collector if other has been invalidated
+		 * @param other
+		 */
+		public void addAll(Collector other) {
+			if (!other.complete) {
+				invalidate();
+				return;
+			}
+			if (!complete)
+				return;
+			
+			for (Map.Entry<Node, SubjectProperties> e : other.subjects.entrySet()) {
+				SubjectProperties from = e.getValue();
+				SubjectProperties props = getProperties(e.getKey());
+				for (int i = 0; i < from.size; i++)
+					props.add(intern(from.properties[i]), from.counts[i]);
+			}
+		}
+		
+		private String intern(String p) {
+			String name = names.get(p);
+			if (name == null) {
+				name = p;
+				names.put(p, p);
+			}
+			return name;
+		}
+		
+		private SubjectProperties getProperties(Node subject) {
+			SubjectProperties props = subjects.get(subject);
+			if (props == null) {
+				props = new SubjectProperties();
+				subjects.put(subject, props);
+			}
+			return props;
+		}
+		
+		/**
+		 * marks the collected sets as incomplete, they must not be stored then
+		 */
+		public void invalidate() {
+			complete = false;
+			subjects.clear();
+		}
+		
+		/**
+		 * @return false if the collector has been invalidated
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+		
+		/**
+		 * Aggregates the subjects into characteristic sets. If there are more than maxSets, the most
+		 * frequent ones are kept and each other set is merged into the smallest kept superset, or dropped
+		 * if there is none, so estimates for subsets of a merged set still count its subjects.
+		 * 
+		 * @param maxSets
+		 * @return the characteristic sets
+		 */
+		public CharacteristicSets getCharacteristicSets(int maxSets) {
+			Map<List<String>, Aggregate> sets = new HashMap<List<String>, Aggregate>();
+			for (SubjectProperties sp : subjects.values()) {
+				String[] props = Arrays.copyOf(sp.properties, sp.size);
+				int[] counts = Arrays.copyOf(sp.counts, sp.size);
+				
+				// insertion sort by property URI, subjects usually have few properties
+				for (int i = 1; i < props.length; i++) {
+					String p = props[i];
+					int c = counts[i];
+					int j = i - 1;
+					for (; j >= 0 && props[j].compareTo(p) > 0; j--) {
+						props[j + 1] = props[j];
+						counts[j + 1] = counts[j];
+					}
+					props[j + 1] = p;
+					counts[j + 1] = c;
+				}
+				
+				List<String> key = Arrays.asList(props);
+				Aggregate a = sets.get(key);
+				if (a == null) {
+					a = new Aggregate(props);
+					sets.put(key, a);
+				}
+				a.subjects++;
+				for (int i = 0; i < counts.length; i++) {
+					a.occurrences[i] += counts[i];
+					a.maxOccurrences[i] = Math.max(a.maxOccurrences[i], counts[i]);
+				}
+			}
+			
+			List<Aggregate> sorted = new ArrayList<Aggregate>(sets.values());
+			Collections.sort(sorted, new Comparator<Aggregate>() {
+				public int compare(Aggregate a, Aggregate b) {
+					if (a.subjects != b.subjects)
+						return (a.subjects > b.subjects) ? -1 : 1;
+					if (a.properties.length != b.properties.length)
+						return b.properties.length - a.properties.length;
+					for (int i = 0; i < a.properties.length; i++) { // deterministic order of the encoding
+						int c = a.properties[i].compareTo(b.properties[i]);
+						if (c != 0)
+							return c;
+					}
+					return 0;
+				}
+			});
+			
+			List<Aggregate> kept = (sorted.size() > maxSets) ? sorted.subList(0, maxSets) : sorted;
+			int dropped = 0;
+			Map<String, Integer> droppedMax = new HashMap<String, Integer>();
+			for (int i = kept.size(); i < sorted.size(); i++) {
+				Aggregate rare = sorted.get(i);
+				Aggregate superset = null;
+				for (Aggregate a : kept)
+					if (a.properties.length > rare.properties.length && a.containsAll(rare.properties) &&
+						(superset == null || a.properties.length < superset.properties.length))
+						superset = a;
+				
+				if (superset != null)
+					superset.merge(rare);
+				else {
+					dropped += rare.subjects;
+					for (int j = 0; j < rare.properties.length; j++) {
+						Integer m = droppedMax.get(rare.properties[j]);
+						droppedMax.put(rare.properties[j], (m != null) ? Math.max(m, rare.maxOccurrences[j]) : rare.maxOccurrences[j]);
+					}
+				}
+			}
+			
+			String[][] properties = new String[kept.size()][];
+			int[] subjects = new int[kept.size()];
+			long[][] occurrences = new long[kept.size()][];
+			int[] merged = new int[kept.size()];
+			int[][] maxOccurrences = new int[kept.size()][];
+			for (int i = 0; i < kept.size(); i++) {
+				Aggregate a = kept.get(i);
+				properties[i] = a.properties;
+				subjects[i] = a.subjects;
+				occurrences[i] = a.occurrences;
+				merged[i] = a.merged;
+				maxOccurrences[i] = a.maxOccurrences;
+			}
+			return new CharacteristicSets(properties, subjects, occurrences, merged, maxOccurrences, dropped, droppedMax);
+		}
+	}
+	
+	/**
+	 * properties of a single subject with their number of triples, subjects usually have few properties
+	 */
+	private static final class SubjectProperties {
+		String[] properties = new String[4];
+		int[] counts = new int[4];
+		int size = 0;
+		
+		void add(String p, int count) {
+			for (int i = 0; i < size; i++) {
+				if (properties[i] == p) { // shared by the collector
+					counts[i] += count;
+					return;
+				}
+			}
+			if (size == properties.length) {
+				properties = Arrays.copyOf(properties, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			properties[size] = p;
+			counts[size++] = count;
+		}
+	}
+	
+	/**
+	 * a characteristic set while aggregating
+	 */
+	private static final class Aggregate {
+		final String[] properties;
+		final long[] occurrences;
+		final int[] maxOccurrences;
+		int subjects = 0;
+		int merged = 0;
+		
+		Aggregate(String[] properties) {
+			this.properties = properties;
+			this.occurrences = new long[properties.length];
+			this.maxOccurrences = new int[properties.length];
+		}
+		
+		boolean containsAll(String[] props) {
+			for (String p : props)
+				if (Arrays.binarySearch(properties, p) < 0)
+					return false;
+			return true;
+		}
+		
+		void merge(Aggregate subset) {
+			subjects += subset.subjects;
+			merged += subset.subjects;
+			for (int i = 0; i < subset.properties.length; i++) {
+				int idx = Arrays.binarySearch(properties, subset.properties[i]);
+				occurrences[idx] += subset.occurrences[i];
+				maxOccurrences[idx] = Math.max(maxOccurrences[idx], subset.maxOccurrences[i]);
+			}
+		}
+	}
+}
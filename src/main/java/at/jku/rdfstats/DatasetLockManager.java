@@ -0,0 +1,215 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Exclusive per-dataset write locks of {@link RDFStatsUpdatableModel}s. Each lock is a fair semaphore, so waiting
+ * threads are granted the lock in FIFO order and woken up immediately when it is returned. Locks are identified by
+ * the source URL of the dataset, the lock for all statistics (source URL null) is independent of the dataset locks.
+ * 
+ * A lock is not reentrant and may be returned by another thread than the owner (which the updatable model reports
+ * as a warning). All updatable models wrapping the same Jena model share one lock manager, see {@link #forModel(Model)}.
+ * 
+ * @author dorgon
+ *
+ */
+public class DatasetLockManager {
+	/** key of the lock for all statistics */
+	private static final String ALL = "";
+	
+	/** lock managers of wrapped models */
+	private static final Map<Model, DatasetLockManager> managers = new WeakHashMap<Model, DatasetLockManager>();
+	
+	private final Map<String, DatasetLock> locks = new ConcurrentHashMap<String, DatasetLock>();
+	
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong contended = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	
+	/**
+	 * @param model
+	 * @return the lock manager shared by all updatable models wrapping model
+	 */
+	public static DatasetLockManager forModel(Model model) {
+		synchronized (managers) {
+			DatasetLockManager m = managers.get(model);
+			if (m == null) {
+				m = new DatasetLockManager();
+				managers.put(model, m);
+			}
+			return m;
+		}
+	}
+	
+	/**
+	 * blocks until the lock for sourceUrl is acquired, interrupts are deferred until then
+	 * 
+	 * @param sourceUrl or null for all statistics
+	 */
+	public void lock(String sourceUrl) {
+		DatasetLock l = getLock(sourceUrl);
+		long start = System.nanoTime();
+		boolean immediate = l.isFree();
+		l.permit.acquireUninterruptibly();
+		acquired(l, immediate, start);
+	}
+	
+	/**
+	 * @param sourceUrl or null for all statistics
+	 * @param timeoutMillis maximum time to wait, 0 to return immediately
+	 * @return true if the lock has been acquired, false if it timed out or the thread has been interrupted
+	 */
+	public boolean tryLock(String sourceUrl, long timeoutMillis) {
+		DatasetLock l = getLock(sourceUrl);
+		long start = System.nanoTime();
+		boolean immediate = l.isFree();
+		boolean ok = false;
+		try {
+			ok = l.permit.tryAcquire(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS); // unlike tryAcquire(), respects the queue
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!ok) {
+			timeouts.incrementAndGet();
+			recordWait(System.nanoTime() - start);
+			return false;
+		}
+		acquired(l, immediate, start);
+		return true;
+	}
+	
+	/**
+	 * @param sourceUrl or null for all statistics
+	 * @return true if the lock has been returned, false if it was not locked
+	 */
+	public boolean unlock(String sourceUrl) {
+		DatasetLock l = locks.get(key(sourceUrl));
+		if (l == null)
+			return false;
+		synchronized (l) {
+			if (l.owner == null)
+				return false;
+			l.owner = null;
+		}
+		l.permit.release();
+		return true;
+	}
+	
+	/**
+	 * @param sourceUrl or null for all statistics
+	 * @return the thread holding the lock or null
+	 */
+	public Thread getOwner(String sourceUrl) {
+		DatasetLock l = locks.get(key(sourceUrl));
+		return (l != null) ? l.owner : null;
+	}
+	
+	/**
+	 * @param sourceUrl or null for all statistics
+	 * @return estimated number of threads waiting for the lock
+	 */
+	public int getQueueLength(String sourceUrl) {
+		DatasetLock l = locks.get(key(sourceUrl));
+		return (l != null) ? l.permit.getQueueLength() : 0;
+	}
+	
+	/** @return number of acquired locks */
+	public long getAcquisitionCount() {
+		return acquisitions.get();
+	}
+	
+	/** @return number of acquisitions which had to wait for another owner */
+	public long getContentionCount() {
+		return contended.get();
+	}
+	
+	/** @return number of failed {@link #tryLock(String, long)} calls */
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+	
+	/** @return total time spent waiting for locks in milliseconds, including timed out attempts */
+	public long getTotalWaitMillis() {
+		return waitNanos.get() / 1000000L;
+	}
+	
+	/** @return longest single wait in milliseconds */
+	public long getMaxWaitMillis() {
+		return maxWaitNanos.get() / 1000000L;
+	}
+	
+	/**
+	 * adds time spent waiting for a lock, e.g. for a cross-process lease, to the metrics
+	 * 
+	 * @param nanos
+	 */
+	public void recordWait(long nanos) {
+		waitNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos));
+	}
+	
+	private void acquired(DatasetLock l, boolean immediate, long start) {
+		synchronized (l) {
+			l.owner = Thread.currentThread();
+		}
+		acquisitions.incrementAndGet();
+		if (!immediate) {
+			contended.incrementAndGet();
+			recordWait(System.nanoTime() - start);
+		}
+	}
+	
+	private DatasetLock getLock(String sourceUrl) {
+		String key = key(sourceUrl);
+		DatasetLock l = locks.get(key);
+		if (l == null) {
+			synchronized (locks) {
+				l = locks.get(key);
+				if (l == null) {
+					l = new DatasetLock();
+					locks.put(key, l);
+				}
+			}
+		}
+		return l;
+	}
+	
+	private static String key(String sourceUrl) {
+		return (sourceUrl != null) ? sourceUrl : ALL;
+	}
+	
+	private static class DatasetLock {
+		final Semaphore permit = new Semaphore(1, true);
+		volatile Thread owner;
+		
+		/** @return true if the lock is available without waiting (used for the metrics only) */
+		boolean isFree() {
+			return permit.availablePermits() > 0 && !permit.hasQueuedThreads();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.hp.hpl.jena.sparql.util.Base64;
+
+/**
+ * Immutable aggregates of a dataset, which are computed once per version of the statistics (see
+ * {@link StatisticsCatalog}) instead of walking all histograms for each call of
+ * {@link GraphStatistics#getSubjectsTotal()}, {@link GraphStatistics#getTriplesTotal()} etc.
+ * 
+ * The generator persists the summary as stats:summary of the dataset (see {@link RDFStatsUpdatableModel#updateSummary(RDFStatsDataset)}),
+ * so loaded statistics answer these calls without decoding any histogram.
+ * 
+ * @author dorgon
+ *
+ */
+public class DatasetSummary {
+	/** version of the binary encoding */
+	private static final byte FORMAT_VERSION = 1;
+	
+	private final Integer anonymousSubjectsTotal;
+	private final Integer uriSubjectsTotal;
+	private int triplesTotal = 0;
+	
+	/** property => { total, distinct } */
+	private final Map<String, int[]> counts;
+	
+	/** property => entropy */
+	private final Map<String, Float> entropies;
+	
+	/**
+	 * @param anonymousSubjectsTotal total of the blank node subject histogram or null if there is none
+	 * @param uriSubjectsTotal total of the URI subject histogram or null if there is none
+	 */
+	DatasetSummary(Integer anonymousSubjectsTotal, Integer uriSubjectsTotal) {
+		this.anonymousSubjectsTotal = anonymousSubjectsTotal;
+		this.uriSubjectsTotal = uriSubjectsTotal;
+		this.counts = new LinkedHashMap<String, int[]>();
+		this.entropies = new LinkedHashMap<String, Float>();
+	}
+	
+	/**
+	 * adds the aggregates of a property, only used while the summary is built
+	 * 
+	 * @param p
+	 * @param total sum of the totals of the property histograms of p
+	 * @param distinct sum of the distinct values of the property histograms of p
+	 * @param entropy see {@link GraphStatistics#getPropertyEntropy(String)}
+	 */
+	void addProperty(String p, int total, int distinct, float entropy) {
+		counts.put(p, new int[] { total, distinct });
+		entropies.put(p, entropy);
+		triplesTotal += total;
+	}
+	
+	/**
+	 * @return the number of distinct subjects or null if a subject histogram is missing
+	 */
+	public Integer getSubjectsTotal() {
+		if (anonymousSubjectsTotal == null || uriSubjectsTotal == null)
+			return null;
+		return anonymousSubjectsTotal + uriSubjectsTotal;
+	}
+	
+	public Integer getAnonymousSubjectsTotal() {
+		return anonymousSubjectsTotal;
+	}
+	
+	public Integer getURISubjectsTotal() {
+		return uriSubjectsTotal;
+	}
+	
+	/**
+	 * @return sum of the totals of all property histograms
+	 */
+	public int getTriplesTotal() {
+		return triplesTotal;
+	}
+	
+	/**
+	 * @return unmodifiable set of the properties
+	 */
+	public Set<String> getProperties() {
+		return Collections.unmodifiableSet(counts.keySet());
+	}
+	
+	/**
+	 * @param p
+	 * @return number of triples with property p or null if p has no histogram
+	 */
+	public Integer getPropertyTotal(String p) {
+		int[] c = counts.get(p);
+		return (c != null) ? c[0] : null;
+	}
+	
+	/**
+	 * @param p
+	 * @return number of distinct values of p (summed over all ranges) or null if p has no histogram
+	 */
+	public Integer getPropertyDistinct(String p) {
+		int[] c = counts.get(p);
+		return (c != null) ? c[1] : null;
+	}
+	
+	/**
+	 * @param p
+	 * @return the entropy of p or null if p has no histogram
+	 */
+	public Float getPropertyEntropy(String p) {
+		return entropies.get(p);
+	}
+	
+	/**
+	 * @return base64-encoded binary representation
+	 */
+	public String encode() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt((anonymousSubjectsTotal != null) ? anonymousSubjectsTotal : -1);
+			out.writeInt((uriSubjectsTotal != null) ? uriSubjectsTotal : -1);
+			out.writeInt(counts.size());
+			for (Map.Entry<String, int[]> e : counts.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue()[0]);
+				out.writeInt(e.getValue()[1]);
+				out.writeFloat(entropies.get(e.getKey()));
+			}
+			out.flush();
+			return Base64.encodeBytes(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown by a ByteArrayOutputStream
+		}
+	}
+	
+	/**
+	 * @param encoded see {@link #encode()}
+	 * @return the decoded summary
+	 * @throws RDFStatsModelException if encoded is malformed or of an unknown version
+	 */
+	public static DatasetSummary decode(String encoded) throws RDFStatsModelException {
+		try {
+			byte[] b = Base64.decode(encoded);
+			if (b == null)
+				throw new RDFStatsModelException("Malformed base64-encoded dataset summary.");
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+			byte version = in.readByte();
+			if (version != FORMAT_VERSION)
+				throw new RDFStatsModelException("Unknown dataset summary format version " + version + ".");
+			
+			int anonymous = in.readInt();
+			int uri = in.readInt();
+			DatasetSummary s = new DatasetSummary((anonymous >= 0) ? anonymous : null, (uri >= 0) ? uri : null);
+			int n = in.readInt();
+			for (int i = 0; i < n; i++)
+				s.addProperty(in.readUTF(), in.readInt(), in.readInt(), in.readFloat());
+			return s;
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Malformed dataset summary.", e);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "DatasetSummary[subjects=" + getSubjectsTotal() + ", triples=" + triplesTotal + ", properties=" + counts.size() + "]";
+	}
+}
@@ -15,12 +15,27 @@
  */
 package at.jku.rdfstats;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import at.jku.rdfstats.generator.RDFStatsGeneratorDoc;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
 import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
-import at.jku.rdfstats.generator.RDFStatsGeneratorSPARQL;
 
 import com.hp.hpl.jena.rdf.model.Model;
 
@@ -28,12 +43,21 @@ import com.hp.hpl.jena.rdf.model.Model;
  * @author dorgon
  *
  * Generates statistics for multiple SPARQL endpoints and RDF documents
- * (uris specified in the configuration) at once into a single model
+ * (uris specified in the configuration) at once into a single model.
+ * 
+ * Up to config.getConcurrentSources() sources are processed concurrently, but at most
+ * config.getConcurrentSourcesPerHost() of the same host. Sources are only submitted to the
+ * worker pool when their host has a free slot, so workers never wait for a busy host while
+ * sources of other hosts are pending. Each source is generated by its own generator holding
+ * the exclusive write lock for its dataset.
  */
 public class GeneratorMultiple {
 	private static final Log log = LogFactory.getLog(GeneratorMultiple.class);
 	protected final RDFStatsConfiguration config;
 	
+	/** results of the last run in the order of completion */
+	private final List<SourceResult> results = Collections.synchronizedList(new ArrayList<SourceResult>());
+	
 	public GeneratorMultiple(RDFStatsConfiguration config) {
 		this.config = config;
 	}
@@ -45,36 +69,227 @@ public class GeneratorMultiple {
 	 */
 	public Model generate() throws GeneratorException {
 		Model stats = config.getStatsModel(); // generate into configured assembler model
+		results.clear();
+		
+		// endpoints first, then documents, duplicates removed (a dataset must only be generated once at a time)
+		Map<String, Boolean> sources = new LinkedHashMap<String, Boolean>();
+		for (String endpointUri : new LinkedHashSet<String>(config.getEndpoints()))
+			sources.put(endpointUri, true);
+		for (String docUrl : new LinkedHashSet<String>(config.getDocumentURLs()))
+			if (!sources.containsKey(docUrl))
+				sources.put(docUrl, false);
+		
+		if (sources.isEmpty())
+			return stats;
+		
+		int threads = Math.min(config.getConcurrentSources(), sources.size());
+		if (log.isInfoEnabled() && threads > 1)
+			log.info("Processing " + sources.size() + " RDF sources using " + threads + " concurrent generators...");
 
-		// handle endpoints
-		for (String endpointUri : config.getEndpoints()) {
-			try {
-				RDFStatsGeneratorSPARQL generator = RDFStatsGeneratorFactory.generatorSPARQL(config, endpointUri);
-				generator.generate();
+		long start = System.currentTimeMillis();
+		Map<String, LinkedList<String>> pending = groupByHost(sources.keySet());
+		Map<String, Integer> running = new HashMap<String, Integer>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<SourceResult> completion = new ExecutorCompletionService<SourceResult>(pool);
+		try {
+			int active = 0;
+			for (int i=1; i<=sources.size(); i++) {
+				active += submitReady(pending, running, sources, completion, threads - active);
 				
-				// track times
-		    	generator.printRetrievalDetails();
-			} catch (Exception e) {
-				log.error("Error occured while precssing endpoint <" + endpointUri + ">... skipped.", e);
-				continue; // resume with next endpoint on errors
+				SourceResult r;
+				try {
+					r = completion.take().get();
+				} catch (InterruptedException e) {
+					throw new GeneratorException("Interrupted while generating statistics.", e);
+				} catch (ExecutionException e) {
+					throw new GeneratorException("Unexpected error while generating statistics.", e.getCause());
+				}
+				active--;
+				String host = getHost(r.getSourceUrl());
+				if (host != null)
+					running.put(host, running.get(host) - 1);
+				
+				results.add(r);
+				if (log.isInfoEnabled())
+					log.info("[" + i + "/" + sources.size() + "] " + r);
 			}
+		} finally {
+			pool.shutdownNow();
 		}
+		
+		if (log.isInfoEnabled())
+			log.info(getReport(System.currentTimeMillis() - start));
+		
+		return stats;
+	}
 
-		// handle documents
-		for (String docUrl : config.getDocumentURLs()) {
+	/**
+	 * @return results of the last run in the order of completion
+	 */
+	public List<SourceResult> getResults() {
+		return new ArrayList<SourceResult>(results);
+	}
+	
+	/**
+	 * @param wallTime
+	 * @return aggregated progress and timing report of the last run
+	 */
+	protected String getReport(long wallTime) {
+		int failed = 0;
+		long total = 0;
+		SourceResult slowest = null;
+		StringBuilder sb = new StringBuilder();
+		
+		for (SourceResult r : getResults()) {
+			if (!r.isSuccessful())
+				failed++;
+			total += r.getDuration();
+			if (slowest == null || r.getDuration() > slowest.getDuration())
+				slowest = r;
+			sb.append("\n\t").append(r);
+		}
+		
+		return "Processed " + results.size() + " RDF sources (" + failed + " failed) in " + wallTime + " ms, " +
+			"sum of generator times " + total + " ms" + ((slowest != null) ? ", slowest: <" + slowest.getSourceUrl() + ">" : "") + "." + sb;
+	}
+	
+	/**
+	 * submits pending sources round-robin by host, skipping hosts which already process
+	 * config.getConcurrentSourcesPerHost() sources
+	 * 
+	 * @param pending host => sources not submitted yet
+	 * @param running host => sources submitted and not finished yet
+	 * @param sources source => true for SPARQL endpoints
+	 * @param completion
+	 * @param free number of idle workers
+	 * @return number of submitted sources
+	 */
+	private int submitReady(Map<String, LinkedList<String>> pending, Map<String, Integer> running, Map<String, Boolean> sources,
+			CompletionService<SourceResult> completion, int free) {
+		int submitted = 0;
+		boolean more = true;
+		while (more && submitted < free) {
+			more = false;
+			for (Map.Entry<String, LinkedList<String>> e : pending.entrySet()) {
+				String host = e.getKey();
+				Integer n = (host != null) ? running.get(host) : null;
+				if (e.getValue().isEmpty() || (n != null && n >= config.getConcurrentSourcesPerHost()))
+					continue;
+				
+				String url = e.getValue().removeFirst();
+				completion.submit(new SourceTask(url, sources.get(url)));
+				if (host != null)
+					running.put(host, (n != null) ? n + 1 : 1);
+				more = true;
+				if (++submitted == free)
+					break;
+			}
+		}
+		return submitted;
+	}
+	
+	/**
+	 * @param urls
+	 * @return host => urls in their original order, local files and unparsable URLs are grouped under null
+	 */
+	private static Map<String, LinkedList<String>> groupByHost(Iterable<String> urls) {
+		Map<String, LinkedList<String>> byHost = new LinkedHashMap<String, LinkedList<String>>();
+		for (String url : urls) {
+			String host = getHost(url);
+			LinkedList<String> l = byHost.get(host);
+			if (l == null) {
+				l = new LinkedList<String>();
+				byHost.put(host, l);
+			}
+			l.add(url);
+		}
+		return byHost;
+	}
+	
+	/**
+	 * @param url
+	 * @return host name (lower case) or null for local files and unparsable URLs (not limited)
+	 */
+	private static String getHost(String url) {
+		try {
+			String host = new URI(url).getHost();
+			return (host != null) ? host.toLowerCase() : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * generates the statistics of a single RDF source, errors are logged and recorded in the result
+	 */
+	private class SourceTask implements Callable<SourceResult> {
+		private final String url;
+		private final boolean endpoint;
+		
+		SourceTask(String url, boolean endpoint) {
+			this.url = url;
+			this.endpoint = endpoint;
+		}
+		
+		public SourceResult call() throws Exception {
+			long start = System.currentTimeMillis();
 			try {
-				RDFStatsGeneratorDoc generator = RDFStatsGeneratorFactory.generatorDocument(config, docUrl);
+				RDFStatsGeneratorBase generator = (endpoint) ?
+					RDFStatsGeneratorFactory.generatorSPARQL(config, url) :
+					RDFStatsGeneratorFactory.generatorDocument(config, url);
 				generator.generate();
 				
 				// track times
 		    	generator.printRetrievalDetails();
+		    	return new SourceResult(url, endpoint, System.currentTimeMillis() - start, null);
 			} catch (Exception e) {
-				log.error("Error occured while precssing document <" + docUrl + ">... skipped.", e);
-				continue; // resume with next document on errors
+				log.error("Error occured while precssing " + ((endpoint) ? "endpoint" : "document") + " <" + url + ">... skipped.", e);
+				return new SourceResult(url, endpoint, System.currentTimeMillis() - start, e); // resume with next source on errors
 			}
 		}
-
-		return stats;
 	}
-
+	
+	/**
+	 * outcome and timing of a single RDF source
+	 */
+	public static class SourceResult {
+		private final String sourceUrl;
+		private final boolean endpoint;
+		private final long duration;
+		private final Exception error;
+		
+		public SourceResult(String sourceUrl, boolean endpoint, long duration, Exception error) {
+			this.sourceUrl = sourceUrl;
+			this.endpoint = endpoint;
+			this.duration = duration;
+			this.error = error;
+		}
+		
+		public String getSourceUrl() {
+			return sourceUrl;
+		}
+		
+		public boolean isEndpoint() {
+			return endpoint;
+		}
+		
+		/** @return generation time in milliseconds */
+		public long getDuration() {
+			return duration;
+		}
+		
+		/** @return the exception if generation failed, null otherwise */
+		public Exception getError() {
+			return error;
+		}
+		
+		public boolean isSuccessful() {
+			return error == null;
+		}
+		
+		@Override
+		public String toString() {
+			return ((endpoint) ? "Endpoint" : "Document") + " <" + sourceUrl + "> " + ((error == null) ? "finished" : "FAILED") + " after " + duration + " ms";
+		}
+	}
 }
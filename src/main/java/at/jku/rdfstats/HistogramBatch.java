@@ -0,0 +1,93 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import at.jku.rdfstats.HistogramCache.Key;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Collects histogram upserts for a dataset, which are applied by {@link #commit()} in a single Jena critical
+ * section and, if supported by the wrapped model, a single transaction, see {@link RDFStatsUpdatableModel#createBatch(RDFStatsDataset)}.
+ * Existing items are resolved through the statistics catalog and all statements are added and removed in bulk.
+ * 
+ * Adding a histogram twice replaces the previous one. A batch is not thread-safe.
+ * 
+ * @author dorgon
+ *
+ */
+public class HistogramBatch {
+	private final RDFStatsUpdatableModelImpl stats;
+	private final RDFStatsDataset dataset;
+	
+	/** (null, property or null for subject histograms, range) => base64-encoded histogram */
+	private Map<Key, String> histograms = new LinkedHashMap<Key, String>();
+	
+	/**
+	 * @param stats
+	 * @param dataset
+	 */
+	HistogramBatch(RDFStatsUpdatableModelImpl stats, RDFStatsDataset dataset) {
+		this.stats = stats;
+		this.dataset = dataset;
+	}
+
+	/**
+	 * @param p
+	 * @param rangeUri
+	 * @param encodedHistogram
+	 */
+	public void addPropertyHistogram(String p, String rangeUri, String encodedHistogram) {
+		histograms.put(new Key(null, p, rangeUri), encodedHistogram);
+	}
+	
+	/**
+	 * @param blankNodes
+	 * @param encodedHistogram
+	 */
+	public void addSubjectHistogram(boolean blankNodes, String encodedHistogram) {
+		String range = (blankNodes) ? Stats.blankNode.getURI() : RDFS.Resource.getURI();
+		histograms.put(new Key(null, null, range), encodedHistogram);
+	}
+	
+	/**
+	 * applies and clears the batch
+	 * requires exclusive write lock!
+	 * 
+	 * @return the number of new histogram items, the others have been updated
+	 * @throws RDFStatsModelException
+	 */
+	public int commit() throws RDFStatsModelException {
+		Map<Key, String> h = histograms;
+		histograms = new LinkedHashMap<Key, String>();
+		return stats.applyBatch(dataset, h);
+	}
+	
+	/**
+	 * @return the number of pending histograms
+	 */
+	public int size() {
+		return histograms.size();
+	}
+	
+	public RDFStatsDataset getDataset() {
+		return dataset;
+	}
+}
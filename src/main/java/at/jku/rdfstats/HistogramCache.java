@@ -0,0 +1,331 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.jku.rdfstats.hist.Histogram;
+
+/**
+ * Bounded cache for decoded histograms, keyed by (source URL, property, range).
+ * 
+ * The cache is split into segments with separate locks, so concurrent readers only contend if they access the
+ * same segment. Each segment evicts its least recently used histograms if the weight of its entries, which
+ * estimates the footprint of the decoded histograms in bytes, exceeds its share of the maximum weight.
+ * 
+ * Entries may be tagged with the version of the encoding they have been decoded from (see
+ * {@link StatisticsCatalog#getVersion(com.hp.hpl.jena.rdf.model.Resource)}), so a reader of an older or newer
+ * catalog snapshot never gets a histogram of another snapshot.
+ * 
+ * @author dorgon
+ *
+ */
+public class HistogramCache {
+	/** default maximum weight (32 MB) */
+	public static final long DEFAULT_MAX_WEIGHT = 32L << 20;
+	
+	/** default number of segments, must be a power of two */
+	public static final int DEFAULT_SEGMENTS = 16;
+	
+	/** estimated object overhead of a decoded histogram and its cache entry in bytes */
+	private static final int ENTRY_OVERHEAD = 128;
+	
+	private final Segment[] segments;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	public HistogramCache() {
+		this(DEFAULT_MAX_WEIGHT, DEFAULT_SEGMENTS);
+	}
+	
+	/**
+	 * @param maxWeight maximum total weight (estimated bytes)
+	 * @param numSegments number of lock stripes, rounded up to a power of two
+	 */
+	public HistogramCache(long maxWeight, int numSegments) {
+		int n = 1;
+		while (n < numSegments) n <<= 1;
+		
+		segments = new Segment[n];
+		for (int i = 0; i < n; i++)
+			segments[i] = new Segment(Math.max(1, maxWeight / n));
+	}
+	
+	/**
+	 * @param encoded base64-encoded histogram
+	 * @return estimated footprint of the decoded histogram in bytes: the bin data and labels roughly
+	 * take twice the space of the binary encoding as Java objects
+	 */
+	public static long weigh(String encoded) {
+		return weigh(encoded.length() / 4 * 3);
+	}
+	
+	/**
+	 * @param encodedLength length of the binary encoding
+	 * @return see {@link #weigh(String)}
+	 */
+	public static long weigh(int encodedLength) {
+		return ENTRY_OVERHEAD + encodedLength * 2L;
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @return the cached histogram or null
+	 */
+	public Histogram<?> get(String sourceUrl, String p, String rangeUri) {
+		return get(sourceUrl, p, rangeUri, null);
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @param version version of the encoding or null to accept any version
+	 * @return the cached histogram or null if not cached or decoded from another version
+	 */
+	public Histogram<?> get(String sourceUrl, String p, String rangeUri, Object version) {
+		Key key = new Key(sourceUrl, p, rangeUri);
+		Histogram<?> h = segmentFor(key).get(key, version);
+		if (h != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return h;
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @param h
+	 * @param weight estimated footprint of h, see {@link #weigh(String)}
+	 */
+	public void put(String sourceUrl, String p, String rangeUri, Histogram<?> h, long weight) {
+		put(sourceUrl, p, rangeUri, h, weight, null);
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @param h
+	 * @param weight estimated footprint of h, see {@link #weigh(String)}
+	 * @param version version of the encoding h has been decoded from or null
+	 */
+	public void put(String sourceUrl, String p, String rangeUri, Histogram<?> h, long weight, Object version) {
+		Key key = new Key(sourceUrl, p, rangeUri);
+		segmentFor(key).put(key, h, weight, version);
+	}
+	
+	/**
+	 * removes the histogram for sourceUrl and the histogram cached for lookups without source URL
+	 * 
+	 * @param sourceUrl
+	 * @param p
+	 * @param rangeUri
+	 */
+	public void remove(String sourceUrl, String p, String rangeUri) {
+		Key key = new Key(sourceUrl, p, rangeUri);
+		segmentFor(key).remove(key);
+		if (sourceUrl != null) {
+			key = new Key(null, p, rangeUri);
+			segmentFor(key).remove(key);
+		}
+	}
+	
+	/**
+	 * removes all histograms of sourceUrl and all histograms cached for lookups without source URL
+	 * 
+	 * @param sourceUrl
+	 */
+	public void removeSource(String sourceUrl) {
+		for (Segment s : segments)
+			s.removeSource(sourceUrl);
+	}
+	
+	public void clear() {
+		for (Segment s : segments)
+			s.clear();
+	}
+	
+	/**
+	 * @return number of cached histograms
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment s : segments)
+			size += s.size();
+		return size;
+	}
+	
+	/**
+	 * @return total weight of all cached histograms
+	 */
+	public long getWeight() {
+		long weight = 0;
+		for (Segment s : segments)
+			weight += s.getWeight();
+		return weight;
+	}
+	
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "HistogramCache [size=" + size() + ", weight=" + getWeight() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+	
+	private Segment segmentFor(Key key) {
+		int h = key.hash;
+		h ^= (h >>> 16);
+		return segments[h & (segments.length - 1)];
+	}
+	
+	/**
+	 * cache key, compares all components instead of a combined hash code
+	 */
+	static final class Key {
+		final String sourceUrl;
+		final String p;
+		final String rangeUri;
+		final int hash;
+		
+		Key(String sourceUrl, String p, String rangeUri) {
+			this.sourceUrl = sourceUrl;
+			this.p = p;
+			this.rangeUri = rangeUri;
+			int h = (sourceUrl != null) ? sourceUrl.hashCode() : 0;
+			h = 31 * h + ((p != null) ? p.hashCode() : 0);
+			h = 31 * h + ((rangeUri != null) ? rangeUri.hashCode() : 0);
+			this.hash = h;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key o = (Key) obj;
+			return hash == o.hash && equal(sourceUrl, o.sourceUrl) && equal(p, o.p) && equal(rangeUri, o.rangeUri);
+		}
+		
+		private static boolean equal(String a, String b) {
+			return (a == null) ? b == null : a.equals(b);
+		}
+	}
+	
+	private static final class Entry {
+		final Histogram<?> histogram;
+		final long weight;
+		final Object version;
+		
+		Entry(Histogram<?> histogram, long weight, Object version) {
+			this.histogram = histogram;
+			this.weight = weight;
+			this.version = version;
+		}
+	}
+	
+	/**
+	 * LRU map of a single lock stripe
+	 */
+	private final class Segment {
+		private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		private final long maxWeight;
+		private long weight = 0;
+		
+		Segment(long maxWeight) {
+			this.maxWeight = maxWeight;
+		}
+		
+		synchronized Histogram<?> get(Key key, Object version) {
+			Entry e = map.get(key);
+			return (e != null && (version == null || version == e.version)) ? e.histogram : null;
+		}
+		
+		synchronized void put(Key key, Histogram<?> h, long w, Object version) {
+			Entry prev = map.remove(key);
+			if (prev != null)
+				weight -= prev.weight;
+			if (w > maxWeight) { // would evict everything else
+				evictions.incrementAndGet();
+				return;
+			}
+			
+			map.put(key, new Entry(h, w, version));
+			weight += w;
+			
+			Iterator<Entry> it = map.values().iterator();
+			while (weight > maxWeight && it.hasNext()) {
+				weight -= it.next().weight;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		
+		synchronized void remove(Key key) {
+			Entry prev = map.remove(key);
+			if (prev != null)
+				weight -= prev.weight;
+		}
+		
+		synchronized void removeSource(String sourceUrl) {
+			Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Key, Entry> e = it.next();
+				String s = e.getKey().sourceUrl;
+				if (s == null || s.equals(sourceUrl)) {
+					weight -= e.getValue().weight;
+					it.remove();
+				}
+			}
+		}
+		
+		synchronized void clear() {
+			map.clear();
+			weight = 0;
+		}
+		
+		synchronized int size() {
+			return map.size();
+		}
+		
+		synchronized long getWeight() {
+			return weight;
+		}
+	}
+}
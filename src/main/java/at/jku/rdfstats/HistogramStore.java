@@ -0,0 +1,474 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import at.jku.rdfstats.HistogramCache.Key;
+import at.jku.rdfstats.hist.Histogram;
+import at.jku.rdfstats.hist.builder.HistogramBuilderException;
+import at.jku.rdfstats.hist.builder.HistogramCodec;
+
+/**
+ * Sidecar file for encoded histograms, used by {@link RDFStatsModelFactory#create(String, String, File)}.
+ * The SCOVO items stay in the RDF model, but their payloads are kept in an append-only binary file
+ * which is memory-mapped read-only, so histograms are viewed directly from the mapping (and the page
+ * cache shared by all processes mapping the same file) instead of being parsed into the RDF graph.
+ * 
+ * File layout: a header (magic, format version) followed by records
+ * [int length][byte kind][string sourceUrl][boolean hasProperty][string property][string range][payload],
+ * where strings are UTF-8 prefixed by an unsigned short length and length counts all bytes after the length field. Later records for the same key supersede earlier
+ * ones, a record of kind REMOVE deletes the key. Opening the store only scans the record headers to build
+ * the offset index; an incomplete trailing record of an interrupted append is ignored and overwritten.
+ * 
+ * Appends hold an exclusive lock on the file, so several processes may append to the same store: the
+ * appending process first indexes the records appended by others and then writes at the end of the file.
+ * File locks are held on behalf of the whole JVM, hence a process must not open the same file twice.
+ * {@link #compact()} replaces the file and requires exclusive use of the store.
+ * 
+ * @author dorgon
+ *
+ */
+public class HistogramStore {
+	private static final Log log = LogFactory.getLog(HistogramStore.class);
+
+	/** "RSHS" */
+	private static final int MAGIC = 0x52534853;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	
+	private static final byte KIND_PUT = 1;
+	private static final byte KIND_REMOVE = 0;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	
+	/** key => payload offset and length */
+	private final Map<Key, long[]> index = new ConcurrentHashMap<Key, long[]>();
+	
+	/** end of the last complete record indexed so far */
+	private long end;
+	
+	/** read-only mapping of [0, mapped.capacity()), replaced when records beyond it are accessed */
+	private volatile MappedByteBuffer mapped;
+	
+	/** bytes occupied by superseded and removed records */
+	private long garbage = 0;
+	
+	/**
+	 * opens or creates the store
+	 * 
+	 * @param file
+	 * @throws RDFStatsModelException
+	 */
+	public HistogramStore(File file) throws RDFStatsModelException {
+		this.file = file;
+		try {
+			open();
+			if (log.isDebugEnabled())
+				log.debug("Opened histogram store " + file + " with " + index.size() + " histograms.");
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Failed to open histogram store " + file + ".", e);
+		}
+	}
+	
+	private void open() throws IOException, RDFStatsModelException {
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+			channel.write(header, 0);
+		}
+		index.clear();
+		garbage = 0;
+		end = HEADER_SIZE;
+		map();
+		
+		if (channel.size() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION) {
+			raf.close();
+			throw new RDFStatsModelException("File " + file + " is not a histogram store of format version " + FORMAT_VERSION + ".");
+		}
+		scan();
+	}
+	
+	/**
+	 * reads records appended by other processes since the store has been opened or refreshed
+	 * 
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized void refresh() throws RDFStatsModelException {
+		try {
+			scan();
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Failed to refresh histogram store " + file + ".", e);
+		}
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @return true if the store has a histogram for the key
+	 */
+	public boolean contains(String sourceUrl, String p, String rangeUri) {
+		return index.containsKey(new Key(sourceUrl, p, rangeUri));
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @return a read-only buffer over the encoded histogram in the mapped file or null
+	 * @throws RDFStatsModelException
+	 */
+	public ByteBuffer get(String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
+		long[] entry = index.get(new Key(sourceUrl, p, rangeUri));
+		if (entry == null)
+			return null;
+		
+		MappedByteBuffer m = mapped;
+		if (entry[0] + entry[1] > m.capacity())
+			m = remap();
+		
+		ByteBuffer buf = m.duplicate();
+		buf.position((int) entry[0]);
+		buf.limit((int) (entry[0] + entry[1]));
+		return buf.slice().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @return a histogram viewing the mapped encoding or null
+	 * @throws RDFStatsModelException
+	 */
+	public Histogram<?> getHistogram(String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
+		ByteBuffer buf = get(sourceUrl, p, rangeUri);
+		if (buf == null)
+			return null;
+		try {
+			return HistogramCodec.view(buf);
+		} catch (HistogramBuilderException e) {
+			throw new RDFStatsModelException("Error decoding histogram from store " + file + ".", e);
+		}
+	}
+	
+	/**
+	 * appends a histogram, superseding a previous one for the same key
+	 * 
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @param encoded binary encoding, see {@link HistogramCodec#encode(Histogram, int)}
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized void put(String sourceUrl, String p, String rangeUri, byte[] encoded) throws RDFStatsModelException {
+		append(KIND_PUT, sourceUrl, p, rangeUri, encoded);
+	}
+	
+	/**
+	 * appends several histograms of a source while holding the file lock once
+	 * 
+	 * @param sourceUrl
+	 * @param keys { property or null for subject histograms, range } for each histogram
+	 * @param encoded binary encodings in the order of keys
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized void putAll(String sourceUrl, List<String[]> keys, List<byte[]> encoded) throws RDFStatsModelException {
+		append(KIND_PUT, sourceUrl, keys, encoded);
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p property or null for subject histograms
+	 * @param rangeUri
+	 * @return true if a histogram has been removed
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized boolean remove(String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
+		if (!contains(sourceUrl, p, rangeUri))
+			return false;
+		append(KIND_REMOVE, sourceUrl, p, rangeUri, new byte[0]);
+		return true;
+	}
+	
+	/**
+	 * removes several histograms of a source while holding the file lock once
+	 * 
+	 * @param sourceUrl
+	 * @param keys { property or null for subject histograms, range } for each histogram
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized void removeAll(String sourceUrl, List<String[]> keys) throws RDFStatsModelException {
+		List<String[]> stored = new ArrayList<String[]>();
+		List<byte[]> payloads = new ArrayList<byte[]>();
+		for (String[] k : keys)
+			if (contains(sourceUrl, k[0], k[1])) {
+				stored.add(k);
+				payloads.add(new byte[0]);
+			}
+		if (!stored.isEmpty())
+			append(KIND_REMOVE, sourceUrl, stored, payloads);
+	}
+	
+	/**
+	 * removes all histograms of sourceUrl
+	 * 
+	 * @param sourceUrl
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized void removeSource(String sourceUrl) throws RDFStatsModelException {
+		List<String[]> keys = new ArrayList<String[]>();
+		List<byte[]> payloads = new ArrayList<byte[]>();
+		for (Key k : index.keySet())
+			if (sourceUrl.equals(k.sourceUrl)) {
+				keys.add(new String[] { k.p, k.rangeUri });
+				payloads.add(new byte[0]);
+			}
+		if (!keys.isEmpty())
+			append(KIND_REMOVE, sourceUrl, keys, payloads);
+	}
+	
+	/**
+	 * @return all keys as { sourceUrl, property, range } triples
+	 */
+	public List<String[]> getKeys() {
+		List<String[]> keys = new ArrayList<String[]>();
+		for (Key k : index.keySet())
+			keys.add(new String[] { k.sourceUrl, k.p, k.rangeUri });
+		return keys;
+	}
+	
+	/**
+	 * @return number of histograms
+	 */
+	public int size() {
+		return index.size();
+	}
+	
+	/**
+	 * @return bytes of superseded and removed records which {@link #compact()} would reclaim
+	 */
+	public synchronized long getGarbage() {
+		return garbage;
+	}
+	
+	/**
+	 * @return the store file
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * rewrites the store with the current histograms only and replaces the file, must not be called while other
+	 * processes append to the file; histograms viewed before keep using the mapping of the replaced file
+	 * 
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized void compact() throws RDFStatsModelException {
+		File tmp = new File(file.getPath() + ".tmp");
+		tmp.delete();
+		HistogramStore target = new HistogramStore(tmp);
+		try {
+			for (Key k : index.keySet()) {
+				ByteBuffer buf = get(k.sourceUrl, k.p, k.rangeUri);
+				byte[] b = new byte[buf.remaining()];
+				buf.get(b);
+				target.put(k.sourceUrl, k.p, k.rangeUri, b);
+			}
+		} finally {
+			target.close();
+		}
+		
+		try {
+			raf.close();
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+				throw new IOException("Failed to replace " + file + " by " + tmp + ".");
+			open();
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Failed to compact histogram store " + file + ".", e);
+		}
+	}
+	
+	/**
+	 * forces appended records to disk
+	 * 
+	 * @throws RDFStatsModelException
+	 */
+	public synchronized void flush() throws RDFStatsModelException {
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Failed to flush histogram store " + file + ".", e);
+		}
+	}
+	
+	public synchronized void close() throws RDFStatsModelException {
+		try {
+			channel.force(false);
+			raf.close();
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Failed to close histogram store " + file + ".", e);
+		}
+	}
+	
+	private void append(byte kind, String sourceUrl, String p, String rangeUri, byte[] payload) throws RDFStatsModelException {
+		append(kind, sourceUrl, Collections.singletonList(new String[] { p, rangeUri }), Collections.singletonList(payload));
+	}
+	
+	/**
+	 * appends records under an exclusive file lock after indexing the records appended by other processes
+	 */
+	private void append(byte kind, String sourceUrl, List<String[]> keys, List<byte[]> payloads) throws RDFStatsModelException {
+		FileLock lock = null;
+		try {
+			lock = channel.lock();
+			scan();
+			if (channel.size() > end)
+				channel.truncate(end); // incomplete record of an interrupted append
+			
+			for (int i=0; i<keys.size(); i++) {
+				String p = keys.get(i)[0];
+				String rangeUri = keys.get(i)[1];
+				byte[] payload = payloads.get(i);
+				
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 128);
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(0); // length placeholder
+				out.writeByte(kind);
+				writeString(out, sourceUrl);
+				out.writeBoolean(p != null);
+				writeString(out, (p != null) ? p : "");
+				writeString(out, rangeUri);
+				int payloadStart = out.size();
+				out.write(payload);
+				out.flush();
+				
+				ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+				record.putInt(0, record.capacity() - 4);
+				long start = channel.size();
+				long pos = start;
+				while (record.hasRemaining())
+					pos += channel.write(record, pos);
+				
+				index(kind, new Key(sourceUrl, p, rangeUri), start + payloadStart, payload.length, record.capacity());
+				end = pos;
+			}
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Failed to append to histogram store " + file + ".", e);
+		} finally {
+			if (lock != null) {
+				try {
+					lock.release();
+				} catch (IOException e) {
+					log.warn("Failed to release the lock of histogram store " + file + ".", e);
+				}
+			}
+		}
+	}
+	
+	private void index(byte kind, Key k, long payloadOffset, int payloadLength, int recordLength) {
+		long[] prev = (kind == KIND_PUT) ?
+				index.put(k, new long[] { payloadOffset, payloadLength }) :
+				index.remove(k);
+		if (prev != null)
+			garbage += prev[1]; // approximately, record headers are not counted
+		if (kind == KIND_REMOVE)
+			garbage += recordLength;
+	}
+	
+	/**
+	 * indexes all complete records from end to the end of the file
+	 */
+	private void scan() throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Histogram stores larger than 2 GB are not supported.");
+		if (size > mapped.capacity())
+			map();
+		
+		ByteBuffer buf = mapped.duplicate();
+		while (end + 4 <= size) {
+			int len = buf.getInt((int) end);
+			if (len <= 0 || end + 4 + len > size)
+				break; // incomplete trailing record
+			
+			buf.position((int) end + 4);
+			byte kind = buf.get();
+			String sourceUrl = readString(buf);
+			boolean hasP = buf.get() != 0;
+			String p = readString(buf);
+			String rangeUri = readString(buf);
+			long next = end + 4 + len;
+			index(kind, new Key(sourceUrl, hasP ? p : null, rangeUri), buf.position(), (int) (next - buf.position()), len + 4);
+			end = next;
+		}
+		if (end < size)
+			log.warn("Ignoring " + (size - end) + " bytes of an incomplete record at the end of histogram store " + file + ".");
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(UTF8);
+		if (b.length > 0xffff)
+			throw new IOException("String too long for a histogram store key: " + s.substring(0, 64) + "...");
+		out.writeShort(b.length);
+		out.write(b);
+	}
+	
+	private static String readString(ByteBuffer buf) {
+		int len = buf.getShort() & 0xffff;
+		byte[] b = new byte[len];
+		buf.get(b);
+		return new String(b, UTF8);
+	}
+	
+	private synchronized MappedByteBuffer remap() throws RDFStatsModelException {
+		try {
+			if (mapped == null || channel.size() > mapped.capacity())
+				map();
+			return mapped;
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Failed to map histogram store " + file + ".", e);
+		}
+	}
+	
+	private void map() throws IOException {
+		mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+	}
+}
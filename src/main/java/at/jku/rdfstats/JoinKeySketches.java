@@ -0,0 +1,432 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.util.Base64;
+
+/**
+ * Join key sketches of a dataset: for each property a k minimum values (KMV) sketch of the distinct
+ * subjects and one of the distinct URI and blank node objects. Sketches of different properties
+ * estimate how many keys they share, e.g. how many :p objects are also :q subjects, which
+ * is used to estimate chain joins like { ?a :p ?b . ?b :q ?c }.
+ * 
+ * Each node is hashed to 63 bits and a sketch keeps the k smallest hashes. With fewer than k
+ * distinct keys the sketch is exact. The estimation error of the distinct keys is about 1/sqrt(k).
+ * 
+ * The generator collects them with a {@link Collector} and stores them as stats:joinKeySketches
+ * of the dataset (see {@link RDFStatsUpdatableModel#updateJoinKeySketches(RDFStatsDataset, JoinKeySketches)}).
+ * Instances are immutable.
+ * 
+ * @author dorgon
+ *
+ */
+public class JoinKeySketches {
+	/** version of the binary encoding */
+	private static final byte FORMAT_VERSION = 1;
+	
+	/** 2^63, hashes are normalized to [0, 1) */
+	private static final double HASH_RANGE = 9.223372036854775808E18;
+	
+	/** sketch size */
+	private final int k;
+	
+	/** property => subject keys */
+	private final Map<String, KeySketch> subjectKeys;
+	
+	/** property => object keys */
+	private final Map<String, KeySketch> objectKeys;
+	
+	JoinKeySketches(int k, Map<String, KeySketch> subjectKeys, Map<String, KeySketch> objectKeys) {
+		this.k = k;
+		this.subjectKeys = subjectKeys;
+		this.objectKeys = objectKeys;
+	}
+	
+	/**
+	 * @return sketch size k
+	 */
+	public int getSketchSize() {
+		return k;
+	}
+	
+	/**
+	 * @return the properties with sketches
+	 */
+	public Set<String> getProperties() {
+		return Collections.unmodifiableSet(subjectKeys.keySet());
+	}
+	
+	/**
+	 * @param p
+	 * @return sketch of the subjects of p or null if there is none
+	 */
+	public KeySketch getSubjectKeys(String p) {
+		return subjectKeys.get(p);
+	}
+	
+	/**
+	 * @param p
+	 * @return sketch of the URI and blank node objects of p or null if there is none
+	 */
+	public KeySketch getObjectKeys(String p) {
+		return objectKeys.get(p);
+	}
+	
+	/**
+	 * Estimates the number of distinct keys contained in both sketches. If both are exact the keys are
+	 * counted, otherwise the Jaccard similarity J is estimated from the smallest hashes of the union
+	 * which are known to be in or not in each sketch and the overlap is J * (|a| + |b|) / (1 + J).
+	 * 
+	 * @param a
+	 * @param b
+	 * @return estimated number of shared keys
+	 */
+	public static double estimateOverlap(KeySketch a, KeySketch b) {
+		long limit = Math.min(a.isExact() ? Long.MAX_VALUE : a.getMaxHash(), b.isExact() ? Long.MAX_VALUE : b.getMaxHash());
+		int union = 0, both = 0;
+		int i = 0, j = 0;
+		long[] x = a.hashes, y = b.hashes;
+		while (i < x.length || j < y.length) {
+			long h = (j == y.length || (i < x.length && x[i] <= y[j])) ? x[i] : y[j];
+			if (h > limit)
+				break;
+			boolean inA = i < x.length && x[i] == h;
+			boolean inB = j < y.length && y[j] == h;
+			if (inA)
+				i++;
+			if (inB)
+				j++;
+			if (inA && inB)
+				both++;
+			union++;
+		}
+		
+		if (a.isExact() && b.isExact())
+			return both;
+		if (union == 0)
+			return 0;
+		double jaccard = (double) both / union;
+		double overlap = jaccard * (a.getDistinct() + b.getDistinct()) / (1 + jaccard);
+		return Math.min(overlap, Math.min(a.getDistinct(), b.getDistinct()));
+	}
+	
+	/**
+	 * @return base64-encoded binary representation
+	 */
+	public String encode() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt(k);
+			out.writeInt(subjectKeys.size());
+			for (String p : new TreeMap<String, KeySketch>(subjectKeys).keySet()) { // deterministic order
+				out.writeUTF(p);
+				subjectKeys.get(p).write(out);
+				objectKeys.get(p).write(out);
+			}
+			out.flush();
+			return Base64.encodeBytes(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // not thrown by a ByteArrayOutputStream
+		}
+	}
+	
+	/**
+	 * @param encoded see {@link #encode()}
+	 * @return the decoded sketches
+	 * @throws RDFStatsModelException if encoded is malformed or of an unknown version
+	 */
+	public static JoinKeySketches decode(String encoded) throws RDFStatsModelException {
+		try {
+			byte[] b = Base64.decode(encoded);
+			if (b == null)
+				throw new RDFStatsModelException("Malformed base64-encoded join key sketches.");
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+			byte version = in.readByte();
+			if (version != FORMAT_VERSION)
+				throw new RDFStatsModelException("Unknown join key sketches format version " + version + ".");
+			
+			int k = in.readInt();
+			int n = in.readInt();
+			Map<String, KeySketch> subjectKeys = new HashMap<String, KeySketch>();
+			Map<String, KeySketch> objectKeys = new HashMap<String, KeySketch>();
+			for (int i = 0; i < n; i++) {
+				String p = in.readUTF();
+				subjectKeys.put(p, KeySketch.read(in, k));
+				objectKeys.put(p, KeySketch.read(in, k));
+			}
+			return new JoinKeySketches(k, subjectKeys, objectKeys);
+		} catch (IOException e) {
+			throw new RDFStatsModelException("Malformed join key sketches.", e);
+		} catch (NegativeArraySizeException e) {
+			throw new RDFStatsModelException("Malformed join key sketches.", e);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "JoinKeySketches[properties=" + subjectKeys.size() + ", k=" + k + "]";
+	}
+	
+	/**
+	 * @param n a URI or blank node
+	 * @return 63 bit hash of n (FNV-1a with a final avalanche step), stable across runs
+	 */
+	static long hash(Node n) {
+		String s = n.isURI() ? n.getURI() : "_:" + n.getBlankNodeLabel();
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h & Long.MAX_VALUE;
+	}
+	
+	/**
+	 * KMV sketch of the keys of a property position
+	 */
+	public static final class KeySketch {
+		/** the smallest hashes, ascending */
+		private final long[] hashes;
+		
+		/** sketch size */
+		private final int k;
+		
+		/** number of triples with a key in this position */
+		private final long triples;
+		
+		KeySketch(long[] hashes, int k, long triples) {
+			this.hashes = hashes;
+			this.k = k;
+			this.triples = triples;
+		}
+		
+		/**
+		 * @return true if the sketch contains the hashes of all keys
+		 */
+		public boolean isExact() {
+			return hashes.length < k;
+		}
+		
+		/**
+		 * @return number of triples with a key in this position, i.e. all triples of the property for subjects
+		 */
+		public long getTriples() {
+			return triples;
+		}
+		
+		/**
+		 * @return the (estimated) number of distinct keys
+		 */
+		public double getDistinct() {
+			if (isExact())
+				return hashes.length;
+			return (k - 1) / (getMaxHash() / HASH_RANGE);
+		}
+		
+		long getMaxHash() {
+			return hashes[hashes.length - 1];
+		}
+		
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(triples);
+			out.writeInt(hashes.length);
+			for (long h : hashes)
+				out.writeLong(h);
+		}
+		
+		static KeySketch read(DataInputStream in, int k) throws IOException {
+			long triples = in.readLong();
+			long[] hashes = new long[in.readInt()];
+			for (int i = 0; i < hashes.length; i++)
+				hashes[i] = in.readLong();
+			return new KeySketch(hashes, k, triples);
+		}
+		
+		@Override
+		public String toString() {
+			return "KeySketch[distinct=" + Math.round(getDistinct()) + (isExact() ? "" : "~") + ", triples=" + triples + "]";
+		}
+	}
+	
+	/**
+	 * Collects the subjects and objects of each property during the generator's scans. A collector is not
+	 * thread-safe, parallel scans collect into their own collectors which are merged with {@link #addAll(Collector)}.
+	 * The sketches of a property are removed if its scan could not see all triples.
+	 */
+	public static class Collector {
+		private final int k;
+		
+		/** property => { subject keys, object keys } */
+		private final Map<String, Builder[]> builders = new HashMap<String, Builder[]>();
+		
+		/** properties whose sketches have been removed */
+		private final Set<String> removed = new HashSet<String>();
+		
+		/**
+		 * @param k sketch size
+		 */
+		public Collector(int k) {
+			this.k = k;
+		}
+		
+		/**
+		 * adds a triple
+		 * @param subject
+		 * @param p
+		 * @param object
+		 */
+		public void add(Node subject, String p, Node object) {
+			Builder[] b = builders.get(p);
+			if (b == null) {
+				if (removed.contains(p))
+					return;
+				b = new Builder[] { new Builder(k), new Builder(k) };
+				builders.put(p, b);
+			}
+			if (subject.isURI() || subject.isBlank())
+				b[0].add(hash(subject));
+			if (object.isURI() || object.isBlank()) // literals don't join subjects
+				b[1].add(hash(object));
+		}
+		
+		/**
+		 * adds the sketches collected by other, e.g. by the scan of another property,
+		 * and removes the sketches of the properties removed from other
+		 * @param other
+		 */
+		public void addAll(Collector other) {
+			for (String p : other.removed)
+				remove(p);
+			for (Map.Entry<String, Builder[]> e : other.builders.entrySet()) {
+				if (removed.contains(e.getKey()))
+					continue;
+				Builder[] b = builders.get(e.getKey());
+				if (b == null)
+					builders.put(e.getKey(), e.getValue());
+				else {
+					b[0].addAll(e.getValue()[0]);
+					b[1].addAll(e.getValue()[1]);
+				}
+			}
+		}
+		
+		/**
+		 * removes the sketches of p, further triples of p are ignored
+		 * @param p
+		 */
+		public void remove(String p) {
+			builders.remove(p);
+			removed.add(p);
+		}
+		
+		/**
+		 * @return the collected sketches
+		 */
+		public JoinKeySketches getJoinKeySketches() {
+			Map<String, KeySketch> subjectKeys = new HashMap<String, KeySketch>();
+			Map<String, KeySketch> objectKeys = new HashMap<String, KeySketch>();
+			for (Map.Entry<String, Builder[]> e : builders.entrySet()) {
+				subjectKeys.put(e.getKey(), e.getValue()[0].getSketch());
+				objectKeys.put(e.getKey(), e.getValue()[1].getSketch());
+			}
+			return new JoinKeySketches(k, subjectKeys, objectKeys);
+		}
+	}
+	
+	/**
+	 * keeps the k smallest distinct hashes in a max-heap
+	 */
+	private static final class Builder {
+		final long[] heap;
+		int size = 0;
+		
+		/** number of triples with a key in this position */
+		long triples = 0;
+		
+		Builder(int k) {
+			heap = new long[k];
+		}
+		
+		void add(long h) {
+			triples++;
+			insert(h);
+		}
+		
+		void addAll(Builder other) {
+			triples += other.triples;
+			for (int i = 0; i < other.size; i++)
+				insert(other.heap[i]);
+		}
+		
+		private void insert(long h) {
+			if (size == heap.length && h >= heap[0])
+				return;
+			for (int i = 0; i < size; i++) // rarely reached once the heap is full
+				if (heap[i] == h)
+					return;
+			
+			if (size < heap.length) { // sift up
+				int i = size++;
+				while (i > 0 && heap[(i - 1) / 2] < h) {
+					heap[i] = heap[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				heap[i] = h;
+			} else { // replace the maximum and sift down
+				int i = 0;
+				while (true) {
+					int c = 2 * i + 1;
+					if (c >= size)
+						break;
+					if (c + 1 < size && heap[c + 1] > heap[c])
+						c++;
+					if (heap[c] <= h)
+						break;
+					heap[i] = heap[c];
+					i = c;
+				}
+				heap[i] = h;
+			}
+		}
+		
+		KeySketch getSketch() {
+			long[] hashes = Arrays.copyOf(heap, size);
+			Arrays.sort(hashes);
+			return new KeySketch(hashes, heap.length, triples);
+		}
+	}
+}
@@ -15,6 +15,7 @@
  */
 package at.jku.rdfstats;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -24,7 +25,6 @@ import java.util.Stack;
 
 import at.jku.rdfstats.hist.Histogram;
 
-import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.sparql.algebra.Op;
 import com.hp.hpl.jena.sparql.algebra.OpVars;
@@ -32,6 +32,8 @@ import com.hp.hpl.jena.sparql.algebra.OpVisitor;
 import com.hp.hpl.jena.sparql.algebra.OpVisitorBase;
 import com.hp.hpl.jena.sparql.algebra.OpWalker;
 import com.hp.hpl.jena.sparql.algebra.op.Op0;
+import com.hp.hpl.jena.sparql.algebra.op.Op1;
+import com.hp.hpl.jena.sparql.algebra.op.Op2;
 import com.hp.hpl.jena.sparql.algebra.op.OpAssign;
 import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
 import com.hp.hpl.jena.sparql.algebra.op.OpConditional;
@@ -46,6 +48,7 @@ import com.hp.hpl.jena.sparql.algebra.op.OpJoin;
 import com.hp.hpl.jena.sparql.algebra.op.OpLabel;
 import com.hp.hpl.jena.sparql.algebra.op.OpLeftJoin;
 import com.hp.hpl.jena.sparql.algebra.op.OpList;
+import com.hp.hpl.jena.sparql.algebra.op.OpN;
 import com.hp.hpl.jena.sparql.algebra.op.OpNull;
 import com.hp.hpl.jena.sparql.algebra.op.OpOrder;
 import com.hp.hpl.jena.sparql.algebra.op.OpPath;
@@ -61,7 +64,14 @@ import com.hp.hpl.jena.sparql.algebra.op.OpTable;
 import com.hp.hpl.jena.sparql.algebra.op.OpTriple;
 import com.hp.hpl.jena.sparql.algebra.op.OpUnion;
 import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.Substitute;
+import com.hp.hpl.jena.sparql.core.TriplePath;
 import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.core.VarExprList;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.expr.E_Exists;
+import com.hp.hpl.jena.sparql.expr.E_LogicalNot;
+import com.hp.hpl.jena.sparql.expr.Expr;
 import com.hp.hpl.jena.sparql.expr.ExprList;
 
 /**  plan calculator
@@ -73,18 +83,27 @@ public class PlanCalculator extends OpVisitorBase {
 	public static final int AVG = 1;
 	public static final int MAX = 2;
 	
+	/** assumed selectivity of FILTER (NOT) EXISTS, the pattern of E_Exists isn't accessible */
+	public static final double EXISTS_SELECTIVITY = 0.5;
+	
 	private Long[] currentEstimate = null;
 	private final Stack<Op> opStack = new Stack<Op>();
 	
 	private final RDFStatsModel stats;
 	private RDFStatsDataset currentDataset;
 	
+	/** prepared plan and the values of its parameters, null for ad-hoc plans */
+	private final PreparedEstimate prepared;
+	private final Binding params;
+	
 	/**
 	 * for plans which contain SERVICE operators
 	 * @param stats
 	 */
 	public PlanCalculator(RDFStatsModel stats) {
 		this.stats = stats;
+		this.prepared = null;
+		this.params = null;
 	}
 	
 	/**
@@ -95,6 +114,8 @@ public class PlanCalculator extends OpVisitorBase {
 	public PlanCalculator(RDFStatsModel stats, RDFStatsDataset activeDataset) {
 		this.stats = stats;
 		this.currentDataset = activeDataset;
+		this.prepared = null;
+		this.params = null;
 	}
 	
 	/**
@@ -104,6 +125,21 @@ public class PlanCalculator extends OpVisitorBase {
 	public PlanCalculator(RDFStatsDataset dataset) {
 		this.stats = null;
 		this.currentDataset = dataset;
+		this.prepared = null;
+		this.params = null;
+	}
+	
+	/**
+	 * for a prepared plan, plans must not contain SERVICE
+	 * @param dataset
+	 * @param prepared
+	 * @param params values of the parameter variables or null
+	 */
+	PlanCalculator(RDFStatsDataset dataset, PreparedEstimate prepared, Binding params) {
+		this.stats = null;
+		this.currentDataset = dataset;
+		this.prepared = prepared;
+		this.params = params;
 	}
 	
 	/**
@@ -124,7 +160,7 @@ public class PlanCalculator extends OpVisitorBase {
     public void visit(OpBGP op) {
     	try {
     		// TODO push down and merge filters, now we assume this has been done before already, looking at direct ancestor
-    		Integer[] i = triplesForFilteredBGP(op.getPattern(), getFilterExprs());
+    		Integer[] i = triplesForFilteredBGP(op, op.getPattern());
     		if (i != null)
     			currentEstimate = new Long[] { (long) i[MIN], (long) i[AVG], (long) i[MAX] };
     	} catch (Exception e) {
@@ -133,16 +169,32 @@ public class PlanCalculator extends OpVisitorBase {
     }
 
     public void visit(OpDatasetNames op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	estimateUnknown(op);
     }
     
     public void visit(OpPath op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!"); 
+    	TriplePath path = op.getTriplePath();
+    	if (currentDataset == null) {
+    		currentEstimate = new Long[] { 0L, 0L, 0L };
+    		return;
+    	}
+    	if (params != null) // bind parameters of a prepared plan
+    		path = new TriplePath(Substitute.substitute(path.getSubject(), params), path.getPath(), Substitute.substitute(path.getObject(), params));
+    	
+    	try {
+    		Integer[] i = currentDataset.triplesForPath(path);
+    		if (i != null)
+    			currentEstimate = new Long[] { (long) i[MIN], (long) i[AVG], (long) i[MAX] };
+    		else
+    			estimateUnknown(op);
+    	} catch (Exception e) {
+    		throw new RuntimeException("Failed to calculate estimation for " + op.getClass().getName() + "!", e);
+    	}
     }	    
     
     public void visit(OpQuadPattern op) {
     	try {
-    		Integer[] i = triplesForFilteredBGP(op.getBasicPattern(), getFilterExprs());
+    		Integer[] i = triplesForFilteredBGP(op, op.getBasicPattern());
     		if (i != null)
     			currentEstimate = new Long[] { (long) i[MIN], (long) i[AVG], (long) i[MAX] };
     	} catch (Exception e) {
@@ -157,9 +209,8 @@ public class PlanCalculator extends OpVisitorBase {
     }
     
     public void visit(OpTriple op) {
-    	Triple t = op.getTriple();
     	try {
-    		Integer i = triplesForFilteredPattern(t.getSubject(), t.getPredicate(), t.getObject(), getFilterExprs());
+    		Integer i = triplesForFilteredPattern(op);
     		if (i != null) {
     			long l = (long) i; 
     			currentEstimate = new Long[] { l, l, l };
@@ -171,19 +222,42 @@ public class PlanCalculator extends OpVisitorBase {
 
 //Op1
     public void visit(OpFilter op) {
-    	opStack.push(op);
-    	op.getSubOp().visit(this);
-    	opStack.pop();
+    	Double selectivity = null;
+    	if (op.getSubOp() instanceof OpUnion) { // apply the filter to both branches
+    		OpUnion union = (OpUnion) op.getSubOp();
+    		opStack.push(union);
+    		Long[] left = estimateFiltered(union.getLeft(), op.getExprs());
+    		Long[] right = estimateFiltered(union.getRight(), op.getExprs());
+    		opStack.pop();
+    		currentEstimate = (left != null && right != null) ? new Long[] { 0L, left[AVG] + right[AVG], left[MAX] + right[MAX] } : null;
+    		selectivity = 1d; // already applied
+    	} else {
+    		opStack.push(op);
+    		op.getSubOp().visit(this);
+    		opStack.pop();
+    	}
     	
     	if (currentEstimate != null && !(op.getSubOp() instanceof Op0)) { // Op0 already uses the filter for BGP estimation
     		Long l[] = currentEstimate;
-    		if (l[AVG] > 1)
-    			l[AVG] = (long) Math.ceil((double) l[AVG] / 2); // TODO improve heuristic; for now we assume filter constantly selects 50% in average
+    		if (selectivity == null)
+    			selectivity = filterSelectivity(op.getSubOp(), op.getExprs());
+    		if (selectivity != null)
+    			l[AVG] = (long) Math.ceil(l[AVG] * selectivity);
+    		else if (l[AVG] > 1 && !existsOnly(op.getExprs()))
+    			l[AVG] = (long) Math.ceil((double) l[AVG] / 2); // no histograms for the filtered variables, assume filter selects 50% in average
     		
     		// keep MAX as is
     		l[MIN] = 0L; // assume filter may select nothing
     		currentEstimate = l;
-    	}	    	
+    	}
+    	if (currentEstimate != null) { // (NOT) EXISTS isn't used for the selectivity
+    		for (Expr e : op.getExprs()) {
+    			if (isExists(e)) {
+    				currentEstimate[AVG] = (long) Math.ceil(currentEstimate[AVG] * EXISTS_SELECTIVITY);
+    				currentEstimate[MIN] = 0L;
+    			}
+    		}
+    	}
     }
     
     public void visit(OpLabel op) {
@@ -198,16 +272,22 @@ public class PlanCalculator extends OpVisitorBase {
     	opStack.pop();
     }
     
+    // statistics are per dataset without named graphs, assume the pattern may match in any of them
     public void visit(OpGraph op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	opStack.push(op);
+    	op.getSubOp().visit(this);
+    	opStack.pop();
+    	
+    	if (currentEstimate != null)
+    		currentEstimate[MIN] = 0L;
     }
     
     public void visit(OpProcedure op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	estimateUnknown(op);
     }
 
     public void visit(OpPropFunc op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	estimateUnknown(op);
     }
     
     
@@ -231,7 +311,7 @@ public class PlanCalculator extends OpVisitorBase {
     	opStack.pop();
     	
 //    	Set<Var> unique = getUniqueValueVars(op.getSubOp());
-    	Set<Var> vars = OpVars.patternVars(op.getSubOp());
+    	Set<Var> vars = getPatternVars(op.getSubOp());
     	
     	// if one of the variables is unique => no reduction, only reduce card if none is unique
     	if (
@@ -261,7 +341,7 @@ public class PlanCalculator extends OpVisitorBase {
     	opStack.pop();
     	
 //    	Set<Var> unique = getUniqueValueVars(op.getSubOp());
-    	Set<Var> vars = OpVars.patternVars(op.getSubOp());
+    	Set<Var> vars = getPatternVars(op.getSubOp());
     	
     	// if one of the variables is unique => no reduction, only reduce card if none is unique
     	if (
@@ -314,12 +394,36 @@ public class PlanCalculator extends OpVisitorBase {
     	currentEstimate = l;
     }
 
+    // one solution per group, the number of groups is bounded by the distinct values of the group keys
     public void visit(OpGroupAgg op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	opStack.push(op);
+    	op.getSubOp().visit(this);
+    	opStack.pop();
+    	
+    	Long[] l = currentEstimate;
+    	if (l == null)
+    		return;
+    	
+    	VarExprList groupVars = op.getGroupVars();
+    	if (groupVars == null || groupVars.isEmpty()) { // aggregation over all solutions
+    		currentEstimate = new Long[] { 1L, 1L, 1L };
+    		return;
+    	}
+    	
+    	Long groups = distinctValues(op.getSubOp(), groupVars);
+    	l[MIN] = (l[MIN] > 0) ? 1L : 0L;
+    	if (groups != null) {
+    		l[AVG] = Math.max(l[MIN], Math.min(l[AVG], groups));
+    		l[MAX] = Math.min(l[MAX], groups);
+    	}
+    	currentEstimate = l;
     }
     
+    // list doesn't change cardinality
     public void visit(OpList op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	opStack.push(op);
+    	op.getSubOp().visit(this);
+    	opStack.pop();
     }
     
 
@@ -328,10 +432,8 @@ public class PlanCalculator extends OpVisitorBase {
     	Long[] l = null;
     	
     	opStack.push(op);
-    	op.getLeft().visit(this);
-    	Long[] left = currentEstimate;
-    	op.getRight().visit(this);
-    	Long[] right = currentEstimate;
+    	Long[] left = estimateBranch(op.getLeft());
+    	Long[] right = estimateBranch(op.getRight());
     	opStack.pop();
     	
     	if (left != null && right != null) {
@@ -362,8 +464,38 @@ public class PlanCalculator extends OpVisitorBase {
     	opStack.pop();
     }
     
+    // MINUS keeps the solutions of left without a compatible solution in right
     public void visit(OpDiff op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	opStack.push(op);
+    	op.getLeft().visit(this);
+    	Long[] lc = currentEstimate;
+    	op.getRight().visit(this);
+    	Long[] rc = currentEstimate;
+    	opStack.pop();
+    	
+    	Long[] l = null;
+    	if (lc != null && rc != null) {
+    		l = new Long[3];
+	    	Set<Var> joinVars = getPatternVars(op.getLeft());
+			joinVars.retainAll(getPatternVars(op.getRight()));
+			
+			Double coverage = (joinVars.size() > 0 && currentDataset != null) ? joinKeyCoverage(op.getLeft(), op.getRight()) : null;
+			if (rc[MAX] == 0) { // nothing to remove
+				l[MIN] = lc[MIN];
+				l[AVG] = lc[AVG];
+			} else if (coverage != null) {
+				l[MIN] = 0L;
+				l[AVG] = (long) Math.ceil(lc[AVG] * (1 - coverage));
+			} else if (joinVars.size() > 0) {
+				l[MIN] = 0L;
+				l[AVG] = (long) Math.ceil((double) lc[AVG] / 2);
+			} else { // no shared variables, nothing is removed
+				l[MIN] = lc[MIN];
+				l[AVG] = lc[AVG];
+			}
+			l[MAX] = lc[MAX];
+    	}
+    	currentEstimate = l;
     }
 
     // OpN
@@ -395,11 +527,189 @@ public class PlanCalculator extends OpVisitorBase {
 
     // OpExt
     public void visit(OpExt op) {
-    	throw new RuntimeException("Estimate not implemented for " + op.getClass().getName() + "!");
+    	Op effective = op.effectiveOp();
+    	if (effective != null)
+    		effective.visit(this);
+    	else
+    		estimateUnknown(op);
     }
 
 // utility functions
     
+    /**
+     * @param op
+     * @param exprs
+     * @return estimate of op with the filter applied to it
+     */
+    private Long[] estimateFiltered(Op op, ExprList exprs) {
+    	Long[] l = estimateBranch(op);
+    	if (l != null) {
+    		Double selectivity = filterSelectivity(op, exprs);
+    		l[AVG] = (long) Math.ceil(l[AVG] * ((selectivity != null) ? selectivity : existsOnly(exprs) ? 1 : .5));
+    		l[MIN] = 0L;
+    	}
+    	return l;
+    }
+    
+    /**
+     * estimates a branch of a union, a branch without statistics is estimated like an unknown operator
+     * instead of discarding the estimate of the whole union
+     * 
+     * @param op
+     * @return estimate of op or null if even the bounded estimate is unknown
+     */
+    private Long[] estimateBranch(Op op) {
+    	currentEstimate = null; // not reset by all operators without an estimate
+    	op.visit(this);
+    	if (currentEstimate == null)
+    		estimateUnknown(op);
+    	return currentEstimate;
+    }
+    
+    /**
+     * @param e
+     * @return true if e is FILTER (NOT) EXISTS
+     */
+    private static boolean isExists(Expr e) {
+    	return e instanceof E_Exists || e instanceof E_LogicalNot && ((E_LogicalNot) e).getArg() instanceof E_Exists;
+    }
+    
+    /**
+     * @param exprs
+     * @return true if all conjuncts are (NOT) EXISTS, they are estimated by EXISTS_SELECTIVITY only
+     */
+    private static boolean existsOnly(ExprList exprs) {
+    	for (Expr e : exprs)
+    		if (!isExists(e))
+    			return false;
+    	return true;
+    }
+    
+    /**
+     * @param op
+     * @param exprs
+     * @return fraction of the solutions of op satisfying exprs based on the histograms of the triple patterns of op,
+     * 	null if unknown
+     */
+    private Double filterSelectivity(Op op, ExprList exprs) {
+    	if (currentDataset == null)
+    		return null;
+    	
+    	BasicPattern pattern = getPatterns(op);
+    	if (params != null) {
+    		pattern = Substitute.substitute(pattern, params);
+    		exprs = exprs.copySubstitute(params, false);
+    	}
+    	
+    	try {
+    		return currentDataset.filterSelectivity(pattern, exprs);
+    	} catch (Exception e) {
+    		throw new RuntimeException("Failed to calculate filter selectivity for " + exprs + "!", e);
+    	}
+    }
+    
+    /**
+     * bounded estimate for operators without statistics: they may return nothing, sub-operators are
+     * passed through, operators without sub-operators are bounded by the triples of the dataset
+     * 
+     * @param op
+     */
+    private void estimateUnknown(Op op) {
+    	Long[] l = null;
+    	opStack.push(op);
+    	if (op instanceof Op1) {
+    		((Op1) op).getSubOp().visit(this);
+    		l = currentEstimate;
+    	} else if (op instanceof Op2 || op instanceof OpN) {
+    		List<Op> subOps = (op instanceof Op2) ? Arrays.asList(((Op2) op).getLeft(), ((Op2) op).getRight()) : ((OpN) op).getElements();
+    		l = new Long[] { 0L, 0L, 1L };
+    		for (Op sub : subOps) {
+    			sub.visit(this);
+    			if (currentEstimate == null) {
+    				l = null;
+    				break;
+    			}
+    			l[AVG] = Math.max(l[AVG], currentEstimate[AVG]);
+    			l[MAX] = multiply(l[MAX], currentEstimate[MAX]);
+    		}
+    	} else {
+    		long total = 0;
+    		if (currentDataset != null) {
+    			try {
+    				Integer t = currentDataset.getTriplesTotal();
+    				total = (t != null) ? t : 0;
+    			} catch (Exception e) {
+    				throw new RuntimeException("Failed to calculate estimation for " + op.getClass().getName() + "!", e);
+    			}
+    		}
+    		l = new Long[] { 0L, Math.min(1L, total), total };
+    	}
+    	opStack.pop();
+    	
+    	if (l != null)
+    		l[MIN] = 0L;
+    	currentEstimate = l;
+    }
+    
+    /** @return a * b or Long.MAX_VALUE on overflow */
+    private static long multiply(long a, long b) {
+    	if (a == 0 || b == 0)
+    		return 0;
+    	return (a > Long.MAX_VALUE / b) ? Long.MAX_VALUE : a * b;
+    }
+    
+    /**
+     * @param op
+     * @param vars
+     * @return the number of distinct combinations of vars in the solutions of op, null if unknown
+     */
+    private Long distinctValues(Op op, VarExprList vars) {
+    	if (currentDataset == null) // e.g. above a SERVICE
+    		return null;
+    	
+    	BasicPattern pattern = getPatterns(op);
+    	long distinct = 1;
+    	for (Var v : vars.getVars()) {
+    		if (vars.hasExpr(v)) // computed keys
+    			return null;
+    		if (params != null && params.contains(v)) // bound parameter
+    			continue;
+    		
+    		try {
+    			Integer d = currentDataset.distinctValues((params != null) ? Substitute.substitute(pattern, params) : pattern, v);
+    			if (d == null)
+    				return null;
+    			distinct = multiply(distinct, d);
+    		} catch (Exception e) {
+    			throw new RuntimeException("Failed to calculate distinct values of " + v + "!", e);
+    		}
+    	}
+    	return distinct;
+    }
+    
+    /**
+     * @param op
+     * @return all triple patterns of op
+     */
+    private static BasicPattern getPatterns(Op op) {
+    	final BasicPattern pattern = new BasicPattern();
+    	OpWalker.walk(op, new OpVisitorBase() {
+    		@Override
+    		public void visit(OpBGP opBGP) {
+    			pattern.addAll(opBGP.getPattern());
+    		}
+    		@Override
+    		public void visit(OpQuadPattern quadPattern) {
+    			pattern.addAll(quadPattern.getBasicPattern());
+    		}
+    		@Override
+    		public void visit(OpTriple opTriple) {
+    			pattern.add(opTriple.getTriple());
+    		}
+    	});
+    	return pattern;
+    }
+    
     private Long[] estimateJoin(Op left, Op right) {
     	Long[] l = null;
 
@@ -413,10 +723,16 @@ public class PlanCalculator extends OpVisitorBase {
 	    	
 	    	// TODO: check for uniqueness (primary keys?)
 	    	
-	    	Set<Var> joinVars = OpVars.patternVars(left);
-			joinVars.retainAll(OpVars.patternVars(right));
+	    	Set<Var> joinVars = getPatternVars(left);
+			joinVars.retainAll(getPatternVars(right));
 
-			if (joinVars.size() > 0) {
+			Integer[] joined = (joinVars.size() > 0) ? triplesForJoin(left, right) : null;
+			if (joined != null) { // both sides are parts of a star or chain
+				l[MIN] = (long) joined[MIN];
+				l[AVG] = (long) joined[AVG];
+				l[MAX] = (long) joined[MAX];
+				
+			} else if (joinVars.size() > 0) {
 				l[MIN] = 0L;
 				l[AVG] = (long) Math.ceil((double) (lc[AVG] * rc[AVG]) / 2); // assume 0.5 selectivity
 				l[MAX] = lc[MAX] * rc[MAX]; // in case all values left and right are equal
@@ -442,10 +758,23 @@ public class PlanCalculator extends OpVisitorBase {
     	if (lc != null && rc != null) {
 	    	l = new Long[3];
 	    	
-	    	Set<Var> joinVars = OpVars.patternVars(left);
-			joinVars.retainAll(OpVars.patternVars(right));
+	    	Set<Var> joinVars = getPatternVars(left);
+			joinVars.retainAll(getPatternVars(right));
 	
+			Integer[] joined = null;
+			Double coverage = null;
 			if (joinVars.size() > 0) {
+				joined = triplesForJoin(left, right);
+				if (joined != null)
+					coverage = joinKeyCoverage(left, right);
+			}
+			
+			if (coverage != null) { // matching solutions of left are extended, the others are kept
+				l[MIN] = lc[MIN];
+				l[AVG] = joined[AVG] + (long) Math.ceil(lc[AVG] * (1 - coverage));
+				l[MAX] = lc[MAX] + joined[MAX];
+				
+			} else if (joinVars.size() > 0) {
 				l[MIN] = 0L;
 				l[AVG] = (long) Math.ceil((double) lc[AVG] / 2);
 				l[MAX] = lc[MAX];
@@ -460,6 +789,84 @@ public class PlanCalculator extends OpVisitorBase {
     	return l;
     }
 
+	/**
+	 * merges the triple patterns of both sides of a join into a single star or chain pattern
+	 * 
+	 * @param left
+	 * @param right
+	 * @return estimate based on the characteristic sets or join key sketches, null if the join is neither a star nor
+	 * 	a chain or there are no such statistics
+	 */
+	private Integer[] triplesForJoin(Op left, Op right) {
+		if (currentDataset == null)
+			return null;
+		
+		BasicPattern pattern = new BasicPattern();
+		ExprList exprs = new ExprList();
+		if (!addJoinPatterns(left, pattern, exprs) || !addJoinPatterns(right, pattern, exprs))
+			return null;
+		
+		if (params != null) {
+			pattern = Substitute.substitute(pattern, params);
+			exprs = exprs.copySubstitute(params, false);
+		}
+		
+		try {
+			Integer[] i = currentDataset.triplesForStar(pattern, exprs.isEmpty() ? null : exprs);
+			return (i != null) ? i : currentDataset.triplesForChain(pattern, exprs.isEmpty() ? null : exprs);
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to calculate join estimation for " + pattern + "!", e);
+		}
+	}
+	
+	/**
+	 * @param left
+	 * @param right
+	 * @return fraction of the solutions of left with a join partner in right based on the join key sketches,
+	 * 	null if unknown; filters are not taken into account
+	 */
+	private Double joinKeyCoverage(Op left, Op right) {
+		BasicPattern l = new BasicPattern();
+		BasicPattern r = new BasicPattern();
+		ExprList exprs = new ExprList();
+		if (!addJoinPatterns(left, l, exprs) || !addJoinPatterns(right, r, exprs))
+			return null;
+		
+		if (params != null) {
+			l = Substitute.substitute(l, params);
+			r = Substitute.substitute(r, params);
+		}
+		
+		try {
+			return currentDataset.joinKeyCoverage(l, r);
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to calculate join key coverage for " + l + " and " + r + "!", e);
+		}
+	}
+	
+	/**
+	 * @param op
+	 * @param pattern collects the triple patterns of op
+	 * @param exprs collects the filters of op
+	 * @return false if op isn't composed of (filtered) triple patterns and joins
+	 */
+	private static boolean addJoinPatterns(Op op, BasicPattern pattern, ExprList exprs) {
+		if (op instanceof OpFilter) {
+			exprs.addAll(((OpFilter) op).getExprs());
+			op = ((OpFilter) op).getSubOp();
+		}
+		
+		if (op instanceof OpBGP)
+			pattern.addAll(((OpBGP) op).getPattern());
+		else if (op instanceof OpTriple)
+			pattern.add(((OpTriple) op).getTriple());
+		else if (op instanceof OpJoin)
+			return addJoinPatterns(((OpJoin) op).getLeft(), pattern, exprs) && addJoinPatterns(((OpJoin) op).getRight(), pattern, exprs);
+		else
+			return false;
+		return true;
+	}
+	
 	/**
 	 * @return preceding filter expressions, if any (may return null)
 	 */
@@ -473,31 +880,44 @@ public class PlanCalculator extends OpVisitorBase {
 	}
 
 	/**
-	 * @param subject
-	 * @param predicate
-	 * @param object
-	 * @param exprs
+	 * @param op
+	 * @return variables of the patterns of op, without the bound parameters of a prepared plan
+	 */
+	private Set<Var> getPatternVars(Op op) {
+		if (prepared == null)
+			return OpVars.patternVars(op);
+		else
+			return prepared.getPatternVars(op, params);
+	}
+	
+	/**
+	 * @param op
 	 * @return
 	 * @throws RDFStatsModelException 
 	 */
-	private Integer triplesForFilteredPattern(Node subject, Node predicate, Node object, ExprList exprs) throws RDFStatsModelException {
+	private Integer triplesForFilteredPattern(OpTriple op) throws RDFStatsModelException {
 		if (currentDataset == null)
 			return 0;
-		else
-			return currentDataset.triplesForFilteredPattern(subject, predicate, object, exprs);
+		else if (prepared != null)
+			return prepared.triplesForFilteredPattern(op, params);
+		
+		Triple t = op.getTriple();
+		return currentDataset.triplesForFilteredPattern(t.getSubject(), t.getPredicate(), t.getObject(), getFilterExprs());
 	}
     
 	/**
+	 * @param op
 	 * @param pattern
-	 * @param exprs
 	 * @return
 	 * @throws RDFStatsModelException 
 	 */
-	private Integer[] triplesForFilteredBGP(BasicPattern pattern, ExprList exprs) throws RDFStatsModelException {
+	private Integer[] triplesForFilteredBGP(Op op, BasicPattern pattern) throws RDFStatsModelException {
 		if (currentDataset == null)
 			return new Integer[] { 0, 0, 0 };
+		else if (prepared != null)
+			return prepared.triplesForFilteredBGP(op, pattern, params);
 		else
-			return currentDataset.triplesForFilteredBGP(pattern, exprs);
+			return currentDataset.triplesForFilteredBGP(pattern, getFilterExprs());
 	}
 
 	/**
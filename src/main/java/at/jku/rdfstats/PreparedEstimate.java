@@ -0,0 +1,301 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import at.jku.rdfstats.expr.ExprUtils;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.OpVars;
+import com.hp.hpl.jena.sparql.algebra.op.Op1;
+import com.hp.hpl.jena.sparql.algebra.op.Op2;
+import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
+import com.hp.hpl.jena.sparql.algebra.op.OpFilter;
+import com.hp.hpl.jena.sparql.algebra.op.OpN;
+import com.hp.hpl.jena.sparql.algebra.op.OpQuadPattern;
+import com.hp.hpl.jena.sparql.algebra.op.OpTriple;
+import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.Substitute;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.expr.ExprList;
+
+/**
+ * A query plan compiled once for repeated estimation with different constants.
+ * 
+ * Parsing, algebra generation, filter normalization and the variable sets used by
+ * the join and DISTINCT heuristics are done when the estimate is prepared. Variables
+ * of the template act as parameters: each call to {@link #estimate(Binding)} substitutes
+ * the bound ones into the patterns and filters. Patterns which do not mention any bound
+ * variable are estimated once per catalog version and reused afterwards. Filters of joins
+ * estimated as a single star or chain pattern are merged, and normalized, per estimate.
+ * 
+ * Instances are immutable apart from these memoized estimates and may be shared by threads.
+ * The result of an estimate equals the one of {@link QueryStatistics#triplesForQueryPlan(Op)}
+ * for the plan with the constants written in place of the parameters.
+ * 
+ * @author dorgon
+ *
+ */
+public class PreparedEstimate {
+	private final RDFStatsDatasetImpl dataset;
+	private final Op plan;
+	
+	/** pattern operator => prepared pattern */
+	private final Map<Op, Leaf> leaves = new IdentityHashMap<Op, Leaf>();
+	
+	/** operator => variables of its patterns */
+	private final Map<Op, Set<Var>> patternVars = new IdentityHashMap<Op, Set<Var>>();
+	
+	protected PreparedEstimate(RDFStatsDatasetImpl dataset, Op plan) {
+		this.dataset = dataset;
+		this.plan = plan;
+		prepare(plan, null);
+	}
+	
+	/**
+	 * walks the plan and prepares each pattern operator with the filter directly above it
+	 * 
+	 * @param op
+	 * @param filter parent filter or null
+	 */
+	private void prepare(Op op, OpFilter filter) {
+		patternVars.put(op, Collections.unmodifiableSet(OpVars.patternVars(op)));
+		
+		if (op instanceof OpFilter)
+			prepare(((OpFilter) op).getSubOp(), (OpFilter) op);
+		else if (op instanceof Op1)
+			prepare(((Op1) op).getSubOp(), null);
+		else if (op instanceof Op2) {
+			prepare(((Op2) op).getLeft(), null);
+			prepare(((Op2) op).getRight(), null);
+		} else if (op instanceof OpN) {
+			for (Op sub : ((OpN) op).getElements())
+				prepare(sub, null);
+		} else if (op instanceof OpBGP || op instanceof OpQuadPattern || op instanceof OpTriple)
+			leaves.put(op, new Leaf(op, filter));
+	}
+	
+	/**
+	 * @return the compiled plan
+	 */
+	public Op getPlan() {
+		return plan;
+	}
+	
+	/**
+	 * @return the dataset the estimates are calculated for
+	 */
+	public RDFStatsDataset getDataset() {
+		return dataset;
+	}
+	
+	/**
+	 * estimate the plan without parameters
+	 * @return cost estimate (min/average/max), see {@link QueryStatistics}
+	 */
+	public Long[] estimate() {
+		return estimate((Binding) null);
+	}
+	
+	/**
+	 * @param params variable name (without leading '?') => value
+	 * @return cost estimate (min/average/max), see {@link QueryStatistics}
+	 */
+	public Long[] estimate(Map<String, Node> params) {
+		Binding b = new BindingMap();
+		if (params != null) {
+			for (String name : params.keySet())
+				b.add(Var.alloc(name), params.get(name));
+		}
+		return estimate(b);
+	}
+	
+	/**
+	 * @param params values of the parameter variables, may be null
+	 * @return cost estimate (min/average/max), see {@link QueryStatistics}
+	 */
+	public Long[] estimate(Binding params) {
+		if (params != null && params.isEmpty())
+			params = null;
+		return new PlanCalculator(dataset, this, params).calculate(plan);
+	}
+
+	/**
+	 * @param op
+	 * @param params
+	 * @return variables of the patterns of op which are not bound by params
+	 */
+	Set<Var> getPatternVars(Op op, Binding params) {
+		Set<Var> prepared = patternVars.get(op);
+		Set<Var> vars = new HashSet<Var>((prepared != null) ? prepared : OpVars.patternVars(op));
+		if (params != null) {
+			for (Var v : vars.toArray(new Var[vars.size()]))
+				if (params.contains(v))
+					vars.remove(v);
+		}
+		return vars;
+	}
+
+	/**
+	 * @param op an OpBGP or OpQuadPattern of the plan
+	 * @param pattern its basic pattern
+	 * @param params
+	 * @return estimate as returned by {@link QueryStatistics#triplesForFilteredBGP(BasicPattern, ExprList)}
+	 * @throws RDFStatsModelException
+	 */
+	Integer[] triplesForFilteredBGP(Op op, BasicPattern pattern, Binding params) throws RDFStatsModelException {
+		Leaf leaf = leaves.get(op);
+		if (leaf == null) // not part of the prepared plan
+			return dataset.triplesForFilteredBGP(substitute(pattern, params), null);
+		
+		StatisticsCatalog catalog = dataset.getCatalog();
+		boolean fixed = leaf.isFixed(params);
+		if (fixed) {
+			Memo m = leaf.memo;
+			if (m != null && m.catalog == catalog)
+				return copy(m.estimate);
+		}
+		
+		ExprList exprs = null, normalized = null;
+		if (leaf.filter != null) {
+			exprs = substitute(leaf.filter.getExprs(), params);
+			normalized = substitute(leaf.normalized, params);
+		}
+		Integer[] i = dataset.triplesForFilteredBGP(substitute(pattern, params), exprs, normalized);
+		if (fixed)
+			leaf.memo = new Memo(catalog, copy(i));
+		return i;
+	}
+	
+	/**
+	 * @param op an OpTriple of the plan
+	 * @param params
+	 * @return estimate as returned by {@link GraphStatistics#triplesForFilteredPattern(Node, Node, Node, ExprList)}
+	 * @throws RDFStatsModelException
+	 */
+	Integer triplesForFilteredPattern(OpTriple op, Binding params) throws RDFStatsModelException {
+		Leaf leaf = leaves.get(op);
+		if (leaf == null) { // not part of the prepared plan
+			Triple t = substitute(op.getTriple(), params);
+			return dataset.triplesForFilteredPattern(t.getSubject(), t.getPredicate(), t.getObject(), null);
+		}
+		
+		StatisticsCatalog catalog = dataset.getCatalog();
+		boolean fixed = leaf.isFixed(params);
+		if (fixed) {
+			Memo m = leaf.memo;
+			if (m != null && m.catalog == catalog)
+				return m.estimate[0];
+		}
+		
+		Triple t = substitute(op.getTriple(), params);
+		ExprList exprs = (leaf.normalized != null) ? substitute(leaf.normalized, params) : null;
+		Integer i = dataset.triplesForFilteredPattern(t.getSubject(), t.getPredicate(), t.getObject(), exprs, true);
+		if (fixed)
+			leaf.memo = new Memo(catalog, new Integer[] { i });
+		return i;
+	}
+	
+	private static BasicPattern substitute(BasicPattern pattern, Binding params) {
+		return (params == null) ? pattern : Substitute.substitute(pattern, params);
+	}
+
+	private static Triple substitute(Triple t, Binding params) {
+		return (params == null) ? t : Substitute.substitute(t, params);
+	}
+	
+	/** substitutes without folding constants, so the result equals the parsed expression with the values in place */
+	private static ExprList substitute(ExprList exprs, Binding params) {
+		return (params == null) ? exprs : exprs.copySubstitute(params, false);
+	}
+	
+	private static Integer[] copy(Integer[] estimate) {
+		return (estimate == null) ? null : estimate.clone();
+	}
+	
+	/**
+	 * pattern operator with the filter applied to it
+	 */
+	private static final class Leaf {
+		/** parent filter or null */
+		final OpFilter filter;
+		
+		/** the filter after DeMorgan and distributive law have been applied or null */
+		final ExprList normalized;
+		
+		/** variables of the pattern and its filter */
+		final Set<Var> vars;
+		
+		/** estimate for calls which don't bind any of vars */
+		volatile Memo memo;
+		
+		Leaf(Op op, OpFilter filter) {
+			this.filter = filter;
+			this.normalized = (filter != null) ? ExprUtils.optimizeFilterExprs(filter.getExprs()) : null;
+			
+			Set<Var> vars = new HashSet<Var>();
+			if (op instanceof OpTriple)
+				addVars(((OpTriple) op).getTriple(), vars);
+			else
+				for (Triple t : (op instanceof OpBGP) ? ((OpBGP) op).getPattern() : ((OpQuadPattern) op).getBasicPattern())
+					addVars(t, vars);
+			if (filter != null)
+				vars.addAll(filter.getExprs().getVarsMentioned());
+			this.vars = vars;
+		}
+		
+		private static void addVars(Triple t, Set<Var> vars) {
+			for (Node n : new Node[] { t.getSubject(), t.getPredicate(), t.getObject() })
+				if (n.isVariable())
+					vars.add(Var.alloc(n));
+		}
+		
+		/**
+		 * @param params
+		 * @return true if the estimate doesn't depend on params
+		 */
+		boolean isFixed(Binding params) {
+			if (params == null)
+				return true;
+			for (Var v : vars)
+				if (params.contains(v))
+					return false;
+			return true;
+		}
+	}
+	
+	/**
+	 * estimate of a pattern for a catalog version
+	 */
+	private static final class Memo {
+		final StatisticsCatalog catalog;
+		final Integer[] estimate;
+		
+		Memo(StatisticsCatalog catalog, Integer[] estimate) {
+			this.catalog = catalog;
+			this.estimate = estimate;
+		}
+	}
+}
@@ -18,6 +18,9 @@ package at.jku.rdfstats;
 import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.sparql.algebra.Op;
 import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.TriplePath;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
 import com.hp.hpl.jena.sparql.expr.ExprList;
 
 /**
@@ -33,8 +36,71 @@ public interface QueryStatistics {
 
 	public Integer[] triplesForBGP(BasicPattern bgp) throws RDFStatsModelException;
 	public Integer[] triplesForFilteredBGP(BasicPattern bgp, ExprList exprs) throws RDFStatsModelException;
+	
+	/**
+	 * estimates a star pattern { ?s :p1 ?o1 . ?s :p2 ?o2 ... } based on the characteristic sets of the source
+	 * 
+	 * @param star at least two triple patterns with the same variable subject and concrete properties
+	 * @param exprs filter expressions or null
+	 * @return the estimate or null if star is not a star pattern or there are no characteristic sets
+	 */
+	public Integer[] triplesForStar(BasicPattern star, ExprList exprs) throws RDFStatsModelException;
+	
+	/**
+	 * estimates a tree of joins on subject and object variables, e.g. a chain { ?a :p ?b . ?b :q ?c },
+	 * based on the join key sketches of the source
+	 * 
+	 * @param chain at least two triple patterns with concrete properties, connected by variables shared by two patterns each
+	 * @param exprs filter expressions or null
+	 * @return the estimate or null if chain is not such a pattern or there are no join key sketches for its properties
+	 */
+	public Integer[] triplesForChain(BasicPattern chain, ExprList exprs) throws RDFStatsModelException;
+	
+	/**
+	 * estimates which fraction of the solutions of left have a join partner in right, e.g. for OPTIONAL
+	 * 
+	 * @param left
+	 * @param right
+	 * @return the fraction of the distinct values of the join variable in left which also occur in right,
+	 * 	or null if the patterns don't share exactly one subject or object variable or there are no join key sketches
+	 */
+	public Double joinKeyCoverage(BasicPattern left, BasicPattern right) throws RDFStatsModelException;
+	
+	/**
+	 * estimates a property path pattern, e.g. { ?a :p/:q ?b } or { ?a :p+ ?b }
+	 * 
+	 * @param path
+	 * @return the estimate or null if the path contains a variable property or unknown path elements
+	 */
+	public Integer[] triplesForPath(TriplePath path) throws RDFStatsModelException;
+	
+	/**
+	 * estimates the number of distinct values of v in the solutions of pattern, e.g. the groups of GROUP BY ?v
+	 * 
+	 * @param pattern
+	 * @param v
+	 * @return the estimate or null if v doesn't occur in pattern with a concrete property
+	 */
+	public Integer distinctValues(BasicPattern pattern, Var v) throws RDFStatsModelException;
+	
+	/**
+	 * estimates the fraction of the solutions of pattern (or of a plan composed of its triple patterns) which satisfy the filter,
+	 * conjuncts which can't be estimated from the histograms are not taken into account
+	 * 
+	 * @param pattern
+	 * @param exprs
+	 * @return the selectivity between 0 and 1 or null if none of the filter conjuncts can be estimated
+	 */
+	public Double filterSelectivity(BasicPattern pattern, ExprList exprs) throws RDFStatsModelException;
 	public Long[] triplesForQuery(String qry) throws RDFStatsModelException;
 	public Long[] triplesForQuery(Query qry) throws RDFStatsModelException;
 	public Long[] triplesForQueryPlan(Op plan) throws RDFStatsModelException;
 	
+	/**
+	 * compile a query template once, variables can be bound to constants by each {@link PreparedEstimate#estimate(Binding)}
+	 */
+	public PreparedEstimate prepare(String qry) throws RDFStatsModelException;
+	public PreparedEstimate prepare(Query qry) throws RDFStatsModelException;
+	public PreparedEstimate prepare(Op plan) throws RDFStatsModelException;
+	
 }
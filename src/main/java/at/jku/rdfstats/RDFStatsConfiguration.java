@@ -19,12 +19,16 @@ import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimeZone;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import at.jku.rdfstats.hist.builder.QuantileSketch;
 import at.jku.rdfstats.vocabulary.Config;
 
 import com.hp.hpl.jena.assembler.Assembler;
@@ -78,6 +82,17 @@ public class RDFStatsConfiguration {
 	private final String localHostname;
 	private final boolean quickMode;
 	private final TimeZone defaultTimeZone;
+	private int parallelism = DEFAULT_PARALLELISM;
+	private int concurrentSources = DEFAULT_CONCURRENT_SOURCES;
+	private int concurrentSourcesPerHost = DEFAULT_CONCURRENT_SOURCES_PER_HOST;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private boolean orderedPaging = DEFAULT_ORDERED_PAGING;
+	private boolean aggregatePushdown = DEFAULT_AGGREGATE_PUSHDOWN;
+	private final Set<String> approximateDatatypes = new HashSet<String>();
+	private int sketchSize = DEFAULT_SKETCH_SIZE;
+	private int leaseDuration = DEFAULT_LEASE_DURATION;
+	private int maxCharacteristicSets = DEFAULT_MAX_CHARACTERISTIC_SETS;
+	private int joinKeySketchSize = DEFAULT_JOIN_KEY_SKETCH_SIZE;
 	
 //	public static final boolean DEFAULT_CLASSSPECIFIC = false;
 	public static final int DEFAULT_PREFSIZE = 50;
@@ -85,6 +100,16 @@ public class RDFStatsConfiguration {
 	public static final String DEFAULT_OUTFORMAT = "N3";
 	public static final int DEFAULT_STRHIST_MAXLEN = Integer.MAX_VALUE;
 	public static final boolean DEFAULT_QUICK_MODE = false;
+	public static final int DEFAULT_PARALLELISM = 1;
+	public static final int DEFAULT_CONCURRENT_SOURCES = 1;
+	public static final int DEFAULT_CONCURRENT_SOURCES_PER_HOST = 1;
+	public static final int DEFAULT_PAGE_SIZE = 0; // unpaged
+	public static final boolean DEFAULT_ORDERED_PAGING = false;
+	public static final boolean DEFAULT_AGGREGATE_PUSHDOWN = false;
+	public static final int DEFAULT_SKETCH_SIZE = QuantileSketch.DEFAULT_K;
+	public static final int DEFAULT_LEASE_DURATION = 0; // no cross-process leases
+	public static final int DEFAULT_MAX_CHARACTERISTIC_SETS = 0; // disabled, collecting keeps every subject in memory
+	public static final int DEFAULT_JOIN_KEY_SKETCH_SIZE = 128;
 	
 	public static RDFStatsConfiguration create(Model statsModel,
 			List<String> endpoints,
@@ -141,9 +166,26 @@ public class RDFStatsConfiguration {
 		boolean quickMode = (cfg.hasProperty(Config.quickMode)) ? cfg.getProperty(Config.quickMode).getBoolean() : DEFAULT_QUICK_MODE;
 		TimeZone timeZone = (cfg.hasProperty(Config.defaultTimezone)) ? TimeZone.getTimeZone(cfg.getProperty(Config.defaultTimezone).getString()) : TimeZone.getDefault();
 
-		return new RDFStatsConfiguration(statsModel, endpoints, documentURLs, 
+		RDFStatsConfiguration conf = new RDFStatsConfiguration(statsModel, endpoints, documentURLs, 
 //				classSpecific, 
 				prefSize, outFile, outFormat, strHistMaxLength, quickMode, timeZone);
+		
+		if (cfg.hasProperty(Config.parallelism)) conf.setParallelism(cfg.getProperty(Config.parallelism).getInt());
+		if (cfg.hasProperty(Config.concurrentSources)) conf.setConcurrentSources(cfg.getProperty(Config.concurrentSources).getInt());
+		if (cfg.hasProperty(Config.concurrentSourcesPerHost)) conf.setConcurrentSourcesPerHost(cfg.getProperty(Config.concurrentSourcesPerHost).getInt());
+		if (cfg.hasProperty(Config.pageSize)) conf.setPageSize(cfg.getProperty(Config.pageSize).getInt());
+		if (cfg.hasProperty(Config.orderedPaging)) conf.setOrderedPaging(cfg.getProperty(Config.orderedPaging).getBoolean());
+		if (cfg.hasProperty(Config.aggregatePushdown)) conf.setAggregatePushdown(cfg.getProperty(Config.aggregatePushdown).getBoolean());
+		List<String> approximateDatatypes = new ArrayList<String>();
+		StmtIterator it3 = cfg.getModel().listStatements(cfg, Config.approximateDatatype, (RDFNode) null);
+		while (it3.hasNext())
+			approximateDatatypes.add(it3.nextStatement().getResource().getURI());
+		conf.setApproximateDatatypes(approximateDatatypes);
+		if (cfg.hasProperty(Config.sketchSize)) conf.setSketchSize(cfg.getProperty(Config.sketchSize).getInt());
+		if (cfg.hasProperty(Config.leaseDuration)) conf.setLeaseDuration(cfg.getProperty(Config.leaseDuration).getInt());
+		if (cfg.hasProperty(Config.maxCharacteristicSets)) conf.setMaxCharacteristicSets(cfg.getProperty(Config.maxCharacteristicSets).getInt());
+		if (cfg.hasProperty(Config.joinKeySketchSize)) conf.setJoinKeySketchSize(cfg.getProperty(Config.joinKeySketchSize).getInt());
+		return conf;
 	}
 	
 	private RDFStatsConfiguration(
@@ -235,6 +277,135 @@ public class RDFStatsConfiguration {
 	public TimeZone getDefaultTimeZone() {
 		return defaultTimeZone;
 	}
+	
+	/** @return number of worker threads used to generate property histograms of a single RDF source */
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/** @param parallelism number of worker threads per RDF source, null or values < 1 for the default */
+	public void setParallelism(Integer parallelism) {
+		this.parallelism = (parallelism != null && parallelism > 0) ? parallelism : DEFAULT_PARALLELISM;
+	}
+	
+	/** @return maximum number of RDF sources processed concurrently by {@link GeneratorMultiple} */
+	public int getConcurrentSources() {
+		return concurrentSources;
+	}
+	
+	/** @param concurrentSources maximum number of RDF sources processed concurrently, null or values < 1 for the default */
+	public void setConcurrentSources(Integer concurrentSources) {
+		this.concurrentSources = (concurrentSources != null && concurrentSources > 0) ? concurrentSources : DEFAULT_CONCURRENT_SOURCES;
+	}
+	
+	/** @return maximum number of RDF sources of the same host processed concurrently by {@link GeneratorMultiple} */
+	public int getConcurrentSourcesPerHost() {
+		return concurrentSourcesPerHost;
+	}
+	
+	/** @param concurrentSourcesPerHost maximum number of RDF sources of the same host processed concurrently, null or values < 1 for the default */
+	public void setConcurrentSourcesPerHost(Integer concurrentSourcesPerHost) {
+		this.concurrentSourcesPerHost = (concurrentSourcesPerHost != null && concurrentSourcesPerHost > 0) ? concurrentSourcesPerHost : DEFAULT_CONCURRENT_SOURCES_PER_HOST;
+	}
+	
+	/** @return page size for retrieving query results, 0 if results are retrieved unpaged */
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	/** @param pageSize page size for retrieving query results, null or values < 1 for unpaged results */
+	public void setPageSize(Integer pageSize) {
+		this.pageSize = (pageSize != null && pageSize > 0) ? pageSize : DEFAULT_PAGE_SIZE;
+	}
+	
+	/** @return true if paged queries are ordered by all result variables */
+	public boolean orderedPaging() {
+		return orderedPaging;
+	}
+	
+	/** @param orderedPaging true to order paged queries by all result variables */
+	public void setOrderedPaging(boolean orderedPaging) {
+		this.orderedPaging = orderedPaging;
+	}
+	
+	/** @return true if histograms of SPARQL endpoints are calculated by SPARQL 1.1 aggregate queries where possible */
+	public boolean aggregatePushdown() {
+		return aggregatePushdown;
+	}
+	
+	/** @param aggregatePushdown true to calculate histograms of SPARQL endpoints by SPARQL 1.1 aggregate queries where possible;
+	 * characteristic sets and join key sketches (see {@link #setMaxCharacteristicSets(Integer)}, {@link #setJoinKeySketchSize(Integer)})
+	 * need the subjects of all values, so if they are enabled, the pushed-down values are still scanned for their subjects */
+	public void setAggregatePushdown(boolean aggregatePushdown) {
+		this.aggregatePushdown = aggregatePushdown;
+	}
+	
+	/**
+	 * @param typeUri
+	 * @return true if histograms of typeUri are approximated by bounded-memory sketches instead of keeping all values
+	 */
+	public boolean approximate(String typeUri) {
+		return approximateDatatypes.contains(typeUri);
+	}
+	
+	/** @return datatypes approximated by sketches */
+	public Set<String> getApproximateDatatypes() {
+		return approximateDatatypes;
+	}
+	
+	/** @param typeUris datatypes approximated by sketches, replaces the current ones */
+	public void setApproximateDatatypes(Collection<String> typeUris) {
+		approximateDatatypes.clear();
+		if (typeUris != null)
+			approximateDatatypes.addAll(typeUris);
+	}
+	
+	/** @return size k of the quantile sketches used for approximated histograms */
+	public int getSketchSize() {
+		return sketchSize;
+	}
+	
+	/** @param sketchSize size k of the quantile sketches, null or values < 8 for the default */
+	public void setSketchSize(Integer sketchSize) {
+		this.sketchSize = (sketchSize != null && sketchSize >= 8) ? sketchSize : DEFAULT_SKETCH_SIZE;
+	}
+	
+	/**
+	 * @return duration of the cross-process update lease in seconds, 0 if leases are disabled
+	 */
+	public int getLeaseDuration() {
+		return leaseDuration;
+	}
+	
+	/** @param leaseDuration duration of the cross-process update lease in seconds, null or values < 1 to disable leases */
+	public void setLeaseDuration(Integer leaseDuration) {
+		this.leaseDuration = (leaseDuration != null && leaseDuration > 0) ? leaseDuration : DEFAULT_LEASE_DURATION;
+	}
+	
+	/**
+	 * @return maximum number of characteristic sets stored per dataset, 0 if they are not collected
+	 */
+	public int getMaxCharacteristicSets() {
+		return maxCharacteristicSets;
+	}
+	
+	/** @param maxCharacteristicSets maximum number of characteristic sets stored per dataset, 0 to disable them, null or negative values for the default;
+	 * while a dataset is scanned, the properties of all its subjects are kept in memory (see {@link CharacteristicSets.Collector}) */
+	public void setMaxCharacteristicSets(Integer maxCharacteristicSets) {
+		this.maxCharacteristicSets = (maxCharacteristicSets != null && maxCharacteristicSets >= 0) ? maxCharacteristicSets : DEFAULT_MAX_CHARACTERISTIC_SETS;
+	}
+	
+	/**
+	 * @return size k of the join key sketches of each property, 0 if they are not collected
+	 */
+	public int getJoinKeySketchSize() {
+		return joinKeySketchSize;
+	}
+	
+	/** @param joinKeySketchSize size k of the join key sketches, 0 to disable them, null or other values < 8 for the default */
+	public void setJoinKeySketchSize(Integer joinKeySketchSize) {
+		this.joinKeySketchSize = (joinKeySketchSize != null && (joinKeySketchSize == 0 || joinKeySketchSize >= 8)) ? joinKeySketchSize : DEFAULT_JOIN_KEY_SKETCH_SIZE;
+	}
 
 	public static String getVersion() {
 		return version;
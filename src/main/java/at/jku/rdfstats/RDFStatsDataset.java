@@ -39,6 +39,16 @@ public interface RDFStatsDataset extends JavaResourceView, GraphStatistics, Quer
 	public Calendar getCalendar();
 	
 	public Date getDate();
+	
+	/**
+	 * @return the characteristic sets of the source or null if they have not been generated
+	 */
+	public CharacteristicSets getCharacteristicSets();
+	
+	/**
+	 * @return the join key sketches of the source or null if they have not been generated
+	 */
+	public JoinKeySketches getJoinKeySketches();
 
 	public String toString();
 }
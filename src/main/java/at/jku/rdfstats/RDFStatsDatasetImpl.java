@@ -15,12 +15,16 @@
  */
 package at.jku.rdfstats;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
@@ -28,19 +32,19 @@ import java.util.TreeMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.jku.rdfstats.JoinKeySketches.KeySketch;
+import at.jku.rdfstats.StatisticsCatalog.DatasetInfo;
 import at.jku.rdfstats.expr.CoverageBuilder;
 import at.jku.rdfstats.expr.ExprUtils;
 import at.jku.rdfstats.hist.Histogram;
 import at.jku.rdfstats.hist.RDF2JavaMapper;
 import at.jku.rdfstats.vocabulary.Stats;
 
-import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.shared.Lock;
 import com.hp.hpl.jena.sparql.algebra.AlgebraGenerator;
 import com.hp.hpl.jena.sparql.algebra.Op;
@@ -77,12 +81,18 @@ import com.hp.hpl.jena.sparql.algebra.op.OpTable;
 import com.hp.hpl.jena.sparql.algebra.op.OpTriple;
 import com.hp.hpl.jena.sparql.algebra.op.OpUnion;
 import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.TriplePath;
 import com.hp.hpl.jena.sparql.core.Var;
 import com.hp.hpl.jena.sparql.engine.binding.Binding;
 import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
 import com.hp.hpl.jena.sparql.expr.Expr;
 import com.hp.hpl.jena.sparql.expr.ExprList;
-import com.hp.hpl.jena.vocabulary.DC;
+import com.hp.hpl.jena.sparql.path.P_Alt;
+import com.hp.hpl.jena.sparql.path.P_Link;
+import com.hp.hpl.jena.sparql.path.P_Mod;
+import com.hp.hpl.jena.sparql.path.P_Reverse;
+import com.hp.hpl.jena.sparql.path.P_Seq;
+import com.hp.hpl.jena.sparql.path.Path;
 
 /**
  * @author dorgon
@@ -91,35 +101,66 @@ import com.hp.hpl.jena.vocabulary.DC;
 public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStatsDataset {
 	private static final Logger log = LoggerFactory.getLogger(RDFStatsDatasetImpl.class);
 
-	private final RDFStatsModel stats;
+	private final RDFStatsModelImpl stats;
+	
+	/** metadata of the catalog version seen last */
+	private volatile Metadata metadata;
 	
 	/**
 	 * constructor, called by RDFStatsModel
 	 * 
 	 * @param instance
 	 */
-	protected RDFStatsDatasetImpl(Resource instance, RDFStatsModel stats) {
+	protected RDFStatsDatasetImpl(Resource instance, RDFStatsModelImpl stats) {
 		super(instance);
 		this.stats = stats;
 	}
 
+	/**
+	 * @return the metadata from the pinned catalog snapshot or, if this dataset is not part of it, read from the model
+	 */
+	private DatasetInfo getInfo() {
+		StatisticsCatalog c = stats.getCatalog();
+		Metadata m = metadata;
+		if (m != null && m.catalog == c)
+			return m.info;
+		
+		DatasetInfo info = c.getDatasetInfo(resource);
+		if (info == null) {
+			model.enterCriticalSection(Lock.READ);
+			try {
+				info = DatasetInfo.read(resource);
+			} finally {
+				model.leaveCriticalSection();
+			}
+		}
+		metadata = new Metadata(c, info);
+		return info;
+	}
+	
+	/**
+	 * @return the aggregates of this dataset for the current version of the statistics
+	 * @throws RDFStatsModelException
+	 */
+	public DatasetSummary getSummary() throws RDFStatsModelException {
+		return stats.getSummary(getSourceUrl());
+	}
+	
+	public CharacteristicSets getCharacteristicSets() {
+		return stats.getCatalog().getCharacteristicSets(resource);
+	}
+	
+	public JoinKeySketches getJoinKeySketches() {
+		return stats.getCatalog().getJoinKeySketches(resource);
+	}
+	
 	/**
 	 * @return
 	 */
 	public String getSourceUrl() {
-		String url = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			Statement s = resource.getProperty(Stats.sourceUrl);
-			if (s != null && s.getObject().isLiteral())
-				url = s.getString();
-			else if (s != null && s.getObject().isResource())
-				url = s.getResource().getURI();
-		} catch (Exception e) {
-			log.error("Failed to get sourceUrl from RDFStatsDataset: " + e);
-		} finally {
-			model.leaveCriticalSection();
-		}
+		String url = getInfo().getSourceUrl();
+		if (url == null)
+			log.error("Failed to get sourceUrl from RDFStatsDataset " + resource + ".");
 		return url;
 	}
 
@@ -127,17 +168,9 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @return the source type URI
 	 */
 	public String getSourceType() {
-		String r = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			Statement s = resource.getProperty(Stats.sourceType);
-			if (s != null && s.getObject().isResource())
-				r = s.getResource().getURI();
-		} catch (Exception e) {
-			log.error("Failed to get sourceType from RDFStatsDataset: " + e);
-		} finally {
-			model.leaveCriticalSection();
-		}
+		String r = getInfo().getSourceType();
+		if (r == null)
+			log.error("Failed to get sourceType from RDFStatsDataset " + resource + ".");
 		return r;
 	}
 	
@@ -145,15 +178,9 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @return
 	 */
 	public String getCreator() {
-		String creator = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			creator = resource.getProperty(DC.creator).getString();
-		} catch (Exception e) {
-			log.error("Failed to get dc:creator from RDFStatsDataset: " + e);
-		} finally {
-			model.leaveCriticalSection();
-		}
+		String creator = getInfo().getCreator();
+		if (creator == null)
+			log.error("Failed to get dc:creator from RDFStatsDataset " + resource + ".");
 		return creator;
 	}
 
@@ -161,18 +188,12 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @return
 	 */
 	public Calendar getCalendar() {
-		Calendar date = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			Statement s = resource.getProperty(DC.date);
-			if (s != null) 
-			date = ((XSDDateTime) s.getLiteral().getValue()).asCalendar();
-		} catch (Exception e) {
-			log.error("Failed to get dc:date calendar from RDFStatsDataset: " + e);
-		} finally {
-			model.leaveCriticalSection();
-		}
-		return date;
+		return getInfo().getCalendar();
+	}
+	
+	@Override
+	public String getLabel() {
+		return getInfo().getLabel();
 	}
 
 	/**
@@ -190,16 +211,7 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 // ###################  GraphStatistics implementation ###################
 
 	public Set<String> getProperties() throws RDFStatsModelException {
-		Set<String> set = new HashSet<String>();
-		String sourceUrl = getSourceUrl();
-		
-//		List<String> classes = stats.getPropertyHistogramClasses(sourceUrl);
-//		for (String c : classes) {
-			List<String> props = stats.getPropertyHistogramProperties(sourceUrl);
-			set.addAll(props);
-//		}
-		
-		return set;
+		return new HashSet<String>(getSummary().getProperties());
 	}
 	
 	/*
@@ -207,33 +219,14 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @see at.jku.rdfstats.GraphStatistics#getSubjectsTotal()
 	 */
 	public Integer getSubjectsTotal() throws RDFStatsModelException {
-		Integer bnode = getAnonymousSubjectsTotal();
-		if (bnode == null)
-			return null;
-		
-		String sourceUrl = getSourceUrl();
-		Integer uriSbj = null;
-//		for (String c : stats.getSubjectHistogramClassess(sourceUrl)) {
-			Histogram<?> sh = stats.getSubjectHistogram(sourceUrl, false);
-			if (sh != null)
-				uriSbj = sh.getTotalValues();
-			
-//		}
-		if (uriSbj == null)
-			return null;
-		
-		return bnode + uriSbj;
+		return getSummary().getSubjectsTotal();
 	}
 
 	/* (non-Javadoc)
 	 * @see at.jku.rdfstats.GraphStatistics#getAnonymousSubjectsTotal()
 	 */
 	public Integer getAnonymousSubjectsTotal() throws RDFStatsModelException {
-		Integer bnode = null;		
-		Histogram<?> bh = stats.getSubjectHistogram(getSourceUrl(), true);
-		if (bh != null)
-			bnode = bh.getTotalValues();
-		return bnode;
+		return getSummary().getAnonymousSubjectsTotal();
 	}
 	
 	/*
@@ -241,11 +234,7 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @see at.jku.rdfstats.GraphStatistics#getURISubjectsTotal()
 	 */
 	public Integer getURISubjectsTotal() throws RDFStatsModelException {
-		Integer bnode = null;		
-		Histogram<?> bh = stats.getSubjectHistogram(getSourceUrl(), false);
-		if (bh != null)
-			bnode = bh.getTotalValues();
-		return bnode;
+		return getSummary().getURISubjectsTotal();
 	}
 	
 	/*
@@ -268,15 +257,7 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @see at.jku.rdfstats.GraphStatistics#getTriplesTotal()
 	 */
 	public Integer getTriplesTotal() throws RDFStatsModelException {
-		String sourceUrl = getSourceUrl();
-		int total = 0;
-		for (String p : stats.getPropertyHistogramProperties(sourceUrl)) {
-			for (String range : stats.getPropertyHistogramRanges(sourceUrl, p)) {
-				Histogram h = stats.getPropertyHistogram(sourceUrl, p, range);
-				total += h.getTotalValues();
-			}
-		}
-		return total;
+		return getSummary().getTriplesTotal();
 	}
 	
 	public Integer triplesForFilteredPattern(Node s, Node p, Node o, ExprList filter) throws RDFStatsModelException {
@@ -297,7 +278,7 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @throws RDFStatsModelException
 	 */
 	@SuppressWarnings("unchecked")
-	private Integer triplesForFilteredPattern(Node s, Node p, Node o, ExprList filter, boolean filterOptimized) throws RDFStatsModelException {
+	Integer triplesForFilteredPattern(Node s, Node p, Node o, ExprList filter, boolean filterOptimized) throws RDFStatsModelException {
 		Integer l = null;
 		String sourceUrl = getSourceUrl();
 		String pURI, rURI;
@@ -461,25 +442,18 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	 * @see at.jku.rdfstats.GraphStatistics#getPropertyEntropy(java.lang.String)
 	 */
 	public Float getPropertyEntropy(String p) throws RDFStatsModelException {
-		String sourceUrl = getSourceUrl();
-		float entropy = 1.0f;
-		List<String> ranges = stats.getPropertyHistogramRanges(sourceUrl, p);
-		for (String r : ranges) {
-			Histogram h = stats.getPropertyHistogram(sourceUrl, p, ranges.get(0));
-			entropy *= (float) h.getDistinctValues() / h.getTotalValues();
-		}
-		return entropy;
+		Float entropy = getSummary().getPropertyEntropy(p);
+		return (entropy != null) ? entropy : 1.0f;
 	}
 	
 	/* (non-Javadoc)
 	 * @see at.jku.rdfstats.GraphStatistics#getPropertyEntropySorted()
 	 */
 	public TreeMap<Float, String> getPropertyEntropySorted() throws RDFStatsModelException {
-		String sourceUrl = getSourceUrl();
+		DatasetSummary summary = getSummary();
 		TreeMap<Float, String> entropies = new TreeMap<Float, String>();
-		List<String> props = stats.getPropertyHistogramProperties(sourceUrl);
-		for (String p : props)
-			entropies.put(getPropertyEntropy(p), p);
+		for (String p : summary.getProperties())
+			entropies.put(summary.getPropertyEntropy(p), p);
 		return entropies;
 	}
 	
@@ -487,6 +461,13 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 // ###################  QueryStatistics implementation ###################
 	
 	public Integer[] triplesForBGP(BasicPattern bgp) throws RDFStatsModelException {
+		Integer[] star = triplesForStar(bgp, null);
+		if (star != null)
+			return star;
+		Integer[] chain = triplesForChain(bgp, null);
+		if (chain != null)
+			return chain;
+		
 		Iterator<Triple> it = bgp.iterator();
 		Integer l = Integer.MAX_VALUE;
 		Integer intermed;
@@ -505,9 +486,27 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	}
 	
 	public Integer[] triplesForFilteredBGP(BasicPattern bgp, ExprList exprs) throws RDFStatsModelException {
+		return triplesForFilteredBGP(bgp, exprs, null);
+	}
+	
+	/**
+	 * @param bgp
+	 * @param exprs
+	 * @param normalized exprs after {@link ExprUtils#optimizeFilterExprs(ExprList)} or null to normalize them if needed
+	 * @return
+	 * @throws RDFStatsModelException
+	 */
+	Integer[] triplesForFilteredBGP(BasicPattern bgp, ExprList exprs, ExprList normalized) throws RDFStatsModelException {
 		if (exprs == null)
 			return triplesForBGP(bgp);
 		
+		Integer[] star = triplesForStar(bgp, exprs, normalized);
+		if (star != null)
+			return star;
+		Integer[] chain = triplesForChain(bgp, exprs, normalized);
+		if (chain != null)
+			return chain;
+		
 		Set<Var> vars = exprs.getVarsMentioned();
 		Iterator<Triple> it = bgp.iterator();
 		Integer l = Integer.MAX_VALUE;
@@ -533,6 +532,462 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 		return new Integer[] { l, l, l };
 	}
 	
+	/**
+	 * The characteristic sets give the solutions of the star with unbound objects, assuming the average number of
+	 * triples per property for each subject of a set. Each pattern with a constant or filtered object reduces them
+	 * by its selectivity, the fraction of the triples of its property estimated for the pattern.
+	 * 
+	 * The minimum is the number of subjects which exactly have the properties of a set containing the star, or 0 if an
+	 * object is constant, filtered or shared with another pattern or the subject. The maximum multiplies the subjects
+	 * of these sets and the dropped subjects by the maximum number of triples of each property per subject. Hence,
+	 * the estimate is exact if no subjects have been merged or dropped, each property occurs once per subject and all
+	 * objects are distinct variables.
+	 * 
+	 * @see at.jku.rdfstats.QueryStatistics#triplesForStar(com.hp.hpl.jena.sparql.core.BasicPattern, com.hp.hpl.jena.sparql.expr.ExprList)
+	 */
+	public Integer[] triplesForStar(BasicPattern star, ExprList exprs) throws RDFStatsModelException {
+		return triplesForStar(star, exprs, null);
+	}
+	
+	/**
+	 * @param star
+	 * @param exprs
+	 * @param normalized exprs after {@link ExprUtils#optimizeFilterExprs(ExprList)} or null to normalize them if needed
+	 * @return
+	 * @throws RDFStatsModelException
+	 */
+	Integer[] triplesForStar(BasicPattern star, ExprList exprs, ExprList normalized) throws RDFStatsModelException {
+		if (star.size() < 2)
+			return null;
+		
+		Node subject = null;
+		List<String> props = new ArrayList<String>(star.size());
+		for (Triple t : star) {
+			if (!t.getSubject().isVariable() || (subject != null && !subject.equals(t.getSubject())) || !t.getPredicate().isURI())
+				return null;
+			subject = t.getSubject();
+			props.add(t.getPredicate().getURI());
+		}
+		
+		CharacteristicSets cs = getCharacteristicSets();
+		if (cs == null)
+			return null;
+		
+		double[] bounds = cs.boundStar(props);
+		if (Double.isInfinite(bounds[1]))
+			return null; // dropped subjects of unknown multiplicities
+		double min = bounds[0], max = bounds[1];
+		double avg = cs.estimateStar(props);
+		
+		// variables bound by several positions restrict the solutions
+		Set<Node> objectVars = new HashSet<Node>();
+		for (Triple t : star) {
+			Node o = t.getObject();
+			if (o.isVariable() && (o.equals(subject) || !objectVars.add(o)))
+				min = 0;
+		}
+		
+		Set<Var> filterVars = (exprs != null) ? exprs.getVarsMentioned() : null;
+		ExprList filter = normalize(exprs, normalized);
+		DatasetSummary summary = null;
+		for (Triple t : star) {
+			Node o = t.getObject();
+			if (o.isVariable() && (filterVars == null || !filterVars.contains(Var.alloc(o))))
+				continue;
+			
+			if (summary == null)
+				summary = getSummary();
+			Integer total = summary.getPropertyTotal(t.getPredicate().getURI());
+			Integer selected = triplesForFilteredPattern(subject, t.getPredicate(), o, filter, true);
+			if (selected == null)
+				return null; // can't say, use the heuristics
+			avg *= (total != null && total > 0) ? Math.min(1d, (double) selected / total) : 0d;
+			min = 0;
+		}
+		
+		int l = (int) Math.min(Integer.MAX_VALUE, min);
+		int m = (int) Math.min(Integer.MAX_VALUE, max);
+		int a = (int) Math.min(m, Math.max(l, Math.ceil(avg)));
+		return new Integer[] { l, a, m };
+	}
+	
+	/**
+	 * @param exprs
+	 * @param normalized exprs already normalized or null
+	 * @return normalized exprs or null if there are none
+	 */
+	private static ExprList normalize(ExprList exprs, ExprList normalized) {
+		if (exprs == null || exprs.isEmpty())
+			return null;
+		return (normalized != null) ? normalized : ExprUtils.optimizeFilterExprs(exprs);
+	}
+	
+	/**
+	 * Each join between two patterns on a subject or object variable multiplies the solutions of both patterns
+	 * by overlap * (keys_l / total_l) * (keys_r / total_r) / (distinct_l * distinct_r), where overlap is the
+	 * estimated number of join values shared by the key sketches of both positions, keys the number of triples
+	 * with a URI or blank node in the position, total all triples of the property and distinct the number
+	 * of distinct keys, i.e. join values are assumed to be uniformly distributed.
+	 * 
+	 * @see at.jku.rdfstats.QueryStatistics#triplesForChain(com.hp.hpl.jena.sparql.core.BasicPattern, com.hp.hpl.jena.sparql.expr.ExprList)
+	 */
+	public Integer[] triplesForChain(BasicPattern chain, ExprList exprs) throws RDFStatsModelException {
+		return triplesForChain(chain, exprs, null);
+	}
+	
+	/**
+	 * @param chain
+	 * @param exprs
+	 * @param normalized exprs after {@link ExprUtils#optimizeFilterExprs(ExprList)} or null to normalize them if needed
+	 * @return
+	 * @throws RDFStatsModelException
+	 */
+	Integer[] triplesForChain(BasicPattern chain, ExprList exprs, ExprList normalized) throws RDFStatsModelException {
+		if (chain.size() < 2)
+			return null;
+		List<Triple> triples = chain.getList();
+		List<int[]> edges = getJoinEdges(triples);
+		if (edges == null || edges.size() != triples.size() - 1 || !isConnected(triples.size(), edges))
+			return null; // not a tree of joins, e.g. a cycle or a variable shared by more than two patterns
+		
+		JoinKeySketches sketches = getJoinKeySketches();
+		if (sketches == null)
+			return null;
+		
+		Set<Var> filterVars = (exprs != null) ? exprs.getVarsMentioned() : null;
+		ExprList filter = normalize(exprs, normalized);
+		DatasetSummary summary = getSummary();
+		int[] totals = new int[triples.size()];
+		double avg = 1, max = 1;
+		for (int i = 0; i < triples.size(); i++) {
+			Triple t = triples.get(i);
+			Integer total = summary.getPropertyTotal(t.getPredicate().getURI());
+			if (total == null || total == 0)
+				return new Integer[] { 0, 0, 0 };
+			totals[i] = total;
+			
+			Integer selected;
+			if (filterVars != null && (isFiltered(t.getSubject(), filterVars) || isFiltered(t.getObject(), filterVars)))
+				selected = triplesForFilteredPattern(t.getSubject(), t.getPredicate(), t.getObject(), filter, true);
+			else
+				selected = triplesForPattern(t.getSubject(), t.getPredicate(), t.getObject());
+			if (selected == null)
+				return null;
+			avg *= selected;
+			max *= selected;
+		}
+		
+		for (int[] e : edges) {
+			KeySketch l = getKeySketch(sketches, triples.get(e[0]), e[1]);
+			KeySketch r = getKeySketch(sketches, triples.get(e[2]), e[3]);
+			if (l == null || r == null)
+				return null; // sketches of one of the properties have not been collected
+			
+			double dl = l.getDistinct(), dr = r.getDistinct();
+			if (dl == 0 || dr == 0) {
+				avg = 0;
+				break;
+			}
+			avg *= JoinKeySketches.estimateOverlap(l, r) *
+				((double) l.getTriples() / totals[e[0]]) * ((double) r.getTriples() / totals[e[2]]) / (dl * dr);
+		}
+		
+		int a = (int) Math.min(Integer.MAX_VALUE, Math.ceil(avg));
+		int m = (int) Math.min(Integer.MAX_VALUE, Math.ceil(max));
+		return new Integer[] { 0, Math.min(a, m), m };
+	}
+	
+	/* (non-Javadoc)
+	 * @see at.jku.rdfstats.QueryStatistics#joinKeyCoverage(com.hp.hpl.jena.sparql.core.BasicPattern, com.hp.hpl.jena.sparql.core.BasicPattern)
+	 */
+	public Double joinKeyCoverage(BasicPattern left, BasicPattern right) throws RDFStatsModelException {
+		Map<Node, List<int[]>> l = getJoinPositions(left.getList());
+		Map<Node, List<int[]>> r = getJoinPositions(right.getList());
+		if (l == null || r == null)
+			return null;
+		l.keySet().retainAll(r.keySet());
+		if (l.size() != 1)
+			return null; // no or several join variables
+		Node v = l.keySet().iterator().next();
+		
+		JoinKeySketches sketches = getJoinKeySketches();
+		if (sketches == null)
+			return null;
+		
+		// the most selective position of the join variable on each side
+		KeySketch keys = null;
+		for (int[] pos : l.get(v)) {
+			KeySketch k = getKeySketch(sketches, left.get(pos[0]), pos[1]);
+			if (k == null)
+				return null;
+			if (keys == null || k.getDistinct() < keys.getDistinct())
+				keys = k;
+		}
+		if (keys.getDistinct() == 0)
+			return 0d;
+		
+		double overlap = Double.MAX_VALUE;
+		for (int[] pos : r.get(v)) {
+			KeySketch k = getKeySketch(sketches, right.get(pos[0]), pos[1]);
+			if (k == null)
+				return null;
+			overlap = Math.min(overlap, JoinKeySketches.estimateOverlap(keys, k));
+		}
+		return Math.min(1d, overlap / keys.getDistinct());
+	}
+	
+	/**
+	 * @param triples
+	 * @return the joins between the patterns, each { pattern, position, pattern, position }, or null if
+	 * 	a variable is used as predicate, by more than two patterns or twice in a pattern
+	 */
+	private static List<int[]> getJoinEdges(List<Triple> triples) {
+		Map<Node, List<int[]>> positions = getJoinPositions(triples);
+		if (positions == null)
+			return null;
+		
+		List<int[]> edges = new ArrayList<int[]>();
+		for (List<int[]> pos : positions.values()) {
+			if (pos.size() > 2)
+				return null;
+			if (pos.size() == 2)
+				edges.add(new int[] { pos.get(0)[0], pos.get(0)[1], pos.get(1)[0], pos.get(1)[1] });
+		}
+		return edges;
+	}
+	
+	/**
+	 * @param triples
+	 * @return subject and object variable => { pattern, position } of its occurrences (position 0 for subject,
+	 * 	2 for object) or null if a pattern has no concrete property or uses a variable twice
+	 */
+	private static Map<Node, List<int[]>> getJoinPositions(List<Triple> triples) {
+		Map<Node, List<int[]>> positions = new HashMap<Node, List<int[]>>();
+		for (int i = 0; i < triples.size(); i++) {
+			Triple t = triples.get(i);
+			if (!t.getPredicate().isURI() || t.getSubject().isVariable() && t.getSubject().equals(t.getObject()))
+				return null;
+			addJoinPosition(positions, t.getSubject(), i, 0);
+			addJoinPosition(positions, t.getObject(), i, 2);
+		}
+		return positions;
+	}
+	
+	private static void addJoinPosition(Map<Node, List<int[]>> positions, Node n, int pattern, int position) {
+		if (!n.isVariable())
+			return;
+		List<int[]> pos = positions.get(n);
+		if (pos == null) {
+			pos = new ArrayList<int[]>(2);
+			positions.put(n, pos);
+		}
+		pos.add(new int[] { pattern, position });
+	}
+	
+	/**
+	 * @param n number of patterns
+	 * @param edges
+	 * @return true if the edges connect all patterns
+	 */
+	private static boolean isConnected(int n, List<int[]> edges) {
+		int[] parent = new int[n];
+		for (int i = 0; i < n; i++)
+			parent[i] = i;
+		int components = n;
+		for (int[] e : edges) {
+			int a = e[0], b = e[2];
+			while (parent[a] != a)
+				a = parent[a];
+			while (parent[b] != b)
+				b = parent[b];
+			if (a != b) {
+				parent[a] = b;
+				components--;
+			}
+		}
+		return components == 1;
+	}
+	
+	private static KeySketch getKeySketch(JoinKeySketches sketches, Triple t, int position) {
+		String p = t.getPredicate().getURI();
+		return (position == 0) ? sketches.getSubjectKeys(p) : sketches.getObjectKeys(p);
+	}
+	
+	private static boolean isFiltered(Node n, Set<Var> filterVars) {
+		return n.isVariable() && filterVars.contains(Var.alloc(n));
+	}
+	
+	/**
+	 * A path is estimated bottom-up by its pairs, distinct start and distinct end nodes. A sequence joins
+	 * the ends of its left with the starts of its right path, based on the join key sketches for properties
+	 * or assuming the smaller set of nodes is contained in the larger one otherwise. Arbitrary length paths
+	 * are expanded up to {@link #MAX_PATH_LENGTH} steps, and while expansions still add solutions.
+	 * 
+	 * @see at.jku.rdfstats.QueryStatistics#triplesForPath(com.hp.hpl.jena.sparql.core.TriplePath)
+	 */
+	public Integer[] triplesForPath(TriplePath path) throws RDFStatsModelException {
+		if (path.isTriple()) {
+			Triple t = path.asTriple();
+			Integer i = triplesForPattern(t.getSubject(), t.getPredicate(), t.getObject());
+			return (i != null) ? new Integer[] { i, i, i } : null;
+		}
+		
+		PathEstimate e = estimatePath(path.getPath(), getSummary(), getJoinKeySketches());
+		if (e == null)
+			return null;
+		
+		double rows = e.rows, maxRows = e.maxRows;
+		Node s = path.getSubject(), o = path.getObject();
+		if (s.isVariable() && o.isVariable() && !s.equals(o) && path.getPath() instanceof P_Mod &&
+				((P_Mod) path.getPath()).getMin() <= 0) { // zero length paths bind every node of the graph
+			double nodes = getGraphNodes();
+			rows += Math.max(0, nodes - Math.max(e.starts, e.ends));
+			maxRows += nodes;
+		}
+		if (!s.isVariable())
+			rows /= Math.max(1, e.starts);
+		if (!o.isVariable())
+			rows /= Math.max(1, e.ends);
+		if (s.isVariable() && s.equals(o)) // cycles only
+			rows /= Math.max(1, Math.max(e.starts, e.ends));
+		
+		int m = (int) Math.min(Integer.MAX_VALUE, Math.ceil(maxRows));
+		return new Integer[] { 0, (int) Math.min(m, Math.ceil(rows)), m };
+	}
+	
+	/** maximum number of steps an arbitrary length path is expanded to */
+	public static final int MAX_PATH_LENGTH = 8;
+	
+	/**
+	 * @param path
+	 * @param summary
+	 * @param sketches join key sketches or null
+	 * @return the estimate or null if path contains unsupported elements, e.g. a variable property
+	 */
+	private PathEstimate estimatePath(Path path, DatasetSummary summary, JoinKeySketches sketches) throws RDFStatsModelException {
+		if (path instanceof P_Link) {
+			Node p = ((P_Link) path).getNode();
+			if (!p.isURI())
+				return null;
+			Integer total = summary.getPropertyTotal(p.getURI());
+			if (total == null || total == 0)
+				return new PathEstimate(0, 0, 0, 0, null, null);
+			Integer distinct = summary.getPropertyDistinct(p.getURI());
+			KeySketch startKeys = (sketches != null) ? sketches.getSubjectKeys(p.getURI()) : null;
+			KeySketch endKeys = (sketches != null) ? sketches.getObjectKeys(p.getURI()) : null;
+			return new PathEstimate(total, getDistinctSubjects(p.getURI(), total, summary, startKeys),
+					(distinct != null) ? distinct : total, total, startKeys, endKeys);
+			
+		} else if (path instanceof P_Reverse) {
+			PathEstimate e = estimatePath(((P_Reverse) path).getSubPath(), summary, sketches);
+			return (e != null) ? new PathEstimate(e.rows, e.ends, e.starts, e.maxRows, e.endKeys, e.startKeys) : null;
+			
+		} else if (path instanceof P_Alt) {
+			PathEstimate l = estimatePath(((P_Alt) path).getLeft(), summary, sketches);
+			PathEstimate r = estimatePath(((P_Alt) path).getRight(), summary, sketches);
+			if (l == null || r == null)
+				return null;
+			return new PathEstimate(l.rows + r.rows, l.starts + r.starts, l.ends + r.ends, l.maxRows + r.maxRows, null, null);
+			
+		} else if (path instanceof P_Seq) {
+			PathEstimate l = estimatePath(((P_Seq) path).getLeft(), summary, sketches);
+			PathEstimate r = estimatePath(((P_Seq) path).getRight(), summary, sketches);
+			return (l != null && r != null) ? l.followedBy(r) : null;
+			
+		} else if (path instanceof P_Mod) {
+			P_Mod mod = (P_Mod) path;
+			PathEstimate step = estimatePath(mod.getSubPath(), summary, sketches);
+			if (step == null)
+				return null;
+			long min = (mod.getMin() == P_Mod.UNSET) ? 0 : mod.getMin();
+			long max = (mod.getMax() == P_Mod.INF || mod.getMax() == P_Mod.UNSET) ? Long.MAX_VALUE : mod.getMax();
+			
+			double nodes = Math.max(step.starts, step.ends);
+			double rows = 0, maxRows = 0;
+			if (min == 0) { // zero length, each node is connected to itself
+				rows += nodes;
+				maxRows += step.maxRows * 2;
+			}
+			PathEstimate e = step;
+			for (long i = 1; i <= max; i++) {
+				if (i >= min) {
+					rows += e.rows;
+					maxRows += e.maxRows;
+				}
+				if (i >= min && (i >= MAX_PATH_LENGTH || e.rows < 1)) // no further solutions expected
+					break;
+				e = e.followedBy(step);
+			}
+			if (max == Long.MAX_VALUE) { // arbitrary length paths return each reachable node once per start node
+				rows = Math.min(rows, nodes * nodes);
+				maxRows = step.maxRows * step.maxRows + ((min == 0) ? step.maxRows * 2 : 0);
+			}
+			return new PathEstimate(rows, Math.min(step.starts, rows), Math.min(step.ends, rows), maxRows, null, null);
+		}
+		return null;
+	}
+	
+	/**
+	 * @return upper bound of the distinct nodes of the graph, i.e. its subjects and the distinct values of all properties
+	 */
+	private double getGraphNodes() throws RDFStatsModelException {
+		DatasetSummary summary = getSummary();
+		Integer subjects = summary.getSubjectsTotal();
+		double nodes = (subjects != null) ? subjects : 0;
+		for (String p : summary.getProperties()) {
+			Integer d = summary.getPropertyDistinct(p);
+			if (d != null)
+				nodes += d;
+		}
+		return nodes;
+	}
+	
+	/**
+	 * @return estimated number of distinct subjects of p: from the join key sketches, the characteristic sets or at most all subjects
+	 */
+	private double getDistinctSubjects(String p, int total, DatasetSummary summary, KeySketch keys) {
+		if (keys != null)
+			return keys.getDistinct();
+		CharacteristicSets cs = getCharacteristicSets();
+		if (cs != null && cs.getDroppedSubjects() == 0)
+			return cs.getSubjects(Collections.singletonList(p));
+		Integer subjects = summary.getSubjectsTotal();
+		return (subjects != null) ? Math.min(subjects, total) : total;
+	}
+	
+	/**
+	 * Uses the most selective occurrence of v in pattern: the distinct values of a property for objects,
+	 * the distinct subjects of a property for subjects and the number of properties for predicates.
+	 * 
+	 * @see at.jku.rdfstats.QueryStatistics#distinctValues(com.hp.hpl.jena.sparql.core.BasicPattern, com.hp.hpl.jena.sparql.core.Var)
+	 */
+	public Integer distinctValues(BasicPattern pattern, Var v) throws RDFStatsModelException {
+		DatasetSummary summary = getSummary();
+		JoinKeySketches sketches = getJoinKeySketches();
+		Double distinct = null;
+		for (Triple t : pattern) {
+			Node p = t.getPredicate();
+			double d;
+			if (p.equals(v))
+				d = summary.getProperties().size();
+			else if (!p.isURI() || !t.getSubject().equals(v) && !t.getObject().equals(v))
+				continue;
+			else {
+				Integer total = summary.getPropertyTotal(p.getURI());
+				if (total == null || total == 0)
+					return 0;
+				if (t.getObject().equals(v)) {
+					Integer pd = summary.getPropertyDistinct(p.getURI());
+					d = (pd != null) ? pd : total;
+				} else
+					d = getDistinctSubjects(p.getURI(), total, summary, (sketches != null) ? sketches.getSubjectKeys(p.getURI()) : null);
+			}
+			if (distinct == null || d < distinct)
+				distinct = d;
+		}
+		return (distinct != null) ? (int) Math.min(Integer.MAX_VALUE, Math.ceil(distinct)) : null;
+	}
+	
 	public Long[] triplesForQuery(String qry) {
 		return triplesForQuery(QueryFactory.create(qry)); // default syntax
 	}
@@ -546,6 +1001,60 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 		return pc.calculate(plan);
 	}
 	
+	public PreparedEstimate prepare(String qry) {
+		return prepare(QueryFactory.create(qry)); // default syntax
+	}
+	
+	public PreparedEstimate prepare(Query qry) {
+		return prepare(new AlgebraGenerator().compile(qry));
+	}
+	
+	public PreparedEstimate prepare(Op plan) {
+		return new PreparedEstimate(this, plan);
+	}
+	
+	/**
+	 * @return the current catalog version, identifies the statistics an estimate is based on
+	 */
+	StatisticsCatalog getCatalog() {
+		return stats.getCatalog();
+	}
+	
+	/**
+	 * Each variable which is exclusively mentioned by some of the filter conjuncts is traced back to the triple patterns
+	 * binding it as object. Its selectivity is the smallest fraction of the triples of such a pattern covered by the
+	 * conjuncts, based on the property histograms. Variables are assumed to be independent.
+	 * 
+	 * @see at.jku.rdfstats.QueryStatistics#filterSelectivity(com.hp.hpl.jena.sparql.core.BasicPattern, com.hp.hpl.jena.sparql.expr.ExprList)
+	 */
+	public Double filterSelectivity(BasicPattern pattern, ExprList exprs) throws RDFStatsModelException {
+		if (exprs == null || exprs.isEmpty())
+			return null;
+		ExprList filter = ExprUtils.optimizeFilterExprs(exprs);
+		
+		Double selectivity = null;
+		for (Var v : filter.getVarsMentioned()) {
+			if (getSingleFilterExpression(filter, v) == null)
+				continue;
+			
+			Double varSelectivity = null;
+			for (Triple t : pattern) {
+				if (!t.getObject().equals(v) || !t.getPredicate().isURI())
+					continue;
+				Integer total = triplesForFilteredPattern(null, t.getPredicate(), v, null, true);
+				Integer filtered = triplesForFilteredPattern(null, t.getPredicate(), v, filter, true);
+				if (total == null || filtered == null || total == 0)
+					continue;
+				double sel = Math.min(1d, (double) filtered / total);
+				if (varSelectivity == null || sel < varSelectivity)
+					varSelectivity = sel;
+			}
+			if (varSelectivity != null)
+				selectivity = (selectivity == null) ? varSelectivity : selectivity * varSelectivity;
+		}
+		return selectivity;
+	}
+	
 // misc methods
 	
 	@Override
@@ -561,5 +1070,56 @@ public class RDFStatsDatasetImpl extends JavaResourceViewBase implements RDFStat
 	public String toString() {
 		return "RDFStats for " + getSourceType() + " <" + getSourceUrl() + ">";
 	}
+	
+	/**
+	 * estimated pairs, distinct start and end nodes of a path and an upper bound of its pairs
+	 */
+	private static final class PathEstimate {
+		final double rows;
+		final double starts;
+		final double ends;
+		final double maxRows;
+		
+		/** join key sketches of the first and last step, null if unknown */
+		final KeySketch startKeys;
+		final KeySketch endKeys;
+		
+		PathEstimate(double rows, double starts, double ends, double maxRows, KeySketch startKeys, KeySketch endKeys) {
+			this.rows = rows;
+			this.starts = starts;
+			this.ends = ends;
+			this.maxRows = maxRows;
+			this.startKeys = startKeys;
+			this.endKeys = endKeys;
+		}
+		
+		/**
+		 * @param next
+		 * @return estimate of this path followed by next
+		 */
+		PathEstimate followedBy(PathEstimate next) {
+			double rows;
+			if (ends == 0 || next.starts == 0)
+				rows = 0;
+			else if (endKeys != null && next.startKeys != null)
+				rows = JoinKeySketches.estimateOverlap(endKeys, next.startKeys) * (this.rows / ends) * (next.rows / next.starts);
+			else
+				rows = this.rows * next.rows / Math.max(ends, next.starts);
+			return new PathEstimate(rows, Math.min(starts, rows), Math.min(next.ends, rows), maxRows * next.maxRows, startKeys, next.endKeys);
+		}
+	}
+	
+	/**
+	 * immutable metadata record of a catalog version
+	 */
+	private static final class Metadata {
+		final StatisticsCatalog catalog;
+		final DatasetInfo info;
+		
+		Metadata(StatisticsCatalog catalog, DatasetInfo info) {
+			this.catalog = catalog;
+			this.info = info;
+		}
+	}
 
 }
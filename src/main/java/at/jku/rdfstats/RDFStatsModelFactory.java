@@ -15,6 +15,7 @@
  */
 package at.jku.rdfstats;
 
+import java.io.File;
 
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.util.FileManager;
@@ -41,6 +42,21 @@ public class RDFStatsModelFactory {
 		return new RDFStatsUpdatableModelImpl(wrappedModel);
 	}
 
+	/**
+	 * creates a new RDFStatsModel from a file or Web resource, which reads and writes the encoded histograms
+	 * from/to the memory-mapped histogram store instead of the rdf:value literals of the SCOVO items,
+	 * see {@link HistogramStore}
+	 * 
+	 * @param source the file (file:...) or Web resource to load from
+	 * @param format the format of the source (RDF/XML, N3, N-TRIPLES, etc. - Jena syntax)
+	 * @param histogramStore the histogram store file, created if it doesn't exist
+	 * @throws RDFStatsModelException if the histogram store cannot be opened
+	 */
+	public static RDFStatsModel create(String source, String format, File histogramStore) throws RDFStatsModelException {
+		Model wrappedModel = FileManager.get().loadModel(source, format);
+		return create(wrappedModel, new HistogramStore(histogramStore));
+	}
+
 	/**
 	 * guess format
 	 * @param source
@@ -52,13 +68,22 @@ public class RDFStatsModelFactory {
 	
 	/**
 	 * create RDFStatsModel from an existing model containing statistics
-	 * m should never be shared across different RDFStatsModels in order to use locking correctly
+	 * exclusive write locks are shared with all other RDFStatsModels wrapping m
 	 * @param m
 	 */
 	public static RDFStatsModel create(Model m) {
 		return new RDFStatsUpdatableModelImpl(m);
 	}
 
+	/**
+	 * create RDFStatsModel from an existing model containing statistics and a histogram store
+	 * @param m
+	 * @param histogramStore
+	 */
+	public static RDFStatsModel create(Model m, HistogramStore histogramStore) {
+		return new RDFStatsUpdatableModelImpl(m, histogramStore);
+	}
+
 	/**
 	 * create RDFStatsUpdatableModel
 	 * @param source
@@ -72,7 +97,7 @@ public class RDFStatsModelFactory {
 	
 	/**
 	 * create RDFStatsUpdatableModel from an existing model containing statistics
-	 * m should never be shared across different RDFStatsUpdatableModels in order to use locking correctly
+	 * exclusive write locks are shared with all other RDFStatsUpdatableModels wrapping m
 	 * @param m
 	 */
 	public static RDFStatsUpdatableModel createUpdatable(Model m) {
@@ -16,13 +16,16 @@
 
 package at.jku.rdfstats;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,19 +33,22 @@ import org.apache.commons.logging.LogFactory;
 import at.jku.rdfstats.hist.Histogram;
 import at.jku.rdfstats.hist.HistogramException;
 import at.jku.rdfstats.hist.builder.HistogramCodec;
+import at.jku.rdfstats.vocabulary.SCOVO;
 import at.jku.rdfstats.vocabulary.Stats;
 
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
-import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.shared.Lock;
+import com.hp.hpl.jena.sparql.util.Base64;
+import com.hp.hpl.jena.vocabulary.DC;
 import com.hp.hpl.jena.vocabulary.RDF;
 import com.hp.hpl.jena.vocabulary.RDFS;
 
-import static at.jku.rdfstats.Constants.*;
-
 /**
  * @author dorgon
  *
@@ -50,27 +56,89 @@ import static at.jku.rdfstats.Constants.*;
  * created by RDFStatsModelFactory
  * 
  * It's abstract because the factory always creates an RDFStatsUpdatableModel internally first and the updatable version can be obtained calling asUpdatableModel().
+ * 
+ * All lookups pin the current {@link StatisticsCatalog} snapshot, which holds the datasets, histogram items and
+ * their encodings, so they don't enter Jena read locks. Modifications through {@link RDFStatsUpdatableModelImpl}
+ * publish a new snapshot when they leave their write section, modifications of the wrapped model by others
+ * invalidate the snapshot and the next lookup rebuilds it within a read lock.
  */
 public abstract class RDFStatsModelImpl implements RDFStatsModel {
 	private static final Log log = LogFactory.getLog(RDFStatsModelImpl.class);
+	
+	/** one invalidator per wrapped graph, shared by all instances wrapping it */
+	private static final Map<Graph, CatalogInvalidator> invalidators = new WeakHashMap<Graph, CatalogInvalidator>();
 
 	/** the wrapped statistics model */
 	protected final Model model;
 
-	/** cached histograms */
-	protected final Map<Integer, Histogram<?>> cachedHistograms;
+	/** cached decoded histograms */
+	protected final HistogramCache histogramCache;
+	
+	/** sidecar file holding the encoded histograms or null if they are stored as rdf:value literals */
+	protected final HistogramStore histogramStore;
 
+	/** index of datasets and histogram items, null if it must be rebuilt */
+	private volatile StatisticsCatalog catalog;
+	
+	/** incremented upon each catalog change, a catalog built from an outdated model is discarded */
+	private int catalogVersion = 0;
+	
+	/** nesting depth of write sections of the current thread, which publish the catalog themselves */
+	private final ThreadLocal<int[]> writeDepth = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
 
 	/**
 	 * constructor
 	 * @param model
 	 */
-	@SuppressWarnings("unchecked")
 	protected RDFStatsModelImpl(Model model) {
+		this(model, null);
+	}
+	
+	/**
+	 * constructor
+	 * @param model
+	 * @param histogramStore sidecar file for the encoded histograms or null
+	 */
+	protected RDFStatsModelImpl(Model model, HistogramStore histogramStore) {
 		this.model = model;
-		this.cachedHistograms = new Hashtable<Integer, Histogram<?>>();
+		this.histogramStore = histogramStore;
+		this.histogramCache = new HistogramCache();
+		registerInvalidator();
 
 		// sync TDB models upon initialization
+		sync();
+		
+		log.debug("RDFStatsModel created from existing model.");
+	}
+	
+	/**
+	 * adds this instance to the invalidator of the wrapped graph, the invalidator is registered with the
+	 * graph only once and references its instances weakly, so instances created e.g. per generator or per
+	 * getRDFStatsModel() call don't accumulate listeners
+	 */
+	private void registerInvalidator() {
+		synchronized (invalidators) {
+			Graph g = model.getGraph();
+			CatalogInvalidator inv = invalidators.get(g);
+			if (inv == null) {
+				inv = new CatalogInvalidator();
+				invalidators.put(g, inv);
+				model.register(inv);
+			}
+			inv.add(this);
+		}
+	}
+	
+	/**
+	 * syncs the wrapped model if it is a TDB model, so other processes sharing the store see the changes
+	 */
+	@SuppressWarnings("unchecked")
+	protected void sync() {
 		try {
 			Class graphTDB = Class.forName("com.hp.hpl.jena.tdb.store.GraphTDB");
 			try {
@@ -83,36 +151,71 @@ public abstract class RDFStatsModelImpl implements RDFStatsModel {
 				log.error("Failed to sync TDB model.", e);
 			}
 		} catch (Exception ignore) {}
-		
-		log.debug("RDFStatsModel created from existing model.");
-	}
-
-	public Model getWrappedModel() {
-		return model;
 	}
 
-	public List<RDFStatsDataset> getDatasets() throws RDFStatsModelException {
-		List<RDFStatsDataset> list = new ArrayList<RDFStatsDataset>();
-		Resource ds = null;
+	/**
+	 * @return the current catalog, built from the model if it has been invalidated
+	 */
+	protected StatisticsCatalog getCatalog() {
+		StatisticsCatalog c = catalog;
+		if (c != null)
+			return c;
 		
-		QueryExecution qe = null;
+		int version;
 		model.enterCriticalSection(Lock.READ);
 		try {
-			qe = QueryExecutionFactory.create(QUERY_PREFIX +
-					"SELECT ?ds WHERE { \n" +
-					"	?ds a stats:RDFStatsDataset .\n" +
-					"}\n", model);
-			ResultSet r = qe.execSelect();			
-			while (r.hasNext()) {
-				ds = r.nextSolution().getResource("ds");
-				list.add(new RDFStatsDatasetImpl(ds, this));
+			synchronized (this) {
+				version = catalogVersion;
+			}
+			try {
+				c = StatisticsCatalog.build(model, histogramStore);
+			} catch (RDFStatsModelException e) {
+				log.error("Failed to read histograms from " + histogramStore.getFile() + ".", e);
+				c = StatisticsCatalog.build(model);
 			}
-		} catch (Exception e) {
-			throw new RDFStatsModelException("Failed to get datasets.", e);
 		} finally {
 			model.leaveCriticalSection();
-			if (qe != null) qe.close();
 		}
+		
+		synchronized (this) {
+			if (version == catalogVersion)
+				catalog = c;
+		}
+		return c;
+	}
+	
+	/**
+	 * replaces the catalog by a patched version, must be called within the write critical section of the change
+	 * 
+	 * @param c the new catalog or null to rebuild it upon the next access
+	 */
+	protected synchronized void setCatalog(StatisticsCatalog c) {
+		catalogVersion++;
+		catalog = c;
+	}
+	
+	/**
+	 * enters a write critical section; changes of the model don't invalidate the catalog until the section is
+	 * left, the caller has to publish a new catalog by {@link #setCatalog(StatisticsCatalog)} instead
+	 */
+	protected void enterWriteSection() {
+		model.enterCriticalSection(Lock.WRITE);
+		writeDepth.get()[0]++;
+	}
+	
+	protected void leaveWriteSection() {
+		writeDepth.get()[0]--;
+		model.leaveCriticalSection();
+	}
+	
+	public Model getWrappedModel() {
+		return model;
+	}
+
+	public List<RDFStatsDataset> getDatasets() throws RDFStatsModelException {
+		List<RDFStatsDataset> list = new ArrayList<RDFStatsDataset>();
+		for (Resource ds : getCatalog().getDatasets())
+			list.add(new RDFStatsDatasetImpl(ds, this));
 		return list;
 	}
 	
@@ -123,34 +226,7 @@ public abstract class RDFStatsModelImpl implements RDFStatsModel {
 	}
 
 	protected Resource getDatasetResource(String sourceUrl) throws RDFStatsModelException {
-		Resource ds = null;
-		String constraintDataset = (sourceUrl != null) ? "		stats:sourceUrl <" + sourceUrl + "> \n" : "";
-		
-		QueryExecution qe = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			qe = QueryExecutionFactory.create(QUERY_PREFIX +
-					"SELECT ?ds WHERE { \n" +
-					"	?ds a stats:RDFStatsDataset ;\n" +
-					constraintDataset +
-					"}\n", model);
-			ResultSet r = qe.execSelect();
-			if (r.hasNext()) {
-				ds = r.nextSolution().getResource("ds");
-				if (r.hasNext()) {
-					if (sourceUrl != null) 
-						throw new RDFStatsModelException("Found more than one datasets for RDF source <" + sourceUrl + ">! Please check your statistics model for consistency.");
-					else 
-						throw new RDFStatsModelException("Your statistics model contains multiple datasets. You have to specify the sourceUrl explicitly.");
-				}
-			}
-		} catch (Exception e) {
-			throw new RDFStatsModelException("Failed to get RDFStats dataset with source URL: " + sourceUrl + ".", e);
-		} finally {
-			model.leaveCriticalSection();
-			if (qe != null) qe.close();
-		}
-		return ds;
+		return getCatalog().getDataset(sourceUrl);
 	}
 	
 	public List<RDFStatsDataset> getDatasetsDescribingResource(String r) throws RDFStatsModelException {
@@ -211,158 +287,25 @@ public abstract class RDFStatsModelImpl implements RDFStatsModel {
 //	}
 
 	public List<String> getPropertyHistogramProperties(String sourceUrl) throws RDFStatsModelException {
-		List<String> props = new ArrayList<String>();
-		
-		QueryExecution qe = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			String query;
-//			if (c != null)
-				query =	"SELECT DISTINCT ?p WHERE { \n" +
-					"	?item	a	stats:PropertyHistogram ;\n" + 
-					"		" + datasetConstraint(sourceUrl) + " ;\n" +
-//					"		stats:classDimension	<" + c + "> ;\n" +
-					"		stats:propertyDimension	?p .\n" +
-					"}\n";
-//			else
-//				query =	"SELECT DISTINCT ?p WHERE { \n" +
-//				"	{	?item	a	stats:PropertyHistogram ;\n" + 
-//				"			" + datasetConstraint(sourceUrl) + " ;\n" +
-//				"			stats:propertyDimension	?p .\n" +
-//				"	} OPTIONAL {\n" +
-//				"		?item stats:classDimension	?cl .\n" +
-//				"	} FILTER (!bound(?cl))\n" +
-//				"}\n";
-			
-			qe = QueryExecutionFactory.create(QUERY_PREFIX + query, model);
-			ResultSet r = qe.execSelect();			
-			Resource res;
-			while (r.hasNext()) {
-				res = r.nextSolution().getResource("p");
-				props.add(res.getURI());
-			}
-		} catch (Exception e) {
-			throw new RDFStatsModelException("Failed to get properties for property histograms for source URL " + sourceUrl + ".", e);
-		} finally {
-			model.leaveCriticalSection();
-			if (qe != null) qe.close();
-		}
-		return props;
+		return getCatalog().getPropertyHistogramProperties(sourceUrl);
 	}
 
 	public List<String> getPropertyHistogramProperties(String sourceUrl, String rangeUri) throws RDFStatsModelException {
-		List<String> props = new ArrayList<String>();
-		
-		QueryExecution qe = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			String query;
-//			if (c != null)
-				query =	"SELECT DISTINCT ?p WHERE { \n" +
-					"	?item	a	stats:PropertyHistogram ;\n" + 
-					"		" + datasetConstraint(sourceUrl) + " ;\n" +
-//					"		stats:classDimension	<" + c + "> ;\n" +
-					"		stats:propertyDimension	?p ;\n" +
-					"		stats:rangeDimension	<" + rangeUri + "> .\n" +
-					"}\n";
-//			else
-//				query =	"SELECT DISTINCT ?p WHERE { \n" +
-//				"	{	?item	a	stats:PropertyHistogram ;\n" + 
-//				"			" + datasetConstraint(sourceUrl) + " ;\n" +
-//				"			stats:propertyDimension	?p ;\n" +
-//				"			stats:rangeDimension	<" + rangeUri + "> .\n" +
-//				"	} OPTIONAL {\n" +
-//				"		?item stats:classDimension	?cl .\n" +
-//				"	} FILTER (!bound(?cl))\n" +
-//				"}\n";
-			
-			qe = QueryExecutionFactory.create(QUERY_PREFIX + query, model);
-			ResultSet r = qe.execSelect();			
-			Resource res;
-			while (r.hasNext()) {
-				res = r.nextSolution().getResource("p");
-				props.add(res.getURI());
-			}
-		} catch (Exception e) {
-			throw new RDFStatsModelException("Failed to get properties for property histogram with range <" + rangeUri + "> for source URL " + sourceUrl + ".", e);
-		} finally { 
-			model.leaveCriticalSection();
-			if (qe != null) qe.close();
-		}
-		
-		return props;
+		return getCatalog().getPropertyHistogramProperties(sourceUrl, rangeUri);
 	}
 	
 	public List<String> getPropertyHistogramRanges(String sourceUrl, String p) throws RDFStatsModelException {
-		List<String> ranges = new ArrayList<String>();
-		
-		QueryExecution qe = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			String query;
-//			if (c != null)
-				query = "SELECT ?r WHERE { \n" +
-				"	?item	rdf:type	stats:PropertyHistogram ;\n" + 
-				"		" + datasetConstraint(sourceUrl) + " ;\n" +
-//				"		stats:classDimension	<" + c + "> ;\n" +
-				"		stats:propertyDimension	<" + p + "> ;\n" +
-				"		stats:rangeDimension	?r .\n" +
-				"}\n";
-//			else
-//				query = "SELECT ?r WHERE { \n" +
-//				"	{\n" +
-//				"		?item	rdf:type	stats:PropertyHistogram ;\n" + 
-//				"			" + datasetConstraint(sourceUrl) + " ;\n" +
-//				"			stats:propertyDimension	<" + p + "> ;\n" +
-//				"			stats:rangeDimension	?r .\n" +
-//				"	} OPTIONAL {\n" +
-//				"		?item stats:classDimension	?cl .\n" +
-//				"	} FILTER (!bound(?cl))" +
-//				"}\n";
-
-			qe = QueryExecutionFactory.create(QUERY_PREFIX + query, model);
-			ResultSet r = qe.execSelect();				
-			Resource res;
-			while (r.hasNext()) {
-				res = r.nextSolution().getResource("r");
-				ranges.add(res.getURI());
-			}
-		} catch (Exception e) {
-			throw new RDFStatsModelException("Failed to get ranges for property histogram for property " + p + " and source URL " + sourceUrl + ".", e);
-		} finally {
-			model.leaveCriticalSection();
-			if (qe != null) qe.close();
-		}
-		
-		return ranges;
+		return getCatalog().getPropertyHistogramRanges(sourceUrl, p);
 	}
-	
+
 	public Histogram<?> getPropertyHistogram(String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
-		Histogram<?> h = getCachedHistogram(sourceUrl, p, rangeUri);
-		if (h != null)
-			return h; // early return cached histogram if possible
-		
-		try {
-			String base64 = getPropertyHistogramEncoded(sourceUrl, p, rangeUri);
-			if (base64 == null)
-				return null;
-			
-			h = HistogramCodec.base64decode(base64);
-		} catch (HistogramException e) {
-			throw new RDFStatsModelException("Error decoding base64-encoded histogram.", e);
-		}
-		
-		// cache histogram
-		if (h != null) cacheHistogram(sourceUrl, p, rangeUri, h);
-		return h;
+		StatisticsCatalog c = getCatalog();
+		return getHistogram(c, c.getPropertyHistogram(sourceUrl, p, rangeUri), sourceUrl, p, rangeUri);
 	}
 
 	public String getPropertyHistogramEncoded(String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
-		Resource r = getPropertyHistogramResource(sourceUrl, p, rangeUri);
-		if (r != null)
-			return r.getProperty(RDF.value).getString();
-		else
-			return null;
+		StatisticsCatalog c = getCatalog();
+		return getEncoded(c, c.getPropertyHistogram(sourceUrl, p, rangeUri));
 	}
 	
 	/**
@@ -373,50 +316,7 @@ public abstract class RDFStatsModelImpl implements RDFStatsModel {
 	 * @throws RDFStatsModelException
 	 */
 	public Resource getPropertyHistogramResource(String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
-		Resource item = null;
-		QueryExecution qe = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			String query;
-//			if (c != null)
-				query = "SELECT ?item WHERE { \n" +
-				"	?item	rdf:type	stats:PropertyHistogram ;\n" + 
-				"		" + datasetConstraint(sourceUrl) + " ;\n" +
-//				"		stats:classDimension	<" + c + "> ;\n" +
-				"		stats:propertyDimension	<" + p + "> ;\n" +
-				"		stats:rangeDimension	<" + rangeUri + "> .\n" +
-				"}\n";
-//			else
-//				query = "SELECT ?item WHERE { \n" +
-//				"	{\n" +
-//				"		?item	rdf:type	stats:PropertyHistogram ;\n" + 
-//				"			" + datasetConstraint(sourceUrl) + " ;\n" +
-//				"			stats:propertyDimension	<" + p + "> ;\n" +
-//				"			stats:rangeDimension	<" + rangeUri + "> .\n" +
-//				"	} OPTIONAL {\n" +
-//				"		?item stats:classDimension	?cl .\n" +
-//				"	} FILTER (!bound(?cl))" +
-//				"}\n";
-		
-			qe = QueryExecutionFactory.create(QUERY_PREFIX + query, model);	
-			ResultSet result = qe.execSelect();	
-			if (result.hasNext()) {
-				item = result.nextSolution().getResource("item");
-				if (result.hasNext()) {
-					String part = //(c != null) ?
-//							"class <" + c + ">, property <" + p + ">, range <" + rangeUri + ">" :
-						"property <" + p + ">, range <" + rangeUri + ">";
-					throw new RDFStatsModelException("Found more than one histograms for RDF source <" + sourceUrl + ">, " + part + "! Please check your statistics model for consistency.");
-				}
-			}
-		} catch (Exception e) {
-			throw new RDFStatsModelException("Failed to retrieve base64-encoded histogram string.", e);
-		} finally {
-			model.leaveCriticalSection();
-			if (qe != null) qe.close();
-		}
-		
-		return item;
+		return getCatalog().getPropertyHistogram(sourceUrl, p, rangeUri);
 	}
 
 //	public boolean storesTypeSpecificSubjectHistograms(String sourceUrl) {
@@ -460,102 +360,121 @@ public abstract class RDFStatsModelImpl implements RDFStatsModel {
 	
 	public Histogram<?> getSubjectHistogram(String sourceUrl, boolean blankNodes) throws RDFStatsModelException {
 		String rangeURI = (blankNodes) ? Stats.blankNode.getURI() : RDFS.Resource.getURI();
-		
-		Histogram<?> h = getCachedHistogram(sourceUrl, null, rangeURI);
-		if (h != null)
-			return (Histogram<?>) h; // early return cached histogram if possible
-		
-		try {
-			String base64 = getSubjectHistogramEncoded(sourceUrl, blankNodes);
-			if (base64 == null)
-				return null;
-			
-			h = HistogramCodec.base64decode(base64);
-		} catch (HistogramException e) {
-			throw new RDFStatsModelException("Error decoding base64-encoded histogram.", e);
-		}
-		
-		// cache histogram
-		if (h != null) cacheHistogram(sourceUrl, null, rangeURI, h);
-		return (Histogram<?>) h;
+		StatisticsCatalog c = getCatalog();
+		return getHistogram(c, c.getSubjectHistogram(sourceUrl, rangeURI), sourceUrl, null, rangeURI);
 	}
 	
 	public String getSubjectHistogramEncoded(String sourceUrl, boolean blankNodes) throws RDFStatsModelException {
-		Resource r = getSubjectHistogramResource(sourceUrl, blankNodes);
-		if (r != null)
-			return r.getProperty(RDF.value).getString();
-		else
-			return null;
+		String rangeURI = (blankNodes) ? Stats.blankNode.getURI() : RDFS.Resource.getURI();
+		StatisticsCatalog c = getCatalog();
+		return getEncoded(c, c.getSubjectHistogram(sourceUrl, rangeURI));
 	}
 	
-	protected Resource getSubjectHistogramResource(String sourceUrl, boolean blankNodes) throws RDFStatsModelException {
-		Resource item = null;
-		String rangeURI = (blankNodes) ? Stats.blankNode.getURI() : RDFS.Resource.getURI();
-		
-		QueryExecution qe = null;
-		model.enterCriticalSection(Lock.READ);
-		try {
-			String query;
-//			if (c != null)
-				query = "SELECT ?item WHERE { \n" +
-				"	?item	rdf:type	stats:SubjectHistogram ;\n" +
-				"		" + datasetConstraint(sourceUrl) + " ;\n" +
-				"		stats:rangeDimension	<" + rangeURI + "> ;\n" +
-//				"		stats:classDimension	<" + c + "> ;\n" +
-				"}\n";
-//			else
-//				query = "SELECT ?item WHERE { \n" +
-//				"	{\n" +
-//				"		?item	rdf:type	stats:SubjectHistogram ;\n" + 
-//				"			" + datasetConstraint(sourceUrl) + " ;\n" +
-//				"	} OPTIONAL {\n" +
-//				"		?item stats:classDimension	?cl .\n" +
-//				"	} FILTER (!bound(?cl))" +
-//				"}\n";
-		
-			qe = QueryExecutionFactory.create(QUERY_PREFIX + query, model);	
-			ResultSet result = qe.execSelect();	
-			if (result.hasNext()) {
-				item = result.nextSolution().getResource("item");
-				if (result.hasNext()) {
-					String part = ""; //(c != null) ? ", class <" + c + ">" : "";
-					throw new RDFStatsModelException("Found more than one subject histograms for RDF source <" + sourceUrl + ">" + part + "! Please check your statistics model for consistency.");
-				}
-			}
-		} catch (Exception e) {
-			throw new RDFStatsModelException("Error retrieving base64-encoded histogram string.", e);
-		} finally {
-			model.leaveCriticalSection();
-			if (qe != null) qe.close();
+	/**
+	 * @param sourceUrl
+	 * @return the aggregates of the histograms of sourceUrl, computed once per version of the statistics
+	 * @throws RDFStatsModelException
+	 */
+	public DatasetSummary getSummary(String sourceUrl) throws RDFStatsModelException {
+		StatisticsCatalog c = getCatalog();
+		DatasetSummary summary = c.getSummary(sourceUrl);
+		if (summary == null) {
+			summary = computeSummary(c, sourceUrl);
+			c.putSummary(sourceUrl, summary);
 		}
-		
-		return item;
+		return summary;
 	}
 	
 	/**
-	 * caches an already decoded histogram Java representation (until it is changed by {@link RDFStatsUpdatableModel} methods
+	 * aggregates all histograms of sourceUrl in c
 	 * 
+	 * @param c the pinned catalog
 	 * @param sourceUrl
-	 * @param p
-	 * @param rangeUri
-	 * @param h
+	 * @return a new summary
+	 * @throws RDFStatsModelException
 	 */
-	private synchronized void cacheHistogram(String sourceUrl, String p, String rangeUri, Histogram<?> h) {
-		int key = getHistogramKey(sourceUrl, p, rangeUri);
-		cachedHistograms.put(key, h);
+	protected DatasetSummary computeSummary(StatisticsCatalog c, String sourceUrl) throws RDFStatsModelException {
+		String bnodeRange = Stats.blankNode.getURI();
+		String uriRange = RDFS.Resource.getURI();
+		Histogram<?> bh = getHistogram(c, c.getSubjectHistogram(sourceUrl, bnodeRange), sourceUrl, null, bnodeRange);
+		Histogram<?> uh = getHistogram(c, c.getSubjectHistogram(sourceUrl, uriRange), sourceUrl, null, uriRange);
+		
+		DatasetSummary summary = new DatasetSummary((bh != null) ? bh.getTotalValues() : null, (uh != null) ? uh.getTotalValues() : null);
+		for (String p : c.getPropertyHistogramProperties(sourceUrl)) {
+			int total = 0, distinct = 0;
+			float entropy = 1.0f;
+			for (String range : c.getPropertyHistogramRanges(sourceUrl, p)) {
+				Histogram<?> h = getHistogram(c, c.getPropertyHistogram(sourceUrl, p, range), sourceUrl, p, range);
+				if (h == null)
+					continue;
+				total += h.getTotalValues();
+				distinct += h.getDistinctValues();
+				entropy *= (float) h.getDistinctValues() / h.getTotalValues();
+			}
+			summary.addProperty(p, total, distinct, entropy);
+		}
+		return summary;
 	}
-
+	
 	/**
-	 * returns an already cached histogram if available
-	 * 
+	 * @param c the pinned catalog
+	 * @param item the SCOVO item or null
 	 * @param sourceUrl
-	 * @param p
+	 * @param p property or null for subject histograms
 	 * @param rangeUri
-	 * @return the histogram object or null if not cached
+	 * @return the cached histogram decoded from the encoding of item in c or a new view of the encoding
+	 * @throws RDFStatsModelException
 	 */
-	private synchronized Histogram<?> getCachedHistogram(String sourceUrl, String p, String rangeUri) {
-		int key = getHistogramKey(sourceUrl, p, rangeUri);
-		return cachedHistograms.get(key);
+	private Histogram<?> getHistogram(StatisticsCatalog c, Resource item, String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
+		if (item == null)
+			return null;
+		
+		Object version = c.getVersion(item);
+		if (version == null)
+			return null;
+		Histogram<?> h = histogramCache.get(sourceUrl, p, rangeUri, version);
+		if (h != null)
+			return h; // early return cached histogram if possible
+		
+		Object encoded = c.getEncoded(item);
+		try {
+			if (encoded instanceof ByteBuffer) {
+				ByteBuffer buf = (ByteBuffer) encoded;
+				h = HistogramCodec.view(buf);
+				histogramCache.put(sourceUrl, p, rangeUri, h, HistogramCache.weigh(buf.capacity()), version);
+			} else {
+				String base64 = (String) encoded;
+				h = HistogramCodec.view(base64);
+				histogramCache.put(sourceUrl, p, rangeUri, h, HistogramCache.weigh(base64), version);
+			}
+		} catch (HistogramException e) {
+			throw new RDFStatsModelException("Error decoding base64-encoded histogram.", e);
+		}
+		return h;
+	}
+	
+	/**
+	 * @param c the pinned catalog
+	 * @param item the SCOVO item or null
+	 * @return the base64-encoded histogram of item in c
+	 */
+	private String getEncoded(StatisticsCatalog c, Resource item) {
+		if (item == null)
+			return null;
+		
+		Object encoded = c.getEncoded(item);
+		if (encoded instanceof ByteBuffer) {
+			ByteBuffer buf = (ByteBuffer) encoded;
+			byte[] b = new byte[buf.remaining()];
+			buf.get(b);
+			return Base64.encodeBytes(b);
+		}
+		return (String) encoded;
+	}
+	
+	protected Resource getSubjectHistogramResource(String sourceUrl, boolean blankNodes) throws RDFStatsModelException {
+		String rangeURI = (blankNodes) ? Stats.blankNode.getURI() : RDFS.Resource.getURI();
+		return getCatalog().getSubjectHistogram(sourceUrl, rangeURI);
 	}
 	
 	/**
@@ -565,29 +484,22 @@ public abstract class RDFStatsModelImpl implements RDFStatsModel {
 	 * @param p
 	 * @param rangeUri
 	 */
-	protected synchronized void removeCachedHistogram(String sourceUrl, String p, String rangeUri) {
-		int key = getHistogramKey(sourceUrl, p, rangeUri);
-		cachedHistograms.remove(key);
+	protected void removeCachedHistogram(String sourceUrl, String p, String rangeUri) {
+		histogramCache.remove(sourceUrl, p, rangeUri);
 	}
 	
-	/** get a key for p, rangeUri (unique id for histograms in the cache map)
-	 * 
-	 * @param sourceUrl
-	 * @param p
-	 * @param rangeUri
-	 * @return
+	/**
+	 * @return the cache of decoded histograms, e.g. to monitor hit and eviction counts
+	 */
+	public HistogramCache getHistogramCache() {
+		return histogramCache;
+	}
+	
+	/**
+	 * @return the sidecar file holding the encoded histograms or null if they are stored in the RDF model
 	 */
-	protected int getHistogramKey(String sourceUrl, String p, String rangeUri) {
-		int id = 0;
-		if (sourceUrl != null)
-			id = sourceUrl.hashCode();
-//		if (c != null)
-//			id = id ^ c.hashCode() << 4;
-		if (p != null)
-			id = id ^ p.hashCode() << 8;
-		if (rangeUri != null)
-			id = id ^ rangeUri.hashCode() << 12;
-		return id;
+	public HistogramStore getHistogramStore() {
+		return histogramStore;
 	}
 
 	protected String datasetConstraint(String sourceUrl) {
@@ -597,5 +509,66 @@ public abstract class RDFStatsModelImpl implements RDFStatsModel {
 				"]" : "";
 	}
 
-
+	private boolean inWriteSection() {
+		return writeDepth.get()[0] > 0;
+	}
+	
+	/**
+	 * invalidates the catalogs of all instances wrapping the graph if statements describing datasets or histogram items are
+	 * added or removed outside of the write sections of {@link RDFStatsUpdatableModelImpl}, e.g. by reading a statistics
+	 * document into the model; an instance writing the change publishes its own catalog, but all others are invalidated
+	 */
+	private static class CatalogInvalidator extends StatementListener {
+		private final List<WeakReference<RDFStatsModelImpl>> instances = new ArrayList<WeakReference<RDFStatsModelImpl>>();
+		
+		synchronized void add(RDFStatsModelImpl m) {
+			live();
+			instances.add(new WeakReference<RDFStatsModelImpl>(m));
+		}
+		
+		/** @return instances still in use, drops the garbage collected ones */
+		private synchronized List<RDFStatsModelImpl> live() {
+			List<RDFStatsModelImpl> list = new ArrayList<RDFStatsModelImpl>(instances.size());
+			for (Iterator<WeakReference<RDFStatsModelImpl>> it = instances.iterator(); it.hasNext(); ) {
+				RDFStatsModelImpl m = it.next().get();
+				if (m == null)
+					it.remove();
+				else
+					list.add(m);
+			}
+			return list;
+		}
+		
+		private void invalidate() {
+			for (RDFStatsModelImpl m : live())
+				if (!m.inWriteSection()) m.setCatalog(null);
+		}
+		
+		@Override
+		public void addedStatement(Statement s) {
+			if (isIndexed(s)) invalidate();
+		}
+		
+		@Override
+		public void removedStatement(Statement s) {
+			if (isIndexed(s)) invalidate();
+		}
+		
+		/** bulk removals like Model.removeAll() are only notified as events */
+		@Override
+		public void notifyEvent(Model m, Object event) {
+			if (event != GraphEvents.startRead && event != GraphEvents.finishRead)
+				invalidate();
+		}
+		
+		private boolean isIndexed(Statement s) {
+			Property p = s.getPredicate();
+			if (p.equals(RDF.type)) {
+				Object o = s.getObject();
+				return o.equals(Stats.RDFStatsDataset) || o.equals(Stats.PropertyHistogram) || o.equals(Stats.SubjectHistogram);
+			}
+			return p.equals(SCOVO.dataset) || p.equals(Stats.sourceUrl) || p.equals(Stats.propertyDimension) || p.equals(Stats.rangeDimension) ||
+				p.equals(RDF.value) || p.equals(Stats.sourceType) || p.equals(DC.creator) || p.equals(DC.date) || p.equals(RDFS.label) || p.equals(Stats.summary) || p.equals(Stats.characteristicSets) || p.equals(Stats.joinKeySketches);
+		}
+	}
 }
@@ -46,7 +46,8 @@ public interface RDFStatsUpdatableModel extends RDFStatsModel {
 	/**
 	 * request exclusive write lock for an RDFStatsDataset
 	 * 
-	 * this is a simple lock for the complete updatable model which can only be acquired by one process at the same time
+	 * the lock for a dataset can only be acquired by one thread at the same time, waiting threads are granted the lock in FIFO order
+	 * (see {@link DatasetLockManager}), and if a lease duration is set, also by only one process sharing the statistics store
 	 * an additional MRSW lock provided by Jena is used, so during this exclusive write lock, any other process may access the underlying
 	 * RDFStatsModel as long as none of the actually updating (writing) methods are currently executing (because they are using the Jena Lock.WRITE)
 	 * 
@@ -56,6 +57,25 @@ public interface RDFStatsUpdatableModel extends RDFStatsModel {
 	 */
 	public void requestExclusiveWriteLock(RDFStatsDataset ds);
 	
+	/**
+	 * same as {@link #requestExclusiveWriteLock(RDFStatsDataset)}, but waits at most timeoutMillis
+	 * 
+	 * @param ds if null, request write lock for all statistics
+	 * @param timeoutMillis maximum time to wait, 0 to return immediately if the lock is not available
+	 * @return true if the lock has been acquired
+	 */
+	public boolean tryExclusiveWriteLock(RDFStatsDataset ds, long timeoutMillis);
+	
+	/**
+	 * enables leases: while a thread holds the exclusive write lock for a dataset, a lease with the owning process and an expiry date
+	 * is written into the statistics model and renewed periodically, other processes sharing the statistics store (e.g. TDB) wait
+	 * until it is released or has expired; if another process has taken over an expired lease, it is not renewed and further
+	 * modifications of the dataset fail until the write lock is returned
+	 * 
+	 * @param seconds lease duration, 0 disables leases
+	 */
+	public void setLeaseDuration(int seconds);
+	
 	/**
 	 * @param ds if null, returns the write lock for all statistics
 	 * returns the exclusive write lock
@@ -178,6 +198,46 @@ public interface RDFStatsUpdatableModel extends RDFStatsModel {
 	 */
 	public boolean addOrUpdateSubjectHistogram(RDFStatsDataset dataset, boolean blankNodes, String encodedHistogram) throws RDFStatsModelException;
 
+	/**
+	 * creates a batch collecting histogram upserts for dataset, which are applied at once by {@link HistogramBatch#commit()}
+	 * requires exclusive write lock for committing!
+	 * 
+	 * @param dataset
+	 * @return an empty batch
+	 */
+	public HistogramBatch createBatch(RDFStatsDataset dataset);
+
+	/**
+	 * stores the aggregates of all histograms of dataset as stats:summary, so readers loading the statistics don't
+	 * have to decode the histograms for totals and entropies; changing histograms of dataset removes the summary
+	 * requires exclusive write lock!
+	 * 
+	 * @param dataset
+	 * @return the stored summary
+	 * @throws RDFStatsModelException
+	 */
+	public DatasetSummary updateSummary(RDFStatsDataset dataset) throws RDFStatsModelException;
+	
+	/**
+	 * stores the characteristic sets of dataset as stats:characteristicSets, replacing previous ones
+	 * requires exclusive write lock!
+	 * 
+	 * @param dataset
+	 * @param cs the characteristic sets or null to remove them
+	 * @throws RDFStatsModelException
+	 */
+	public void updateCharacteristicSets(RDFStatsDataset dataset, CharacteristicSets cs) throws RDFStatsModelException;
+	
+	/**
+	 * stores the join key sketches of dataset as stats:joinKeySketches, replacing previous ones
+	 * requires exclusive write lock!
+	 * 
+	 * @param dataset
+	 * @param sketches the join key sketches or null to remove them
+	 * @throws RDFStatsModelException
+	 */
+	public void updateJoinKeySketches(RDFStatsDataset dataset, JoinKeySketches sketches) throws RDFStatsModelException;
+
 	/** merge (optionally only newer) statistics from Model newModel into this model 
 	 * gets exclusive write lock itself!
 	 * 
@@ -15,27 +15,38 @@
  */
 package at.jku.rdfstats;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import at.jku.rdfstats.StatisticsCatalog.DatasetInfo;
 import at.jku.rdfstats.vocabulary.SCOVO;
 import at.jku.rdfstats.vocabulary.Stats;
 
+import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
 import com.hp.hpl.jena.n3.IRIResolver;
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
-import com.hp.hpl.jena.query.QuerySolution;
-import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ResIterator;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.shared.Lock;
+import com.hp.hpl.jena.sparql.util.Base64;
 import com.hp.hpl.jena.vocabulary.DC;
 import com.hp.hpl.jena.vocabulary.RDF;
 import com.hp.hpl.jena.vocabulary.RDFS;
@@ -46,19 +57,45 @@ import com.hp.hpl.jena.vocabulary.RDFS;
  */
 public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDFStatsUpdatableModel {
 	private static final Log log = LogFactory.getLog(RDFStatsUpdatableModelImpl.class);
-	private static final int WAIT_INTERVAL = 5000;
 	
-	/** currently acquired locks and thread references */
-	private Map<RDFStatsDataset, Thread> exclusiveUsers = new HashMap<RDFStatsDataset, Thread>();
+	/** interval of polling a lease held by another process in milliseconds */
+	private static final long LEASE_POLL_INTERVAL = 1000;
+	
+	/** identifies this process as lease owner ("pid@host" on most JVMs) */
+	private static final String LEASE_OWNER = ManagementFactory.getRuntimeMXBean().getName() + "/" + Integer.toHexString(System.identityHashCode(RDFStatsUpdatableModelImpl.class));
+	
+	/** schedules the renewals of the leases of all models, never blocks on a model */
+	private static ScheduledExecutorService leaseScheduler;
+	
+	/** writes renewed leases, a renewal waiting for the write lock of its model doesn't delay the others */
+	private static ExecutorService leaseWriters;
+	
+	/** exclusive write locks, shared with all updatable models of the wrapped model */
+	private final DatasetLockManager lockManager;
 	
 	/** changed SCOVO items since lock has been acquired */
-	private Map<RDFStatsDataset, Set<Resource>> changedItems = new HashMap<RDFStatsDataset, Set<Resource>>();
+	private Map<RDFStatsDataset, Set<Resource>> changedItems = Collections.synchronizedMap(new HashMap<RDFStatsDataset, Set<Resource>>());
+	
+	/** lease duration in milliseconds, 0 if leases are disabled */
+	private volatile long leaseDuration = 0;
+	
+	/** renewal tasks of held leases */
+	private final Map<RDFStatsDataset, LeaseRenewal> leaseRenewals = Collections.synchronizedMap(new HashMap<RDFStatsDataset, LeaseRenewal>());
 	
 	/**
 	 * @param wrappedModel
 	 */
 	protected RDFStatsUpdatableModelImpl(Model wrappedModel) {
-		super(wrappedModel);
+		this(wrappedModel, null);
+	}
+
+	/**
+	 * @param wrappedModel
+	 * @param histogramStore sidecar file for the encoded histograms or null
+	 */
+	protected RDFStatsUpdatableModelImpl(Model wrappedModel, HistogramStore histogramStore) {
+		super(wrappedModel, histogramStore);
+		lockManager = DatasetLockManager.forModel(wrappedModel);
 	}
 
 	/* (non-Javadoc)
@@ -72,47 +109,51 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 	
 	/**
 	 * possible deadlock if thread requests exclusive lock and doesn't return it! always use a finally{} block to return it
-	 * TODO: not synced to prevent from deadlocks, should rethink and improve locking
 	 */
 	public void requestExclusiveWriteLock(RDFStatsDataset ds) {
 		String dsStr = (ds != null) ? ds.toString() : "all RDF sources";
+		String key = lockKey(ds);
 
-		while (lockOwner(ds) != null) { // lock already acquired for ds
-			try {
-				if (log.isInfoEnabled())
-					log.info("Waiting for the exclusive write lock for " + dsStr + "...");
-				wait(WAIT_INTERVAL);
-			} catch (InterruptedException e) {}
+		if (!lockManager.tryLock(key, 0)) {
+			if (log.isInfoEnabled())
+				log.info("Waiting for the exclusive write lock for " + dsStr + " (held by Thread " + lockOwnerName(key) + ")...");
+			lockManager.lock(key);
 		}
+		acquireLease(ds, -1);
 		
 		if (log.isDebugEnabled())
 			log.debug("Thread " + Thread.currentThread().getName() + " obtained exclusive write lock for " + dsStr + ".");
-		
-		lock(ds);
 		resetChangedItems(ds);
 	}
 	
-	
-	/**
-	 * @param ds
-	 */
-	private void lock(RDFStatsDataset ds) {
-		exclusiveUsers.put(ds, Thread.currentThread());
+	public boolean tryExclusiveWriteLock(RDFStatsDataset ds, long timeoutMillis) {
+		String key = lockKey(ds);
+		long start = System.currentTimeMillis();
+		if (!lockManager.tryLock(key, timeoutMillis))
+			return false;
+		
+		if (!acquireLease(ds, Math.max(0, timeoutMillis - (System.currentTimeMillis() - start)))) {
+			lockManager.unlock(key);
+			return false;
+		}
+		
+		if (log.isDebugEnabled())
+			log.debug("Thread " + Thread.currentThread().getName() + " obtained exclusive write lock for " + ((ds != null) ? ds.toString() : "all RDF sources") + ".");
+		resetChangedItems(ds);
+		return true;
 	}
-
+	
 	/**
 	 * @param ds
-	 * @return
+	 * @return the lock manager key of ds
 	 */
-	private Thread lockOwner(RDFStatsDataset ds) {
-		return exclusiveUsers.get(ds);
+	private static String lockKey(RDFStatsDataset ds) {
+		return (ds != null) ? ds.getSourceUrl() : null;
 	}
 	
-	/**
-	 * @param ds
-	 */
-	private void unlock(RDFStatsDataset ds) {
-		exclusiveUsers.remove(ds);
+	private String lockOwnerName(String key) {
+		Thread t = lockManager.getOwner(key);
+		return (t != null) ? t.getName() : "none";
 	}
 
 	/**
@@ -130,8 +171,9 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 			log.debug("Thread " + Thread.currentThread().getName() + " returned exclusive write lock for " + dsStr + ".");
 		}
 		
-		unlock(ds);
+		releaseLease(ds);
 		changedItems.remove(ds);
+		lockManager.unlock(lockKey(ds));
 		
 		// TODO commit fails
 //		if (wrappedModel.supportsTransactions())
@@ -145,7 +187,7 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 	 * @throws RDFStatsModelException
 	 */
 	private void checkLock(RDFStatsDataset ds, boolean warnOnly) throws RDFStatsModelException {
-		Thread prev = lockOwner(ds);
+		Thread prev = lockManager.getOwner(lockKey(ds));
 		String dsStr = (ds == null) ? "all statistics" : ds.toString();
 		
 		if (prev == null) {
@@ -154,15 +196,159 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 				log.warn(msg);
 			else
 				throw new RDFStatsModelException(msg);
-		}
-		if (Thread.currentThread() != prev) {
+		} else if (Thread.currentThread() != prev) {
 			String msg = "Unauthorized modification operation: Thread " + Thread.currentThread().getName() + " has no exclusive write lock for " + dsStr + " (it is locked by Thread " + prev.getId() + ".";
 			if (warnOnly)
 				log.warn(msg);
 			else
 				throw new RDFStatsModelException(msg);
+		} else {
+			LeaseRenewal renewal = (ds != null) ? leaseRenewals.get(ds) : null;
+			if (renewal != null && renewal.lostTo != null) {
+				String msg = "Unauthorized modification operation: the lease on " + dsStr + " has expired and has been taken over by process " + renewal.lostTo + ".";
+				if (warnOnly)
+					log.warn(msg);
+				else
+					throw new RDFStatsModelException(msg);
+			}
 		}
 	}
+	
+	/**
+	 * @return the lock manager, e.g. to monitor lock contention
+	 */
+	public DatasetLockManager getLockManager() {
+		return lockManager;
+	}
+	
+// cross-process leases
+	
+	public void setLeaseDuration(int seconds) {
+		leaseDuration = Math.max(0, seconds) * 1000L;
+	}
+	
+	/**
+	 * acquires the lease on ds if leases are enabled, waiting while another process holds an unexpired lease
+	 * 
+	 * @param ds
+	 * @param timeoutMillis maximum time to wait or -1 to wait until it is acquired
+	 * @return true if the lease has been acquired (or leases are disabled)
+	 */
+	private boolean acquireLease(RDFStatsDataset ds, long timeoutMillis) {
+		if (leaseDuration == 0 || ds == null)
+			return true;
+		
+		long start = System.nanoTime();
+		long deadline = (timeoutMillis < 0) ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMillis;
+		boolean interrupted = false;
+		try {
+			String holder;
+			while ((holder = writeLease(ds.getWrappedResource(), false)) != null) {
+				long wait = Math.min(LEASE_POLL_INTERVAL, deadline - System.currentTimeMillis());
+				if (wait <= 0 || (interrupted && timeoutMillis >= 0)) {
+					lockManager.recordWait(System.nanoTime() - start);
+					return false;
+				}
+				if (log.isInfoEnabled())
+					log.info("Waiting for the lease on " + ds + " held by process " + holder + "...");
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+		if (System.nanoTime() - start > LEASE_POLL_INTERVAL * 1000000L)
+			lockManager.recordWait(System.nanoTime() - start);
+		scheduleRenewal(ds, System.currentTimeMillis());
+		return true;
+	}
+	
+	/**
+	 * writes (or renews) the lease of this process on ds
+	 * 
+	 * @param ds
+	 * @param renew if true, the lease of this process is extended even if it has already expired, but not if it has been
+	 * released meanwhile or taken over by another process
+	 * @return null if the lease has been written (or released) or the owner of the lease of another process, which is
+	 * unexpired unless renewing
+	 */
+	private String writeLease(Resource ds, boolean renew) {
+		model.enterCriticalSection(Lock.WRITE);
+		try {
+			long now = System.currentTimeMillis();
+			Statement owner = ds.getProperty(Stats.leaseOwner);
+			Statement expires = ds.getProperty(Stats.leaseExpires);
+			Object expiry = (expires != null) ? expires.getLiteral().getValue() : null;
+			if (!renew && owner != null && !LEASE_OWNER.equals(owner.getString()) &&
+					expiry instanceof XSDDateTime && ((XSDDateTime) expiry).asCalendar().getTimeInMillis() > now)
+				return owner.getString();
+			
+			if (renew && owner == null)
+				return null;
+			if (renew && !LEASE_OWNER.equals(owner.getString()))
+				return owner.getString(); // acquired by another process after expiry, it's not ours anymore
+			
+			Calendar c = Calendar.getInstance();
+			c.setTimeInMillis(now + leaseDuration);
+			removeLease(ds);
+			model.add(ds, Stats.leaseOwner, LEASE_OWNER);
+			model.add(ds, Stats.leaseExpires, model.createTypedLiteral(c));
+		} finally {
+			model.leaveCriticalSection();
+		}
+		sync();
+		return null;
+	}
+	
+	/** removes the lease statements of ds (as a list, so the catalog is not invalidated like by Model.removeAll()) */
+	private void removeLease(Resource ds) {
+		List<Statement> lease = new ArrayList<Statement>();
+		lease.addAll(ds.listProperties(Stats.leaseOwner).toList());
+		lease.addAll(ds.listProperties(Stats.leaseExpires).toList());
+		model.remove(lease);
+	}
+	
+	/**
+	 * @param ds
+	 * @param written time the lease has been written at
+	 */
+	private void scheduleRenewal(RDFStatsDataset ds, long written) {
+		LeaseRenewal renewal = new LeaseRenewal(ds, written + leaseDuration);
+		long period = Math.max(1, leaseDuration / 3);
+		synchronized (RDFStatsUpdatableModelImpl.class) {
+			if (leaseScheduler == null) {
+				leaseScheduler = Executors.newSingleThreadScheduledExecutor(new LeaseThreadFactory("RDFStats lease renewal"));
+				leaseWriters = Executors.newCachedThreadPool(new LeaseThreadFactory("RDFStats lease writer"));
+			}
+			renewal.future = leaseScheduler.scheduleAtFixedRate(renewal, period, period, TimeUnit.MILLISECONDS);
+		}
+		LeaseRenewal prev = leaseRenewals.put(ds, renewal);
+		if (prev != null)
+			prev.future.cancel(false);
+	}
+	
+	private void releaseLease(RDFStatsDataset ds) {
+		LeaseRenewal renewal = leaseRenewals.remove(ds);
+		if (renewal == null)
+			return;
+		renewal.future.cancel(false);
+		
+		Resource r = ds.getWrappedResource();
+		model.enterCriticalSection(Lock.WRITE);
+		try {
+			Statement owner = r.getProperty(Stats.leaseOwner);
+			if (owner != null && LEASE_OWNER.equals(owner.getString()))
+				removeLease(r);
+		} finally {
+			model.leaveCriticalSection();
+		}
+		sync();
+	}
 
 // dataset modification
 
@@ -174,14 +360,16 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 		if ((ds = getDataset(sourceUrl)) != null)
 			throw new RDFStatsModelException(ds + " already exists!");
 
-		model.enterCriticalSection(Lock.WRITE);
+		enterWriteSection();
 		try {
+			StatisticsCatalog catalog = getCatalog();
 			model.setNsPrefix(Constants.RDFSTATS_PREFIX, Stats.getURI());
 			Resource r = model.createResource(Stats.RDFStatsDataset);
 			r.addProperty(Stats.sourceUrl, model.createResource(sourceUrl));
 			r.addProperty(Stats.sourceType, model.createResource(sourceType));
 			r.addProperty(DC.creator, model.createLiteral(creator));
 			r.addProperty(DC.date, model.createTypedLiteral(date));
+			setCatalog(catalog.withDataset(r, new DatasetInfo(sourceUrl, sourceType, creator, date, null)));
 			ds = new RDFStatsDatasetImpl(r, this);
 
 			if (log.isDebugEnabled())
@@ -190,7 +378,7 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 			// lock already before leaving Jena critical section
 			requestExclusiveWriteLock(ds);			
 		} finally {
-			model.leaveCriticalSection();
+			leaveWriteSection();
 		}
 		return ds;
 	}
@@ -198,17 +386,18 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 	public RDFStatsDataset updateDataset(RDFStatsDataset ds, String creator, Calendar date) throws RDFStatsModelException {
 		checkLock(ds, false);
 		
-		model.enterCriticalSection(Lock.WRITE);
+		enterWriteSection();
 		try {
 			Resource r = ds.getWrappedResource();
 			model.setNsPrefix(Constants.RDFSTATS_PREFIX, Stats.getURI());
 			r.getProperty(DC.creator).changeObject(model.createLiteral(creator));
 			r.getProperty(DC.date).changeObject(model.createTypedLiteral(date));
+			setCatalog(getCatalog().withDatasetInfo(r, DatasetInfo.read(r)));
 			
 			if (log.isDebugEnabled())
 				log.debug("Updated " + ds + ".");
 		} finally {
-			model.leaveCriticalSection();
+			leaveWriteSection();
 		}
 		
 		return ds;
@@ -217,89 +406,198 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 // histogram modifications
 	
 	public boolean addOrUpdatePropertyHistogram(RDFStatsDataset dataset, String p, String rangeUri, String encodedHistogram) throws RDFStatsModelException {
-		checkLock(dataset, false);
+		Map<HistogramCache.Key, String> h = Collections.singletonMap(new HistogramCache.Key(null, p, rangeUri), encodedHistogram);
+		return applyBatch(dataset, h) > 0;
+	}
 
-		model.enterCriticalSection(Lock.WRITE);
-		try {
-			Resource histItem = getPropertyHistogramResource(dataset.getSourceUrl(), p, rangeUri);
+	public boolean addOrUpdateSubjectHistogram(RDFStatsDataset dataset, boolean blankNodes, String encodedHistogram) throws RDFStatsModelException {
+		String range = (blankNodes) ? Stats.blankNode.getURI() : RDFS.Resource.getURI();
+		Map<HistogramCache.Key, String> h = Collections.singletonMap(new HistogramCache.Key(null, null, range), encodedHistogram);
+		return applyBatch(dataset, h) > 0;
+	}
 
-			// new histogram
-			if (histItem == null) {
-				histItem = model.createResource();
-				histItem.addProperty(RDF.type, Stats.PropertyHistogram);
-				histItem.addProperty(SCOVO.dataset, dataset.getWrappedResource());
-//				if (c != null)
-//					histItem.addProperty(RDFStats.classDimension, model.createResource(c));
-				histItem.addProperty(Stats.propertyDimension, model.createResource(p));
-				histItem.addProperty(Stats.rangeDimension, model.createResource(rangeUri));
-				histItem.addProperty(RDF.value, model.createLiteral(encodedHistogram));
+	public HistogramBatch createBatch(RDFStatsDataset dataset) {
+		return new HistogramBatch(this, dataset);
+	}
+	
+	/**
+	 * applies the histograms of a {@link HistogramBatch} in one critical section and, if supported, one transaction,
+	 * and publishes a new catalog snapshot with the new encodings when done; with a histogram store, the encodings
+	 * are appended only after the model changes have been committed, so an aborted batch leaves the store unchanged
+	 * 
+	 * @param dataset
+	 * @param histograms (null, property or null for subject histograms, range) => base64-encoded histogram
+	 * @return the number of new items
+	 * @throws RDFStatsModelException
+	 */
+	int applyBatch(RDFStatsDataset dataset, Map<HistogramCache.Key, String> histograms) throws RDFStatsModelException {
+		checkLock(dataset, false);
+		if (histograms.isEmpty())
+			return 0;
+		
+		String sourceUrl = dataset.getSourceUrl();
+		Resource ds = dataset.getWrappedResource();
+		boolean transaction = model.supportsTransactions();
+		boolean committed = false;
 		
-				// remove from cached histograms
-				removeCachedHistogram(dataset.getSourceUrl(), p, rangeUri);
-				changedItems.get(dataset).add(histItem);
-				return true;
+		enterWriteSection();
+		try {
+			if (transaction)
+				model.begin();
+			
+			StatisticsCatalog catalog = getCatalog();
+			Set<Resource> changedItemsDs = changedItems.get(dataset);
+			List<Statement> added = new ArrayList<Statement>();
+			List<Statement> removed = new ArrayList<Statement>();
+			List<String[]> keys = new ArrayList<String[]>();
+			List<Resource> items = new ArrayList<Resource>();
+			List<Object> encoded = new ArrayList<Object>();
+			List<byte[]> payloads = new ArrayList<byte[]>();
+			int created = 0;
+			
+			for (Map.Entry<HistogramCache.Key, String> e : histograms.entrySet()) {
+				String p = e.getKey().p;
+				String range = e.getKey().rangeUri;
+				Resource histItem = (p != null) ?
+						catalog.getPropertyHistogram(sourceUrl, p, range) :
+						catalog.getSubjectHistogram(sourceUrl, range);
+
+				// new histogram
+				if (histItem == null) {
+					histItem = model.createResource();
+					added.add(model.createStatement(histItem, RDF.type, (p != null) ? Stats.PropertyHistogram : Stats.SubjectHistogram));
+					added.add(model.createStatement(histItem, SCOVO.dataset, ds));
+					if (p != null)
+						added.add(model.createStatement(histItem, Stats.propertyDimension, model.createResource(p)));
+					added.add(model.createStatement(histItem, Stats.rangeDimension, model.createResource(range)));
+					created++;
+					
+				// exists already => replace rdf:value
+				} else
+					removed.addAll(histItem.listProperties(RDF.value).toList());
 				
-			// exists already => simply update rdf:value
-			} else {
-				histItem.getProperty(RDF.value).changeObject(model.createLiteral(encodedHistogram));
-
-				// remove from cached histograms
-				removeCachedHistogram(dataset.getSourceUrl(), p, rangeUri);
-				changedItems.get(dataset).add(histItem);
-				return false;
-			}			
+				if (histogramStore != null)
+					payloads.add(Base64.decode(e.getValue()));
+				else {
+					added.add(model.createStatement(histItem, RDF.value, model.createLiteral(e.getValue())));
+					encoded.add(e.getValue());
+				}
+				keys.add(new String[] { p, range });
+				items.add(histItem);
+				changedItemsDs.add(histItem);
+			}
+			
+			// the stored summary is outdated
+			removed.addAll(ds.listProperties(Stats.summary).toList());
+			
+			model.remove(removed);
+			model.add(added);
+			
+			if (transaction)
+				model.commit();
+			committed = true;
+			
+			// views of the appended encodings are taken after the whole batch, which maps the grown file once
+			if (histogramStore != null) {
+				histogramStore.putAll(sourceUrl, keys, payloads);
+				for (String[] key : keys)
+					encoded.add(histogramStore.get(sourceUrl, key[0], key[1]));
+			}
+			
+			// publish the new version, readers of the previous snapshot are not affected
+			StatisticsCatalog c = catalog.withHistograms(ds, keys, items, encoded, created > 0);
+			setCatalog((c != null) ? c : StatisticsCatalog.build(model, histogramStore));
+			for (String[] key : keys)
+				removeCachedHistogram(sourceUrl, key[0], key[1]);
+			
+			if (log.isDebugEnabled())
+				log.debug("Added " + created + " and updated " + (histograms.size() - created) + " histograms of " + dataset + ".");
+			return created;
 		} catch (Exception e) {
-//			if (c != null)
-//				throw new RDFStatsModelException("Failed to add or update histogram for " + dataset + ", class <" + c + ">, property <" + p + ">, range <" + rangeUri + ">!", e);
-//			else
-				throw new RDFStatsModelException("Failed to add or update histogram for " + dataset + ", property <" + p + ">, range <" + rangeUri + ">!", e);
+			if (transaction && !committed) {
+				try {
+					model.abort();
+				} catch (Exception ignore) {}
+			}
+			setCatalog(null);
+			throw new RDFStatsModelException("Failed to add or update a batch of " + histograms.size() + " histograms for " + dataset + "!", e);
 		} finally {
-			model.leaveCriticalSection();
+			leaveWriteSection();
 		}
 	}
 
-	public boolean addOrUpdateSubjectHistogram(RDFStatsDataset dataset, boolean blankNodes, String encodedHistogram) throws RDFStatsModelException {
+	public DatasetSummary updateSummary(RDFStatsDataset dataset) throws RDFStatsModelException {
 		checkLock(dataset, false);
-
-		model.enterCriticalSection(Lock.WRITE);
+		DatasetSummary summary = getSummary(dataset.getSourceUrl()); // computed unless already known for this version
+		String encoded = summary.encode();
+		
+		enterWriteSection();
 		try {
-			Resource histItem = getSubjectHistogramResource(dataset.getSourceUrl(), blankNodes);
-			Resource range = (blankNodes) ? Stats.blankNode : RDFS.Resource;
+			Resource ds = dataset.getWrappedResource();
+			Statement s = ds.getProperty(Stats.summary);
+			if (s != null && s.getObject().isLiteral() && s.getString().equals(encoded))
+				return summary;
+			
+			ds.removeAll(Stats.summary);
+			ds.addProperty(Stats.summary, model.createLiteral(encoded));
 			
-			// new histogram
-			if (histItem == null) {
-				histItem = model.createResource();
-				histItem.addProperty(RDF.type, Stats.SubjectHistogram);
-				histItem.addProperty(SCOVO.dataset, dataset.getWrappedResource());
-				histItem.addProperty(Stats.rangeDimension, range);
-//				if (c != null)
-//					histItem.addProperty(RDFStats.classDimension, model.createResource(c));
-				histItem.addProperty(RDF.value, model.createLiteral(encodedHistogram));
+			if (log.isDebugEnabled())
+				log.debug("Stored " + summary + " of " + dataset + ".");
+		} finally {
+			leaveWriteSection();
+		}
+		sync();
+		return summary;
+	}
+	
+	public void updateCharacteristicSets(RDFStatsDataset dataset, CharacteristicSets cs) throws RDFStatsModelException {
+		checkLock(dataset, false);
+		String encoded = (cs != null) ? cs.encode() : null;
 		
-				// remove from cached histograms
-				removeCachedHistogram(dataset.getSourceUrl(), null, range.getURI());
-				changedItems.get(dataset).add(histItem);
-				return true;
-				
-			// exists already => simply update rdf:value
-			} else {
-				histItem.getProperty(RDF.value).changeObject(model.createLiteral(encodedHistogram));
-
-				// remove from cached histograms
-				removeCachedHistogram(dataset.getSourceUrl(), null, range.getURI());
-				changedItems.get(dataset).add(histItem);
-				return false;
-			}			
-		} catch (Exception e) {
-//			if (c != null)
-//				throw new RDFStatsModelException("Failed to add or update subject histogram for " + dataset + " and class <" + c + ">!", e);
-//			else
-				throw new RDFStatsModelException("Failed to add or update subject histogram for " + dataset + "!", e);
+		enterWriteSection();
+		try {
+			Resource ds = dataset.getWrappedResource();
+			Statement s = ds.getProperty(Stats.characteristicSets);
+			if (s == null && encoded == null || s != null && s.getObject().isLiteral() && s.getString().equals(encoded))
+				return;
+			
+			ds.removeAll(Stats.characteristicSets);
+			if (encoded != null)
+				ds.addProperty(Stats.characteristicSets, model.createLiteral(encoded));
+			setCatalog(getCatalog().withCharacteristicSets(ds, cs));
+			
+			if (log.isDebugEnabled())
+				log.debug(((cs != null) ? "Stored " + cs : "Removed characteristic sets") + " of " + dataset + ".");
 		} finally {
-			model.leaveCriticalSection();
+			leaveWriteSection();
 		}
+		sync();
 	}
-
+	
+	public void updateJoinKeySketches(RDFStatsDataset dataset, JoinKeySketches sketches) throws RDFStatsModelException {
+		checkLock(dataset, false);
+		String encoded = (sketches != null) ? sketches.encode() : null;
+		
+		enterWriteSection();
+		try {
+			Resource ds = dataset.getWrappedResource();
+			Statement s = ds.getProperty(Stats.joinKeySketches);
+			if (s == null && encoded == null || s != null && s.getObject().isLiteral() && s.getString().equals(encoded))
+				return;
+			
+			ds.removeAll(Stats.joinKeySketches);
+			if (encoded != null)
+				ds.addProperty(Stats.joinKeySketches, model.createLiteral(encoded));
+			setCatalog(getCatalog().withJoinKeySketches(ds, sketches));
+			
+			if (log.isDebugEnabled())
+				log.debug(((sketches != null) ? "Stored " + sketches : "Removed join key sketches") + " of " + dataset + ".");
+		} finally {
+			leaveWriteSection();
+		}
+		sync();
+	}
+	
 	public void keepPropertyHistogram(RDFStatsDataset dataset, String p, String rangeUri) throws RDFStatsModelException {
 		checkLock(dataset, false);
 		changedItems.get(dataset).add(getPropertyHistogramResource(dataset.getSourceUrl(), p, rangeUri));
@@ -370,6 +668,9 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 				requestExclusiveWriteLock(prevDs);
 				thisNewDs = updateDataset(prevDs, newDs.getCreator(), newDs.getCalendar());
 			}
+			
+			// all histograms are published as a single new catalog version
+			HistogramBatch batch = createBatch(thisNewDs);
 
 //			// class-specific subject histograms
 //			for (String cl : newModel.getSubjectHistogramClassess(sourceUrl)) {
@@ -381,12 +682,12 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 			// subject histograms
 			String untypedEncoded = newModel.getSubjectHistogramEncoded(sourceUrl, false);
 			if (untypedEncoded != null)
-				addOrUpdateSubjectHistogram(thisNewDs, false, untypedEncoded);
+				batch.addSubjectHistogram(false, untypedEncoded);
 			
 			// blank nodes histogram
 			String bnodesEncoded = newModel.getSubjectHistogramEncoded(sourceUrl, true);
 			if (bnodesEncoded != null)
-				addOrUpdateSubjectHistogram(thisNewDs, true, bnodesEncoded);
+				batch.addSubjectHistogram(true, bnodesEncoded);
 			
 			if (log.isDebugEnabled())
 				log.debug("Added/updated subject histogram from another " + newDs + ".");
@@ -405,14 +706,19 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 			// untyped property histograms
 			for (String p : newModel.getPropertyHistogramProperties(sourceUrl)) {
 				for (String r : newModel.getPropertyHistogramRanges(sourceUrl, p)) {
-					addOrUpdatePropertyHistogram(thisNewDs, p, r, newModel.getPropertyHistogramEncoded(sourceUrl, p, r));
+					batch.addPropertyHistogram(p, r, newModel.getPropertyHistogramEncoded(sourceUrl, p, r));
 					if (log.isDebugEnabled())
 						log.debug("Added/updated property histogram for property <" + p + ">, range <" + r +"> from another " + newDs + ".");
 				}
 			}
 
+			batch.commit();
+			
 			// clear all SCOVO items that have not been added or updated
 			removeUnchangedItems(thisNewDs);
+			updateSummary(thisNewDs);
+			updateCharacteristicSets(thisNewDs, newDs.getCharacteristicSets());
+			updateJoinKeySketches(thisNewDs, newDs.getJoinKeySketches());
 			
 			return true;
 		} finally {
@@ -435,8 +741,8 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 	 * 
 	 * Workflow:
 	 * 
-	 * 1. select scv:Items ?item having scv:dataset _:b0
-	 * 2. delete items
+	 * 1. list scv:Items ?item having scv:dataset _:b0 (a graph index lookup, no query)
+	 * 2. delete items in bulk
 	 * TODO: 3. delete stats:RDFStatsDataset _:b0
 	 * 
 	 */
@@ -444,57 +750,141 @@ public class RDFStatsUpdatableModelImpl extends RDFStatsModelImpl implements RDF
 		checkLock(ds, false);
 		log.debug("Clearing old statistics for " + ds + "...");
 		
-		QueryExecution qe = null;
-		model.enterCriticalSection(Lock.WRITE);
+		enterWriteSection();
 		try {
-			String qryStr = Constants.QUERY_PREFIX + "SELECT ?item ?dim WHERE { \n" +
-			"{	?item	a	stats:PropertyHistogram } \n" +
-			"	UNION" +
-			"{	?item	a	stats:SubjectHistogram } \n" + 
-			"	?item	" + datasetConstraint(ds.getSourceUrl()) + " .\n" +
-			"}\n";
-
-			qe = QueryExecutionFactory.create(qryStr, model); // against wrappedModel without inference
-
-			Set<Resource> itemsToDelete = new HashSet<Resource>();
-			
-			ResultSet r = qe.execSelect();
-			Resource item;
-			QuerySolution s;
-			
 			Set<Resource> changedItemsDs = changedItems.get(ds);
-			while (r.hasNext()) {
-				s = r.nextSolution();
-				item = s.getResource("item");
-
-				// only if item was not changed
-				if (!changedItemsDs.contains(item))
-					itemsToDelete.add(item);
+			List<Statement> statements = new ArrayList<Statement>();
+			List<String[]> storeKeys = new ArrayList<String[]>();
+			int deleted = 0;
+			
+			ResIterator it = model.listSubjectsWithProperty(SCOVO.dataset, ds.getWrappedResource());
+			try {
+				while (it.hasNext()) {
+					Resource item = it.nextResource();
+					
+					// only if item was not changed
+					if (changedItemsDs.contains(item) || !(item.hasProperty(RDF.type, Stats.PropertyHistogram) || item.hasProperty(RDF.type, Stats.SubjectHistogram)))
+						continue;
+					
+					if (histogramStore != null) {
+						Statement p = item.getProperty(Stats.propertyDimension);
+						storeKeys.add(new String[] { (p != null) ? p.getResource().getURI() : null, item.getProperty(Stats.rangeDimension).getResource().getURI() });
+					}
+					statements.addAll(item.listProperties().toList());
+					deleted++;
+				}
+			} finally {
+				it.close();
 			}
 
-			for (Resource i : itemsToDelete)
-				model.removeAll(i, null, null);
+			if (deleted > 0)
+				statements.addAll(ds.getWrappedResource().listProperties(Stats.summary).toList());
+			model.remove(statements);
+			if (!storeKeys.isEmpty())
+				histogramStore.removeAll(ds.getSourceUrl(), storeKeys);
+			if (deleted > 0) {
+				setCatalog(StatisticsCatalog.build(model, histogramStore));
+				histogramCache.removeSource(ds.getSourceUrl());
+			}
 			
-			if (log.isDebugEnabled() && itemsToDelete.size() > 0) {
+			if (log.isDebugEnabled() && deleted > 0) {
 				String dsStr = (ds != null) ? " for " + ds : "";
-				log.debug("Removed " + itemsToDelete.size() + " SCOVO items of statistics" + dsStr + ".");
+				log.debug("Removed " + deleted + " SCOVO items of statistics" + dsStr + ".");
 			}
 			
 			resetChangedItems(ds);
 		} catch (Exception e) {
 			String dsStr = (ds != null) ? " for " + ds : "";
+			setCatalog(null);
 			throw new RDFStatsModelException("Failed to remove old SCOVO items and dimensions of statistics" + dsStr + ".", e);
 		} finally {
-			model.leaveCriticalSection();
-			if (qe != null) qe.close();
+			leaveWriteSection();
 		}
 	}
 
 	public void removeDataset(RDFStatsDataset ds) throws RDFStatsModelException {
 		checkLock(ds, false);
 		resetChangedItems(ds);
-		removeUnchangedItems(ds); // removes all items of ds
-		model.removeAll(ds.getWrappedResource(), null, null); // removes ds
+		enterWriteSection();
+		try {
+			removeUnchangedItems(ds); // removes all items of ds
+			model.removeAll(ds.getWrappedResource(), null, null); // removes ds
+			setCatalog(StatisticsCatalog.build(model, histogramStore));
+		} finally {
+			leaveWriteSection();
+		}
 	}
 	
+	/**
+	 * renews a lease on the scheduler thread by handing the write over to a lease writer; a renewal which is still
+	 * waiting for the write lock of the model, e.g. held by a long write section, is not queued again but
+	 * logged as missed, with a warning once the lease has expired
+	 */
+	private class LeaseRenewal implements Runnable {
+		private final RDFStatsDataset ds;
+		private final AtomicBoolean pending = new AtomicBoolean(false);
+		private volatile long expires;
+		private volatile ScheduledFuture<?> future;
+		
+		/** the process which has taken over the expired lease, further modifications fail then */
+		private volatile String lostTo;
+		
+		LeaseRenewal(RDFStatsDataset ds, long expires) {
+			this.ds = ds;
+			this.expires = expires;
+		}
+		
+		public void run() {
+			if (!pending.compareAndSet(false, true)) {
+				long left = expires - System.currentTimeMillis();
+				if (left > 0)
+					log.info("Missed a renewal of the lease on " + ds + ", waiting for the write lock of the model, the lease expires in " + left + " ms.");
+				else
+					log.warn("Missed a renewal of the lease on " + ds + ", waiting for the write lock of the model, the lease has expired " + (-left) + " ms ago.");
+				return;
+			}
+			
+			try {
+				leaseWriters.execute(new Runnable() {
+					public void run() {
+						try {
+							long start = System.currentTimeMillis();
+							String holder = writeLease(ds.getWrappedResource(), true);
+							if (holder != null) {
+								lostTo = holder;
+								future.cancel(false);
+								log.warn("The lease on " + ds + " has expired and has been taken over by process " + holder + ", further modifications will fail.");
+								return;
+							}
+							if (start > expires)
+								log.warn("Renewed the lease on " + ds + " " + (start - expires) + " ms after it had expired, another process may have updated the dataset meanwhile.");
+							expires = start + leaseDuration;
+						} catch (Exception e) {
+							log.error("Failed to renew the lease on " + ds + ".", e);
+						} finally {
+							pending.set(false);
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				pending.set(false);
+				log.error("Failed to renew the lease on " + ds + ".", e);
+			}
+		}
+	}
+	
+	/** creates daemon threads for lease renewals */
+	private static class LeaseThreadFactory implements ThreadFactory {
+		private final String name;
+		
+		LeaseThreadFactory(String name) {
+			this.name = name;
+		}
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
@@ -0,0 +1,745 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import at.jku.rdfstats.vocabulary.SCOVO;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.vocabulary.DC;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Immutable snapshot of the statistics items of a model: RDF source URL => property => range => histogram item,
+ * range => properties, range => subject histogram item and the datasets per source URL.
+ * 
+ * It is built by a single scan of the model and replaces the SPARQL queries which have been executed for each
+ * histogram lookup before. Modifications return a patched copy which only copies the index of the affected
+ * RDF source, so snapshots handed out before remain valid for concurrent readers.
+ * 
+ * A snapshot also holds the encoded histogram of each item and the metadata of each dataset, so readers
+ * which pinned a snapshot don't have to access the model (and enter a Jena read lock) at all. The encoding
+ * is either the rdf:value string or a read-only buffer over the record in the {@link HistogramStore}, which
+ * is append-only and keeps its previous mapping valid upon compaction.
+ * 
+ * Lookups without a source URL (null) address all items of the model like the SPARQL queries without the
+ * dataset constraint did.
+ * 
+ * @author dorgon
+ *
+ */
+public class StatisticsCatalog {
+	
+	/** all datasets (typed as stats:RDFStatsDataset) */
+	private final List<Resource> datasets;
+	
+	/** source URL => datasets */
+	private final Map<String, List<Resource>> datasetsBySource;
+	
+	/** dataset => source URLs, also for untyped datasets referenced by items */
+	private final Map<Resource, List<String>> sourcesByDataset;
+	
+	/** source URL => index, the null key holds all items */
+	private final Map<String, Index> indexes;
+	
+	/** dataset => metadata */
+	private final Map<Resource, DatasetInfo> infos;
+	
+	/** histogram item => base64-encoded String or ByteBuffer */
+	private final Map<Resource, Object> values;
+	
+	/** source URL => aggregates computed for this version, the null key holds the aggregates of all items */
+	private final Map<String, DatasetSummary> summaries;
+	
+	/** dataset => stored characteristic sets */
+	private final Map<Resource, CharacteristicSets> characteristicSets;
+	
+	/** dataset => stored join key sketches */
+	private final Map<Resource, JoinKeySketches> joinKeySketches;
+
+	private StatisticsCatalog(List<Resource> datasets, Map<String, List<Resource>> datasetsBySource, Map<Resource, List<String>> sourcesByDataset, Map<String, Index> indexes,
+			Map<Resource, DatasetInfo> infos, Map<Resource, Object> values, Map<String, DatasetSummary> summaries, Map<Resource, CharacteristicSets> characteristicSets,
+			Map<Resource, JoinKeySketches> joinKeySketches) {
+		this.datasets = datasets;
+		this.datasetsBySource = datasetsBySource;
+		this.sourcesByDataset = sourcesByDataset;
+		this.indexes = indexes;
+		this.infos = infos;
+		this.values = values;
+		this.summaries = Collections.synchronizedMap(summaries);
+		this.characteristicSets = characteristicSets;
+		this.joinKeySketches = joinKeySketches;
+	}
+	
+	/**
+	 * scans the model, the caller must hold a read lock
+	 * 
+	 * @param model
+	 * @return a new catalog
+	 */
+	public static StatisticsCatalog build(Model model) {
+		try {
+			return build(model, null);
+		} catch (RDFStatsModelException e) {
+			throw new IllegalStateException(e); // not thrown without a store
+		}
+	}
+	
+	/**
+	 * scans the model, the caller must hold a read lock
+	 * 
+	 * @param model
+	 * @param store histogram store or null
+	 * @return a new catalog
+	 * @throws RDFStatsModelException if the store cannot be read
+	 */
+	public static StatisticsCatalog build(Model model, HistogramStore store) throws RDFStatsModelException {
+		List<Resource> datasets = new ArrayList<Resource>();
+		Map<String, List<Resource>> datasetsBySource = new HashMap<String, List<Resource>>();
+		Map<Resource, List<String>> sourcesByDataset = new HashMap<Resource, List<String>>();
+		Map<String, Index> indexes = new HashMap<String, Index>();
+		indexes.put(null, new Index());
+		Map<Resource, DatasetInfo> infos = new HashMap<Resource, DatasetInfo>();
+		Map<Resource, Object> values = new HashMap<Resource, Object>();
+		Map<String, DatasetSummary> summaries = new HashMap<String, DatasetSummary>();
+		Map<Resource, CharacteristicSets> characteristicSets = new HashMap<Resource, CharacteristicSets>();
+		Map<Resource, JoinKeySketches> joinKeySketches = new HashMap<Resource, JoinKeySketches>();
+
+		ResIterator it = model.listSubjectsWithProperty(RDF.type, Stats.RDFStatsDataset);
+		try {
+			while (it.hasNext()) {
+				Resource ds = it.nextResource();
+				datasets.add(ds);
+				infos.put(ds, DatasetInfo.read(ds));
+				DatasetSummary summary = readSummary(ds);
+				CharacteristicSets cs = readCharacteristicSets(ds);
+				if (cs != null)
+					characteristicSets.put(ds, cs);
+				JoinKeySketches jks = readJoinKeySketches(ds);
+				if (jks != null)
+					joinKeySketches.put(ds, jks);
+				for (String sourceUrl : getSourceUrls(ds, sourcesByDataset)) {
+					List<Resource> list = datasetsBySource.get(sourceUrl);
+					if (list == null) {
+						list = new ArrayList<Resource>(1);
+						datasetsBySource.put(sourceUrl, list);
+					}
+					list.add(ds);
+					if (summary != null)
+						summaries.put(sourceUrl, summary);
+				}
+			}
+		} finally {
+			it.close();
+		}
+
+		it = model.listSubjectsWithProperty(RDF.type, Stats.PropertyHistogram);
+		try {
+			while (it.hasNext()) {
+				Resource item = it.nextResource();
+				String p = getUri(item, Stats.propertyDimension);
+				String range = getUri(item, Stats.rangeDimension);
+				if (p == null || range == null) continue;
+				
+				Set<String> sourceUrls = getSourceUrls(item, sourcesByDataset, indexes);
+				for (String sourceUrl : sourceUrls)
+					indexes.get(sourceUrl).putPropertyHistogram(p, range, item, false);
+				putValue(values, item, store, sourceUrls, p, range);
+			}
+		} finally {
+			it.close();
+		}
+		
+		it = model.listSubjectsWithProperty(RDF.type, Stats.SubjectHistogram);
+		try {
+			while (it.hasNext()) {
+				Resource item = it.nextResource();
+				String range = getUri(item, Stats.rangeDimension);
+				if (range == null) continue;
+				
+				Set<String> sourceUrls = getSourceUrls(item, sourcesByDataset, indexes);
+				for (String sourceUrl : sourceUrls)
+					indexes.get(sourceUrl).putSubjectHistogram(range, item);
+				putValue(values, item, store, sourceUrls, null, range);
+			}
+		} finally {
+			it.close();
+		}
+		
+		return new StatisticsCatalog(datasets, datasetsBySource, sourcesByDataset, indexes, infos, values, summaries, characteristicSets, joinKeySketches);
+	}
+	
+	/**
+	 * @param ds
+	 * @return the summary persisted with ds or null if there is none or it cannot be decoded, it is computed on demand then
+	 */
+	private static DatasetSummary readSummary(Resource ds) {
+		Statement s = ds.getProperty(Stats.summary);
+		if (s == null || !s.getObject().isLiteral())
+			return null;
+		try {
+			return DatasetSummary.decode(s.getString());
+		} catch (RDFStatsModelException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @param ds
+	 * @return the characteristic sets stored with ds or null if there are none or they cannot be decoded
+	 */
+	private static CharacteristicSets readCharacteristicSets(Resource ds) {
+		Statement s = ds.getProperty(Stats.characteristicSets);
+		if (s == null || !s.getObject().isLiteral())
+			return null;
+		try {
+			return CharacteristicSets.decode(s.getString());
+		} catch (RDFStatsModelException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @param ds
+	 * @return the join key sketches stored with ds or null if there are none or they cannot be decoded
+	 */
+	private static JoinKeySketches readJoinKeySketches(Resource ds) {
+		Statement s = ds.getProperty(Stats.joinKeySketches);
+		if (s == null || !s.getObject().isLiteral())
+			return null;
+		try {
+			return JoinKeySketches.decode(s.getString());
+		} catch (RDFStatsModelException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * puts the encoding of item from the store (like {@link RDFStatsModelImpl} looks it up) or its rdf:value
+	 */
+	private static void putValue(Map<Resource, Object> values, Resource item, HistogramStore store, Set<String> sourceUrls, String p, String range) throws RDFStatsModelException {
+		if (store != null) {
+			for (String sourceUrl : sourceUrls) {
+				ByteBuffer buf = (sourceUrl != null) ? store.get(sourceUrl, p, range) : null;
+				if (buf != null) {
+					values.put(item, buf);
+					return;
+				}
+			}
+		}
+		
+		Statement value = item.getProperty(RDF.value);
+		if (value != null && value.getObject().isLiteral())
+			values.put(item, value.getString());
+	}
+
+	/**
+	 * @param item
+	 * @param sourcesByDataset
+	 * @param indexes
+	 * @return the source URLs of all datasets of item plus the null key, missing indexes are created
+	 */
+	private static Set<String> getSourceUrls(Resource item, Map<Resource, List<String>> sourcesByDataset, Map<String, Index> indexes) {
+		Set<String> sourceUrls = new LinkedHashSet<String>();
+		sourceUrls.add(null);
+		StmtIterator it = item.listProperties(SCOVO.dataset);
+		try {
+			while (it.hasNext()) {
+				RDFNode ds = it.nextStatement().getObject();
+				if (ds.isResource())
+					sourceUrls.addAll(getSourceUrls((Resource) ds, sourcesByDataset));
+			}
+		} finally {
+			it.close();
+		}
+		
+		for (String sourceUrl : sourceUrls)
+			if (!indexes.containsKey(sourceUrl))
+				indexes.put(sourceUrl, new Index());
+		return sourceUrls;
+	}
+	
+	private static List<String> getSourceUrls(Resource ds, Map<Resource, List<String>> sourcesByDataset) {
+		List<String> sourceUrls = sourcesByDataset.get(ds);
+		if (sourceUrls == null) {
+			sourceUrls = new ArrayList<String>(1);
+			StmtIterator it = ds.listProperties(Stats.sourceUrl);
+			try {
+				while (it.hasNext()) {
+					RDFNode url = it.nextStatement().getObject();
+					if (url.isURIResource())
+						sourceUrls.add(((Resource) url).getURI());
+				}
+			} finally {
+				it.close();
+			}
+			sourcesByDataset.put(ds, sourceUrls);
+		}
+		return sourceUrls;
+	}
+	
+	private static String getUri(Resource item, Property property) {
+		Statement st = item.getProperty(property);
+		if (st == null || !st.getObject().isURIResource())
+			return null;
+		return ((Resource) st.getObject()).getURI();
+	}
+
+// patching
+
+	/**
+	 * @param ds
+	 * @param info metadata of ds
+	 * @return a copy of this catalog including the new dataset ds
+	 */
+	public StatisticsCatalog withDataset(Resource ds, DatasetInfo info) {
+		String sourceUrl = info.getSourceUrl();
+		List<Resource> newDatasets = new ArrayList<Resource>(datasets);
+		newDatasets.add(ds);
+		
+		Map<String, List<Resource>> newBySource = new HashMap<String, List<Resource>>(datasetsBySource);
+		List<Resource> list = newBySource.get(sourceUrl);
+		list = (list == null) ? new ArrayList<Resource>(1) : new ArrayList<Resource>(list);
+		list.add(ds);
+		newBySource.put(sourceUrl, list);
+		
+		Map<Resource, List<String>> newByDataset = new HashMap<Resource, List<String>>(sourcesByDataset);
+		newByDataset.put(ds, Collections.singletonList(sourceUrl));
+		
+		Map<Resource, DatasetInfo> newInfos = new HashMap<Resource, DatasetInfo>(infos);
+		newInfos.put(ds, info);
+		
+		return new StatisticsCatalog(newDatasets, newBySource, newByDataset, indexes, newInfos, values, copySummaries(), characteristicSets, joinKeySketches);
+	}
+	
+	/**
+	 * @param ds
+	 * @param info
+	 * @return a copy of this catalog with the updated metadata of ds
+	 */
+	public StatisticsCatalog withDatasetInfo(Resource ds, DatasetInfo info) {
+		Map<Resource, DatasetInfo> newInfos = new HashMap<Resource, DatasetInfo>(infos);
+		newInfos.put(ds, info);
+		return new StatisticsCatalog(datasets, datasetsBySource, sourcesByDataset, indexes, newInfos, values, copySummaries(), characteristicSets, joinKeySketches);
+	}
+	
+	/**
+	 * patches all indexes once instead of copying them for each item
+	 * 
+	 * @param ds
+	 * @param keys { property, range } of the new or updated items, property is null for subject histograms
+	 * @param items the items in the order of keys
+	 * @param encoded the new encodings in the order of keys, a base64-encoded String or a ByteBuffer
+	 * @param created true if there are new items, otherwise only the encodings are replaced
+	 * @return a copy of this catalog including all histogram items of dataset ds or null if ds is unknown
+	 */
+	public StatisticsCatalog withHistograms(Resource ds, List<String[]> keys, List<Resource> items, List<Object> encoded, boolean created) {
+		List<String> sourceUrls = sourcesByDataset.get(ds);
+		if (sourceUrls == null)
+			return null;
+		
+		Map<Resource, Object> newValues = new HashMap<Resource, Object>(values);
+		for (int i = 0; i < items.size(); i++)
+			newValues.put(items.get(i), encoded.get(i));
+		
+		// aggregates of the other sources are still valid
+		Map<String, DatasetSummary> newSummaries = copySummaries();
+		newSummaries.remove(null);
+		for (String sourceUrl : sourceUrls)
+			newSummaries.remove(sourceUrl);
+		
+		if (!created)
+			return new StatisticsCatalog(datasets, datasetsBySource, sourcesByDataset, indexes, infos, newValues, newSummaries, characteristicSets, joinKeySketches);
+		
+		Map<String, Index> newIndexes = new HashMap<String, Index>(indexes);
+		List<Index> patched = new ArrayList<Index>(sourceUrls.size() + 1);
+		patched.add(deepCopyIndex(newIndexes, null));
+		for (String sourceUrl : sourceUrls)
+			patched.add(deepCopyIndex(newIndexes, sourceUrl));
+		
+		for (Index idx : patched) {
+			for (int i = 0; i < keys.size(); i++) {
+				String[] key = keys.get(i);
+				if (key[0] != null)
+					idx.putPropertyHistogram(key[0], key[1], items.get(i), false);
+				else
+					idx.putSubjectHistogram(key[1], items.get(i));
+			}
+		}
+		return new StatisticsCatalog(datasets, datasetsBySource, sourcesByDataset, newIndexes, infos, newValues, newSummaries, characteristicSets, joinKeySketches);
+	}
+	
+	/**
+	 * @param ds
+	 * @param cs the new characteristic sets of ds or null if they have been removed
+	 * @return a copy of this catalog with the characteristic sets of ds replaced
+	 */
+	public StatisticsCatalog withCharacteristicSets(Resource ds, CharacteristicSets cs) {
+		Map<Resource, CharacteristicSets> newSets = new HashMap<Resource, CharacteristicSets>(characteristicSets);
+		if (cs != null)
+			newSets.put(ds, cs);
+		else
+			newSets.remove(ds);
+		return new StatisticsCatalog(datasets, datasetsBySource, sourcesByDataset, indexes, infos, values, copySummaries(), newSets, joinKeySketches);
+	}
+	
+	/**
+	 * @param ds
+	 * @param sketches the new join key sketches of ds or null if they have been removed
+	 * @return a copy of this catalog with the join key sketches of ds replaced
+	 */
+	public StatisticsCatalog withJoinKeySketches(Resource ds, JoinKeySketches sketches) {
+		Map<Resource, JoinKeySketches> newSketches = new HashMap<Resource, JoinKeySketches>(joinKeySketches);
+		if (sketches != null)
+			newSketches.put(ds, sketches);
+		else
+			newSketches.remove(ds);
+		return new StatisticsCatalog(datasets, datasetsBySource, sourcesByDataset, indexes, infos, values, copySummaries(), characteristicSets, newSketches);
+	}
+	
+	private Map<String, DatasetSummary> copySummaries() {
+		synchronized (summaries) {
+			return new HashMap<String, DatasetSummary>(summaries);
+		}
+	}
+	
+	private static Index deepCopyIndex(Map<String, Index> indexes, String sourceUrl) {
+		Index idx = copyIndex(indexes, sourceUrl);
+		for (Map.Entry<String, Map<String, Resource>> e : idx.items.entrySet())
+			e.setValue(new LinkedHashMap<String, Resource>(e.getValue()));
+		for (Map.Entry<String, List<String>> e : idx.properties.entrySet())
+			e.setValue(new ArrayList<String>(e.getValue()));
+		return idx;
+	}
+	
+	private static Index copyIndex(Map<String, Index> indexes, String sourceUrl) {
+		Index idx = indexes.get(sourceUrl);
+		idx = (idx == null) ? new Index() : new Index(idx);
+		indexes.put(sourceUrl, idx);
+		return idx;
+	}
+	
+// lookups
+	
+	/**
+	 * @return all datasets
+	 */
+	public List<Resource> getDatasets() {
+		return new ArrayList<Resource>(datasets);
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @return the dataset for sourceUrl or the only dataset of the model if sourceUrl is null, null if there is none
+	 * @throws RDFStatsModelException if there are multiple matching datasets
+	 */
+	public Resource getDataset(String sourceUrl) throws RDFStatsModelException {
+		List<Resource> list = (sourceUrl != null) ? datasetsBySource.get(sourceUrl) : datasets;
+		if (list == null || list.size() == 0)
+			return null;
+		if (list.size() > 1) {
+			if (sourceUrl != null) 
+				throw new RDFStatsModelException("Found more than one datasets for RDF source <" + sourceUrl + ">! Please check your statistics model for consistency.");
+			else 
+				throw new RDFStatsModelException("Your statistics model contains multiple datasets. You have to specify the sourceUrl explicitly.");
+		}
+		return list.get(0);
+	}
+	
+	/**
+	 * @param ds
+	 * @return the metadata of dataset ds or null if ds is not part of this snapshot
+	 */
+	public DatasetInfo getDatasetInfo(Resource ds) {
+		return infos.get(ds);
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @return the aggregates of sourceUrl computed for this version or null
+	 */
+	public DatasetSummary getSummary(String sourceUrl) {
+		return summaries.get(sourceUrl);
+	}
+	
+	/**
+	 * memorizes the aggregates of sourceUrl for this version, they are kept by patched versions which don't affect sourceUrl
+	 * 
+	 * @param sourceUrl
+	 * @param summary
+	 */
+	public void putSummary(String sourceUrl, DatasetSummary summary) {
+		summaries.put(sourceUrl, summary);
+	}
+	
+	/**
+	 * @param ds
+	 * @return the characteristic sets stored with dataset ds or null if there are none
+	 */
+	public CharacteristicSets getCharacteristicSets(Resource ds) {
+		return characteristicSets.get(ds);
+	}
+	
+	/**
+	 * @param ds
+	 * @return the join key sketches stored with dataset ds or null if there are none
+	 */
+	public JoinKeySketches getJoinKeySketches(Resource ds) {
+		return joinKeySketches.get(ds);
+	}
+	
+	/**
+	 * @param item
+	 * @return the base64-encoded String or a read-only ByteBuffer over the binary encoding of item, null if item has no histogram
+	 */
+	public Object getEncoded(Resource item) {
+		Object v = values.get(item);
+		return (v instanceof ByteBuffer) ? ((ByteBuffer) v).duplicate() : v;
+	}
+	
+	/**
+	 * @param item
+	 * @return an object identifying the current encoding of item, which is replaced upon each update, or null
+	 */
+	public Object getVersion(Resource item) {
+		return values.get(item);
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @return properties having a property histogram
+	 */
+	public List<String> getPropertyHistogramProperties(String sourceUrl) {
+		Index idx = indexes.get(sourceUrl);
+		if (idx == null)
+			return new ArrayList<String>();
+		return new ArrayList<String>(idx.items.keySet());
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param rangeUri
+	 * @return properties having a property histogram for rangeUri
+	 */
+	public List<String> getPropertyHistogramProperties(String sourceUrl, String rangeUri) {
+		Index idx = indexes.get(sourceUrl);
+		List<String> props = (idx == null) ? null : idx.properties.get(rangeUri);
+		return (props == null) ? new ArrayList<String>() : new ArrayList<String>(props);
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p
+	 * @return ranges of the property histograms of p
+	 */
+	public List<String> getPropertyHistogramRanges(String sourceUrl, String p) {
+		Index idx = indexes.get(sourceUrl);
+		Map<String, Resource> ranges = (idx == null) ? null : idx.items.get(p);
+		return (ranges == null) ? new ArrayList<String>() : new ArrayList<String>(ranges.keySet());
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param p
+	 * @param rangeUri
+	 * @return the property histogram item or null
+	 * @throws RDFStatsModelException if there are multiple matching items
+	 */
+	public Resource getPropertyHistogram(String sourceUrl, String p, String rangeUri) throws RDFStatsModelException {
+		Index idx = indexes.get(sourceUrl);
+		if (idx == null)
+			return null;
+		Map<String, Resource> ranges = idx.items.get(p);
+		Resource item = (ranges == null) ? null : ranges.get(rangeUri);
+		if (item != null && idx.duplicates.contains(p + " " + rangeUri))
+			throw new RDFStatsModelException("Found more than one histograms for RDF source <" + sourceUrl + ">, property <" + p + ">, range <" + rangeUri + ">! Please check your statistics model for consistency.");
+		return item;
+	}
+	
+	/**
+	 * @param sourceUrl
+	 * @param rangeUri
+	 * @return the subject histogram item or null
+	 * @throws RDFStatsModelException if there are multiple matching items
+	 */
+	public Resource getSubjectHistogram(String sourceUrl, String rangeUri) throws RDFStatsModelException {
+		Index idx = indexes.get(sourceUrl);
+		if (idx == null)
+			return null;
+		Resource item = idx.subjectItems.get(rangeUri);
+		if (item != null && idx.duplicates.contains(rangeUri))
+			throw new RDFStatsModelException("Found more than one subject histograms for RDF source <" + sourceUrl + ">! Please check your statistics model for consistency.");
+		return item;
+	}
+	
+	/**
+	 * immutable metadata of a dataset
+	 */
+	public static class DatasetInfo {
+		private final String sourceUrl;
+		private final String sourceType;
+		private final String creator;
+		private final Calendar date;
+		private final String label;
+		
+		public DatasetInfo(String sourceUrl, String sourceType, String creator, Calendar date, String label) {
+			this.sourceUrl = sourceUrl;
+			this.sourceType = sourceType;
+			this.creator = creator;
+			this.date = (date != null) ? (Calendar) date.clone() : null;
+			this.label = label;
+		}
+		
+		/**
+		 * reads the metadata from the model, the caller must hold a read lock
+		 * 
+		 * @param ds
+		 * @return the metadata of ds, missing or malformed values are null
+		 */
+		public static DatasetInfo read(Resource ds) {
+			String sourceUrl = null;
+			Statement s = ds.getProperty(Stats.sourceUrl);
+			if (s != null && s.getObject().isLiteral())
+				sourceUrl = s.getString();
+			else if (s != null && s.getObject().isResource())
+				sourceUrl = s.getResource().getURI();
+			
+			s = ds.getProperty(Stats.sourceType);
+			String sourceType = (s != null && s.getObject().isResource()) ? s.getResource().getURI() : null;
+			
+			s = ds.getProperty(DC.creator);
+			String creator = (s != null && s.getObject().isLiteral()) ? s.getString() : null;
+			
+			s = ds.getProperty(DC.date);
+			Calendar date = null;
+			if (s != null && s.getObject().isLiteral() && s.getLiteral().getValue() instanceof XSDDateTime)
+				date = ((XSDDateTime) s.getLiteral().getValue()).asCalendar();
+			
+			s = ds.getProperty(RDFS.label);
+			String label = (s != null && s.getObject().isLiteral()) ? s.getString() : null;
+			
+			return new DatasetInfo(sourceUrl, sourceType, creator, date, label);
+		}
+		
+		public String getSourceUrl() {
+			return sourceUrl;
+		}
+		
+		public String getSourceType() {
+			return sourceType;
+		}
+		
+		public String getCreator() {
+			return creator;
+		}
+		
+		/**
+		 * @return a copy of the date or null
+		 */
+		public Calendar getCalendar() {
+			return (date != null) ? (Calendar) date.clone() : null;
+		}
+		
+		public String getLabel() {
+			return label;
+		}
+	}
+	
+	/**
+	 * index of the histogram items of a single RDF source, only modified before it is published
+	 */
+	private static class Index {
+		/** property => range => property histogram item */
+		final Map<String, Map<String, Resource>> items;
+		
+		/** range => properties */
+		final Map<String, List<String>> properties;
+		
+		/** range => subject histogram item */
+		final Map<String, Resource> subjectItems;
+		
+		/** keys ("p range" or range for subject histograms) of ambiguous items */
+		final Set<String> duplicates;
+		
+		Index() {
+			items = new LinkedHashMap<String, Map<String, Resource>>();
+			properties = new HashMap<String, List<String>>();
+			subjectItems = new HashMap<String, Resource>();
+			duplicates = new HashSet<String>();
+		}
+		
+		/** shallow copy, nested maps and lists must be copied on write */
+		Index(Index other) {
+			items = new LinkedHashMap<String, Map<String, Resource>>(other.items);
+			properties = new HashMap<String, List<String>>(other.properties);
+			subjectItems = new HashMap<String, Resource>(other.subjectItems);
+			duplicates = new HashSet<String>(other.duplicates);
+		}
+		
+		/**
+		 * @param p
+		 * @param range
+		 * @param item
+		 * @param copy true if the nested map and list are shared with another index and must be copied
+		 */
+		void putPropertyHistogram(String p, String range, Resource item, boolean copy) {
+			Map<String, Resource> ranges = items.get(p);
+			if (ranges == null)
+				ranges = new LinkedHashMap<String, Resource>(2);
+			else if (copy)
+				ranges = new LinkedHashMap<String, Resource>(ranges);
+			items.put(p, ranges);
+			
+			Resource prev = ranges.put(range, item);
+			if (prev == null) {
+				List<String> props = properties.get(range);
+				if (props == null)
+					props = new ArrayList<String>();
+				else if (copy)
+					props = new ArrayList<String>(props);
+				props.add(p);
+				properties.put(range, props);
+			} else if (!prev.equals(item))
+				duplicates.add(p + " " + range);
+		}
+		
+		void putSubjectHistogram(String range, Resource item) {
+			Resource prev = subjectItems.put(range, item);
+			if (prev != null && !prev.equals(item))
+				duplicates.add(range);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.generator;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.jku.rdfstats.ParseException;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.DateHistogram;
+import at.jku.rdfstats.hist.DoubleHistogram;
+import at.jku.rdfstats.hist.Histogram;
+import at.jku.rdfstats.hist.IntegerHistogram;
+import at.jku.rdfstats.hist.LongHistogram;
+import at.jku.rdfstats.hist.builder.DateHistogramBuilder;
+import at.jku.rdfstats.hist.builder.DoubleHistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramBuilderFactory;
+import at.jku.rdfstats.hist.builder.IntegerHistogramBuilder;
+import at.jku.rdfstats.hist.builder.LongHistogramBuilder;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.sparql.engine.http.QueryEngineHTTP;
+
+/**
+ * Generates numeric and date property histograms on the SPARQL endpoint with SPARQL 1.1
+ * aggregates instead of retrieving all values. For each property, one query obtains
+ * COUNT, COUNT(DISTINCT), MIN, MAX and the value lengths grouped by datatype, and one query
+ * per datatype counts the values of each bin (GROUP BY the bin index for numbers, one
+ * conditional SUM per bin boundary for xsd:dateTime). Bins are calculated like in the
+ * corresponding histogram builders, hence network transfer is O(bins) instead of O(values).
+ * 
+ * Differences to the builders: distinct values are counted as distinct RDF terms (e.g. "01"
+ * and "1" are two values) and values with an invalid lexical form are counted instead of
+ * being skipped. Dates without a time zone are compared by the endpoint, not in the
+ * configured default time zone, so only xsd:dateTime values are pushed down.
+ * 
+ * @author dorgon
+ *
+ */
+public class AggregatePushdown {
+	private static final Logger log = LoggerFactory.getLogger(AggregatePushdown.class);
+	
+	/** datatypes that can be pushed down and the builders used by the generators for them */
+	protected static final Map<String, Class<? extends HistogramBuilder<?>>> supported = new LinkedHashMap<String, Class<? extends HistogramBuilder<?>>>();
+	
+	static {
+		supported.put(XSDDatatype.XSDint.getURI(), IntegerHistogramBuilder.class);
+		supported.put(XSDDatatype.XSDinteger.getURI(), LongHistogramBuilder.class);
+		supported.put(XSDDatatype.XSDlong.getURI(), LongHistogramBuilder.class);
+		supported.put(XSDDatatype.XSDdouble.getURI(), DoubleHistogramBuilder.class);
+		supported.put(XSDDatatype.XSDdateTime.getURI(), DateHistogramBuilder.class);
+	}
+	
+	private static final String XSD_INTEGER = XSDDatatype.XSDinteger.getURI();
+	private static final String XSD_DOUBLE = XSDDatatype.XSDdouble.getURI();
+	private static final String XSD_DATETIME = XSDDatatype.XSDdateTime.getURI();
+	
+	private final String endpointUri;
+	private final RDFStatsConfiguration config;
+	
+	/**
+	 * @param endpointUri
+	 * @param config
+	 */
+	public AggregatePushdown(String endpointUri, RDFStatsConfiguration config) {
+		this.endpointUri = endpointUri;
+		this.config = config;
+	}
+	
+	/**
+	 * generates the histograms of all pushed down ranges of property p
+	 * 
+	 * @param p
+	 * @return range URI => histogram, only for ranges that occur and are supported
+	 * @throws ParseException if an aggregated value cannot be parsed
+	 */
+	public Map<String, Histogram<?>> generate(String p) throws ParseException {
+		Map<String, Histogram<?>> histograms = new HashMap<String, Histogram<?>>();
+		
+		List<String> types = new ArrayList<String>();
+		for (String t : supported.keySet())
+			if (HistogramBuilderFactory.getBuilderClass(t, p).equals(supported.get(t)))
+				types.add(t);
+		if (types.isEmpty())
+			return histograms;
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT ?t (COUNT(?val) AS ?n) (COUNT(DISTINCT ?val) AS ?d) (MIN(?val) AS ?min) (MAX(?val) AS ?max) ");
+		sb.append("(MIN(STRLEN(STR(?val))) AS ?minLen) (MAX(STRLEN(STR(?val))) AS ?maxLen) (SUM(STRLEN(STR(?val))) AS ?sumLen) ");
+		sb.append("WHERE { ?s <").append(p).append("> ?val FILTER (isLiteral(?val) && (");
+		for (int i=0; i<types.size(); i++)
+			sb.append((i > 0) ? " || " : "").append("datatype(?val) = <").append(types.get(i)).append(">");
+		sb.append(")) } GROUP BY (DATATYPE(?val) AS ?t)");
+		
+		for (QuerySolution s : select(sb.toString())) {
+			if (s.get("t") == null || !s.get("t").isURIResource())
+				continue;
+			String t = s.getResource("t").getURI();
+			if (!types.contains(t))
+				continue;
+			
+			int n = s.getLiteral("n").getInt();
+			if (n == 0)
+				continue;
+			int distinct = s.getLiteral("d").getInt();
+			Node min = s.get("min").asNode();
+			Node max = s.get("max").asNode();
+			int[] lengths = getValueLengths(t, n, s.getLiteral("minLen").getLong(), s.getLiteral("maxLen").getLong(), s.getLiteral("sumLen").getLong());
+			
+			Class<? extends HistogramBuilder<?>> builder = supported.get(t);
+			Histogram<?> h;
+			if (builder.equals(IntegerHistogramBuilder.class)) {
+				Integer iMin = IntegerHistogram.parseNodeValueImpl(min), iMax = IntegerHistogram.parseNodeValueImpl(max);
+				int[] bins = integerBins(p, t, iMin, iMax, n, distinct);
+				h = new IntegerHistogram(t, bins, n, distinct, iMin, iMax, lengths, IntegerHistogramBuilder.class);
+			} else if (builder.equals(LongHistogramBuilder.class)) {
+				Long lMin = LongHistogram.parseNodeValueImpl(min), lMax = LongHistogram.parseNodeValueImpl(max);
+				int[] bins = integerBins(p, t, lMin, lMax, n, distinct);
+				h = new LongHistogram(t, bins, n, distinct, lMin, lMax, lengths, LongHistogramBuilder.class);
+			} else if (builder.equals(DoubleHistogramBuilder.class)) {
+				Double dMin = DoubleHistogram.parseNodeValueImpl(min), dMax = DoubleHistogram.parseNodeValueImpl(max);
+				int[] bins = doubleBins(p, t, dMin, dMax, n, distinct);
+				h = new DoubleHistogram(t, bins, n, distinct, dMin, dMax, lengths, DoubleHistogramBuilder.class);
+			} else {
+				Date dMin = DateHistogram.parseNodeValueImpl(min), dMax = DateHistogram.parseNodeValueImpl(max);
+				int[] bins = dateBins(p, t, dMin.getTime(), dMax.getTime(), n, distinct);
+				h = new DateHistogram(t, bins, n, distinct, dMin, dMax, lengths, DateHistogramBuilder.class);
+			}
+			histograms.put(t, h);
+			
+			if (log.isDebugEnabled())
+				log.debug("Generated histogram for property <" + p + ">, range <" + t + "> from aggregates (" + n + " values).");
+		}
+		return histograms;
+	}
+	
+	/**
+	 * @param types pushed down ranges
+	 * @return SPARQL filter expression over ?val selecting all values not pushed down, null if types is empty
+	 */
+	public static String getExcludeFilter(Collection<String> types) {
+		if (types.isEmpty())
+			return null;
+		
+		StringBuilder sb = new StringBuilder("!isLiteral(?val) || lang(?val) != \"\" || (");
+		int i = 0;
+		for (String t : types)
+			sb.append((i++ > 0) ? " && " : "").append("datatype(?val) != <").append(t).append(">");
+		return sb.append(")").toString();
+	}
+	
+	/** bins of {@link IntegerHistogramBuilder} and {@link LongHistogramBuilder} */
+	private int[] integerBins(String p, String t, long min, long max, int n, int distinct) {
+		long range = max - min + 1L;
+		int numBins = (range > 0) ? config.getPrefSize() : 1;
+		if (distinct < numBins) numBins = distinct;
+		double binWidth = range / (double) numBins;
+		
+		return groupedBins(p, t, literal(Long.toString(min), XSD_INTEGER), binWidth, numBins, n);
+	}
+	
+	/** bins of {@link DoubleHistogramBuilder} */
+	private int[] doubleBins(String p, String t, double min, double max, int n, int distinct) {
+		double range = max - min;
+		int numBins = (range > 0) ? config.getPrefSize() : 1;
+		if (distinct < numBins) numBins = distinct;
+		double binWidth = range / (double) numBins;
+		
+		return groupedBins(p, t, literal(Double.toString(min), XSD_DOUBLE), binWidth, numBins, n);
+	}
+	
+	/** counts values by bin index FLOOR((?val - min) / binWidth) */
+	private int[] groupedBins(String p, String t, String min, double binWidth, int numBins, int n) {
+		int[] data = new int[numBins];
+		if (numBins == 1) {
+			data[0] = n;
+			return data;
+		}
+		
+		String qry = "SELECT ?bin (COUNT(?val) AS ?n) WHERE { ?s <" + p + "> ?val FILTER (isLiteral(?val) && datatype(?val) = <" + t + ">) } " +
+			"GROUP BY (FLOOR((?val - " + min + ") / " + literal(Double.toString(binWidth), XSD_DOUBLE) + ") AS ?bin)";
+		
+		for (QuerySolution s : select(qry)) {
+			if (s.get("bin") == null)
+				continue;
+			long idx = (long) s.getLiteral("bin").getDouble();
+			if (idx >= numBins) idx = numBins-1; // corner case, last entry fits into last bin even if slightly higher
+			if (idx < 0) idx = 0;
+			data[(int) idx] += s.getLiteral("n").getInt();
+		}
+		return data;
+	}
+	
+	/** bins of {@link DateHistogramBuilder}, counts the values above each bin boundary */
+	private int[] dateBins(String p, String t, long min, long max, int n, int distinct) {
+		long range = max - min;
+		int numBins = (range > 0) ? config.getPrefSize() : 1;
+		if (distinct < numBins) numBins = distinct;
+		double binWidth = range / (double) numBins;
+		
+		int[] data = new int[numBins];
+		if (numBins == 1) {
+			data[0] = n;
+			return data;
+		}
+		
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+		
+		StringBuilder sb = new StringBuilder("SELECT");
+		for (int i=1; i<numBins; i++)
+			sb.append(" (SUM(IF(?val >= ").append(literal(fmt.format(new Date(dateBoundary(min, binWidth, i))), XSD_DATETIME)).append(", 1, 0)) AS ?c").append(i).append(")");
+		sb.append(" WHERE { ?s <").append(p).append("> ?val FILTER (isLiteral(?val) && datatype(?val) = <").append(t).append(">) }");
+		
+		List<QuerySolution> r = select(sb.toString());
+		if (r.isEmpty())
+			throw new IllegalStateException("No result for bin counts of property <" + p + ">, range <" + t + ">.");
+		QuerySolution s = r.get(0);
+		
+		// values >= boundary i, i.e. in bin i or above
+		int[] above = new int[numBins+1];
+		above[0] = n;
+		for (int i=1; i<numBins; i++)
+			above[i] = (s.get("c" + i) != null) ? s.getLiteral("c" + i).getInt() : 0;
+		for (int i=0; i<numBins; i++)
+			data[i] = above[i] - above[i+1];
+		return data;
+	}
+	
+	/**
+	 * @return smallest time v (ms) with floor((v - min) / binWidth) >= i, like in {@link DateHistogramBuilder}
+	 */
+	private static long dateBoundary(long min, double binWidth, int i) {
+		long v = min + (long) Math.ceil(i * binWidth);
+		while ((v-1-min) / binWidth >= i) v--;
+		while ((v-min) / binWidth < i) v++;
+		return v;
+	}
+	
+	/**
+	 * value lengths as calculated by the builders from the N3 serialization of the typed literal,
+	 * which adds a constant to the length of the lexical form
+	 */
+	private static int[] getValueLengths(String t, int n, long minLen, long maxLen, long sumLen) {
+		int overhead = Node.createLiteral("", null, TypeMapper.getInstance().getSafeTypeByName(t)).toString().length();
+		long avg = (sumLen + n * (long) overhead) / n;
+		return new int[] { (int) (minLen + overhead), (int) avg, (int) (maxLen + overhead) };
+	}
+	
+	private static String literal(String lex, String type) {
+		return "\"" + lex + "\"^^<" + type + ">";
+	}
+	
+	/**
+	 * executes a SPARQL 1.1 query string at the endpoint without parsing it locally
+	 * 
+	 * @param qry
+	 * @return all solutions
+	 */
+	protected List<QuerySolution> select(String qry) {
+		QueryExecution qe = new QueryEngineHTTP(endpointUri, qry);
+		try {
+			List<QuerySolution> solutions = new ArrayList<QuerySolution>();
+			ResultSet r = qe.execSelect();
+			while (r.hasNext())
+				solutions.add(r.nextSolution());
+			return solutions;
+		} finally {
+			qe.close();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.generator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+
+/**
+ * Iterates the solutions of a SELECT query obtained by a generator.
+ * 
+ * If a page size is set, the query is split into LIMIT/OFFSET pages so that large
+ * results are not truncated by the endpoint's result limit or run into timeouts. Pages
+ * are fetched by a background thread one page ahead of the consumer, a failed page is
+ * retried before giving up. Optionally, the pages are ordered by all result variables,
+ * which makes the split stable on endpoints that don't guarantee a consistent order.
+ * 
+ * Endpoints may cap results below the requested page size (e.g. Virtuoso returns at most
+ * 10000 rows). Hence, the first short page is taken as the server's page size and paging
+ * continues; only an empty page or a page shorter than the detected cap ends the iteration.
+ * 
+ * Always close() the iterator in a finally{} block.
+ * 
+ * @author dorgon
+ *
+ */
+public class PagedSolutionIterator implements Iterator<QuerySolution> {
+	private static final Log log = LogFactory.getLog(PagedSolutionIterator.class);
+	
+	/** number of attempts for fetching a single page */
+	public static final int PAGE_ATTEMPTS = 3;
+	
+	/** wait before retrying a failed page, multiplied by the number of failed attempts */
+	public static final int RETRY_WAIT = 1000; //ms
+	
+	private final RDFStatsGeneratorBase generator;
+	private final Query query;
+	private final int pageSize;
+
+	/* unpaged mode */
+	private QueryExecution qe;
+	private ResultSet results;
+	
+	/* paged mode */
+	private ExecutorService prefetcher;
+	private Future<List<QuerySolution>> nextPage;
+	private Iterator<QuerySolution> current;
+	private long offset = 0;
+	private boolean lastPage = false;
+	private int serverPageSize;
+	private boolean capDetected = false;
+	
+	/**
+	 * @param generator the generator providing query executions for the source
+	 * @param query
+	 * @param pageSize page size, &lt;= 0 to execute the query as a whole
+	 * @param ordered if true, add ORDER BY over all result variables to paged queries
+	 */
+	public PagedSolutionIterator(RDFStatsGeneratorBase generator, Query query, int pageSize, boolean ordered) {
+		this.generator = generator;
+		
+		// paging is not applied to queries with their own LIMIT/OFFSET
+		if (pageSize > 0 && !query.hasLimit() && !query.hasOffset()) {
+			this.pageSize = pageSize;
+			this.serverPageSize = pageSize;
+			this.query = query.cloneQuery();
+			if (ordered && !this.query.hasOrderBy())
+				for (String var : this.query.getResultVars())
+					this.query.addOrderBy(var, Query.ORDER_ASCENDING);
+			
+			prefetcher = Executors.newSingleThreadExecutor();
+			nextPage = prefetcher.submit(new PageFetcher(offset));
+		} else {
+			this.pageSize = 0;
+			this.query = query;
+			qe = generator.getQueryExecution(query);
+			results = qe.execSelect();
+		}
+	}
+	
+	public boolean hasNext() {
+		if (results != null)
+			return results.hasNext();
+		
+		while (current == null || !current.hasNext()) {
+			if (lastPage || nextPage == null)
+				return false;
+			
+			List<QuerySolution> page = takeNextPage();
+			offset += page.size();
+			if (page.isEmpty() || (capDetected && page.size() < serverPageSize))
+				lastPage = true;
+			else if (page.size() < serverPageSize) {
+				// either the last page or the endpoint caps results, the next page tells
+				capDetected = true;
+				serverPageSize = page.size();
+				if (log.isDebugEnabled())
+					log.debug("Got " + page.size() + " of " + pageSize + " results at offset " + (offset - page.size()) + ", assuming the endpoint limits results to " + serverPageSize + " per page.");
+			}
+			if (!lastPage)
+				nextPage = prefetcher.submit(new PageFetcher(offset)); // pipelined with processing the current page
+			current = page.iterator();
+		}
+		return true;
+	}
+
+	public QuerySolution next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return (results != null) ? results.nextSolution() : current.next();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("Solutions cannot be removed.");
+	}
+	
+	/** releases the query execution or the prefetching thread */
+	public void close() {
+		if (qe != null)
+			qe.close();
+		if (prefetcher != null)
+			prefetcher.shutdownNow();
+	}
+	
+	private List<QuerySolution> takeNextPage() {
+		try {
+			return nextPage.get();
+		} catch (InterruptedException e) {
+			nextPage = null;
+			throw new RuntimeException("Interrupted while fetching results at offset " + offset + ".", e);
+		} catch (ExecutionException e) {
+			nextPage = null;
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException("Failed to fetch results at offset " + offset + ".", e.getCause());
+		}
+	}
+	
+	/**
+	 * fetches a single page, retries up to PAGE_ATTEMPTS times
+	 */
+	private class PageFetcher implements Callable<List<QuerySolution>> {
+		private final long pageOffset;
+		
+		PageFetcher(long pageOffset) {
+			this.pageOffset = pageOffset;
+		}
+		
+		public List<QuerySolution> call() throws Exception {
+			Query q = query.cloneQuery();
+			q.setOffset(pageOffset);
+			q.setLimit(pageSize);
+			
+			for (int attempt=1; ; attempt++) {
+				QueryExecution pqe = null;
+				try {
+					pqe = generator.getQueryExecution(q);
+					ResultSet r = pqe.execSelect();
+					List<QuerySolution> page = new ArrayList<QuerySolution>(pageSize);
+					while (r.hasNext())
+						page.add(r.nextSolution());
+					
+					if (log.isDebugEnabled())
+						log.debug("Fetched " + page.size() + " results at offset " + pageOffset + ".");
+					return page;
+				} catch (RuntimeException e) {
+					if (attempt >= PAGE_ATTEMPTS)
+						throw e;
+					log.warn("Failed to fetch results at offset " + pageOffset + " (attempt " + attempt + " of " + PAGE_ATTEMPTS + "), retrying...", e);
+					Thread.sleep(RETRY_WAIT * attempt);
+				} finally {
+					if (pqe != null)
+						pqe.close();
+				}
+			}
+		}
+	}
+}
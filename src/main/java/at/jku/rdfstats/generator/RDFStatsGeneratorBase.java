@@ -23,12 +23,22 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import at.jku.rdfstats.CharacteristicSets;
+import at.jku.rdfstats.JoinKeySketches;
 import at.jku.rdfstats.Constants;
 import at.jku.rdfstats.GeneratorException;
+import at.jku.rdfstats.HistogramBatch;
 import at.jku.rdfstats.RDFStatsConfiguration;
 import at.jku.rdfstats.RDFStatsDataset;
 import at.jku.rdfstats.RDFStatsModel;
@@ -79,6 +89,21 @@ public abstract class RDFStatsGeneratorBase {
 	/** the SCOVO dataset resource */
 	protected RDFStatsDataset dataset;
 	
+	/** generated histograms, written at once before old items are removed */
+	protected HistogramBatch batch;
+	
+	/** collects the characteristic sets during the scans, null if disabled, only used by the coordinating thread */
+	protected CharacteristicSets.Collector characteristicSets;
+	
+	/** collects the join key sketches during the scans, null if disabled, only used by the coordinating thread */
+	protected JoinKeySketches.Collector joinKeySketches;
+	
+	/** true if the join key sketches of all properties are unusable, e.g. because the properties couldn't be listed */
+	private boolean joinKeySketchesInvalid = false;
+	
+	/** true if the property histograms and therefore the characteristic sets and join key sketches have been kept unchanged */
+	private boolean joinStatisticsKept = false;
+	
 	/** the URL of the RDF source (SPARQL endpoint URI or RDF document URL) */
 	protected String sourceUrl;
 	
@@ -113,6 +138,7 @@ public abstract class RDFStatsGeneratorBase {
 		}
 
 		stats = RDFStatsModelFactory.createUpdatable(this.config.getStatsModel());
+		stats.setLeaseDuration(this.config.getLeaseDuration());
 		tempModel = ModelFactory.createDefaultModel();
 			
 //		n_queries = new int[4];
@@ -129,6 +155,16 @@ public abstract class RDFStatsGeneratorBase {
 	/** get query execution depending on the generator */
 	public abstract QueryExecution getQueryExecution(Query cq);
 	
+	/**
+	 * executes a SELECT query, paged if a page size is configured
+	 * 
+	 * @param q
+	 * @return solution iterator, must be closed by the caller
+	 */
+	protected PagedSolutionIterator select(Query q) {
+		return new PagedSolutionIterator(this, q, config.getPageSize(), config.orderedPaging());
+	}
+	
 	/**
 	 * generate method
 	 * 
@@ -141,6 +177,9 @@ public abstract class RDFStatsGeneratorBase {
 		try {
 			// get/create dataset and obtain exclusive write lock...
 			dataset = initDatasetAndLock();
+			batch = stats.createBatch(dataset);
+			characteristicSets = (config.getMaxCharacteristicSets() > 0) ? new CharacteristicSets.Collector() : null;
+			joinKeySketches = (config.getJoinKeySketchSize() > 0) ? new JoinKeySketches.Collector(config.getJoinKeySketchSize()) : null;
 			
 			if (log.isInfoEnabled())
 				log.info("Generating statistics for " + dataset + "...");
@@ -188,20 +227,14 @@ public abstract class RDFStatsGeneratorBase {
 					log.debug("Generating subject and property histograms...");
 				
 				// generate subject and property histograms over all subjects
-				boolean changed = generateSubjectHistograms();
-				if (changed || !config.quickMode())
-					generatePropertyHistograms();
-				
-				else {
-					// keep existing
-					for (String prop : stats.getPropertyHistogramProperties(dataset.getSourceUrl()))
-						for (String range : stats.getPropertyHistogramRanges(dataset.getSourceUrl(), prop))
-							stats.keepPropertyHistogram(dataset, prop, range);
-				}
+				generateHistograms();
 //			}
 			
-			// delete old (unchanged or keep-tagged) items
+			// store generated histograms and delete old (unchanged or keep-tagged) items
+			batch.commit();
 			stats.removeUnchangedItems(dataset);
+			stats.updateSummary(dataset);
+			storeJoinStatistics();
 			
 			if (log.isInfoEnabled())
 				log.info("Statistics for " + dataset + " generated.");
@@ -225,6 +258,63 @@ public abstract class RDFStatsGeneratorBase {
 		}
 	}
 	
+	/**
+	 * generates subject and property histograms for the dataset, by default with one
+	 * query for the subjects, one for the property list and one per property
+	 * 
+	 * @throws GeneratorException
+	 * @throws HistogramBuilderException
+	 * @throws RDFStatsModelException
+	 */
+	protected void generateHistograms() throws GeneratorException, HistogramBuilderException, RDFStatsModelException {
+		boolean changed = generateSubjectHistograms();
+		if (changed || !config.quickMode())
+			generatePropertyHistograms();
+		else
+			keepPropertyHistograms();
+	}
+	
+	/**
+	 * keep all existing property histograms of the dataset
+	 * 
+	 * @throws RDFStatsModelException
+	 */
+	protected void keepPropertyHistograms() throws RDFStatsModelException {
+		joinStatisticsKept = true;
+		for (String prop : stats.getPropertyHistogramProperties(dataset.getSourceUrl()))
+			for (String range : stats.getPropertyHistogramRanges(dataset.getSourceUrl(), prop))
+				stats.keepPropertyHistogram(dataset, prop, range);
+	}
+	
+	/**
+	 * stores the collected characteristic sets and join key sketches, removes previous characteristic sets
+	 * if they couldn't be collected completely
+	 * 
+	 * @throws RDFStatsModelException
+	 */
+	private void storeJoinStatistics() throws RDFStatsModelException {
+		if (joinStatisticsKept)
+			return;
+		
+		if (characteristicSets != null && characteristicSets.isComplete()) {
+			CharacteristicSets cs = characteristicSets.getCharacteristicSets(config.getMaxCharacteristicSets());
+			stats.updateCharacteristicSets(dataset, cs);
+			if (log.isDebugEnabled())
+				log.debug("Generated " + cs + ".");
+		} else {
+			if (characteristicSets != null)
+				log.warn("Characteristic sets of " + dataset + " are incomplete and have not been stored.");
+			stats.updateCharacteristicSets(dataset, null);
+		}
+		characteristicSets = null;
+		
+		JoinKeySketches sketches = (joinKeySketches != null && !joinKeySketchesInvalid) ? joinKeySketches.getJoinKeySketches() : null;
+		stats.updateJoinKeySketches(dataset, sketches);
+		if (sketches != null && log.isDebugEnabled())
+			log.debug("Generated " + sketches + ".");
+		joinKeySketches = null;
+	}
+	
 	/**
 	 * generate histograms over subjects (one for URI subjects and one for bnodes)
 	 * returns boolean state value in order to make use of quickMode
@@ -260,13 +350,12 @@ public abstract class RDFStatsGeneratorBase {
 		histBuilderBNode = HistogramBuilderFactory.createBuilder(Stats.blankNode.getURI(), null, config.getPrefSize(), config);
 		Node sbj = null;
 		
-		QueryExecution qe = null;
+		PagedSolutionIterator r = null;
 		try {
-			qe = getQueryExecution(q);
-			ResultSet r = qe.execSelect();
+			r = select(q);
 
 			while (r.hasNext()) {
-				sbj = r.nextSolution().get("s").asNode();
+				sbj = r.next().get("s").asNode();
 				
 				// add value to histogram
 				if (sbj.isURI())
@@ -283,7 +372,7 @@ public abstract class RDFStatsGeneratorBase {
 //				log.error("Error adding subject <" + sbj + "> (untyped) to histogram builder, value skipped.", e);
 			
 		} finally {
-			if (qe != null) qe.close();
+			if (r != null) r.close();
 		}
 		
 //		n_queries[3]++;
@@ -300,6 +389,19 @@ public abstract class RDFStatsGeneratorBase {
 //			else
 //				log.debug("Generated subject histogram for untyped subjects.");
 
+		return storeSubjectHistograms(histBuilderURI, histBuilderBNode);
+	}
+	
+	/**
+	 * stores the subject histograms, or keeps the existing ones if quickMode is enabled and they are unchanged
+	 * 
+	 * @param histBuilderURI
+	 * @param histBuilderBNode
+	 * @return true if subject histograms already existed and values changed
+	 * @throws HistogramBuilderException
+	 * @throws RDFStatsModelException
+	 */
+	protected boolean storeSubjectHistograms(HistogramBuilder<?> histBuilderURI, HistogramBuilder<?> histBuilderBNode) throws HistogramBuilderException, RDFStatsModelException {
 		Histogram<?> shURI = histBuilderURI.getHistogram();
 		Histogram<?> shBNode = histBuilderBNode.getHistogram();
 		
@@ -314,8 +416,8 @@ public abstract class RDFStatsGeneratorBase {
 			stats.keepSubjectHistogram(dataset, true);
 			return false; // no changes (check only if quickMode enabled for performance reasons)
 		} else {
-			stats.addOrUpdateSubjectHistogram(dataset, false, encodedURI);
-			stats.addOrUpdateSubjectHistogram(dataset, true, encodedBNode);
+			batch.addSubjectHistogram(false, encodedURI);
+			batch.addSubjectHistogram(true, encodedBNode);
 			return true; // changed
 		}
 	}
@@ -331,6 +433,7 @@ public abstract class RDFStatsGeneratorBase {
 			properties = getProperties();
 		} catch (Exception e) {
 			log.error("Error obtaining list of properties.", e);
+			invalidateJoinStatistics(null);
 			return;
 		}
 
@@ -344,17 +447,24 @@ public abstract class RDFStatsGeneratorBase {
 		}
 
 		// process properties
+		if (config.getParallelism() > 1 && properties.size() > 1) {
+			generatePropertyHistogramsParallel(properties);
+			return;
+		}
+		
 		for (String p : properties) {			
 			try {
-				generatePropertyHistograms(p);
+				storePropertyHistograms(p, buildPropertyHistograms(p, characteristicSets, joinKeySketches));
 			} catch (HistogramBuilderException e) {
 				String part = //(cl != null) ? "class <" + cl + "> and property <" + p + "> " : 
 					"property <" + p + "> "; 
 				log.error("Couldn't generate histograms for " + part + "because of a problem with the histogram builder, skipping...", e);
+				invalidateJoinStatistics(p);
 			} catch (Exception e) {
 				String part = //(cl != null) ? "class <" + cl + "> and property <" + p + "> " : 
 					"property <" + p + "> "; 
 				log.error("Couldn't generate histograms for " + part + ", skipping...", e);
+				invalidateJoinStatistics(p);
 			}
 
 			if (Constants.WAIT_BETWEEN_QUERIES > 0)
@@ -541,6 +651,73 @@ public abstract class RDFStatsGeneratorBase {
 //		return newTotal;
 //	}
 
+	/**
+	 * Builds the histograms of all properties with a bounded pool of config.getParallelism() workers.
+	 * Workers only query the source and build the histograms, the encoded histograms are written
+	 * by the calling thread, which holds the exclusive write lock for the dataset.
+	 * 
+	 * @param properties
+	 * @throws GeneratorException
+	 */
+	private void generatePropertyHistogramsParallel(List<String> properties) throws GeneratorException {
+		int threads = Math.min(config.getParallelism(), properties.size());
+		if (log.isInfoEnabled())
+			log.info("Generating property histograms using " + threads + " worker threads...");
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<Map<String, Histogram<?>>> completion = new ExecutorCompletionService<Map<String, Histogram<?>>>(pool);
+		Map<Future<Map<String, Histogram<?>>>, PropertyScan> pending = new HashMap<Future<Map<String, Histogram<?>>>, PropertyScan>();
+		
+		try {
+			for (String p : properties) {
+				// each worker collects into its own collectors, they are merged when the histograms are stored
+				final PropertyScan scan = new PropertyScan(p,
+						(characteristicSets != null) ? new CharacteristicSets.Collector() : null,
+						(joinKeySketches != null) ? new JoinKeySketches.Collector(config.getJoinKeySketchSize()) : null);
+				Future<Map<String, Histogram<?>>> f = completion.submit(new Callable<Map<String, Histogram<?>>>() {
+					public Map<String, Histogram<?>> call() throws Exception {
+						Map<String, Histogram<?>> histograms = buildPropertyHistograms(scan.property, scan.characteristicSets, scan.joinKeySketches);
+						
+						if (Constants.WAIT_BETWEEN_QUERIES > 0)
+							try { Thread.sleep(Constants.WAIT_BETWEEN_QUERIES); } catch (InterruptedException ignore) {}
+						return histograms;
+					}
+				});
+				pending.put(f, scan);
+			}
+			
+			// store results in the order of completion
+			for (int i=0; i<properties.size(); i++) {
+				Future<Map<String, Histogram<?>>> f;
+				try {
+					f = completion.take();
+				} catch (InterruptedException e) {
+					throw new GeneratorException("Interrupted while waiting for property histograms.", e);
+				}
+				
+				PropertyScan scan = pending.remove(f);
+				String p = scan.property;
+				try {
+					storePropertyHistograms(p, f.get(), scan.characteristicSets, scan.joinKeySketches);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof HistogramBuilderException)
+						log.error("Couldn't generate histograms for property <" + p + "> because of a problem with the histogram builder, skipping...", e.getCause());
+					else
+						log.error("Couldn't generate histograms for property <" + p + ">, skipping...", e.getCause());
+					invalidateJoinStatistics(p);
+				} catch (Exception e) {
+					log.error("Couldn't generate histograms for property <" + p + ">, skipping...", e);
+					invalidateJoinStatistics(p);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		if (log.isInfoEnabled())
+			log.info(properties.size() + " properties processed.");
+	}
+	
 	/**
 	 * Example:
 	 * 
@@ -554,16 +731,40 @@ public abstract class RDFStatsGeneratorBase {
 	 *		stats:range		<xsd:string> ] ;
 	 *	rdf:value "ENCODED HISTOGRAM h1213" .
 	 * 
+	 * queries all values of property p and returns the histograms, one for each range,
+	 * may be called concurrently by multiple worker threads, each with its own collectors
+	 * 
 	 * @param p
+	 * @param cs collects the subjects of p, null if characteristic sets are disabled
+	 * @param keys collects the join keys of p, null if join key sketches are disabled
+	 * @return range URI => histogram
+	 * @throws QueryExceptionHTTP
+	 */
+	protected Map<String, Histogram<?>> buildPropertyHistograms(String p, CharacteristicSets.Collector cs, JoinKeySketches.Collector keys) throws QueryExceptionHTTP {
+		return buildPropertyHistograms(p, null, cs, keys);
+	}
+	
+	/**
+	 * queries the values of property p matching filter and returns the histograms, one for each range;
+	 * the join statistics still cover all values of p, the subjects (and join keys) of the values
+	 * not matching filter are collected by a separate scan
 	 * 
+	 * @param p
+	 * @param filter a SPARQL filter expression over ?val or null for all values
+	 * @param cs collects the subjects of p, null if characteristic sets are disabled
+	 * @param keys collects the join keys of p, null if join key sketches are disabled
+	 * @return range URI => histogram
 	 * @throws QueryExceptionHTTP
-	 * @throws RDFStatsModelException 
 	 */
-	private void generatePropertyHistograms(String p) throws QueryExceptionHTTP, HistogramBuilderException, RDFStatsModelException {
+	protected Map<String, Histogram<?>> buildPropertyHistograms(String p, String filter, CharacteristicSets.Collector cs, JoinKeySketches.Collector keys) throws QueryExceptionHTTP {
 		String qry;
+		
+		// the characteristic sets and join key sketches need the subjects of all values, also of those not matching filter
+		if (filter != null && (cs != null || keys != null))
+			collectJoinStatistics(p, "!(" + filter + ")", cs, keys);
 //		if (allOnly) {
 			log.info("Generating property histograms for <" + p + ">...");
-			qry = "SELECT ?val WHERE { ?s <" + p + "> ?val }";
+			qry = "SELECT " + ((cs != null || keys != null) ? "?s " : "") + "?val WHERE { ?s <" + p + "> ?val " + ((filter != null) ? "FILTER (" + filter + ") " : "") + "}";
 //		}
 //		else if (cl != null) {
 //			log.info("Generating histograms for class <" + cl + "> and property <" + p + ">...");
@@ -581,10 +782,9 @@ public abstract class RDFStatsGeneratorBase {
 		
 		Query q = QueryFactory.create(qry);
 		long records = 0;
-		QueryExecution qe = null;
+		PagedSolutionIterator r = null;
 		try {
-			qe = getQueryExecution(q);
-			ResultSet r = qe.execSelect();
+			r = select(q);
 	
 			QuerySolution s = null;
 			Node val = null;
@@ -595,9 +795,13 @@ public abstract class RDFStatsGeneratorBase {
 			// iterate values, for each different range, create a new histogram
 			while (r.hasNext()) {
 				try {
-					s = r.nextSolution();
+					s = r.next();
 					val = s.get("val").asNode();
 					records++;
+					if (cs != null)
+						cs.add(s.get("s").asNode(), p);
+					if (keys != null)
+						keys.add(s.get("s").asNode(), p, val);
 					type = RDF2JavaMapper.getType(val);
 					
 					// reuse or create new histogram
@@ -622,8 +826,8 @@ public abstract class RDFStatsGeneratorBase {
 				}
 			}
 		} finally {
-			if (qe != null)
-				qe.close();
+			if (r != null)
+				r.close();
 		}
 //		n_queries[3]++;
 //		n_results_generateHistograms.add(new Long(records));
@@ -631,11 +835,6 @@ public abstract class RDFStatsGeneratorBase {
 //
 //		recordsTotal += records;
 				
-		for (String t : histBuilders.keySet()) {
-			String encoded = HistogramCodec.base64encode(histBuilders.get(t).getHistogram());
-			stats.addOrUpdatePropertyHistogram(dataset, p, t, encoded);
-		}
-		
 		int n = histBuilders.size();
 		if (log.isDebugEnabled())
 //			if (allOnly)
@@ -647,7 +846,114 @@ public abstract class RDFStatsGeneratorBase {
 //				log.debug("Generated " + n + " histogram" + ((n != 1) ? "s" : "") + " for different ranges for class <" + cl + "> and property <" + p + ">. " + records + " property values have been analyzed.");		
 //			else
 //				log.debug("Generated " + n + " histogram" + ((n != 1) ? "s" : "") + " for different ranges of untyped subjects and property <" + p + ">. " + records + " property values have been analyzed.");
-		histBuilders.clear();
+		return getHistograms(histBuilders);
+	}
+	
+	/**
+	 * scans the subjects of property p for the characteristic sets and join key sketches without building histograms,
+	 * the values are only retrieved if join key sketches are collected
+	 * 
+	 * @param p
+	 * @param filter a SPARQL filter expression over ?val
+	 * @param cs collects the subjects of p, null if characteristic sets are disabled
+	 * @param keys collects the join keys of p, null if join key sketches are disabled
+	 * @throws QueryExceptionHTTP
+	 */
+	private void collectJoinStatistics(String p, String filter, CharacteristicSets.Collector cs, JoinKeySketches.Collector keys) throws QueryExceptionHTTP {
+		log.info("Collecting join statistics for <" + p + ">...");
+		Query q = QueryFactory.create("SELECT ?s " + ((keys != null) ? "?val " : "") + "WHERE { ?s <" + p + "> ?val FILTER (" + filter + ") }");
+		PagedSolutionIterator r = null;
+		try {
+			r = select(q);
+			while (r.hasNext()) {
+				QuerySolution s = r.next();
+				Node subject = s.get("s").asNode();
+				if (cs != null)
+					cs.add(subject, p);
+				if (keys != null)
+					keys.add(subject, p, s.get("val").asNode());
+			}
+		} finally {
+			if (r != null)
+				r.close();
+		}
+	}
+	
+	/**
+	 * marks the characteristic sets as incomplete and removes the join key sketches of p,
+	 * e.g. if p couldn't be scanned; called by the coordinating thread only
+	 * 
+	 * @param p the property or null if all properties are affected
+	 */
+	protected void invalidateJoinStatistics(String p) {
+		if (characteristicSets != null)
+			characteristicSets.invalidate();
+		if (joinKeySketches != null) {
+			if (p != null)
+				joinKeySketches.remove(p);
+			else
+				joinKeySketchesInvalid = true;
+		}
+	}
+	
+	/**
+	 * @param histBuilders range URI => histogram builder
+	 * @return range URI => generated histogram
+	 */
+	protected static Map<String, Histogram<?>> getHistograms(Map<String, HistogramBuilder<?>> histBuilders) {
+		Map<String, Histogram<?>> histograms = new HashMap<String, Histogram<?>>();
+		for (String t : histBuilders.keySet())
+			histograms.put(t, histBuilders.get(t).getHistogram());
+		return histograms;
+	}
+
+	/**
+	 * adds the property histograms of property p to the batch, one for each range
+	 * 
+	 * @param p
+	 * @param histograms range URI => histogram
+	 * @throws HistogramBuilderException
+	 * @throws RDFStatsModelException
+	 */
+	protected void storePropertyHistograms(String p, Map<String, Histogram<?>> histograms) throws HistogramBuilderException, RDFStatsModelException {
+		for (String t : histograms.keySet()) {
+			String encoded = HistogramCodec.base64encode(histograms.get(t));
+			batch.addPropertyHistogram(p, t, encoded);
+		}
+	}
+	
+	/**
+	 * stores the histograms of p and merges the characteristic sets and join key sketches
+	 * collected by its scan into the generator's collectors, called by the coordinating thread
+	 * 
+	 * @param p
+	 * @param histograms range URI => histogram
+	 * @param cs the subjects collected by the scan of p or null
+	 * @param keys the join keys collected by the scan of p or null
+	 * @throws HistogramBuilderException
+	 * @throws RDFStatsModelException
+	 */
+	protected void storePropertyHistograms(String p, Map<String, Histogram<?>> histograms, CharacteristicSets.Collector cs, JoinKeySketches.Collector keys) throws HistogramBuilderException, RDFStatsModelException {
+		storePropertyHistograms(p, histograms);
+		if (cs != null && characteristicSets != null)
+			characteristicSets.addAll(cs);
+		if (keys != null && joinKeySketches != null)
+			joinKeySketches.addAll(keys);
+	}
+	
+	/**
+	 * a property scanned by a worker thread with its own collectors
+	 */
+	private static class PropertyScan {
+		final String property;
+		final CharacteristicSets.Collector characteristicSets;
+		final JoinKeySketches.Collector joinKeySketches;
+		
+		PropertyScan(String property, CharacteristicSets.Collector characteristicSets, JoinKeySketches.Collector joinKeySketches) {
+			this.property = property;
+			this.characteristicSets = characteristicSets;
+			this.joinKeySketches = joinKeySketches;
+		}
 	}
 
 //	/**
@@ -717,16 +1023,15 @@ public abstract class RDFStatsGeneratorBase {
 		List<String> properties = new ArrayList<String>();
 		
 		Query cq = QueryFactory.create(pQry, Syntax.syntaxARQ);
-		QueryExecution qe = null;
+		PagedSolutionIterator r = null;
 		try {
-			qe = getQueryExecution(cq);
+			r = select(cq);
 
-			ResultSet r = qe.execSelect();
 			QuerySolution s;
 			Resource re;
 			
 			while (r.hasNext()) {
-				s = r.nextSolution();
+				s = r.next();
 				if (s.get("prop").isURIResource()) {
 					re = s.getResource("prop");
 //				if (!re.equals(RDF.type)) // ignore rdf:type properties
@@ -735,8 +1040,8 @@ public abstract class RDFStatsGeneratorBase {
 				else log.error("Invalid property '" + s.get("prop") + "' ingnored (should be an URI resource).");
 			}
 		} finally {
-			if (qe != null)
-				qe.close();
+			if (r != null)
+				r.close();
 		}
 		
 
@@ -40,6 +40,9 @@ import com.hp.hpl.jena.util.FileUtils;
 public class RDFStatsGeneratorDoc extends RDFStatsGeneratorBase {
 	private static final Logger log = LoggerFactory.getLogger(RDFStatsGeneratorDoc.class);	
 	
+	/** the parsed document, loaded once on first use and shared by all queries of a run */
+	private Model data;
+	
 	/**
 	 * @param config
 	 * @param documentUrl
@@ -73,9 +76,39 @@ public class RDFStatsGeneratorDoc extends RDFStatsGeneratorBase {
 		}
 	}
 	
+	@Override
+	public void generate() throws GeneratorException {
+		try {
+			super.generate();
+		} finally {
+			// generator instances are single-use, release the parsed document
+			if (data != null) {
+				data.close();
+				data = null;
+			}
+		}
+	}
+	
 	@Override
 	public QueryExecution getQueryExecution(Query q) {
-		Model data = FileManager.get().loadModel(sourceUrl);
-		return QueryExecutionFactory.create(q, data);
+		return QueryExecutionFactory.create(q, getDocumentModel());
+	}
+	
+	/**
+	 * Parses the document on first access only. Subsequent queries (subjects,
+	 * property list, one query per property) run against the same in-memory copy.
+	 * 
+	 * @return the parsed document
+	 */
+	protected synchronized Model getDocumentModel() {
+		if (data == null) {
+			if (log.isInfoEnabled())
+				log.info("Loading document <" + sourceUrl + ">...");
+			long start = System.currentTimeMillis();
+			data = FileManager.get().loadModel(sourceUrl);
+			if (log.isDebugEnabled())
+				log.debug("Loaded " + data.size() + " triples from <" + sourceUrl + "> in " + (System.currentTimeMillis() - start) + " ms.");
+		}
+		return data;
 	}
 }
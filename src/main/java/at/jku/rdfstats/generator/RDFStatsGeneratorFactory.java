@@ -15,6 +15,7 @@
  */
 package at.jku.rdfstats.generator;
 
+import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.rdf.model.Model;
 
 import at.jku.rdfstats.GeneratorException;
@@ -50,4 +51,16 @@ public class RDFStatsGeneratorFactory {
 		return new RDFStatsGeneratorModel(conf, model, sourceType, sourceUrl);
 	}
 
+	public static RDFStatsGeneratorStream generatorStream(String docUrl) throws GeneratorException {
+		return new RDFStatsGeneratorStream(docUrl);
+	}
+	
+	public static RDFStatsGeneratorStream generatorStream(RDFStatsConfiguration conf, String docUrl) throws GeneratorException {
+		return new RDFStatsGeneratorStream(conf, docUrl);
+	}
+	
+	public static RDFStatsGeneratorStream generatorStream(RDFStatsConfiguration conf, Graph graph, String sourceType, String sourceUrl) throws GeneratorException {
+		return new RDFStatsGeneratorStream(conf, graph, sourceType, sourceUrl);
+	}
+
 }
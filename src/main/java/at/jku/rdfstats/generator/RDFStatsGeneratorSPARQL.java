@@ -16,19 +16,24 @@
 package at.jku.rdfstats.generator;
 
 import java.util.Calendar;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.jku.rdfstats.CharacteristicSets;
 import at.jku.rdfstats.GeneratorException;
+import at.jku.rdfstats.JoinKeySketches;
 import at.jku.rdfstats.RDFStatsConfiguration;
 import at.jku.rdfstats.RDFStatsDataset;
 import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.hist.Histogram;
 import at.jku.rdfstats.vocabulary.Stats;
 
 import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
 
 /**
  * @author dorgon
@@ -37,6 +42,9 @@ import com.hp.hpl.jena.query.QueryExecutionFactory;
 public class RDFStatsGeneratorSPARQL extends RDFStatsGeneratorBase {
 	private static final Logger log = LoggerFactory.getLogger(RDFStatsGeneratorSPARQL.class);
 	
+	/** calculates numeric and date histograms on the endpoint, null if disabled */
+	private volatile AggregatePushdown pushdown;
+	
 //	/** flag: resume on HTTP connection errors? */
 //	static final boolean CONTINUE_ON_CONNECTION_LOSS = true;	
 
@@ -53,6 +61,8 @@ public class RDFStatsGeneratorSPARQL extends RDFStatsGeneratorBase {
 		else if (!endpointUri.startsWith("http://"))
 			throw new GeneratorException("Invalid endpoint URI: '" + endpointUri + "'.");
 		this.sourceUrl = endpointUri;
+		if (this.config.aggregatePushdown())
+			this.pushdown = new AggregatePushdown(endpointUri, this.config);
 	}
 
 	/** construct new generator for endpoint endpointUri and default configuration
@@ -80,4 +90,29 @@ public class RDFStatsGeneratorSPARQL extends RDFStatsGeneratorBase {
 		return QueryExecutionFactory.sparqlService(sourceUrl, cq);
 	}
 	
+	/**
+	 * if aggregate push-down is enabled, histograms of supported ranges are calculated by the endpoint
+	 * and only the remaining values are retrieved; if the endpoint fails to process the aggregate
+	 * queries (e.g. no SPARQL 1.1 support), push-down is disabled and all values are retrieved;
+	 * if join statistics are collected, the subjects of the pushed-down values are still scanned
+	 */
+	@Override
+	protected Map<String, Histogram<?>> buildPropertyHistograms(String p, CharacteristicSets.Collector cs, JoinKeySketches.Collector keys) throws QueryExceptionHTTP {
+		AggregatePushdown pd = pushdown;
+		if (pd == null)
+			return super.buildPropertyHistograms(p, cs, keys);
+		
+		Map<String, Histogram<?>> histograms;
+		try {
+			histograms = pd.generate(p);
+		} catch (Exception e) {
+			log.warn("Aggregate push-down failed for property <" + p + "> at " + sourceUrl + ", disabled for this endpoint and retrieving all values instead.", e);
+			pushdown = null;
+			return super.buildPropertyHistograms(p, cs, keys);
+		}
+		
+		histograms.putAll(super.buildPropertyHistograms(p, AggregatePushdown.getExcludeFilter(histograms.keySet()), cs, keys));
+		return histograms;
+	}
+	
 }
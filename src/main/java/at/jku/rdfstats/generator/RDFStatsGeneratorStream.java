@@ -0,0 +1,270 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.generator;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.jku.rdfstats.GeneratorException;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.hist.RDF2JavaMapper;
+import at.jku.rdfstats.hist.builder.HistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramBuilderException;
+import at.jku.rdfstats.hist.builder.HistogramBuilderFactory;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.util.FileUtils;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Single-pass statistics generator. Instead of issuing one query for the subjects,
+ * one for the property list and one per property, all triples are scanned once and
+ * routed into the subject histogram builders and into per (property, range) builders.
+ *
+ * The source is either a Jena {@link Graph} (e.g. a TDB store), which is iterated by
+ * Graph.find(ANY, ANY, ANY), or an RDF document, which is streamed through the Jena
+ * parsers without being loaded into memory. Note that in the document case duplicate
+ * triples of the dump are counted each time they occur.
+ *
+ * Memory is bounded by the histogram builders and by the set of distinct subjects, which is
+ * kept during the scan to add each subject once to the subject histograms like SELECT DISTINCT ?s.
+ * The set is needed with approximate builders, too: only their distinct value estimate is
+ * insensitive to duplicates, not the bin frequencies. Hence, memory grows with the number of
+ * distinct subjects, roughly by the size of a Node plus 40 bytes per subject.
+ *
+ * @author dorgon
+ *
+ */
+public class RDFStatsGeneratorStream extends RDFStatsGeneratorBase {
+	private static final Logger log = LoggerFactory.getLogger(RDFStatsGeneratorStream.class);
+
+	/** source graph or null if a document is streamed */
+	private final Graph graph;
+
+	private final String sourceType;
+
+	/**
+	 * @param config
+	 * @param graph
+	 * @param sourceType
+	 * @param sourceUrl
+	 * @throws GeneratorException
+	 */
+	public RDFStatsGeneratorStream(RDFStatsConfiguration config, Graph graph, String sourceType, String sourceUrl) throws GeneratorException {
+		super(config);
+
+		if (graph == null)
+			throw new GeneratorException("Source graph not specified.");
+		this.graph = graph;
+		this.sourceType = sourceType;
+		this.sourceUrl = sourceUrl;
+	}
+
+	/** construct a new generator streaming the document documentUrl
+	 * @param config
+	 * @param documentUrl
+	 * @throws GeneratorException
+	 */
+	public RDFStatsGeneratorStream(RDFStatsConfiguration config, String documentUrl) throws GeneratorException {
+		super(config);
+
+		if (documentUrl == null)
+			throw new GeneratorException("Document URL not specified.");
+		this.graph = null;
+		this.sourceType = Stats.RDFDocument.getURI();
+		this.sourceUrl = (FileUtils.isFile(documentUrl)) ? FileUtils.toURL(documentUrl) : documentUrl;
+	}
+
+	/** construct a new generator streaming the document documentUrl with default configuration
+	 * @param documentUrl
+	 * @throws GeneratorException
+	 */
+	public RDFStatsGeneratorStream(String documentUrl) throws GeneratorException {
+		this(null, documentUrl);
+	}
+
+	@Override
+	public RDFStatsDataset initDatasetAndLock() throws RDFStatsModelException {
+		RDFStatsDataset existing = stats.getDataset(sourceUrl);
+		if (existing == null) {
+			return stats.addDatasetAndLock(sourceUrl, sourceType, System.getProperty("user.name") + "@" + config.getLocalHostname(), Calendar.getInstance());
+		} else {
+			stats.requestExclusiveWriteLock(existing);
+			stats.updateDataset(existing, System.getProperty("user.name") + "@" + config.getLocalHostname(), Calendar.getInstance());
+			return existing;
+		}
+	}
+
+	/** not used for generation, but allows ad-hoc queries against the source */
+	@Override
+	public QueryExecution getQueryExecution(Query q) {
+		Model data = (graph != null) ? ModelFactory.createModelForGraph(graph) : FileManager.get().loadModel(sourceUrl);
+		return QueryExecutionFactory.create(q, data);
+	}
+
+	@Override
+	protected void generateHistograms() throws GeneratorException, HistogramBuilderException, RDFStatsModelException {
+		TripleCollector collector = new TripleCollector();
+
+		if (log.isInfoEnabled())
+			log.info("Scanning all triples of " + dataset + "...");
+		long start = System.currentTimeMillis();
+
+		if (graph != null) {
+			ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+			try {
+				while (it.hasNext())
+					collector.add(it.next());
+			} finally {
+				it.close();
+			}
+		} else {
+			Model sink = ModelFactory.createModelForGraph(new SinkGraph(collector));
+			try {
+				FileManager.get().readModel(sink, sourceUrl);
+			} catch (Exception e) {
+				throw new GeneratorException("Failed to stream document <" + sourceUrl + ">.", e);
+			}
+		}
+
+		if (log.isInfoEnabled())
+			log.info("Scanned " + collector.triples + " triples (" + collector.subjects.size() + " distinct subjects, " +
+					collector.propertyBuilders.size() + " properties) in " + (System.currentTimeMillis() - start) + " ms.");
+
+		boolean changed = storeSubjectHistograms(collector.histBuilderURI, collector.histBuilderBNode);
+		collector.subjects.clear();
+
+		if (changed || !config.quickMode()) {
+			for (String p : collector.propertyBuilders.keySet()) {
+				try {
+					storePropertyHistograms(p, getHistograms(collector.propertyBuilders.get(p)));
+				} catch (HistogramBuilderException e) {
+					log.error("Couldn't generate histograms for property <" + p + "> because of a problem with the histogram builder, skipping...", e);
+				}
+			}
+			if (log.isInfoEnabled())
+				log.info(collector.propertyBuilders.size() + " properties processed.");
+		} else
+			keepPropertyHistograms();
+	}
+
+	/**
+	 * routes each triple into the subject and property histogram builders
+	 */
+	private class TripleCollector {
+		final HistogramBuilder<?> histBuilderURI;
+		final HistogramBuilder<?> histBuilderBNode;
+
+		/** distinct subjects already added, equivalent to SELECT DISTINCT ?s, grows with the subjects of the source */
+		final Set<Node> subjects = new HashSet<Node>();
+
+		/** property URI => (range URI => builder) */
+		final Map<String, Map<String, HistogramBuilder<?>>> propertyBuilders = new LinkedHashMap<String, Map<String, HistogramBuilder<?>>>();
+
+		long triples = 0;
+
+		TripleCollector() throws HistogramBuilderException {
+			histBuilderURI = HistogramBuilderFactory.createBuilder(RDFS.Resource.getURI(), null, config.getPrefSize(), config);
+			histBuilderBNode = HistogramBuilderFactory.createBuilder(Stats.blankNode.getURI(), null, config.getPrefSize(), config);
+		}
+
+		void add(Triple t) {
+			triples++;
+
+			Node sbj = t.getSubject();
+			if (subjects.add(sbj)) {
+				try {
+					if (sbj.isURI())
+						histBuilderURI.addNodeValue(sbj);
+					else if (sbj.isBlank())
+						histBuilderBNode.addNodeValue(sbj);
+				} catch (Exception e) {
+					log.error("Error adding subject <" + sbj + "> to histogram builder, value skipped.", e);
+				}
+			}
+
+			String p = t.getPredicate().getURI();
+			Node val = t.getObject();
+			if (characteristicSets != null)
+				characteristicSets.add(sbj, p);
+			if (joinKeySketches != null)
+				joinKeySketches.add(sbj, p, val);
+			String type = null;
+			try {
+				type = RDF2JavaMapper.getType(val);
+
+				Map<String, HistogramBuilder<?>> histBuilders = propertyBuilders.get(p);
+				if (histBuilders == null) {
+					histBuilders = new HashMap<String, HistogramBuilder<?>>();
+					propertyBuilders.put(p, histBuilders);
+				}
+
+				HistogramBuilder<?> histBuilder = histBuilders.get(type);
+				if (histBuilder == null) {
+					histBuilder = HistogramBuilderFactory.createBuilder(type, p, config.getPrefSize(), config);
+					histBuilders.put(type, histBuilder);
+				}
+
+				histBuilder.addNodeValue(val);
+			} catch (Exception e) {
+				log.error("Error adding value '" + val + "' (type: " + type + ") of property <" + p + "> to the histogram builder, value skipped.", e);
+			}
+		}
+	}
+
+	/**
+	 * write-only graph passing each parsed triple to the collector instead of storing it
+	 */
+	private static class SinkGraph extends GraphBase {
+		private final TripleCollector collector;
+
+		SinkGraph(TripleCollector collector) {
+			this.collector = collector;
+		}
+
+		@Override
+		public void performAdd(Triple t) {
+			collector.add(t);
+		}
+
+		@Override
+		protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+			return NullIterator.<Triple>instance();
+		}
+	}
+}
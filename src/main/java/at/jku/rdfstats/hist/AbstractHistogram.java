@@ -35,6 +35,9 @@ public abstract class AbstractHistogram<NATIVE> implements Histogram<NATIVE> {
 
 	/** number of distinct values */
 	protected final int distinctValues;
+	
+	/** relative standard error of distinct values, 0 if exact */
+	protected float distinctValuesError = 0f;
 
 	/** min/avg/max length of N3 serialized values as number of characters */
 	protected int[] valLengths;
@@ -115,6 +118,20 @@ public abstract class AbstractHistogram<NATIVE> implements Histogram<NATIVE> {
 		return distinctValues;
 	}
 	
+	/* (non-Javadoc)
+	 * @see at.jku.rdfstats.hist.Histogram#getDistinctValuesError()
+	 */
+	public float getDistinctValuesError() {
+		return distinctValuesError;
+	}
+	
+	/**
+	 * @param error relative standard error of distinct values, set by builders estimating distinct values
+	 */
+	public void setDistinctValuesError(float error) {
+		this.distinctValuesError = error;
+	}
+	
 	/* (non-Javadoc)
 	 * @see at.jku.rdfstats.hist.Histogram#valuesUnique()
 	 */
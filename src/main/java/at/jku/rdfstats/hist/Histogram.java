@@ -84,6 +84,11 @@ public interface Histogram<NATIVE> {
 	 */
 	public int getDistinctValues();
 	
+	/**
+	 * @return relative standard error of the distinct values (also per bin, if any), 0 if they are exact
+	 */
+	public float getDistinctValuesError();
+	
 	/**
 	 * @return true if the source values are unique (e.g. a primary key of a database)
 	 */
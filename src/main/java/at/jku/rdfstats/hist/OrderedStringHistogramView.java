@@ -0,0 +1,166 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist;
+
+import java.nio.ByteBuffer;
+
+import at.jku.rdfstats.hist.builder.HistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramCodec;
+
+/**
+ * Flyweight {@link OrderedStringHistogram} (also used for URI histograms) on top of the binary encoding.
+ * 
+ * Bin quantities are held as primitive arrays like in the decoded histogram, but the labels stay in
+ * the wrapped buffer. They are located by an offset table and looked up by binary search, so neither
+ * label strings nor the lookup tree are created when the histogram is decoded. Labels must be stored
+ * in ascending order, which is the case for all builders. Front-coded labels of the compact codec format
+ * are restored from the start of their block.
+ * 
+ * @author dorgon
+ *
+ */
+public class OrderedStringHistogramView extends OrderedStringHistogram {
+	private static final String[] NO_LABELS = new String[0];
+	
+	/** the encoded histogram, labels are decoded on demand */
+	private final ByteBuffer buffer;
+	
+	/** start offsets of the labels in buffer, the last entry marks the end of the last label */
+	private final int[] labelOffsets;
+	
+	/** true for front-coded labels of the compact format {@link HistogramCodec#VERSION} */
+	private final boolean frontCoded;
+	
+	/**
+	 * @param typeUri
+	 * @param bins
+	 * @param totalValues
+	 * @param distinctValues
+	 * @param min
+	 * @param max
+	 * @param valLengths
+	 * @param buffer
+	 * @param labelOffsets numBins + 1 offsets
+	 * @param frontCoded
+	 * @param distinctBinValues
+	 * @param builderClass
+	 */
+	public OrderedStringHistogramView(String typeUri, int[] bins, int totalValues, int distinctValues, String min, String max, int[] valLengths,
+			ByteBuffer buffer, int[] labelOffsets, boolean frontCoded, int[] distinctBinValues, Class<? extends HistogramBuilder<?>> builderClass) {
+		super(typeUri, bins, totalValues, distinctValues, min, max, valLengths, NO_LABELS, distinctBinValues, builderClass);
+		this.buffer = buffer;
+		this.labelOffsets = labelOffsets;
+		this.frontCoded = frontCoded;
+	}
+	
+	/**
+	 * @return a new array with all labels decoded
+	 */
+	@Override
+	public String[] getLabels() {
+		String[] labels = new String[bins.length];
+		for (int i=0; i<labels.length; i++)
+			labels[i] = getLabel(i);
+		return labels;
+	}
+	
+	@Override
+	public String getLabel(int index) {
+		ByteBuffer dup = buffer.duplicate();
+		if (!frontCoded) {
+			dup.position(labelOffsets[index]);
+			return HistogramCodec.readString(dup, false);
+		}
+		
+		int first = index - index % HistogramCodec.LABEL_BLOCK_SIZE;
+		dup.position(labelOffsets[first]);
+		String label = "";
+		for (int i=first; i<=index; i++) {
+			int shared = (int) HistogramCodec.readVarLong(dup);
+			label = label.substring(0, shared) + HistogramCodec.readString(dup, true);
+		}
+		return label;
+	}
+	
+	/**
+	 * finds the longest label which is a prefix of val
+	 * 
+	 * @see at.jku.rdfstats.hist.OrderedStringHistogram#getBinIndex(java.lang.String)
+	 */
+	@Override
+	public int getBinIndex(String val) {
+		String key = val;
+		while (true) {
+			int idx = countLabelsBelow(key, true) - 1; // last label <= key
+			if (idx < 0)
+				return -1;
+			
+			String label = getLabel(idx);
+			if (key.startsWith(label))
+				return idx;
+			
+			// only prefixes of the common prefix remain as candidates
+			int common = 0;
+			while (common < label.length() && common < key.length() && label.charAt(common) == key.charAt(common))
+				common++;
+			key = key.substring(0, common);
+		}
+	}
+	
+	@Override
+	public int getCumulativeQuantity(String val) {
+		int sum = 0;
+		
+		// first sum up all bin sizes where label < val
+		int idx = countLabelsBelow(val, false);
+		for (int i=0; i<idx; i++)
+			sum += bins[i];
+		
+		int idxDirect = getBinIndex(val);
+
+		// if value falls into a bin and the bin size was not already added before
+		if (idxDirect >= idx && idxDirect >= 0 && idxDirect < bins.length) {
+			if (bins[idxDirect] == 1)
+				sum++;						// at least 1 (add full bin)
+			else if (distinctBinValues[idxDirect] == 1)
+				sum += bins[idxDirect];		// all values are equal, add full bin
+			else
+				sum += bins[idxDirect]/2;	// multiple distinct values, add half only
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * binary search over the label offsets
+	 * 
+	 * @param key
+	 * @param inclusive
+	 * @return number of labels < key (or <= key if inclusive)
+	 */
+	private int countLabelsBelow(String key, boolean inclusive) {
+		int low = 0, high = bins.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = getLabel(mid).compareTo(key);
+			if (cmp < 0 || (inclusive && cmp == 0))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
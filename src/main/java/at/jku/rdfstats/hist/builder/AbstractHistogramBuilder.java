@@ -18,6 +18,7 @@ package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
 import java.util.Map;
 
@@ -30,6 +31,7 @@ import com.hp.hpl.jena.rdf.model.impl.LiteralImpl;
 import com.hp.hpl.jena.sparql.util.FmtUtils;
 
 import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.AbstractHistogram;
 import at.jku.rdfstats.hist.Histogram;
 
 /**
@@ -63,6 +65,9 @@ public abstract class AbstractHistogramBuilder<NATIVE> implements HistogramBuild
 	/** min and max length of occuring values */
 	protected int minLen = Integer.MAX_VALUE, maxLen = 0;
 	
+	/** distinct value counter if distinct values are estimated (see {@link #estimateDistinctValues()}), null if counted exactly */
+	protected HyperLogLog distinctCounter;
+	
 	/** constructor
 	 * 
 	 * @param typeUri
@@ -73,6 +78,40 @@ public abstract class AbstractHistogramBuilder<NATIVE> implements HistogramBuild
 		this.typeUri = typeUri;
 		this.prefSize = prefSize;
 	}
+	
+	/** @return true if typeUri is configured to be approximated with bounded memory */
+	protected boolean approximate() {
+		return conf != null && conf.approximate(typeUri);
+	}
+	
+	/**
+	 * estimate distinct values by a {@link HyperLogLog} counter instead of counting the distinct keys of values,
+	 * builders not keeping all values must call this in the constructor and offer each value to distinctCounter
+	 */
+	protected void estimateDistinctValues() {
+		if (distinctCounter == null)
+			distinctCounter = new HyperLogLog();
+	}
+	
+	/** @return true if distinct values are estimated */
+	public boolean estimatesDistinctValues() {
+		return distinctCounter != null;
+	}
+	
+	/**
+	 * @param total number of values
+	 * @param atLeast lower bound known by the builder
+	 * @return estimated distinct values between atLeast and total
+	 */
+	protected int getEstimatedDistinctValues(int total, int atLeast) {
+		long d = Math.min(distinctCounter.estimate(), total);
+		return (int) Math.max(d, Math.min(atLeast, total));
+	}
+	
+	/** @return relative standard error of the distinct values of the generated histogram, 0 if exact */
+	protected float getDistinctValuesError() {
+		return (distinctCounter != null) ? (float) distinctCounter.getStandardError() : 0f;
+	}
 
 	protected int getValueLength(NATIVE val) {
 		return getValueLength(ModelFactory.createDefaultModel().createTypedLiteral(val).asNode());
@@ -97,7 +136,15 @@ public abstract class AbstractHistogramBuilder<NATIVE> implements HistogramBuild
 		else if (old <= Integer.MAX_VALUE)
 			values.put(val, ++old);
 
-		// value length
+		addValueLength(serializedLength);
+	}
+	
+	/**
+	 * updates the value length statistics
+	 * 
+	 * @param serializedLength the length of the serialized value in N3
+	 */
+	protected void addValueLength(int serializedLength) {
 		if (serializedLength > maxLen)
 			maxLen = serializedLength;
 		if (serializedLength < minLen)
@@ -129,8 +176,11 @@ public abstract class AbstractHistogramBuilder<NATIVE> implements HistogramBuild
 	 * @see at.jku.rdfstats.hist.builder.HistogramBuilder#getHistogram()
 	 */
 	public final Histogram<NATIVE> getHistogram() {
-		if (histogram == null)
+		if (histogram == null) {
 			histogram = generateHistogram();
+			if (distinctCounter != null && histogram instanceof AbstractHistogram)
+				((AbstractHistogram<NATIVE>) histogram).setDistinctValuesError(getDistinctValuesError());
+		}
 		return histogram;
 	}
 	
@@ -145,5 +195,23 @@ public abstract class AbstractHistogramBuilder<NATIVE> implements HistogramBuild
 	/** must implement byte stream decoding used by {@link HistogramCodec} */
 	public abstract void writeData(ByteArrayOutputStream out, Histogram<NATIVE> h);
 	
+	/**
+	 * decoding used by {@link HistogramCodec#view(ByteBuffer)}, may be overridden by builders whose histograms can
+	 * keep parts of their data in the buffer, the default implementation uses {@link #readData(ByteArrayInputStream)}
+	 * 
+	 * @param buffer positioned at the data written by {@link #writeData(ByteArrayOutputStream, Histogram)}, must be
+	 * moved behind the data
+	 * @param version codec version of the data
+	 * @return the histogram
+	 */
+	public Histogram<NATIVE> readView(ByteBuffer buffer, int version) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		ByteArrayInputStream in = (version == HistogramCodec.VERSION) ? new HistogramCodec.CompactInputStream(data) : new ByteArrayInputStream(data);
+		Histogram<NATIVE> h = readData(in);
+		buffer.position(buffer.position() + data.length - in.available());
+		return h;
+	}
+	
 }
 
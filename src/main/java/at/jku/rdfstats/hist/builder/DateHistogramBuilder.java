@@ -19,7 +19,6 @@ package at.jku.rdfstats.hist.builder;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.Date;
-import java.util.TreeMap;
 
 import at.jku.rdfstats.ParseException;
 import at.jku.rdfstats.RDFStatsConfiguration;
@@ -34,6 +33,9 @@ import com.hp.hpl.jena.graph.Node;
  */
 public class DateHistogramBuilder extends AbstractHistogramBuilder<Date> {
 
+	/** value => number of occurrences */
+	private final LongCountMap counts = new LongCountMap();
+
 	/**
 	 * @param conf
 	 * @param typeUri
@@ -41,8 +43,12 @@ public class DateHistogramBuilder extends AbstractHistogramBuilder<Date> {
 	 */
 	public DateHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
 		super(conf, typeUri, prefSize);
-		
-		values = new TreeMap<Date, Integer>();
+	}
+	
+	@Override
+	protected void addValue(Date val, int serializedLength) {
+		counts.add(val.getTime());
+		addValueLength(serializedLength);
 	}
 	
 	public void addNodeValue(Node val) throws HistogramBuilderException {
@@ -59,24 +65,25 @@ public class DateHistogramBuilder extends AbstractHistogramBuilder<Date> {
 	 */
 	@Override
 	public Histogram<Date> generateHistogram() {
-		Date min = ((TreeMap<Date, Integer>) values).firstKey();
-		Date max = ((TreeMap<Date, Integer>) values).lastKey();
+		long[] keys = counts.getSortedKeys();
+		Date min = new Date(keys[0]);
+		Date max = new Date(keys[keys.length-1]);
 		long range = max.getTime() - min.getTime();
 
 		int numBins = (range > 0) ? prefSize : 1;
-		if (values.size() < numBins) numBins = values.size();
+		if (keys.length < numBins) numBins = keys.length;
 		
 		double binWidth = range / (double) numBins;
 		long minL = min.getTime();
 		int[] data = new int[numBins];
 
-		for (Date val : values.keySet()) {
-			int idx = (int) Math.floor((val.getTime()-minL) / binWidth);
+		for (long val : keys) {
+			int idx = (int) Math.floor((val-minL) / binWidth);
 			if (idx >= data.length) idx = data.length-1; // corner case, last entry fits into last bin even if slightly higher
-			data[idx] += values.get(val);
+			data[idx] += counts.get(val);
 		}
 		
-		int distinctValues = values.size();
+		int distinctValues = keys.length;
 		int total = getTotalValues(data);
 		int[] lengths = getValueLengths(total);
 		
@@ -87,8 +94,7 @@ public class DateHistogramBuilder extends AbstractHistogramBuilder<Date> {
 		HistogramCodec.writeIntArray(stream, h.getBinData());
 		HistogramCodec.writeInt(stream, h.getTotalValues());
 		HistogramCodec.writeInt(stream, h.getDistinctValues());
-		HistogramCodec.writeLong(stream, ((DateHistogram) h).getMin().getTime());
-		HistogramCodec.writeLong(stream, ((DateHistogram) h).getMax().getTime());
+		HistogramCodec.writeLongRange(stream, ((DateHistogram) h).getMin().getTime(), ((DateHistogram) h).getMax().getTime());
 		HistogramCodec.writeIntArray(stream, h.getValueLengths());
 	}	
 	
@@ -96,8 +102,9 @@ public class DateHistogramBuilder extends AbstractHistogramBuilder<Date> {
 		int[] bins = HistogramCodec.readIntArray(stream, prefSize);
 		int totalValues = HistogramCodec.readInt(stream);
 		int distinctValues = HistogramCodec.readInt(stream);
-		long min = HistogramCodec.readLong(stream);
-		long max = HistogramCodec.readLong(stream);
+		long[] range = HistogramCodec.readLongRange(stream);
+		long min = range[0];
+		long max = range[1];
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 		
 		return new DateHistogram(typeUri, bins, totalValues, distinctValues, new Date(min), new Date(max), valueLengths, this.getClass());
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist.builder;
+
+import java.util.Date;
+
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.DateHistogram;
+import at.jku.rdfstats.hist.Histogram;
+
+/**
+ * Approximate Date histogram builder with a memory use independent of the number of values,
+ * see {@link SketchAccumulator} and {@link HyperLogLog}. Creates the same histograms as {@link DateHistogramBuilder}, but bin counts
+ * and distinct values are estimates.
+ * 
+ * @author dorgon
+ *
+ */
+public class DateSketchHistogramBuilder extends DateHistogramBuilder {
+	private final SketchAccumulator accumulator;
+	
+	/**
+	 * @param conf
+	 * @param typeUri
+	 * @param prefSize
+	 */
+	public DateSketchHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
+		super(conf, typeUri, prefSize);
+		accumulator = new SketchAccumulator(conf);
+		estimateDistinctValues();
+	}
+	
+	@Override
+	protected void addValue(Date val, int serializedLength) {
+		long key = val.getTime();
+		accumulator.add(key);
+		distinctCounter.offer(HyperLogLog.hash(key));
+		addValueLength(serializedLength);
+	}
+	
+	/* (non-Javadoc)
+	 * @see at.jku.rdfstats.hist.builder.DateHistogramBuilder#generateHistogram()
+	 */
+	@Override
+	public Histogram<Date> generateHistogram() {
+		long min = accumulator.getMin();
+		long max = accumulator.getMax();
+		long range = max - min;
+		
+		int total = accumulator.getTotal();
+		int distinct = getEstimatedDistinctValues(total, accumulator.getMinDistinct());
+		
+		int numBins = SketchAccumulator.getNumBins(prefSize, range > 0, distinct);
+		double binWidth = range / (double) numBins;
+		int[] data = accumulator.getBins(SketchAccumulator.getIntegralBinStarts(min, binWidth, numBins));
+		int[] lengths = getValueLengths(total);
+		
+		return (Histogram<Date>) new DateHistogram(typeUri, data, total, distinct, new Date(min), new Date(max), lengths, DateHistogramBuilder.class);
+	}
+}
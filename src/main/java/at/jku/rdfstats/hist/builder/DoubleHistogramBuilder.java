@@ -18,7 +18,6 @@ package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.TreeMap;
 
 import at.jku.rdfstats.ParseException;
 import at.jku.rdfstats.RDFStatsConfiguration;
@@ -33,16 +32,23 @@ import com.hp.hpl.jena.graph.Node;
  */
 public class DoubleHistogramBuilder extends AbstractHistogramBuilder<Double> {
 
+	/** value => number of occurrences */
+	private final LongCountMap counts = new LongCountMap();
+
 	/**
 	 * @param typeUri
 	 * @param prefSize
 	 */
 	public DoubleHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
 		super(conf, typeUri, prefSize);
-		
-		values = new TreeMap<Double, Integer>();
 	}
 
+	@Override
+	protected void addValue(Double val, int serializedLength) {
+		counts.add(QuantileSketch.toKey(val.doubleValue()));
+		addValueLength(serializedLength);
+	}
+	
 	public void addNodeValue(Node val) throws HistogramBuilderException {
 		try {
 			Double d = DoubleHistogram.parseNodeValueImpl(val);
@@ -57,22 +63,24 @@ public class DoubleHistogramBuilder extends AbstractHistogramBuilder<Double> {
 	 */
 	@Override
 	public Histogram<Double> generateHistogram() {
-		Double min = ((TreeMap<Double, Integer>) values).firstKey();
-		Double max = ((TreeMap<Double, Integer>) values).lastKey();
-		Double range = max-min; // TODO use BigDecimal for calculation
+		long[] keys = counts.getSortedKeys(); // keys preserve the order of doubles
+		double min = QuantileSketch.toDouble(keys[0]);
+		double max = QuantileSketch.toDouble(keys[keys.length-1]);
+		double range = max-min; // TODO use BigDecimal for calculation
 	
 		int numBins = (range > 0) ? prefSize : 1;
-		if (values.size() < numBins) numBins = values.size();
+		if (keys.length < numBins) numBins = keys.length;
 
 		double binWidth = range / (double) numBins;
 		int[] data = new int[numBins];
-		for (Double val : values.keySet()) {
+		for (long key : keys) {
+			double val = QuantileSketch.toDouble(key);
 			int idx = (int) Math.floor((val-min) / binWidth);
 			if (idx >= data.length) idx = data.length-1; // corner case, last entry fits into last bin even if slightly higher
-			data[idx] += values.get(val);
+			data[idx] += counts.get(key);
 		}
 		
-		int distinctValues = values.size();
+		int distinctValues = keys.length;
 		int total = getTotalValues(data);
 		int[] lengths = getValueLengths(total);
 		
@@ -83,8 +91,8 @@ public class DoubleHistogramBuilder extends AbstractHistogramBuilder<Double> {
 		HistogramCodec.writeIntArray(stream, hist.getBinData());
 		HistogramCodec.writeInt(stream, hist.getTotalValues());
 		HistogramCodec.writeInt(stream, hist.getDistinctValues());
-		HistogramCodec.writeLong(stream, Double.doubleToLongBits(((DoubleHistogram) hist).getMin()));
-		HistogramCodec.writeLong(stream, Double.doubleToLongBits(((DoubleHistogram) hist).getMax()));	
+		HistogramCodec.writeDouble(stream, ((DoubleHistogram) hist).getMin());
+		HistogramCodec.writeDouble(stream, ((DoubleHistogram) hist).getMax());	
 		HistogramCodec.writeIntArray(stream, hist.getValueLengths());
 	}	
 	
@@ -92,8 +100,8 @@ public class DoubleHistogramBuilder extends AbstractHistogramBuilder<Double> {
 		int[] bins = HistogramCodec.readIntArray(stream, prefSize);
 		int totalValues = HistogramCodec.readInt(stream);
 		int distinctValues = HistogramCodec.readInt(stream);
-		double min = Double.longBitsToDouble(HistogramCodec.readLong(stream));
-		double max = Double.longBitsToDouble(HistogramCodec.readLong(stream));
+		double min = HistogramCodec.readDouble(stream);
+		double max = HistogramCodec.readDouble(stream);
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 		
 		return new DoubleHistogram(typeUri, bins, totalValues, distinctValues, min, max, valueLengths, this.getClass());
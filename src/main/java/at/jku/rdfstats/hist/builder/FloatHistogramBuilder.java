@@ -18,7 +18,6 @@ package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.TreeMap;
 
 import at.jku.rdfstats.ParseException;
 import at.jku.rdfstats.RDFStatsConfiguration;
@@ -33,17 +32,24 @@ import com.hp.hpl.jena.graph.Node;
  */
 public class FloatHistogramBuilder extends AbstractHistogramBuilder<Float> {
 
+	/** value => number of occurrences */
+	private final LongCountMap counts = new LongCountMap();
+
 	/**
 	 * @param typeUri
 	 * @param prefSize
 	 */
 	public FloatHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
 		super(conf, typeUri, prefSize);
-		
-		values = new TreeMap<Float, Integer>();
 	}
 	
 	
+	@Override
+	protected void addValue(Float val, int serializedLength) {
+		counts.add(QuantileSketch.toKey(val.doubleValue()));
+		addValueLength(serializedLength);
+	}
+	
 	public void addNodeValue(Node val) throws HistogramBuilderException {
 		try {
 			Float f = FloatHistogram.parseNodeValueImpl(val);
@@ -58,22 +64,24 @@ public class FloatHistogramBuilder extends AbstractHistogramBuilder<Float> {
 	 */
 	@Override
 	public Histogram<Float> generateHistogram() {
-		Float min = ((TreeMap<Float, Integer>) values).firstKey();
-		Float max = ((TreeMap<Float, Integer>) values).lastKey();
-		Float range = max-min;
+		long[] keys = counts.getSortedKeys(); // keys preserve the order of floats
+		float min = (float) QuantileSketch.toDouble(keys[0]);
+		float max = (float) QuantileSketch.toDouble(keys[keys.length-1]);
+		float range = max-min;
 	
 		int numBins = (range > 0) ? prefSize : 1;
-		if (values.size() < numBins) numBins = values.size();
+		if (keys.length < numBins) numBins = keys.length;
 
 		float binWidth = range / numBins;
 		int[] data = new int[numBins];
-		for (Float val : values.keySet()) {
+		for (long key : keys) {
+			float val = (float) QuantileSketch.toDouble(key);
 			int idx = (int) Math.floor((val-min) / binWidth);
 			if (idx >= data.length) idx = data.length-1; // corner case, last entry fits into last bin even if slightly higher
-			data[idx] += values.get(val);
+			data[idx] += counts.get(key);
 		}
 		
-		int distinctValues = values.size();
+		int distinctValues = keys.length;
 		int total = getTotalValues(data);
 		int[] lengths = getValueLengths(total);
 
@@ -84,8 +92,8 @@ public class FloatHistogramBuilder extends AbstractHistogramBuilder<Float> {
 		HistogramCodec.writeIntArray(stream, hist.getBinData());
 		HistogramCodec.writeInt(stream, hist.getTotalValues());
 		HistogramCodec.writeInt(stream, hist.getDistinctValues());
-		HistogramCodec.writeInt(stream, Float.floatToIntBits(((FloatHistogram) hist).getMin()));
-		HistogramCodec.writeInt(stream, Float.floatToIntBits(((FloatHistogram) hist).getMax()));	
+		HistogramCodec.writeFloat(stream, ((FloatHistogram) hist).getMin());
+		HistogramCodec.writeFloat(stream, ((FloatHistogram) hist).getMax());	
 		HistogramCodec.writeIntArray(stream, hist.getValueLengths());
 	}	
 	
@@ -93,8 +101,8 @@ public class FloatHistogramBuilder extends AbstractHistogramBuilder<Float> {
 		int[] bins = HistogramCodec.readIntArray(stream, prefSize);
 		int totalValues = HistogramCodec.readInt(stream);
 		int distinctValues = HistogramCodec.readInt(stream);
-		float min = Float.intBitsToFloat(HistogramCodec.readInt(stream));
-		float max = Float.intBitsToFloat(HistogramCodec.readInt(stream));
+		float min = HistogramCodec.readFloat(stream);
+		float max = HistogramCodec.readFloat(stream);
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 		
 		return new FloatHistogram(typeUri, bins, totalValues, distinctValues, min, max, valueLengths, this.getClass());
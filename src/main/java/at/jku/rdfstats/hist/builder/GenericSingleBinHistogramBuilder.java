@@ -32,6 +32,9 @@ import com.hp.hpl.jena.graph.Node;
  */
 public class GenericSingleBinHistogramBuilder extends AbstractHistogramBuilder<Object> {
 	
+	/** number of values if distinct values are estimated */
+	private int total = 0;
+	
 	/**
 	 * @param conf
 	 * @param typeUri
@@ -40,7 +43,22 @@ public class GenericSingleBinHistogramBuilder extends AbstractHistogramBuilder<O
 	public GenericSingleBinHistogramBuilder(RDFStatsConfiguration conf,
 			String typeUri, int prefSize) {
 		super(conf, typeUri, prefSize);
-		values = new HashMap<Object, Integer>();
+		if (approximate())
+			estimateDistinctValues(); // values are not kept, only counted
+		else
+			values = new HashMap<Object, Integer>();
+	}
+	
+	@Override
+	protected void addValue(Object val, int serializedLength) {
+		if (distinctCounter == null) {
+			super.addValue(val, serializedLength);
+			return;
+		}
+		
+		distinctCounter.offer(HyperLogLog.hash(val.toString()));
+		if (total < Integer.MAX_VALUE) total++;
+		addValueLength(serializedLength);
 	}
 	
 	/* (non-Javadoc)
@@ -60,6 +78,9 @@ public class GenericSingleBinHistogramBuilder extends AbstractHistogramBuilder<O
 	 */
 	@Override
 	protected Histogram<Object> generateHistogram() {
+		if (distinctCounter != null)
+			return (Histogram<Object>) new GenericSingleBinHistogram(typeUri, total, getEstimatedDistinctValues(total, 1), getValueLengths(total), this.getClass());
+		
 		int total = 0;
 		for (Object val : values.keySet())
 			total += values.get(val);
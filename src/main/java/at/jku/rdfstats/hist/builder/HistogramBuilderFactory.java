@@ -49,6 +49,9 @@ public class HistogramBuilderFactory {
 	/** generated from registeredBuilders: list of types a builder accepts */
 	protected static final Map<Class<? extends HistogramBuilder<?>>, Set<String>> accepts = new Hashtable<Class<? extends HistogramBuilder<?>>, Set<String>>();
 	
+	/** bounded-memory sketch builders used instead of the registered builders for datatypes configured as approximate */
+	protected static final Map<Class<? extends HistogramBuilder<?>>, Class<? extends HistogramBuilder<?>>> sketchBuilders = new Hashtable<Class<? extends HistogramBuilder<?>>, Class<? extends HistogramBuilder<?>>>();
+	
 	static {
 		// registered builders, used to get the matching builder for a type URI
 		registeredBuilders.put(Stats.blankNode.getURI(), GenericSingleBinHistogramBuilder.class); // explicitly register generic builder for blank Node values
@@ -99,6 +102,12 @@ public class HistogramBuilderFactory {
 			classHashtable.put(c.getCanonicalName().hashCode(), c);
 		}
 
+		sketchBuilders.put(IntegerHistogramBuilder.class, IntegerSketchHistogramBuilder.class);
+		sketchBuilders.put(LongHistogramBuilder.class, LongSketchHistogramBuilder.class);
+		sketchBuilders.put(FloatHistogramBuilder.class, FloatSketchHistogramBuilder.class);
+		sketchBuilders.put(DoubleHistogramBuilder.class, DoubleSketchHistogramBuilder.class);
+		sketchBuilders.put(DateHistogramBuilder.class, DateSketchHistogramBuilder.class);
+
 		// DO NOT REMOVE: used as a special builder for rdf:type property values (range rdfs:Resource):
 		classHashtable.put(SimpleStringHistogramBuilder.class.getCanonicalName().hashCode(), SimpleStringHistogramBuilder.class);
 	}
@@ -203,7 +212,8 @@ public class HistogramBuilderFactory {
 		return newInstance(cl, typeUri, preferredSize, conf);
 	}
 	
-	/** construct new histogram builder instance for a given data type URI and preferred size (required for building histograms)
+	/** construct new histogram builder instance for a given data type URI and preferred size (required for building histograms),
+	 * a sketch builder if typeUri is configured to be approximated
 	 * 
 	 * @param typeUri
 	 * @param p property
@@ -214,6 +224,10 @@ public class HistogramBuilderFactory {
 	public static HistogramBuilder<?> createBuilder(String typeUri, String p, int preferredSize, RDFStatsConfiguration conf) throws HistogramBuilderException {
 		// get corresponding registered builder (or generic builder if not especially supported)
 		Class<? extends HistogramBuilder<?>> clazz = getBuilderClass(typeUri, p);
+		
+		// use bounded-memory sketch builder if configured
+		if (conf != null && conf.approximate(typeUri) && sketchBuilders.containsKey(clazz))
+			clazz = sketchBuilders.get(clazz);
 		return newInstance(clazz, typeUri, preferredSize, conf);
 	}
 	
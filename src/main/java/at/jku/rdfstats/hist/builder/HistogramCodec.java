@@ -13,7 +13,6 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
@@ -21,7 +20,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,16 +36,43 @@ import com.hp.hpl.jena.sparql.util.Base64;
  * @author dorgon
  *
  * Histogram codec, statically used by histogram builders
+ * 
+ * Two formats are supported, the version is encoded as the first 4 bytes:
+ * 
+ * {@link #VERSION_20090910}: fixed-width big-endian integers, strings terminated by {@link #END_OF_STRING} in the
+ * platform charset and an optional trailing distinct values error.
+ * 
+ * {@link #VERSION} (compact): a flags byte follows the version. Integers are zigzag-encoded varints, ordered min/max
+ * pairs store the delta, strings are UTF-8 with a varint length prefix and bin labels are front-coded in blocks of
+ * {@link #LABEL_BLOCK_SIZE}, each block starting with a full label. A CRC32 checksum over all preceding bytes may be
+ * appended (see {@link #FLAG_CHECKSUM}).
+ * 
+ * Builders write both formats by the same writeData() code: the static read/write methods switch their encoding
+ * if they are called with a {@link CompactOutputStream} or {@link CompactInputStream}.
  */
 public class HistogramCodec {
 	protected static final Log log = LogFactory.getLog(HistogramCodec.class);
 	
+	/** first byte stream version with fixed-width integers */
+	public static final int VERSION_20090910 = 20090910;
+	
 	/** Byte stream version, will be encoded into histograms for compatibility checks */
-	public static final int VERSION = 20090910;
+	public static final int VERSION = 20261018;
+	
+	/** flag: a CRC32 checksum is appended */
+	public static final int FLAG_CHECKSUM = 0x01;
+	
+	/** flag: the relative error of estimated distinct values follows the header */
+	public static final int FLAG_DISTINCT_ERROR = 0x02;
+	
+	/** number of labels per front-coded block */
+	public static final int LABEL_BLOCK_SIZE = 16;
 	
 	/** magic char for string end */
 	protected static final char END_OF_STRING = 0x03;
 	protected static final char EMPTY_STRING = 0x02;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 
 	
 	/** encodes an arbitrary histogram instance into a compressed base64 string
@@ -53,27 +81,71 @@ public class HistogramCodec {
 	 * @return
 	 * @throws HistogramBuilderException
 	 */
-	@SuppressWarnings("unchecked")
 	public static <NATIVE> String base64encode(Histogram<NATIVE> h) throws HistogramBuilderException {
+		return Base64.encodeBytes(encode(h, VERSION));
+	}
+
+	/** encodes an arbitrary histogram instance into a compressed base64 string
+	 * 
+	 * @param h
+	 * @param version {@link #VERSION} or {@link #VERSION_20090910} for older readers
+	 * @return
+	 * @throws HistogramBuilderException
+	 */
+	public static <NATIVE> String base64encode(Histogram<NATIVE> h, int version) throws HistogramBuilderException {
+		return Base64.encodeBytes(encode(h, version));
+	}
+	
+	/** encodes an arbitrary histogram instance into the binary format
+	 * 
+	 * @param h
+	 * @param version {@link #VERSION} or {@link #VERSION_20090910} for older readers
+	 * @return
+	 * @throws HistogramBuilderException
+	 */
+	@SuppressWarnings("unchecked")
+	public static <NATIVE> byte[] encode(Histogram<NATIVE> h, int version) throws HistogramBuilderException {
 		String typeUri = h.getDatatypeUri();
 		if (typeUri == null)
 			throw new HistogramBuilderException("Cannot encode histogram whose type URI is null.");
+		if (version != VERSION && version != VERSION_20090910)
+			throw new HistogramBuilderException("Cannot encode histogram with unknown version " + version + ".");
 		
 		HistogramBuilder<NATIVE> builder = (HistogramBuilder<NATIVE>) HistogramBuilderFactory.createBuilder(((AbstractHistogram<?>) h).getBuilderClass(), typeUri, h.getNumBins(), null);
 		
 		int builderClassHash = builder.getClass().getCanonicalName().hashCode();
 		int size = h.getNumBins();
+		float error = h.getDistinctValuesError();
 
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		writeInt(stream, VERSION);			// bytes 1-4
-		writeInt(stream, builderClassHash);	// bytes 5-8
-		writeInt(stream, size);				// bytes 9-12
+		if (version == VERSION_20090910) {
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			writeInt(stream, version);			// bytes 1-4
+			writeInt(stream, builderClassHash);	// bytes 5-8
+			writeInt(stream, size);				// bytes 9-12
+			writeString(stream, typeUri);
+			
+			((AbstractHistogramBuilder<NATIVE>) builder).writeData(stream, h);
+			if (error > 0)
+				writeFloat(stream, error); // optional trailer, ignored by older decoders
+			return stream.toByteArray();
+		}
+		
+		CompactOutputStream stream = new CompactOutputStream();
+		int flags = FLAG_CHECKSUM | ((error > 0) ? FLAG_DISTINCT_ERROR : 0);
+		writeInt32(stream, version);			// bytes 1-4
+		stream.write(flags);					// byte 5
+		writeInt32(stream, builderClassHash);	// bytes 6-9
+		writeInt(stream, size);
 		writeString(stream, typeUri);
+		if (error > 0)
+			writeFloat(stream, error);
 		
 		((AbstractHistogramBuilder<NATIVE>) builder).writeData(stream, h);
 		
-		byte[] data = stream.toByteArray();
-		return Base64.encodeBytes(data);
+		CRC32 crc = new CRC32();
+		crc.update(stream.toByteArray());
+		writeInt32(stream, (int) crc.getValue());
+		return stream.toByteArray();
 	}
 
 	/** decodes a base64 string and returns the corresponding histogram
@@ -83,37 +155,170 @@ public class HistogramCodec {
 	 * @throws HistogramBuilderException
 	 */
 	public static Histogram<?> base64decode(String encodedString) throws HistogramBuilderException {
-		byte[] bytes = Base64.decode(encodedString);
+		return decode(Base64.decode(encodedString));
+	}
+	
+	/** decodes the binary format of any supported version
+	 * 
+	 * @param bytes
+	 * @return
+	 * @throws HistogramBuilderException
+	 */
+	public static Histogram<?> decode(byte[] bytes) throws HistogramBuilderException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		Header header = readHeader(buffer);
 		
-		ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
-		int version = readInt(stream);		 		// bytes 1-4
-		int builderClassHash = readInt(stream);		// bytes 5-8
-		int size = readInt(stream);          		// bytes 9-12
-		String typeUri = readString(stream);
-
-		if (version != VERSION)
-			throw new HistogramBuilderException("Version missmatch: the histogram was encoded with version " + version + " but you are running version " + VERSION + " of the Codec.");
+		ByteArrayInputStream stream = (header.version == VERSION) ?
+				new CompactInputStream(bytes, buffer.position(), header.dataEnd - buffer.position()) :
+				new ByteArrayInputStream(bytes, buffer.position(), header.dataEnd - buffer.position());
+		Histogram<?> h = ((AbstractHistogramBuilder<?>) header.builder).readData(stream);
+		
+		if (header.version == VERSION_20090910 && stream.available() >= 4)
+			header.error = readFloat(stream);
+		if (header.error > 0)
+			((AbstractHistogram<?>) h).setDistinctValuesError(header.error);
+		return h;
+	}
+	
+	/** decodes a base64 string into a histogram which reads its data from the binary encoding on demand,
+	 * see {@link AbstractHistogramBuilder#readView(ByteBuffer, int)}
+	 * 
+	 * @param encodedString
+	 * @return
+	 * @throws HistogramBuilderException
+	 */
+	public static Histogram<?> view(String encodedString) throws HistogramBuilderException {
+		return view(ByteBuffer.wrap(Base64.decode(encodedString)));
+	}
+	
+	/** same as {@link #view(String)} for the binary encoding
+	 * 
+	 * @param buffer positioned at the start of the encoding, the histogram may keep a reference
+	 * @return
+	 * @throws HistogramBuilderException
+	 */
+	public static Histogram<?> view(ByteBuffer buffer) throws HistogramBuilderException {
+		Header header = readHeader(buffer);
+		ByteBuffer data = buffer.duplicate();
+		data.limit(header.dataEnd);
+		Histogram<?> h = ((AbstractHistogramBuilder<?>) header.builder).readView(data, header.version);
+		
+		if (header.version == VERSION_20090910 && data.remaining() >= 4)
+			header.error = Float.intBitsToFloat(data.getInt());
+		if (header.error > 0)
+			((AbstractHistogram<?>) h).setDistinctValuesError(header.error);
+		return h;
+	}
+	
+	/**
+	 * reads and checks the header, the buffer is positioned at the builder data afterwards
+	 */
+	private static Header readHeader(ByteBuffer buffer) throws HistogramBuilderException {
+		int start = buffer.position();
+		Header header = new Header();
+		header.version = buffer.getInt();			// bytes 1-4
+		header.dataEnd = buffer.limit();
+		int builderClassHash, size;
+		String typeUri;
+		
+		if (header.version == VERSION_20090910) {
+			builderClassHash = buffer.getInt();		// bytes 5-8
+			size = buffer.getInt();          		// bytes 9-12
+			typeUri = readString(buffer, false);
+		} else if (header.version == VERSION) {
+			int flags = buffer.get();				// byte 5
+			builderClassHash = buffer.getInt();		// bytes 6-9
+			size = readInt(buffer, true);
+			typeUri = readString(buffer, true);
+			if ((flags & FLAG_DISTINCT_ERROR) != 0)
+				header.error = Float.intBitsToFloat(buffer.getInt());
+			
+			if ((flags & FLAG_CHECKSUM) != 0) {
+				header.dataEnd = buffer.limit() - 4;
+				CRC32 crc = new CRC32();
+				ByteBuffer dup = buffer.duplicate();
+				dup.position(start);
+				byte[] b = new byte[header.dataEnd - start];
+				dup.get(b);
+				crc.update(b);
+				if ((int) crc.getValue() != buffer.getInt(header.dataEnd))
+					throw new HistogramBuilderException("Checksum mismatch: the encoded histogram of type <" + typeUri + "> is corrupt.");
+			}
+		} else
+			throw new HistogramBuilderException("Version missmatch: the histogram was encoded with version " + header.version + " but you are running version " + VERSION + " of the Codec.");
+		
+		header.builder = HistogramBuilderFactory.createBuilder(builderClassHash, typeUri, size, null); // size is exact when decoding (not "preferred")
+		return header;
+	}
+	
+	/** decoded header fields */
+	private static class Header {
+		int version;
+		HistogramBuilder<?> builder;
+		float error = 0f;
+		/** end of the builder data */
+		int dataEnd;
+	}
+	
+	/**
+	 * stream for writing the compact format, the static write methods of the codec switch their encoding for it
+	 */
+	public static class CompactOutputStream extends ByteArrayOutputStream {
+	}
+	
+	/**
+	 * stream for reading the compact format, the static read methods of the codec switch their encoding for it
+	 */
+	public static class CompactInputStream extends ByteArrayInputStream {
+		public CompactInputStream(byte[] buf) {
+			super(buf);
+		}
 		
-		HistogramBuilder<?> builder = HistogramBuilderFactory.createBuilder(builderClassHash, typeUri, size, null); // size is exact when decoding (not "preferred")
-		return ((AbstractHistogramBuilder<?>) builder).readData(stream);
+		public CompactInputStream(byte[] buf, int offset, int length) {
+			super(buf, offset, length);
+		}
+	}
+	
+	/**
+	 * @param stream
+	 * @return true if stream uses the compact format of {@link #VERSION}
+	 */
+	public static boolean isCompact(Object stream) {
+		return stream instanceof CompactOutputStream || stream instanceof CompactInputStream;
 	}
 
+// primitives
+	
 	protected static void writeShort(ByteArrayOutputStream stream, short s) {
 		stream.write((byte) (s >>> 8));
 		stream.write((byte) s);
 	}
 	
 	protected static void writeInt(ByteArrayOutputStream stream, int ival) {
+		if (isCompact(stream))
+			writeVarLong(stream, zigzag(ival));
+		else
+			writeInt32(stream, ival);
+	}
+
+	private static void writeInt32(ByteArrayOutputStream stream, int ival) {
 		for (int i=24; i>=0; i-=8)
 			stream.write((byte) (ival >>> i));
 	}
-
+	
 	protected static void writeLong(ByteArrayOutputStream stream, long l) {
+		if (isCompact(stream)) {
+			writeVarLong(stream, zigzag(l));
+			return;
+		}
 		for (int i=56; i>=0; i-=8)
 			stream.write((byte) (l >>> i));
 	}
 	
 	protected static long readLong(ByteArrayInputStream stream) {
+		if (isCompact(stream))
+			return unzigzag(readVarLong(stream));
+		
 		long l = 0;
 		for (int i=56; i>=0; i-=8) {
 			int next = stream.read();
@@ -124,6 +329,12 @@ public class HistogramCodec {
 	}
 
 	protected static int readInt(ByteArrayInputStream stream) {
+		if (isCompact(stream))
+			return (int) unzigzag(readVarLong(stream));
+		return readInt32(stream);
+	}
+	
+	private static int readInt32(ByteArrayInputStream stream) {
 		int ival = 0;
 		for (int i=24; i>=0; i-=8) {
 			int next = stream.read();
@@ -142,8 +353,92 @@ public class HistogramCodec {
 		
 		return s;
 	}
+	
+	/** floats are written with fixed width in both formats */
+	public static void writeFloat(ByteArrayOutputStream stream, float f) {
+		writeInt32(stream, Float.floatToIntBits(f));
+	}
+	
+	public static float readFloat(ByteArrayInputStream stream) {
+		return Float.intBitsToFloat(readInt32(stream));
+	}
+	
+	/** doubles are written with fixed width in both formats */
+	public static void writeDouble(ByteArrayOutputStream stream, double d) {
+		long l = Double.doubleToLongBits(d);
+		for (int i=56; i>=0; i-=8)
+			stream.write((byte) (l >>> i));
+	}
+	
+	public static double readDouble(ByteArrayInputStream stream) {
+		return Double.longBitsToDouble(((long) readInt32(stream) << 32) | (readInt32(stream) & 0xFFFFFFFFL));
+	}
+	
+	/** writes an ordered pair min <= max, the compact format stores max as delta to min */
+	public static void writeIntRange(ByteArrayOutputStream stream, int min, int max) {
+		writeInt(stream, min);
+		if (isCompact(stream))
+			writeVarLong(stream, zigzag((long) max - min));
+		else
+			writeInt(stream, max);
+	}
+	
+	/** @return { min, max } */
+	public static int[] readIntRange(ByteArrayInputStream stream) {
+		int min = readInt(stream);
+		int max = isCompact(stream) ? (int) (min + unzigzag(readVarLong(stream))) : readInt(stream);
+		return new int[] { min, max };
+	}
+	
+	/** writes an ordered pair min <= max, the compact format stores max as delta to min */
+	public static void writeLongRange(ByteArrayOutputStream stream, long min, long max) {
+		writeLong(stream, min);
+		writeLong(stream, isCompact(stream) ? max - min : max); // overflows cancel out when decoding
+	}
+	
+	/** @return { min, max } */
+	public static long[] readLongRange(ByteArrayInputStream stream) {
+		long min = readLong(stream);
+		long max = readLong(stream);
+		return new long[] { min, isCompact(stream) ? min + max : max };
+	}
+
+	protected static long zigzag(long l) {
+		return (l << 1) ^ (l >> 63);
+	}
+	
+	protected static long unzigzag(long l) {
+		return (l >>> 1) ^ -(l & 1);
+	}
+	
+	protected static void writeVarLong(ByteArrayOutputStream stream, long l) {
+		while ((l & ~0x7FL) != 0) {
+			stream.write((int) ((l & 0x7F) | 0x80));
+			l >>>= 7;
+		}
+		stream.write((int) l);
+	}
+	
+	protected static long readVarLong(ByteArrayInputStream stream) {
+		long l = 0;
+		for (int shift=0; shift<64; shift+=7) {
+			int next = stream.read();
+			if (next < 0) break;
+			l |= (long) (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) break;
+		}
+		return l;
+	}
 
+// strings and labels
+	
 	public static String readString(ByteArrayInputStream stream) {
+		if (isCompact(stream)) {
+			byte[] b = new byte[(int) readVarLong(stream)];
+			stream.read(b, 0, b.length);
+			return new String(b, UTF8);
+		}
+		
 		try {
 			int next;
 			String s;
@@ -172,6 +467,13 @@ public class HistogramCodec {
 	}
 
 	public static void writeString(ByteArrayOutputStream stream, String string) {
+		if (isCompact(stream)) {
+			byte[] b = (string == null) ? new byte[0] : string.getBytes(UTF8);
+			writeVarLong(stream, b.length);
+			stream.write(b, 0, b.length);
+			return;
+		}
+		
 		try {
 			OutputStreamWriter out = new OutputStreamWriter(stream);
 			if (string == null)
@@ -186,6 +488,63 @@ public class HistogramCodec {
 		}
 	}
 	
+	/**
+	 * writes sorted bin labels, front-coded in the compact format: each label is written as the length of the prefix
+	 * shared with the previous label of the same block and the remaining suffix
+	 * 
+	 * @param stream
+	 * @param labels
+	 */
+	public static void writeLabels(ByteArrayOutputStream stream, String[] labels) {
+		if (!isCompact(stream)) {
+			for (int i=0; i<labels.length; i++)
+				writeString(stream, labels[i]);
+			return;
+		}
+		
+		String prev = null;
+		for (int i=0; i<labels.length; i++) {
+			String label = (labels[i] == null) ? "" : labels[i];
+			int shared = (i % LABEL_BLOCK_SIZE == 0) ? 0 : getSharedPrefixLength(prev, label);
+			writeVarLong(stream, shared);
+			writeString(stream, label.substring(shared));
+			prev = label;
+		}
+	}
+	
+	/**
+	 * @param stream
+	 * @param size number of labels
+	 * @return labels written by {@link #writeLabels(ByteArrayOutputStream, String[])}
+	 */
+	public static String[] readLabels(ByteArrayInputStream stream, int size) {
+		String[] labels = new String[size];
+		boolean compact = isCompact(stream);
+		for (int i=0; i<size; i++) {
+			if (compact) {
+				int shared = (int) readVarLong(stream);
+				labels[i] = (shared > 0) ? labels[i-1].substring(0, shared) + readString(stream) : readString(stream);
+			} else
+				labels[i] = readString(stream);
+		}
+		return labels;
+	}
+	
+	/**
+	 * @param a
+	 * @param b
+	 * @return length of the common prefix of a and b, not splitting surrogate pairs
+	 */
+	private static int getSharedPrefixLength(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		if (i > 0 && Character.isHighSurrogate(a.charAt(i-1)))
+			i--;
+		return i;
+	}
+	
 	public static void writeLongArray(ByteArrayOutputStream stream, long[] data) {
 		for (long bin : data)
 			HistogramCodec.writeLong(stream, bin);
@@ -210,4 +569,87 @@ public class HistogramCodec {
 			bins[i] = HistogramCodec.readInt(stream);
 		return bins;
 	}
+	
+// buffer access used by views
+	
+	/**
+	 * @param buffer
+	 * @param compact
+	 * @return the int at the current position
+	 */
+	public static int readInt(ByteBuffer buffer, boolean compact) {
+		return compact ? (int) unzigzag(readVarLong(buffer)) : buffer.getInt();
+	}
+	
+	public static long readVarLong(ByteBuffer buffer) {
+		long l = 0;
+		for (int shift=0; shift<64 && buffer.hasRemaining(); shift+=7) {
+			int next = buffer.get();
+			l |= (long) (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) break;
+		}
+		return l;
+	}
+	
+	public static int[] readIntArray(ByteBuffer buffer, int size, boolean compact) {
+		int[] bins = new int[size];
+		if (compact) {
+			for (int i=0; i<size; i++)
+				bins[i] = readInt(buffer, true);
+		} else {
+			buffer.asIntBuffer().get(bins);
+			buffer.position(buffer.position() + size * 4);
+		}
+		return bins;
+	}
+	
+	/**
+	 * @param buffer
+	 * @param compact
+	 * @return the string at the current position, the position is moved behind it
+	 */
+	public static String readString(ByteBuffer buffer, boolean compact) {
+		int start, end;
+		if (compact) {
+			int length = (int) readVarLong(buffer);
+			start = buffer.position();
+			end = start + length;
+			buffer.position(end);
+		} else {
+			start = buffer.position();
+			end = skipString(buffer, false) - 1;
+		}
+		
+		byte[] b = new byte[end - start];
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(start);
+		dup.get(b);
+		return new String(b, compact ? UTF8 : getCharset());
+	}
+	
+	/**
+	 * @param buffer
+	 * @param compact
+	 * @return the position behind the string at the current position, which becomes the new position
+	 */
+	public static int skipString(ByteBuffer buffer, boolean compact) {
+		if (compact) {
+			int length = (int) readVarLong(buffer);
+			buffer.position(buffer.position() + length);
+		} else {
+			while (buffer.hasRemaining()) {
+				byte b = buffer.get();
+				if (b == END_OF_STRING || b == EMPTY_STRING)
+					break;
+			}
+		}
+		return buffer.position();
+	}
+	
+	/**
+	 * @return charset used by {@link #VERSION_20090910} to read and write strings, the platform default
+	 */
+	public static Charset getCharset() {
+		return Charset.defaultCharset();
+	}
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist.builder;
+
+/**
+ * HyperLogLog distinct value counter (Flajolet et al. 2007) with 2^precision one byte registers
+ * and linear counting for small cardinalities. The relative standard error is 1.04 / sqrt(2^precision),
+ * e.g. 1.6% with the default precision of 12 (4 KB). Counters of equal precision are mergeable.
+ * 
+ * @author dorgon
+ *
+ */
+public class HyperLogLog {
+	
+	/** default precision, i.e. log2 of the number of registers */
+	public static final int DEFAULT_PRECISION = 12;
+	
+	private final int precision;
+	private final byte[] registers;
+	
+	/**
+	 * @param precision between 4 and 18
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18)
+			throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18, got " + precision + ".");
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+	
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+	
+	/**
+	 * @param hash a 64 bit hash of the value, e.g. {@link #hash(long)}
+	 */
+	public void offer(long hash) {
+		int idx = (int) (hash >>> (64 - precision));
+		long w = hash << precision;
+		int rank = (w == 0L) ? (64 - precision + 1) : (Long.numberOfLeadingZeros(w) + 1);
+		if (rank > registers[idx])
+			registers[idx] = (byte) rank;
+	}
+	
+	/** @return estimated number of distinct values offered */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0.0;
+		int zeros = 0;
+		for (byte r : registers) {
+			sum += 1.0 / (1L << r);
+			if (r == 0) zeros++;
+		}
+		
+		double alpha = 0.7213 / (1.0 + 1.079 / m);
+		double e = alpha * m * m / sum;
+		if (e <= 2.5 * m && zeros > 0)
+			e = m * Math.log(m / (double) zeros); // linear counting
+		return Math.round(e);
+	}
+	
+	/**
+	 * merges other into this counter
+	 * 
+	 * @param other a counter of the same precision
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision)
+			throw new IllegalArgumentException("Cannot merge HyperLogLog counters of different precision (" + precision + ", " + other.precision + ").");
+		for (int i=0; i<registers.length; i++)
+			if (other.registers[i] > registers[i])
+				registers[i] = other.registers[i];
+	}
+	
+	/** @return relative standard error of {@link #estimate()} */
+	public double getStandardError() {
+		return getStandardError(precision);
+	}
+	
+	/**
+	 * @param precision
+	 * @return relative standard error of counters with the given precision
+	 */
+	public static double getStandardError(int precision) {
+		return 1.04 / Math.sqrt(1 << precision);
+	}
+	
+	/** @return a new counter with the same precision and registers */
+	public HyperLogLog copy() {
+		HyperLogLog c = new HyperLogLog(precision);
+		c.merge(this);
+		return c;
+	}
+	
+	/**
+	 * 64 bit hash of a long key (MurmurHash3 finalizer)
+	 * 
+	 * @param key
+	 * @return hash
+	 */
+	public static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+	
+	/**
+	 * 64 bit hash of a string (FNV-1a over the chars, finalized by {@link #hash(long)})
+	 * 
+	 * @param s
+	 * @return hash
+	 */
+	public static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i<s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return hash(h);
+	}
+}
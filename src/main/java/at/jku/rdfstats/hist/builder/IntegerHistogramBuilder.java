@@ -18,7 +18,6 @@ package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.TreeMap;
 
 import at.jku.rdfstats.ParseException;
 import at.jku.rdfstats.RDFStatsConfiguration;
@@ -33,13 +32,21 @@ import com.hp.hpl.jena.graph.Node;
  */
 public class IntegerHistogramBuilder extends AbstractHistogramBuilder<Integer> {
 
+	/** value => number of occurrences */
+	private final LongCountMap counts = new LongCountMap();
+
 	/**
 	 * @param typeUri
 	 * @param prefSize
 	 */
 	public IntegerHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
 		super(conf, typeUri, prefSize);
-		values = new TreeMap<Integer, Integer>();		
+	}
+	
+	@Override
+	protected void addValue(Integer val, int serializedLength) {
+		counts.add(val.intValue());
+		addValueLength(serializedLength);
 	}
 	
 	public void addNodeValue(Node val) throws HistogramBuilderException {
@@ -56,18 +63,19 @@ public class IntegerHistogramBuilder extends AbstractHistogramBuilder<Integer> {
 	 */
 	@Override
 	public Histogram<Integer> generateHistogram() {
-		Integer min = ((TreeMap<Integer, Integer>) values).firstKey();
-		Integer max = ((TreeMap<Integer, Integer>) values).lastKey();
-		Long range = max - min + 1L; // add one in case of integer values, otherwise the last value would be out of the range
+		long[] keys = counts.getSortedKeys();
+		int min = (int) keys[0];
+		int max = (int) keys[keys.length-1];
+		long range = max - min + 1L; // add one in case of integer values, otherwise the last value would be out of the range
 	
 		int numBins = (range > 0) ? prefSize : 1;
-		if (values.size() < numBins) numBins = values.size();
+		if (keys.length < numBins) numBins = keys.length;
 		
 		double binWidth = range / (double) numBins;
 		int[] data = new int[numBins];
-		for (Integer val : values.keySet())
-			data[(int) Math.floor((val-min) / binWidth)] += values.get(val);
-		int distinctValues = values.size();
+		for (long val : keys)
+			data[(int) Math.floor((val-min) / binWidth)] += counts.get(val);
+		int distinctValues = keys.length;
 		int total = getTotalValues(data);
 		int[] lengths = getValueLengths(total);
 		
@@ -78,8 +86,7 @@ public class IntegerHistogramBuilder extends AbstractHistogramBuilder<Integer> {
 		HistogramCodec.writeIntArray(stream, h.getBinData());
 		HistogramCodec.writeInt(stream, h.getTotalValues());
 		HistogramCodec.writeInt(stream, h.getDistinctValues());
-		HistogramCodec.writeInt(stream, ((IntegerHistogram) h).getMin());
-		HistogramCodec.writeInt(stream, ((IntegerHistogram) h).getMax());
+		HistogramCodec.writeIntRange(stream, ((IntegerHistogram) h).getMin(), ((IntegerHistogram) h).getMax());
 		HistogramCodec.writeIntArray(stream, h.getValueLengths());
 	}	
 	
@@ -87,8 +94,9 @@ public class IntegerHistogramBuilder extends AbstractHistogramBuilder<Integer> {
 		int[] bins = HistogramCodec.readIntArray(stream, prefSize);
 		int totalValues = HistogramCodec.readInt(stream);
 		int distinctValues = HistogramCodec.readInt(stream);
-		int min = HistogramCodec.readInt(stream);
-		int max = HistogramCodec.readInt(stream);
+		int[] range = HistogramCodec.readIntRange(stream);
+		int min = range[0];
+		int max = range[1];
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 		
 		return new IntegerHistogram(typeUri, bins, totalValues, distinctValues, min, max, valueLengths, this.getClass());
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist.builder;
+
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.IntegerHistogram;
+import at.jku.rdfstats.hist.Histogram;
+
+/**
+ * Approximate Integer histogram builder with a memory use independent of the number of values,
+ * see {@link SketchAccumulator} and {@link HyperLogLog}. Creates the same histograms as {@link IntegerHistogramBuilder}, but bin counts
+ * and distinct values are estimates.
+ * 
+ * @author dorgon
+ *
+ */
+public class IntegerSketchHistogramBuilder extends IntegerHistogramBuilder {
+	private final SketchAccumulator accumulator;
+	
+	/**
+	 * @param conf
+	 * @param typeUri
+	 * @param prefSize
+	 */
+	public IntegerSketchHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
+		super(conf, typeUri, prefSize);
+		accumulator = new SketchAccumulator(conf);
+		estimateDistinctValues();
+	}
+	
+	@Override
+	protected void addValue(Integer val, int serializedLength) {
+		long key = val.longValue();
+		accumulator.add(key);
+		distinctCounter.offer(HyperLogLog.hash(key));
+		addValueLength(serializedLength);
+	}
+	
+	/* (non-Javadoc)
+	 * @see at.jku.rdfstats.hist.builder.IntegerHistogramBuilder#generateHistogram()
+	 */
+	@Override
+	public Histogram<Integer> generateHistogram() {
+		long min = accumulator.getMin();
+		long max = accumulator.getMax();
+		long range = max - min + 1L; // add one in case of integer values, otherwise the last value would be out of the range
+		
+		int total = accumulator.getTotal();
+		int distinct = getEstimatedDistinctValues(total, accumulator.getMinDistinct());
+		
+		int numBins = SketchAccumulator.getNumBins(prefSize, range > 0, distinct);
+		double binWidth = range / (double) numBins;
+		int[] data = accumulator.getBins(SketchAccumulator.getIntegralBinStarts(min, binWidth, numBins));
+		int[] lengths = getValueLengths(total);
+		
+		return (Histogram<Integer>) new IntegerHistogram(typeUri, data, total, distinct, (int) min, (int) max, lengths, IntegerHistogramBuilder.class);
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist.builder;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to int counts (linear probing), used by
+ * the numeric and date histogram builders instead of a TreeMap of boxed values. A distinct
+ * value costs 12 bytes (at most 24 at the minimum load factor) instead of a map entry and two
+ * boxed objects, and counting a value does not allocate. Keys are sorted once when the
+ * histogram is generated.
+ * 
+ * Counts saturate at Integer.MAX_VALUE.
+ * 
+ * @author dorgon
+ *
+ */
+public class LongCountMap {
+	private static final int INITIAL_CAPACITY = 64;
+	
+	/** slots are used if counts[i] > 0 */
+	private long[] keys;
+	private int[] counts;
+	private int size = 0;
+	private int mask;
+	
+	public LongCountMap() {
+		keys = new long[INITIAL_CAPACITY];
+		counts = new int[INITIAL_CAPACITY];
+		mask = INITIAL_CAPACITY - 1;
+	}
+	
+	/**
+	 * increments the count of key
+	 * 
+	 * @param key
+	 */
+	public void add(long key) {
+		int i = slot(key);
+		if (counts[i] == 0) {
+			keys[i] = key;
+			counts[i] = 1;
+			if (++size > (keys.length >> 1)) // load factor 0.5
+				resize();
+		} else if (counts[i] < Integer.MAX_VALUE)
+			counts[i]++;
+	}
+	
+	/**
+	 * @param key
+	 * @return count of key, 0 if not contained
+	 */
+	public int get(long key) {
+		return counts[slot(key)];
+	}
+	
+	/** @return number of distinct keys */
+	public int size() {
+		return size;
+	}
+	
+	/** @return all keys in ascending order */
+	public long[] getSortedKeys() {
+		long[] sorted = new long[size];
+		int j = 0;
+		for (int i=0; i<keys.length; i++)
+			if (counts[i] > 0)
+				sorted[j++] = keys[i];
+		Arrays.sort(sorted);
+		return sorted;
+	}
+	
+	/** @return the slot holding key or the free slot where it belongs */
+	private int slot(long key) {
+		int i = hash(key) & mask;
+		while (counts[i] != 0 && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+	
+	private void resize() {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[oldKeys.length << 1];
+		counts = new int[oldCounts.length << 1];
+		mask = keys.length - 1;
+		for (int i=0; i<oldKeys.length; i++) {
+			if (oldCounts[i] > 0) {
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				counts[j] = oldCounts[i];
+			}
+		}
+	}
+	
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -18,7 +18,6 @@ package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.TreeMap;
 
 import at.jku.rdfstats.ParseException;
 import at.jku.rdfstats.RDFStatsConfiguration;
@@ -33,16 +32,24 @@ import com.hp.hpl.jena.graph.Node;
  */
 public class LongHistogramBuilder extends AbstractHistogramBuilder<Long> {
 
+	/** value => number of occurrences */
+	private final LongCountMap counts = new LongCountMap();
+
 	/**
 	 * @param typeUri
 	 * @param prefSize
 	 */
 	public LongHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
 		super(conf, typeUri, prefSize);
-		values = new TreeMap<Long, Integer>();		
 	}
 	
 	
+	@Override
+	protected void addValue(Long val, int serializedLength) {
+		counts.add(val.longValue());
+		addValueLength(serializedLength);
+	}
+	
 	public void addNodeValue(Node val) throws HistogramBuilderException {
 		try {
 			Long l = LongHistogram.parseNodeValueImpl(val);
@@ -57,19 +64,20 @@ public class LongHistogramBuilder extends AbstractHistogramBuilder<Long> {
 	 */
 	@Override
 	public Histogram<Long> generateHistogram() {
-		Long min = ((TreeMap<Long, Integer>) values).firstKey();
-		Long max = ((TreeMap<Long, Integer>) values).lastKey();
+		long[] keys = counts.getSortedKeys();
+		long min = keys[0];
+		long max = keys[keys.length-1];
 		// TODO use BigInteger for range (corner case if min = Integer.MIN_VALUE and max = Integer.MAX_VALUE
-		Long range = max - min + 1; // add one in case of integer values, otherwise the last value would be out of the range
+		long range = max - min + 1; // add one in case of integer values, otherwise the last value would be out of the range
 	
 		int numBins = (range > 0) ? prefSize : 1;
-		if (values.size() < numBins) numBins = values.size();
+		if (keys.length < numBins) numBins = keys.length;
 		
 		double binWidth = range / (double) numBins;
 		int[] data = new int[numBins];
-		for (Long val : values.keySet())
-			data[(int) Math.floor((val-min) / binWidth)] += values.get(val);
-		int distinctValues = values.size();
+		for (long val : keys)
+			data[(int) Math.floor((val-min) / binWidth)] += counts.get(val);
+		int distinctValues = keys.length;
 		int total = getTotalValues(data);
 		int[] lengths = getValueLengths(total);
 		
@@ -80,8 +88,7 @@ public class LongHistogramBuilder extends AbstractHistogramBuilder<Long> {
 		HistogramCodec.writeIntArray(stream, h.getBinData());
 		HistogramCodec.writeInt(stream, h.getTotalValues());
 		HistogramCodec.writeInt(stream, h.getDistinctValues());
-		HistogramCodec.writeLong(stream, ((LongHistogram) h).getMin());
-		HistogramCodec.writeLong(stream, ((LongHistogram) h).getMax());
+		HistogramCodec.writeLongRange(stream, ((LongHistogram) h).getMin(), ((LongHistogram) h).getMax());
 		HistogramCodec.writeIntArray(stream, h.getValueLengths());
 	}	
 	
@@ -89,8 +96,9 @@ public class LongHistogramBuilder extends AbstractHistogramBuilder<Long> {
 		int[] bins = HistogramCodec.readIntArray(stream, prefSize);
 		int totalValues = HistogramCodec.readInt(stream);
 		int distinctValues = HistogramCodec.readInt(stream);
-		long min = HistogramCodec.readLong(stream);
-		long max = HistogramCodec.readLong(stream);
+		long[] range = HistogramCodec.readLongRange(stream);
+		long min = range[0];
+		long max = range[1];
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 		
 		return new LongHistogram(typeUri, bins, totalValues, distinctValues, min, max, valueLengths, this.getClass());
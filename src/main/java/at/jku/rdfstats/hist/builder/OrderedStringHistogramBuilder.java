@@ -18,10 +18,8 @@ package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Map;
-import java.util.TreeMap;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +28,7 @@ import at.jku.rdfstats.ParseException;
 import at.jku.rdfstats.RDFStatsConfiguration;
 import at.jku.rdfstats.hist.Histogram;
 import at.jku.rdfstats.hist.OrderedStringHistogram;
+import at.jku.rdfstats.hist.OrderedStringHistogramView;
 
 import com.hp.hpl.jena.graph.Node;
 
@@ -55,8 +54,17 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 	/** lexicographically highest value found */
 	protected String max;
 	
-	/** distinct values map, filled during compression */
-	protected Map<String, Integer> distinctBinValues;
+	/** prefix table (basis for labeled histogram bins) */
+	protected PrefixTrie prefixes = new PrefixTrie(PrefixTrie.CHARACTERS, false);
+	
+	/** if distinct values are estimated, the prefix table is compressed while adding values when it exceeds prefSize * TABLE_FACTOR */
+	protected final static int TABLE_FACTOR = 8;
+	
+	/** size of the prefix table triggering the next compression while adding values */
+	protected int compressAt;
+	
+	/** true after the prefix table has been compressed while adding values, new values are cut to currentMaxPrefixLength */
+	protected boolean compressed = false;
 	
 	/**
 	 * @param typeUri
@@ -68,10 +76,10 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 		if (conf != null)
 			cutOffLength = conf.getStrHistMaxLength();
 		
-		// values is a prefix table (basis for labeled histogram bins)
-		// first use hashing because we probably need to compress the table multiple times (faster) 
-		// finally build ordered tree map in generateHistogram()
-		values = new Hashtable<String, Integer>();
+		if (approximate()) {
+			estimateDistinctValues();
+			compressAt = prefSize * TABLE_FACTOR;
+		}
 	}
 	
 	@Override
@@ -82,7 +90,13 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 		if (min == null || val.compareTo(min) < 0) min = val;
 		if (max == null || val.compareTo(max) > 0) max = val;
 		
-		super.addValue(val, valueLength);
+		if (distinctCounter != null) {
+			addEstimatedValue(val, valueLength);
+			return;
+		}
+		
+		prefixes.add(val);
+		addValueLength(valueLength);
 		
 		if (val.length() > currentMaxPrefixLength)
 			currentMaxPrefixLength = val.length();		
@@ -98,56 +112,44 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 	}
 
 	/**
-	 * repetitive compress the prefix table by factor 1 / COMPRESS_FACTOR until it is smaller than prefSize
-	 * several prefixes will fall into equal bins as a result and the table will become smaller
+	 * adds val to the bin of its prefix and to the distinct value counter instead of keeping it,
+	 * the prefix table is compressed if it exceeds compressAt, hence memory use is bounded
 	 * 
-	 * will the distinctValues map also
+	 * @param val
+	 * @param valueLength
 	 */
-	protected void compressPrefixTable() {
-		if (log.isDebugEnabled())
-			log.debug("Compressing string histogram (distinct values: " + values.size() + ", target size: " + prefSize + " bins)...");
-
-		Map<String, Integer> prevTable = values;
-		Map<String, Integer> newTable;
-		Map<String, Integer> newDistinct;
+	protected void addEstimatedValue(String val, int valueLength) {
+		long hash = HyperLogLog.hash(val);
+		distinctCounter.offer(hash);
 		
-		int currentLength = currentMaxPrefixLength;
+		prefixes.add((compressed && val.length() > currentMaxPrefixLength) ? val.substring(0, currentMaxPrefixLength) : val, hash);
+		addValueLength(valueLength);
+		
+		if (!compressed && val.length() > currentMaxPrefixLength)
+			currentMaxPrefixLength = val.length();
+		if (prefixes.size() > compressAt && currentMaxPrefixLength > 1) {
+			if (log.isDebugEnabled())
+				log.debug("Compressing string histogram (distinct values: " + prefixes.size() + ", target size: " + prefSize + " bins)...");
+			currentMaxPrefixLength = getCompressedLength();
+			prefixes.truncate(currentMaxPrefixLength);
+			compressed = true;
+			compressAt = Math.max(compressAt, 2 * prefixes.size()); // table may stay big if all prefixes are single characters
+		}
+	}
 
-		boolean cancelled;
+	/**
+	 * the maximum prefix length is divided by COMPRESS_FACTOR until the prefix table is not bigger than prefSize,
+	 * several prefixes fall into equal bins as a result, at least for each first character we keep one bin
+	 * 
+	 * @return the prefix length to cut values at
+	 */
+	protected int getCompressedLength() {
+		int[] sizes = prefixes.getLevelSizes(); // level = prefix length
+		int length = currentMaxPrefixLength;
 		do {
-			cancelled = false;
-			newTable = new Hashtable<String, Integer>();
-			newDistinct = new Hashtable<String, Integer>();
-			currentLength /= COMPRESS_FACTOR;	
-			String newPrefix;
-			
-			for (String prevPrefix : prevTable.keySet()) {
-				newPrefix = (prevPrefix.length() > currentLength) ? prevPrefix.substring(0, currentLength) : prevPrefix; 
-				
-				Integer l = newTable.get(newPrefix);
-				if (l == null) {
-					if (newTable.size() <= prefSize || currentLength == 1) {
-						newTable.put(newPrefix, prevTable.get(prevPrefix));
-						newDistinct.put(newPrefix, distinctBinValues.get(prevPrefix));
-					} else {
-						cancelled = true;
-						break; // exceeding prefSize, break and continue with next compression step
-					}
-				} else { // bin already exists
-					newTable.put(newPrefix, prevTable.get(prevPrefix) + l);
-					newDistinct.put(newPrefix, newDistinct.get(newPrefix) + distinctBinValues.get(prevPrefix));
-				}
-			}
-			
-			if (!cancelled) {
-				prevTable = newTable;
-				distinctBinValues = newDistinct;
-			}
-			// continue compression while size is bigger than prefSize
-			// at least for each first character we want one bin, set prefSize to maximum
-		} while (prevTable.size() > prefSize && currentLength > 1);
-
-		values = newTable;
+			length /= COMPRESS_FACTOR;
+		} while (length > 1 && sizes[Math.min(length, sizes.length - 1)] > prefSize);
+		return Math.max(length, 1);
 	}
 	
 	/* (non-Javadoc)
@@ -155,16 +157,14 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 	 */
 	@Override
 	public OrderedStringHistogram generateHistogram() {
-		distinctBinValues = new HashMap<String, Integer>();
-		for (String prefix : values.keySet())
-			distinctBinValues.put(prefix, 1);
-
-		if (values.size() > prefSize)
-			compressPrefixTable();
-		
-		TreeMap<String, Integer> orderedBins = new TreeMap<String, Integer>();
-		orderedBins.putAll(values);
-		values = null;
+		int length = Integer.MAX_VALUE;
+		if (prefixes.size() > prefSize) {
+			if (log.isDebugEnabled())
+				log.debug("Compressing string histogram (distinct values: " + prefixes.size() + ", target size: " + prefSize + " bins)...");
+			length = getCompressedLength();
+		}
+		List<PrefixTrie.Bin> orderedBins = prefixes.getBins(length);
+		prefixes = null;
 		
 		int distinctTotal = 0;
 		String[] labels = new String[orderedBins.size()];
@@ -172,16 +172,18 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 		int[] distinct = new int[labels.length];
 
 		int i = 0;
-		for (String label : orderedBins.keySet()) {
-			labels[i] = label;
-			bins[i] = orderedBins.get(label);
-			distinct[i] = distinctBinValues.get(label);
+		for (PrefixTrie.Bin bin : orderedBins) {
+			labels[i] = bin.getLabel();
+			bins[i] = bin.getQuantity();
+			distinct[i] = bin.getDistinct();
 			distinctTotal += distinct[i];
 			i++;
 		}
 		
 		int total = getTotalValues(bins);
 		int[] lengths = getValueLengths(total);
+		if (distinctCounter != null)
+			distinctTotal = getEstimatedDistinctValues(total, labels.length);
 		
 		return new OrderedStringHistogram(typeUri,
 				bins,
@@ -194,6 +196,11 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 				this.getClass());
 	}
 	
+	@Override
+	protected float getDistinctValuesError() {
+		return (distinctCounter != null) ? (float) HyperLogLog.getStandardError(PrefixTrie.COUNTER_PRECISION) : 0f;
+	}
+	
 	/* (non-Javadoc)
 	 * @see at.jku.rdfstats.hist.builder.HistogramBuilder#writeData(java.io.ByteArrayOutputStream, at.jku.rdfstats.hist.Histogram)
 	 */
@@ -206,9 +213,7 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 		HistogramCodec.writeString(stream, h.getMax());
 		HistogramCodec.writeIntArray(stream, h.getValueLengths());
 		
-		String[] labels = h.getLabels();
-		for (int i=0; i<labels.length; i++)
-			HistogramCodec.writeString(stream, labels[i]);
+		HistogramCodec.writeLabels(stream, h.getLabels());
 		HistogramCodec.writeIntArray(stream, h.getDistinctBinValues());
 	}
 	
@@ -223,11 +228,51 @@ public class OrderedStringHistogramBuilder extends AbstractHistogramBuilder<Stri
 		String max = HistogramCodec.readString(stream);
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 		
-		String[] labels = new String[prefSize];		
-		for (int i=0; i<prefSize; i++)
-			labels[i] = HistogramCodec.readString(stream);
+		String[] labels = HistogramCodec.readLabels(stream, prefSize);
 		int[] distinctBinValues = HistogramCodec.readIntArray(stream, prefSize);
 		
 		return new OrderedStringHistogram(typeUri, bins, totalValues, distinctValues, min, max, valueLengths, labels, distinctBinValues, this.getClass());
 	}
+	
+	/* (non-Javadoc)
+	 * @see at.jku.rdfstats.hist.builder.AbstractHistogramBuilder#readView(java.nio.ByteBuffer, int)
+	 */
+	@Override
+	public OrderedStringHistogramView readView(ByteBuffer buffer, int version) {
+		return readView(buffer, version, typeUri, prefSize, this.getClass());
+	}
+	
+	/**
+	 * reads the layout written by {@link #writeData(ByteArrayOutputStream, Histogram)} without decoding the labels,
+	 * also used by {@link URIHistogramBuilder}
+	 * 
+	 * @param buffer
+	 * @param version
+	 * @param typeUri
+	 * @param size
+	 * @param builderClass
+	 * @return
+	 */
+	static OrderedStringHistogramView readView(ByteBuffer buffer, int version, String typeUri, int size, Class<? extends HistogramBuilder<?>> builderClass) {
+		boolean compact = (version == HistogramCodec.VERSION);
+		int[] bins = HistogramCodec.readIntArray(buffer, size, compact);
+		int totalValues = HistogramCodec.readInt(buffer, compact);
+		int distinctValues = HistogramCodec.readInt(buffer, compact);
+		String min = HistogramCodec.readString(buffer, compact);
+		String max = HistogramCodec.readString(buffer, compact);
+		int[] valueLengths = HistogramCodec.readIntArray(buffer, 3, compact);
+		
+		int[] labelOffsets = new int[size + 1];
+		for (int i=0; i<size; i++) {
+			labelOffsets[i] = buffer.position();
+			if (compact)
+				HistogramCodec.readVarLong(buffer); // shared prefix length
+			HistogramCodec.skipString(buffer, compact);
+		}
+		labelOffsets[size] = buffer.position();
+		int[] distinctBinValues = HistogramCodec.readIntArray(buffer, size, compact);
+		
+		return new OrderedStringHistogramView(typeUri, bins, totalValues, distinctValues, min, max, valueLengths,
+				buffer.asReadOnlyBuffer(), labelOffsets, compact, distinctBinValues, builderClass);
+	}
 }
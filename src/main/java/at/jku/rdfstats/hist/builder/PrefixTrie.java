@@ -0,0 +1,520 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Character-level radix trie used as prefix table by the string and URI histogram builders instead
+ * of a Hashtable holding every distinct value. A node only stores the characters of its incoming edge,
+ * the number of values equal to its prefix (count) and the number of all and of distinct values in its
+ * subtree (total, distinct), hence common prefixes are stored once.
+ * 
+ * Labels may be cut at positions defined by a {@link Boundary}. The level of a boundary is the number
+ * of boundaries before it on its path. At level k each boundary of level k becomes a bin labeled by the
+ * prefix before it, holding all values below, and each value without a boundary of level k on its path
+ * stays a bin of its own. The number of bins of all levels is computed by one walk
+ * ({@link #getLevelSizes()}), the bins of the chosen level by another one ({@link #getBins(int)}),
+ * which also yields them in lexicographical order.
+ * 
+ * If distinct values are estimated, the trie can be truncated at a level ({@link #truncate(int)}),
+ * truncated prefixes keep a {@link HyperLogLog} counter of their distinct values.
+ * 
+ * @author dorgon
+ *
+ */
+public class PrefixTrie {
+	/** precision of the distinct value counters of truncated prefixes */
+	public static final int COUNTER_PRECISION = 10;
+	
+	/** defines the positions labels may be cut at */
+	public interface Boundary {
+		/**
+		 * @param s
+		 * @param pos
+		 * @return true if s may be cut before the character at pos, i.e. s.substring(0, pos) is a label
+		 */
+		public boolean isBoundary(CharSequence s, int pos);
+	}
+	
+	/** every position is a boundary, level k means cutting values to k characters */
+	public static final Boundary CHARACTERS = new Boundary() {
+		public boolean isBoundary(CharSequence s, int pos) {
+			return true;
+		}
+	};
+	
+	/** a bin generated by {@link PrefixTrie#getBins(int)} */
+	public static class Bin {
+		private final String label;
+		private final int quantity;
+		private final int distinct;
+		
+		Bin(String label, int quantity, int distinct) {
+			this.label = label;
+			this.quantity = quantity;
+			this.distinct = distinct;
+		}
+		
+		public String getLabel() {
+			return label;
+		}
+		
+		public int getQuantity() {
+			return quantity;
+		}
+		
+		public int getDistinct() {
+			return distinct;
+		}
+	}
+	
+	private static final Node[] NO_CHILDREN = new Node[0];
+	
+	private static class Node {
+		/** characters of the incoming edge */
+		char[] edge;
+		/** sorted by first character */
+		Node[] children = NO_CHILDREN;
+		/** values equal to the prefix of this node, values in the subtree, distinct values in the subtree */
+		int count, total, distinct;
+		/** distinct values counter if values have been cut to this prefix */
+		HyperLogLog counter;
+		
+		Node(char[] edge) {
+			this.edge = edge;
+		}
+	}
+	
+	private final Boundary boundary;
+	
+	/** if true, values ending with a boundary character are labeled without it at cut levels */
+	private final boolean ignoreTrailing;
+	
+	private final Node root = new Node(new char[0]);
+	
+	/** true if some prefixes have counters, distinct values of bins are estimated then */
+	private boolean estimated = false;
+	
+	/**
+	 * @param boundary
+	 * @param ignoreTrailing label values ending with a boundary character without it (e.g. trailing slashes of URIs)
+	 * if they are cut at a level below the deepest one or if the trie has been truncated, the deepest level keeps
+	 * each distinct key
+	 */
+	public PrefixTrie(Boundary boundary, boolean ignoreTrailing) {
+		this.boundary = boundary;
+		this.ignoreTrailing = ignoreTrailing;
+	}
+	
+	/** @return number of distinct keys */
+	public int size() {
+		return root.distinct;
+	}
+	
+	/** @return number of added keys */
+	public int getTotal() {
+		return root.total;
+	}
+	
+	/**
+	 * increments the count of key
+	 * 
+	 * @param key
+	 */
+	public void add(String key) {
+		Node t = insert(root, key, 0);
+		t.count = inc(t.count);
+	}
+	
+	/**
+	 * increments the count of key, which stands for a value with the given {@link HyperLogLog#hash(String)}
+	 * (if the value has been cut to key, the distinct values of key are counted by a HyperLogLog counter)
+	 * 
+	 * @param key
+	 * @param hash
+	 */
+	public void add(String key, long hash) {
+		Node t = insert(root, key, 0);
+		if (t.counter == null && hash != HyperLogLog.hash(key)) {
+			t.counter = new HyperLogLog(COUNTER_PRECISION);
+			if (t.count > 0)
+				t.counter.offer(HyperLogLog.hash(key));
+			estimated = true;
+		}
+		if (t.counter != null)
+			t.counter.offer(hash);
+		t.count = inc(t.count);
+	}
+	
+	/**
+	 * @param value
+	 * @param level
+	 * @return value cut at its boundary of the given level, value if it has none
+	 */
+	public String cut(String value, int level) {
+		int l = 0;
+		for (int pos=0; pos<value.length(); pos++) {
+			if (boundary.isBoundary(value, pos)) {
+				if (l == level)
+					return value.substring(0, pos);
+				l++;
+			}
+		}
+		return value;
+	}
+	
+	/** @return terminal node of key (created if necessary), totals and distinct values on the path are updated but not its count */
+	private Node insert(Node node, String key, int pos) {
+		node.total = inc(node.total);
+		Node terminal;
+		if (pos == key.length())
+			terminal = node;
+		else {
+			int idx = indexOf(node.children, key.charAt(pos));
+			Node child;
+			int common;
+			if (idx < 0) {
+				char[] edge = new char[key.length() - pos];
+				key.getChars(pos, key.length(), edge, 0);
+				child = new Node(edge);
+				node.children = insertAt(node.children, -idx-1, child);
+				common = edge.length;
+			} else {
+				child = node.children[idx];
+				common = 0;
+				while (common < child.edge.length && pos + common < key.length() && child.edge[common] == key.charAt(pos + common))
+					common++;
+				if (common < child.edge.length) {
+					child = split(child, common);
+					node.children[idx] = child;
+				}
+			}
+			terminal = insert(child, key, pos + common);
+		}
+		if (terminal.count == 0) // new key
+			node.distinct++;
+		return terminal;
+	}
+	
+	/** @return new node for the first length characters of the edge of node, having node as only child */
+	private static Node split(Node node, int length) {
+		Node upper = new Node(Arrays.copyOf(node.edge, length));
+		node.edge = Arrays.copyOfRange(node.edge, length, node.edge.length);
+		upper.children = new Node[] { node };
+		upper.total = node.total;
+		upper.distinct = node.distinct;
+		return upper;
+	}
+	
+	/** @return index of the child starting with c or (-(insertion point) - 1) */
+	private static int indexOf(Node[] children, char c) {
+		int low = 0, high = children.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char m = children[mid].edge[0];
+			if (m < c)
+				low = mid + 1;
+			else if (m > c)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+	
+	private static Node[] insertAt(Node[] children, int idx, Node child) {
+		Node[] result = new Node[children.length + 1];
+		System.arraycopy(children, 0, result, 0, idx);
+		result[idx] = child;
+		System.arraycopy(children, idx, result, idx + 1, children.length - idx);
+		return result;
+	}
+	
+	/**
+	 * @return the number of bins for each level 0..n, where n is the deepest level (no cuts, one bin per distinct key,
+	 * trailing boundaries are only ignored if the trie has been truncated), the number of bins does not decrease with the level
+	 */
+	public int[] getLevelSizes() {
+		LevelSizes sizes = new LevelSizes();
+		countLevels(root, new StringBuilder(), 0, false, ignoreTrailing, sizes);
+		
+		int[] result = new int[sizes.max + 1];
+		int uncut = 0;
+		for (int k=0; k<result.length; k++) {
+			uncut += sizes.uncut[k];
+			result[k] = sizes.cuts[k] + uncut;
+		}
+		if (ignoreTrailing && !estimated)
+			result[result.length - 1] = size(); // keys ending with a boundary are kept apart at the deepest level
+		return result;
+	}
+	
+	/** boundaries and labels without cuts per level, collected by {@link PrefixTrie#countLevels} */
+	private static class LevelSizes {
+		/** number of boundaries of level k */
+		int[] cuts = new int[16];
+		/** number of labels which are not cut at levels >= k */
+		int[] uncut = new int[16];
+		int max = 0;
+		
+		void cut(int level) {
+			cuts = ensure(cuts, level);
+			cuts[level]++;
+		}
+		
+		void uncut(int level) {
+			uncut = ensure(uncut, level);
+			uncut[level]++;
+			if (level > max)
+				max = level;
+		}
+		
+		private static int[] ensure(int[] a, int level) {
+			return (level < a.length) ? a : Arrays.copyOf(a, Math.max(2 * a.length, level + 1));
+		}
+	}
+	
+	private void countLevels(Node node, StringBuilder path, int level, boolean trailingNode, boolean ignore, LevelSizes sizes) {
+		int len = path.length();
+		boolean cut = false, trailing = false;
+		for (Node child : node.children) {
+			path.append(child.edge[0]);
+			if (boundary.isBoundary(path, len)) {
+				cut = true;
+				trailing |= isTrailing(child, 0, ignore);
+			}
+			path.setLength(len);
+		}
+		if (cut)
+			sizes.cut(level);
+		if ((node.count > 0 && !trailingNode) || trailing)
+			sizes.uncut(cut ? level + 1 : level);
+		
+		for (Node child : node.children) {
+			int l = level;
+			boolean trailingChild = false;
+			for (int i=0; i<child.edge.length; i++) {
+				path.append(child.edge[i]);
+				if (boundary.isBoundary(path, len + i)) {
+					trailingChild = isTrailing(child, i, ignore);
+					if (i > 0) { // boundary inside of the edge
+						sizes.cut(l);
+						if (trailingChild)
+							sizes.uncut(l + 1);
+					}
+					l++;
+				}
+			}
+			countLevels(child, path, l, trailingChild, ignore, sizes);
+			path.setLength(len);
+		}
+	}
+	
+	/** @return true if the boundary before character i of the edge of child is a trailing one to be ignored */
+	private static boolean isTrailing(Node child, int i, boolean ignore) {
+		return ignore && i == child.edge.length - 1 && child.count > 0;
+	}
+	
+	/**
+	 * @param level
+	 * @return bins of the given level in lexicographical order of their labels, levels deeper than
+	 * the deepest one of {@link #getLevelSizes()} yield one bin per key
+	 */
+	public List<Bin> getBins(int level) {
+		boolean ignore = ignoreTrailing && (estimated || level < getLevelSizes().length - 1);
+		List<Bin> bins = new ArrayList<Bin>();
+		collectBins(root, new StringBuilder(), 0, level, false, ignore, bins);
+		return bins;
+	}
+	
+	private void collectBins(Node node, StringBuilder path, int l, int level, boolean trailingNode, boolean ignore, List<Bin> bins) {
+		int len = path.length();
+		boolean cut = false;
+		Node trailing = null;
+		for (Node child : node.children) {
+			path.append(child.edge[0]);
+			if (boundary.isBoundary(path, len)) {
+				cut = true;
+				if (isTrailing(child, 0, ignore))
+					trailing = child;
+			}
+			path.setLength(len);
+		}
+		
+		int quantity = 0, distinct = 0;
+		if (node.count > 0 && !trailingNode) {
+			quantity = node.count;
+			distinct = getDistinct(node);
+		}
+		if (cut && l == level) { // all values below boundaries fall into the bin of this prefix
+			for (Node child : node.children) {
+				path.append(child.edge[0]);
+				if (boundary.isBoundary(path, len)) {
+					quantity = add(quantity, child.total);
+					distinct = add(distinct, getSubtreeDistinct(child));
+				}
+				path.setLength(len);
+			}
+		} else if (trailing != null) {
+			quantity = add(quantity, trailing.count);
+			distinct = add(distinct, getDistinct(trailing));
+		}
+		if (quantity > 0)
+			bins.add(new Bin(path.toString(), quantity, distinct));
+		
+		for (Node child : node.children) {
+			int l2 = l;
+			boolean contained = false, trailingChild = false;
+			for (int i=0; i<child.edge.length; i++) {
+				path.append(child.edge[i]);
+				if (boundary.isBoundary(path, len + i)) {
+					if (l2 == level) {
+						if (i > 0) // boundary inside of the edge, otherwise already contained in the bin of this node
+							bins.add(new Bin(path.substring(0, len + i), child.total, getSubtreeDistinct(child)));
+						contained = true;
+						break;
+					}
+					trailingChild = isTrailing(child, i, ignore);
+					if (trailingChild && i > 0)
+						bins.add(new Bin(path.substring(0, len + i), child.count, getDistinct(child)));
+					l2++;
+				}
+			}
+			if (!contained)
+				collectBins(child, path, l2, level, trailingChild, ignore, bins);
+			path.setLength(len);
+		}
+	}
+	
+	/** @return distinct values of the prefix of node */
+	private static int getDistinct(Node node) {
+		if (node.counter == null)
+			return 1;
+		return (int) Math.max(1, Math.min(node.counter.estimate(), node.count));
+	}
+	
+	/** @return distinct values of the subtree of node, estimated if counters exist */
+	private int getSubtreeDistinct(Node node) {
+		if (!estimated)
+			return node.distinct;
+		
+		int distinct = (node.count > 0) ? getDistinct(node) : 0;
+		for (Node child : node.children)
+			distinct = add(distinct, getSubtreeDistinct(child));
+		return distinct;
+	}
+	
+	/**
+	 * cuts all keys at their boundary of the given level, the cut prefixes count the distinct values
+	 * below by a {@link HyperLogLog} counter, the number of keys becomes the size of the level
+	 * 
+	 * @param level
+	 */
+	public void truncate(int level) {
+		truncate(root, new StringBuilder(), 0, level);
+		estimated = true;
+	}
+	
+	private void truncate(Node node, StringBuilder path, int l, int level) {
+		int len = path.length();
+		
+		if (l == level) {
+			List<Node> kept = new ArrayList<Node>(node.children.length);
+			HyperLogLog counter = null;
+			for (Node child : node.children) {
+				path.append(child.edge[0]);
+				boolean isCut = boundary.isBoundary(path, len);
+				path.setLength(len);
+				if (!isCut) {
+					kept.add(child);
+					continue;
+				}
+				
+				if (counter == null) {
+					counter = new HyperLogLog(COUNTER_PRECISION);
+					collapse(node, path, counter, false);
+				}
+				path.append(child.edge);
+				collapse(child, path, counter, true);
+				path.setLength(len);
+				node.count = add(node.count, child.total);
+			}
+			if (counter != null) {
+				node.counter = counter;
+				node.children = kept.toArray(new Node[kept.size()]);
+			}
+		}
+		
+		for (int j=0; j<node.children.length; j++) {
+			Node child = node.children[j];
+			int l2 = l;
+			boolean cut = false;
+			for (int i=0; i<child.edge.length; i++) {
+				path.append(child.edge[i]);
+				if (boundary.isBoundary(path, len + i)) {
+					if (l2 == level && i > 0) { // boundary inside of the edge: replace child by its prefix up to the boundary
+						Node prefix = new Node(Arrays.copyOf(child.edge, i));
+						prefix.counter = new HyperLogLog(COUNTER_PRECISION);
+						path.append(child.edge, i + 1, child.edge.length - i - 1);
+						collapse(child, path, prefix.counter, true);
+						prefix.count = prefix.total = child.total;
+						prefix.distinct = 1;
+						node.children[j] = prefix;
+						cut = true;
+						break;
+					}
+					l2++;
+				}
+			}
+			if (!cut)
+				truncate(child, path, l2, level);
+			path.setLength(len);
+		}
+		
+		node.distinct = (node.count > 0) ? 1 : 0;
+		for (Node child : node.children)
+			node.distinct += child.distinct;
+	}
+	
+	/** offers the distinct values of node (and of its subtree if deep is true) to counter */
+	private static void collapse(Node node, StringBuilder path, HyperLogLog counter, boolean deep) {
+		if (node.counter != null)
+			counter.merge(node.counter);
+		else if (node.count > 0)
+			counter.offer(HyperLogLog.hash(path.toString()));
+		
+		if (deep) {
+			int len = path.length();
+			for (Node child : node.children) {
+				path.append(child.edge);
+				collapse(child, path, counter, true);
+				path.setLength(len);
+			}
+		}
+	}
+	
+	private static int inc(int i) {
+		return (i < Integer.MAX_VALUE) ? i + 1 : i;
+	}
+	
+	private static int add(int a, int b) {
+		long sum = (long) a + b;
+		return (sum < Integer.MAX_VALUE) ? (int) sum : Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mergeable quantile sketch over long keys (KLL sketch, Karnin, Lang and Liberty 2016).
+ * 
+ * Values are kept in a hierarchy of compactors, level h holding items of weight 2^h. If a
+ * level exceeds its capacity, it is sorted and every second item (random offset) is promoted
+ * to the next level. The capacities decrease geometrically by 2/3 from the top level, which
+ * has capacity k, hence the sketch retains less than 3k + 2 * levels items independent of
+ * the number of values. The total weight of the retained items always equals the number of
+ * values, and the normalized error of rank and bin count estimates is approx. {@link #getRankError()}
+ * (e.g. 1.65% for k = 200) with 99% confidence. Min and max are kept exactly.
+ * 
+ * Ordered domains other than long (e.g. double) must be mapped to keys preserving the order,
+ * see {@link #toKey(double)}.
+ * 
+ * @author dorgon
+ *
+ */
+public class QuantileSketch {
+	
+	/** default k, i.e. capacity of the top compactor */
+	public static final int DEFAULT_K = 200;
+	
+	/** minimum capacity of a compactor */
+	private static final int MIN_CAPACITY = 8;
+	
+	/** seed for the compaction coin flips, makes results reproducible */
+	private static final long SEED = 0x5DEECE66DL;
+	
+	private final int k;
+	
+	/** levels[h] holds items of weight 2^h, only the first sizes[h] are used */
+	private long[][] levels;
+	private int[] sizes;
+	
+	private long n = 0L;
+	private long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+	
+	private final Random random = new Random(SEED);
+	
+	/**
+	 * @param k capacity of the top compactor, higher values decrease the error
+	 */
+	public QuantileSketch(int k) {
+		if (k < MIN_CAPACITY)
+			throw new IllegalArgumentException("Sketch size k must be at least " + MIN_CAPACITY + ", got " + k + ".");
+		this.k = k;
+		this.levels = new long[][] { new long[k] };
+		this.sizes = new int[1];
+	}
+	
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+	
+	public void update(long key) {
+		append(0, key);
+		n++;
+		if (key < min) min = key;
+		if (key > max) max = key;
+		if (sizes[0] >= capacity(0))
+			compress();
+	}
+	
+	/**
+	 * merges all values of other into this sketch, other is not modified
+	 * 
+	 * @param other
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.n == 0)
+			return;
+		
+		while (levels.length < other.levels.length)
+			addLevel();
+		for (int h=0; h<other.levels.length; h++)
+			for (int i=0; i<other.sizes[h]; i++)
+				append(h, other.levels[h][i]);
+		n += other.n;
+		if (other.min < min) min = other.min;
+		if (other.max > max) max = other.max;
+		compress();
+	}
+	
+	/** @return number of values */
+	public long getN() {
+		return n;
+	}
+	
+	/** @return exact minimum, Long.MAX_VALUE if empty */
+	public long getMin() {
+		return min;
+	}
+	
+	/** @return exact maximum, Long.MIN_VALUE if empty */
+	public long getMax() {
+		return max;
+	}
+	
+	/** @return number of retained items */
+	public int getRetainedItems() {
+		int retained = 0;
+		for (int s : sizes)
+			retained += s;
+		return retained;
+	}
+	
+	/** @return normalized rank error for k (99% confidence), valid for bin counts, i.e. differences of ranks */
+	public double getRankError() {
+		return 2.446 / Math.pow(k, 0.9433);
+	}
+	
+	/**
+	 * @param key
+	 * @return estimated number of values less than key
+	 */
+	public long getRank(long key) {
+		if (key <= min) return 0L;
+		if (key > max) return n;
+		
+		long rank = 0L;
+		for (int h=0; h<levels.length; h++) {
+			long[] items = levels[h];
+			int count = 0;
+			for (int i=0; i<sizes[h]; i++)
+				if (items[i] < key)
+					count++;
+			rank += ((long) count) << h;
+		}
+		return rank;
+	}
+	
+	/**
+	 * @param fraction between 0 and 1
+	 * @return estimated key with rank fraction * n
+	 */
+	public long getQuantile(double fraction) {
+		if (n == 0)
+			throw new IllegalStateException("Sketch is empty.");
+		if (fraction <= 0) return min;
+		if (fraction >= 1) return max;
+		
+		List<long[]> weighted = new ArrayList<long[]>(getRetainedItems());
+		for (int h=0; h<levels.length; h++)
+			for (int i=0; i<sizes[h]; i++)
+				weighted.add(new long[] { levels[h][i], 1L << h });
+		Collections.sort(weighted, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+			}
+		});
+		
+		double target = fraction * n;
+		long cumulative = 0L;
+		for (long[] item : weighted) {
+			cumulative += item[1];
+			if (cumulative >= target)
+				return item[0];
+		}
+		return max;
+	}
+	
+	/**
+	 * estimates the number of values in each bin, the bins are separated by binStarts
+	 * 
+	 * @param binStarts ascending keys, binStarts[i] is the smallest key of bin i+1
+	 * @return binStarts.length + 1 counts, summing up to {@link #getN()}
+	 */
+	public long[] getBinCounts(long[] binStarts) {
+		long[] counts = new long[binStarts.length + 1];
+		long below = 0L;
+		for (int i=0; i<binStarts.length; i++) {
+			long rank = Math.max(below, getRank(binStarts[i]));
+			counts[i] = rank - below;
+			below = rank;
+		}
+		counts[binStarts.length] = n - below;
+		return counts;
+	}
+	
+	/**
+	 * maps a double to a long key with the same order (-0.0 is ordered before 0.0)
+	 * 
+	 * @param d
+	 * @return key
+	 */
+	public static long toKey(double d) {
+		long bits = Double.doubleToLongBits(d);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+	
+	/**
+	 * inverse of {@link #toKey(double)}
+	 * 
+	 * @param key
+	 * @return double value
+	 */
+	public static double toDouble(long key) {
+		return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+	}
+	
+	private int capacity(int h) {
+		int depth = levels.length - 1 - h;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2 / 3.0, depth)));
+	}
+	
+	private void append(int h, long key) {
+		if (sizes[h] == levels[h].length)
+			levels[h] = Arrays.copyOf(levels[h], Math.max(MIN_CAPACITY, levels[h].length * 2));
+		levels[h][sizes[h]++] = key;
+	}
+	
+	private void addLevel() {
+		levels = Arrays.copyOf(levels, levels.length + 1);
+		levels[levels.length - 1] = new long[MIN_CAPACITY];
+		sizes = Arrays.copyOf(sizes, sizes.length + 1);
+	}
+	
+	/** compacts all levels exceeding their capacity, bottom-up */
+	private void compress() {
+		for (int h=0; h<levels.length; h++) {
+			if (sizes[h] >= capacity(h)) {
+				if (h + 1 == levels.length)
+					addLevel();
+				compact(h);
+			}
+		}
+	}
+	
+	/** sorts level h and promotes every second item to level h+1, keeps one item if the size is odd */
+	private void compact(int h) {
+		long[] items = levels[h];
+		int size = sizes[h];
+		Arrays.sort(items, 0, size);
+		
+		int keep = size & 1;
+		for (int i=keep + (random.nextBoolean() ? 1 : 0); i<size; i+=2)
+			append(h + 1, items[i]);
+		sizes[h] = keep;
+	}
+}
@@ -96,9 +96,7 @@ public class SimpleStringHistogramBuilder extends AbstractHistogramBuilder<Strin
 		HistogramCodec.writeInt(stream, h.getTotalValues());
 		HistogramCodec.writeIntArray(stream, h.getValueLengths());
 		
-		String[] labels = h.getLabels();
-		for (int i=0; i<labels.length; i++)
-			HistogramCodec.writeString(stream, labels[i]);
+		HistogramCodec.writeLabels(stream, h.getLabels());
 	}
 
 	/* (non-Javadoc)
@@ -110,9 +108,7 @@ public class SimpleStringHistogramBuilder extends AbstractHistogramBuilder<Strin
 		int totalValues = HistogramCodec.readInt(stream);
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 		
-		String[] labels = new String[prefSize];		
-		for (int i=0; i<prefSize; i++)
-			labels[i] = HistogramCodec.readString(stream);
+		String[] labels = HistogramCodec.readLabels(stream, prefSize);
 		
 		return new SimpleStringHistogram(typeUri, bins, totalValues, bins.length, valueLengths, labels, this.getClass());
 	}
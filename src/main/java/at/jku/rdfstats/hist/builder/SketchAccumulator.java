@@ -0,0 +1,107 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.hist.builder;
+
+import at.jku.rdfstats.RDFStatsConfiguration;
+
+/**
+ * Bounded-memory value accumulator used by the sketch histogram builders instead of a map
+ * holding all values, a {@link QuantileSketch} for the bin counts. Distinct values are estimated
+ * by the builders' {@link HyperLogLog} counter.
+ * 
+ * @author dorgon
+ *
+ */
+class SketchAccumulator {
+	private final QuantileSketch sketch;
+	
+	SketchAccumulator(RDFStatsConfiguration conf) {
+		sketch = new QuantileSketch((conf != null) ? conf.getSketchSize() : QuantileSketch.DEFAULT_K);
+	}
+	
+	void add(long key) {
+		sketch.update(key);
+	}
+	
+	long getMin() {
+		return sketch.getMin();
+	}
+	
+	long getMax() {
+		return sketch.getMax();
+	}
+	
+	int getTotal() {
+		return (int) Math.min(sketch.getN(), Integer.MAX_VALUE);
+	}
+	
+	/** @return lower bound of distinct values: 2 if min != max, 1 otherwise */
+	int getMinDistinct() {
+		return (sketch.getMin() != sketch.getMax()) ? 2 : 1;
+	}
+	
+	/** @return number of bins as calculated by the exact builders */
+	static int getNumBins(int prefSize, boolean positiveRange, int distinct) {
+		int numBins = (positiveRange) ? prefSize : 1;
+		return (distinct < numBins) ? distinct : numBins;
+	}
+	
+	/**
+	 * @param binStarts smallest key of the bins 1 .. numBins-1
+	 * @return estimated bin counts
+	 */
+	int[] getBins(long[] binStarts) {
+		long[] counts = sketch.getBinCounts(binStarts);
+		int[] data = new int[counts.length];
+		for (int i=0; i<counts.length; i++)
+			data[i] = (int) Math.min(counts[i], Integer.MAX_VALUE);
+		return data;
+	}
+	
+	/**
+	 * bin starts for integral domains, i.e. smallest v with floor((v - min) / binWidth) >= i
+	 * 
+	 * @param min
+	 * @param binWidth
+	 * @param numBins
+	 * @return smallest key of the bins 1 .. numBins-1
+	 */
+	static long[] getIntegralBinStarts(long min, double binWidth, int numBins) {
+		long[] starts = new long[numBins - 1];
+		for (int i=1; i<numBins; i++) {
+			long v = min + (long) Math.ceil(i * binWidth);
+			while ((v - 1 - min) / binWidth >= i) v--;
+			while ((v - min) / binWidth < i) v++;
+			starts[i-1] = v;
+		}
+		return starts;
+	}
+	
+	/**
+	 * bin starts for floating point domains mapped by {@link QuantileSketch#toKey(double)}
+	 * 
+	 * @param min
+	 * @param binWidth
+	 * @param numBins
+	 * @return smallest key of the bins 1 .. numBins-1
+	 */
+	static long[] getFloatingBinStarts(double min, double binWidth, int numBins) {
+		long[] starts = new long[numBins - 1];
+		for (int i=1; i<numBins; i++)
+			starts[i-1] = QuantileSketch.toKey(min + i * binWidth);
+		return starts;
+	}
+}
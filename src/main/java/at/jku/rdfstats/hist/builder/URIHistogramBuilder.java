@@ -17,10 +17,8 @@ package at.jku.rdfstats.hist.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Map;
-import java.util.TreeMap;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +28,8 @@ import com.hp.hpl.jena.graph.Node;
 import at.jku.rdfstats.ParseException;
 import at.jku.rdfstats.RDFStatsConfiguration;
 import at.jku.rdfstats.hist.Histogram;
+import at.jku.rdfstats.hist.OrderedStringHistogram;
+import at.jku.rdfstats.hist.OrderedStringHistogramView;
 import at.jku.rdfstats.hist.URIHistogram;
 
 /**
@@ -42,6 +42,22 @@ public class URIHistogramBuilder extends AbstractHistogramBuilder<String> {
 	public static final String SEPARATOR = "/";
 	public static final boolean KEEP_HTTP_DOMAINS = true;
 	public static final boolean IGNORE_TRAILING_SLASH = true;
+
+	/** URI parts are separated by SEPARATOR, the first one after the domain of http URIs if KEEP_HTTP_DOMAINS is set */
+	public static final PrefixTrie.Boundary SEPARATORS = new PrefixTrie.Boundary() {
+		private static final String HTTP = "http://";
+		
+		public boolean isBoundary(CharSequence s, int pos) {
+			if (s.charAt(pos) != SEPARATOR.charAt(0))
+				return false;
+			if (!KEEP_HTTP_DOMAINS || pos >= HTTP.length())
+				return true;
+			for (int i=0; i<pos; i++)
+				if (s.charAt(i) != HTTP.charAt(i))
+					return true;
+			return HTTP.charAt(pos) != s.charAt(pos); // part of "http://"
+		}
+	};
 	
 	/** lexicographically lowest value found */
 	protected String min;
@@ -49,23 +65,72 @@ public class URIHistogramBuilder extends AbstractHistogramBuilder<String> {
 	/** lexicographically highest value found */
 	protected String max;
 	
-	/** distinct values map, filled during compression */
-	protected Map<String, Integer> distinctBinValues;
+	/** prefix table (basis for labeled histogram bins), levels are the number of URI parts */
+	protected PrefixTrie prefixes = new PrefixTrie(SEPARATORS, IGNORE_TRAILING_SLASH);
+	
+	/** size of the prefix table triggering the next compression while adding values if distinct values are estimated */
+	protected int compressAt;
+	
+	/** level new values are cut at after the prefix table has been compressed while adding values, -1 if not compressed */
+	protected int compressedLevel = -1;
 
 	public URIHistogramBuilder(RDFStatsConfiguration conf, String typeUri, int prefSize) {
 		super(conf, typeUri, prefSize);
 		
-		// values is a prefix table (basis for labeled histogram bins)
-		// first use hashing because we probably need to compress the table multiple times (faster) 
-		// finally build ordered tree map in generateHistogram()
-		values = new Hashtable<String, Integer>();
+		if (approximate()) {
+			estimateDistinctValues();
+			compressAt = prefSize * OrderedStringHistogramBuilder.TABLE_FACTOR;
+		}
 	}
 
 	@Override
 	public void addValue(String uri, int valueLength) {
 		if (min == null || uri.compareTo(min) < 0) min = uri;
 		if (max == null || uri.compareTo(max) > 0) max = uri;
-		super.addValue(uri, valueLength);
+		
+		if (distinctCounter != null)
+			addEstimatedValue(uri, valueLength);
+		else {
+			prefixes.add(uri);
+			addValueLength(valueLength);
+		}
+	}
+	
+	/**
+	 * adds uri to the bin of its prefix and to the distinct value counter instead of keeping it,
+	 * the prefix table is compressed if it exceeds compressAt, hence memory use is bounded
+	 * 
+	 * @param uri
+	 * @param valueLength
+	 */
+	protected void addEstimatedValue(String uri, int valueLength) {
+		long hash = HyperLogLog.hash(uri);
+		distinctCounter.offer(hash);
+		
+		prefixes.add((compressedLevel >= 0) ? prefixes.cut(uri, compressedLevel) : uri, hash);
+		addValueLength(valueLength);
+		
+		if (prefixes.size() > compressAt) {
+			if (log.isDebugEnabled())
+				log.debug("Compressing URIHistogram (distinct values: " + prefixes.size() + ", target size: " + prefSize + " bins)...");
+			compressedLevel = getCompressedLevel();
+			prefixes.truncate(compressedLevel);
+			compressAt = Math.max(compressAt, 2 * prefixes.size()); // table may stay big if all prefixes are at minimum
+		}
+	}
+	
+	/**
+	 * URI parts are skipped until the prefix table is not bigger than prefSize, several prefixes fall
+	 * into equal bins as a result, at least for each domain of http URIs we keep one bin
+	 * 
+	 * @return the number of URI parts to keep
+	 */
+	protected int getCompressedLevel() {
+		int[] sizes = prefixes.getLevelSizes();
+		int level = sizes.length - 1;
+		while (level > 0 && sizes[level] > prefSize)
+			level--;
+		return level;
 	}
 	
 	public void addNodeValue(Node val) throws HistogramBuilderException {
@@ -79,91 +144,19 @@ public class URIHistogramBuilder extends AbstractHistogramBuilder<String> {
 		}	
 	}
 
-	protected void compressPrefixTable() {
-		if (log.isDebugEnabled())
-			log.debug("Compressing URIHistogram (distinct values: " + values.size() + ", target size: " + prefSize + " bins)...");
-		
-		Map<String, Integer> prevTable = values;
-		Map<String, Integer> newTable;
-		Map<String, Integer> newDistinct;
-
-		/** skip this number of URI parts separated with SEPARATOR */
-		int currentSkip = 0; // init
-
-		boolean cancelled;		
-		int atMinimum; // bins with minimum prefix label
-		
-		do {
-			cancelled = false;
-			newTable = new Hashtable<String, Integer>();
-			newDistinct = new Hashtable<String, Integer>();
-			currentSkip++; // try to skip one more each time
-			String newPrefix;
-			
-			atMinimum = 0;
-			
-			for (String prevPrefix : prevTable.keySet()) {
-				// start at (end) and search to left until (begin) for SEPARATOR (currentSkip) times
-				int begin = (KEEP_HTTP_DOMAINS && prevPrefix.startsWith("http://")) ? 7 : 0;
-				int end = (prevPrefix.endsWith("/")) ? prevPrefix.length()-2 : prevPrefix.length()-1;
-				
-				for (int i=0; i<currentSkip; i++) {
-					int sep = prevPrefix.lastIndexOf(SEPARATOR, end);
-					if (sep < begin) { // not before begin? or -1 (not found)
-						break;
-					} else if (sep > 1 && prevPrefix.substring(sep, sep) == SEPARATOR)
-						sep--; // if char before is also a SEPARATOR, skip again
-
-					end = sep-1;
-				}
-				
-				newPrefix = prevPrefix.substring(0, end+1);
-				
-				Integer l = newTable.get(newPrefix);
-				if (l == null) {
-					if (newTable.size() < prefSize || atMinimum >= newTable.size()) { // if new table < prefSize || all processed are at minimum prefix size
-						newTable.put(newPrefix, prevTable.get(prevPrefix));
-						newDistinct.put(newPrefix, distinctBinValues.get(prevPrefix));
-						
-						// count number of bins with minimum prefix label
-						if (newPrefix.lastIndexOf(SEPARATOR) < begin)
-							atMinimum++;
-					} else {
-						cancelled = true;
-						break; // exceeding prefSize, break and continue with next compression step
-					}
-				} else { // bin already exists
-					newTable.put(newPrefix, prevTable.get(prevPrefix) + l);
-					newDistinct.put(newPrefix, newDistinct.get(newPrefix) + distinctBinValues.get(prevPrefix));
-				}
-			}
-			
-			if (!cancelled) {
-				prevTable = newTable;
-				distinctBinValues = newDistinct;
-			}
-			// continue compression while size is bigger than prefSize
-			// at least for each first character we want one bin, set prefSize to maximum
-		} while (prevTable.size() > prefSize && atMinimum < newTable.size()); // as long as table is too big and new table's size < bins with minimum labels
-
-		values = newTable;
-	}
-	
 	/* (non-Javadoc)
 	 * @see at.jku.rdfstats.hist.builder.HistogramBuilder#getHistogram()
 	 */
 	@Override
 	public URIHistogram generateHistogram() {
-		distinctBinValues = new HashMap<String, Integer>();
-		for (String prefix : values.keySet())
-			distinctBinValues.put(prefix, 1);
-
-		if (values.size() > prefSize)
-			compressPrefixTable();
-		
-		TreeMap<String, Integer> orderedBins = new TreeMap<String, Integer>();
-		orderedBins.putAll(values);
-		values = null;
+		int level = Integer.MAX_VALUE;
+		if (prefixes.size() > prefSize) {
+			if (log.isDebugEnabled())
+				log.debug("Compressing URIHistogram (distinct values: " + prefixes.size() + ", target size: " + prefSize + " bins)...");
+			level = getCompressedLevel();
+		}
+		List<PrefixTrie.Bin> orderedBins = prefixes.getBins(level);
+		prefixes = null;
 		
 		int distinctTotal = 0;
 		String[] labels = new String[orderedBins.size()];
@@ -171,16 +164,18 @@ public class URIHistogramBuilder extends AbstractHistogramBuilder<String> {
 		int[] distinct = new int[labels.length];
 
 		int i = 0;
-		for (String label : orderedBins.keySet()) {
-			labels[i] = label;
-			bins[i] = orderedBins.get(label);
-			distinct[i] = distinctBinValues.get(label);
+		for (PrefixTrie.Bin bin : orderedBins) {
+			labels[i] = bin.getLabel();
+			bins[i] = bin.getQuantity();
+			distinct[i] = bin.getDistinct();
 			distinctTotal += distinct[i];
 			i++;
 		}
 		
 		int total = getTotalValues(bins);
 		int[] lengths = getValueLengths(total);
+		if (distinctCounter != null)
+			distinctTotal = getEstimatedDistinctValues(total, labels.length);
 		
 		return new URIHistogram(typeUri,
 				bins,
@@ -193,11 +188,16 @@ public class URIHistogramBuilder extends AbstractHistogramBuilder<String> {
 				this.getClass());
 	}
 	
+	@Override
+	protected float getDistinctValuesError() {
+		return (distinctCounter != null) ? (float) HyperLogLog.getStandardError(PrefixTrie.COUNTER_PRECISION) : 0f;
+	}
+	
 	/* (non-Javadoc)
 	 * @see at.jku.rdfstats.hist.builder.HistogramBuilder#writeData(java.io.ByteArrayOutputStream, at.jku.rdfstats.hist.Histogram)
 	 */
 	public void writeData(ByteArrayOutputStream stream, Histogram<String> hist) {
-		URIHistogram h = (URIHistogram) hist;
+		OrderedStringHistogram h = (OrderedStringHistogram) hist; // also views
 		HistogramCodec.writeIntArray(stream, h.getBinData());
 		HistogramCodec.writeInt(stream, h.getTotalValues());
 		HistogramCodec.writeInt(stream, h.getDistinctValues());
@@ -205,9 +205,7 @@ public class URIHistogramBuilder extends AbstractHistogramBuilder<String> {
 		HistogramCodec.writeString(stream, h.getMax());
 		HistogramCodec.writeIntArray(stream, h.getValueLengths());
 		
-		String[] labels = h.getLabels();
-		for (int i=0; i<labels.length; i++)
-			HistogramCodec.writeString(stream, labels[i]);
+		HistogramCodec.writeLabels(stream, h.getLabels());
 		HistogramCodec.writeIntArray(stream, h.getDistinctBinValues());
 	}
 	
@@ -222,11 +220,17 @@ public class URIHistogramBuilder extends AbstractHistogramBuilder<String> {
 		String max = HistogramCodec.readString(stream);
 		int[] valueLengths = HistogramCodec.readIntArray(stream, 3);
 				
-		String[] labels = new String[prefSize];		
-		for (int i=0; i<prefSize; i++)
-			labels[i] = HistogramCodec.readString(stream);
+		String[] labels = HistogramCodec.readLabels(stream, prefSize);
 		int[] distinctBinValues = HistogramCodec.readIntArray(stream, prefSize);
 		
 		return new URIHistogram(typeUri, bins, totalValues, distinctValues, min, max, valueLengths, labels, distinctBinValues, this.getClass());
 	}
+	
+	/* (non-Javadoc)
+	 * @see at.jku.rdfstats.hist.builder.AbstractHistogramBuilder#readView(java.nio.ByteBuffer, int)
+	 */
+	@Override
+	public OrderedStringHistogramView readView(ByteBuffer buffer, int version) {
+		return OrderedStringHistogramBuilder.readView(buffer, version, typeUri, prefSize, this.getClass());
+	}
 }
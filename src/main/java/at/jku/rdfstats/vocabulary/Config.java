@@ -42,6 +42,29 @@ public class Config {
 
     /* Vocabulary properties */
 
+    /** <p>Compute histograms of SPARQL endpoints with SPARQL 1.1 aggregate queries where 
+     *  possible instead of retrieving all values, default is false</p>
+     */
+    public static final OntProperty aggregatePushdown = m_model.createOntProperty( "http://purl.org/rdfstats/config#aggregatePushdown" );
+    
+    /** <p>Approximate histograms of this datatype by bounded-memory sketches instead 
+     *  of keeping all values: numbers and dates (xsd:int, xsd:integer, xsd:long, xsd:float, 
+     *  xsd:double, xsd:dateTime, xsd:date, xsd:time) by quantile sketches, strings, URIs 
+     *  (rdfs:Resource) and blank nodes by bounded prefix tables, distinct values are estimated 
+     *  by HyperLogLog counters, may be used multiple times</p>
+     */
+    public static final OntProperty approximateDatatype = m_model.createOntProperty( "http://purl.org/rdfstats/config#approximateDatatype" );
+    
+    /** <p>Maximum number of RDF sources (endpoints and documents) processed concurrently, 
+     *  default is 1 (sequential)</p>
+     */
+    public static final OntProperty concurrentSources = m_model.createOntProperty( "http://purl.org/rdfstats/config#concurrentSources" );
+    
+    /** <p>Maximum number of RDF sources of the same host processed concurrently, default is 
+     *  1 (local documents are not limited)</p>
+     */
+    public static final OntProperty concurrentSourcesPerHost = m_model.createOntProperty( "http://purl.org/rdfstats/config#concurrentSourcesPerHost" );
+    
     /** <p>Time zone to use for dates which have no time zone information (a string value 
      *  as defined in http://java.sun.com/j2se/1.5.0/docs/api/java/util/TimeZone.html).</p>
      */
@@ -56,6 +79,28 @@ public class Config {
     /** <p>Preferred number of absolute bins</p> */
     public static final OntProperty histogramSize = m_model.createOntProperty( "http://purl.org/rdfstats/config#histogramSize" );
     
+    /** <p>Size k of the join key sketches (k minimum values of the subject and object 
+     *  hashes per property) used for chain join estimation, 0 disables them</p>
+     */
+    public static final OntProperty joinKeySketchSize = m_model.createOntProperty( "http://purl.org/rdfstats/config#joinKeySketchSize" );
+    
+    /** <p>Duration in seconds of the update lease a generator writes into the statistics 
+     *  model, so several processes can share one statistics store (e.g. TDB); 0 (default)
+     *  disables leases.</p>
+     */
+    public static final OntProperty leaseDuration = m_model.createOntProperty( "http://purl.org/rdfstats/config#leaseDuration" );
+    
+    /** <p>Maximum number of characteristic sets (distinct property sets of subjects) stored 
+     *  per dataset for star join estimation, 0 (default) disables their collection. While 
+     *  a dataset is scanned, the properties of every subject are kept in memory.</p>
+     */
+    public static final OntProperty maxCharacteristicSets = m_model.createOntProperty( "http://purl.org/rdfstats/config#maxCharacteristicSets" );
+    
+    /** <p>Order paged queries by all result variables to obtain a stable split into pages, 
+     *  default is false</p>
+     */
+    public static final OntProperty orderedPaging = m_model.createOntProperty( "http://purl.org/rdfstats/config#orderedPaging" );
+    
     /** <p>The output file (local filename) - if specified, :statsModel will be ignored!</p> */
     public static final OntProperty outputFile = m_model.createOntProperty( "http://purl.org/rdfstats/config#outputFile" );
     
@@ -64,11 +109,26 @@ public class Config {
      */
     public static final OntProperty outputFormat = m_model.createOntProperty( "http://purl.org/rdfstats/config#outputFormat" );
     
+    /** <p>Retrieve query results in pages of this size (LIMIT/OFFSET), default is 0 
+     *  (unpaged)</p>
+     */
+    public static final OntProperty pageSize = m_model.createOntProperty( "http://purl.org/rdfstats/config#pageSize" );
+    
+    /** <p>Number of worker threads used to generate property histograms of a single RDF 
+     *  source concurrently, default is 1 (sequential)</p>
+     */
+    public static final OntProperty parallelism = m_model.createOntProperty( "http://purl.org/rdfstats/config#parallelism" );
+    
     /** <p>Quick mode: only generate histograms for new classes or if the number of total 
      *  instances has changed from previous statistics</p>
      */
     public static final OntProperty quickMode = m_model.createOntProperty( "http://purl.org/rdfstats/config#quickMode" );
     
+    /** <p>Size k of the quantile sketches used for approximated histograms, the rank error 
+     *  is about 1.65% for the default of 200</p>
+     */
+    public static final OntProperty sketchSize = m_model.createOntProperty( "http://purl.org/rdfstats/config#sketchSize" );
+    
     /** <p>A Jena Assembler model - the target model where to store the created statistics</p> */
     public static final OntProperty statsModel = m_model.createOntProperty( "http://purl.org/rdfstats/config#statsModel" );
     
@@ -42,8 +42,16 @@ public class Stats {
 
     /* Vocabulary properties */
 
+    public static final OntProperty characteristicSets = m_model.createOntProperty( "http://purl.org/rdfstats/stats#characteristicSets" );
+    
     public static final OntProperty classDimension = m_model.createOntProperty( "http://purl.org/rdfstats/stats#classDimension" );
     
+    public static final OntProperty joinKeySketches = m_model.createOntProperty( "http://purl.org/rdfstats/stats#joinKeySketches" );
+    
+    public static final OntProperty leaseExpires = m_model.createOntProperty( "http://purl.org/rdfstats/stats#leaseExpires" );
+    
+    public static final OntProperty leaseOwner = m_model.createOntProperty( "http://purl.org/rdfstats/stats#leaseOwner" );
+    
     public static final OntProperty propertyDimension = m_model.createOntProperty( "http://purl.org/rdfstats/stats#propertyDimension" );
     
     public static final OntProperty rangeDimension = m_model.createOntProperty( "http://purl.org/rdfstats/stats#rangeDimension" );
@@ -52,6 +60,8 @@ public class Stats {
     
     public static final OntProperty sourceUrl = m_model.createOntProperty( "http://purl.org/rdfstats/stats#sourceUrl" );
     
+    public static final OntProperty summary = m_model.createOntProperty( "http://purl.org/rdfstats/stats#summary" );
+    
 
     /* Vocabulary classes */
 
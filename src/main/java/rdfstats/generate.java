@@ -42,6 +42,7 @@ import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.shared.ReificationStyle;
 import com.hp.hpl.jena.util.FileManager;
 import com.hp.hpl.jena.util.FileUtils;
+import com.hp.hpl.jena.vocabulary.XSD;
 
 /**
  * @author dorgon
@@ -81,6 +82,37 @@ public class generate {
 		Option timeZone = new Option("t", "timezone", true, "The time zone to use when parsing date values (default is your locale: " + TimeZone.getDefault().getDisplayName() + ")");
 		timeZone.setArgName("timezone");
 		
+		Option parallelism = new Option("j", "parallelism", true, "Number of worker threads generating property histograms of a single RDF source concurrently, default is " + RDFStatsConfiguration.DEFAULT_PARALLELISM);
+		parallelism.setArgName("threads");
+		
+		Option concurrentSources = new Option("J", "concurrent-sources", true, "Maximum number of RDF sources processed concurrently, default is " + RDFStatsConfiguration.DEFAULT_CONCURRENT_SOURCES);
+		concurrentSources.setArgName("sources");
+		
+		Option concurrentPerHost = new Option("H", "concurrent-per-host", true, "Maximum number of RDF sources of the same host processed concurrently, default is " + RDFStatsConfiguration.DEFAULT_CONCURRENT_SOURCES_PER_HOST);
+		concurrentPerHost.setArgName("sources");
+		
+		Option pageSize = new Option("l", "page-size", true, "Retrieve query results in pages of this size (LIMIT/OFFSET), default is unpaged");
+		pageSize.setArgName("size");
+		
+		Option orderedPaging = new Option("r", "ordered-paging", false, "Order paged queries by all result variables (stable pages on endpoints without a consistent result order)");
+		
+		Option aggregatePushdown = new Option("a", "aggregate-pushdown", false, "Calculate numeric and date histograms of SPARQL endpoints with SPARQL 1.1 aggregate queries; join statistics (-C, -K) still scan the subjects of these values");
+		
+		Option approximate = new Option("x", "approximate", true, "Approximate histograms of these datatypes by bounded-memory sketches (comma separated datatype URIs, xsd: prefix allowed)");
+		approximate.setArgName("datatypes");
+		
+		Option sketchSize = new Option("k", "sketch-size", true, "Size of the quantile sketches used for approximated histograms, default is " + RDFStatsConfiguration.DEFAULT_SKETCH_SIZE);
+		sketchSize.setArgName("k");
+		
+		Option leaseDuration = new Option("L", "lease", true, "Hold a lease of this many seconds in the statistics model while updating a dataset, so several processes can share one statistics store (e.g. TDB)");
+		leaseDuration.setArgName("seconds");
+		
+		Option characteristicSets = new Option("C", "characteristic-sets", true, "Maximum number of characteristic sets (property sets of subjects) stored for star join estimation, 0 disables them, default is " + RDFStatsConfiguration.DEFAULT_MAX_CHARACTERISTIC_SETS + "; collecting them keeps the properties of every subject in memory");
+		characteristicSets.setArgName("max");
+		
+		Option joinKeySketches = new Option("K", "join-sketch-size", true, "Size of the per-property sketches of subject and object keys used for chain join estimation, 0 disables them, default is " + RDFStatsConfiguration.DEFAULT_JOIN_KEY_SKETCH_SIZE);
+		joinKeySketches.setArgName("k");
+		
 //		Option classSpecHists = new Option("p", "class-specific", false, "Generate class-specific histograms (and an additional one for all untyped resources)");
 		
 		opts = new Options();
@@ -93,6 +125,17 @@ public class generate {
 		opts.addOption(strHistMaxLen);
 		opts.addOption(quickMode);
 		opts.addOption(timeZone);
+		opts.addOption(parallelism);
+		opts.addOption(concurrentSources);
+		opts.addOption(concurrentPerHost);
+		opts.addOption(pageSize);
+		opts.addOption(orderedPaging);
+		opts.addOption(aggregatePushdown);
+		opts.addOption(approximate);
+		opts.addOption(sketchSize);
+		opts.addOption(leaseDuration);
+		opts.addOption(characteristicSets);
+		opts.addOption(joinKeySketches);
 //		opts.addOption(classSpecHists);
 		
 		// create the parser
@@ -160,6 +203,17 @@ public class generate {
 	        					(cmd.hasOption("m")) ? Integer.parseInt(cmd.getOptionValue("m")) : null,
 	        					cmd.hasOption("q"),
 	        					cmd.hasOption("t") ? TimeZone.getTimeZone(cmd.getOptionValue("t")) : null);
+	        			if (cmd.hasOption("j")) cfg.setParallelism(Integer.parseInt(cmd.getOptionValue("j")));
+	        			if (cmd.hasOption("J")) cfg.setConcurrentSources(Integer.parseInt(cmd.getOptionValue("J")));
+	        			if (cmd.hasOption("H")) cfg.setConcurrentSourcesPerHost(Integer.parseInt(cmd.getOptionValue("H")));
+	        			if (cmd.hasOption("l")) cfg.setPageSize(Integer.parseInt(cmd.getOptionValue("l")));
+	        			cfg.setOrderedPaging(cmd.hasOption("r"));
+	        			cfg.setAggregatePushdown(cmd.hasOption("a"));
+	        			if (cmd.hasOption("x")) cfg.setApproximateDatatypes(parseDatatypes(cmd.getOptionValue("x")));
+	        			if (cmd.hasOption("k")) cfg.setSketchSize(Integer.parseInt(cmd.getOptionValue("k")));
+	        			if (cmd.hasOption("L")) cfg.setLeaseDuration(Integer.parseInt(cmd.getOptionValue("L")));
+	        			if (cmd.hasOption("C")) cfg.setMaxCharacteristicSets(Integer.parseInt(cmd.getOptionValue("C")));
+	        			if (cmd.hasOption("K")) cfg.setJoinKeySketchSize(Integer.parseInt(cmd.getOptionValue("K")));
 	        		}
 	        		
 	        		if (cfg.getEndpoints().size() > 0)
@@ -172,6 +226,22 @@ public class generate {
 	    			log.info("Default time zone is " + cfg.getDefaultTimeZone().getDisplayName());
 	    			log.info("Maximum length of strings processed for StringOrderedHistogram: " + cfg.getStrHistMaxLength() + " characters");
 	    			log.info("Quick mode " + ((cfg.quickMode()) ? "ENABLED" : "DISABLED"));
+	    			log.info("Using " + cfg.getParallelism() + " worker thread" + ((cfg.getParallelism() != 1) ? "s" : "") + " per RDF source");
+	    			if (cfg.getPageSize() > 0)
+	    				log.info("Retrieving results in pages of " + cfg.getPageSize() + ((cfg.orderedPaging()) ? " (ordered)" : ""));
+	    			if (cfg.aggregatePushdown())
+	    				log.info("Aggregate push-down ENABLED for SPARQL endpoints");
+	    			if (cfg.aggregatePushdown() && (cfg.getMaxCharacteristicSets() > 0 || cfg.getJoinKeySketchSize() > 0))
+	    				log.warn("Join statistics are enabled, the subjects of pushed-down values are still retrieved from SPARQL endpoints (disable them with -C 0 -K 0 to avoid this)");
+	    			if (!cfg.getApproximateDatatypes().isEmpty())
+	    				log.info("Approximating histograms of " + cfg.getApproximateDatatypes() + " with sketches of size " + cfg.getSketchSize());
+	    			if (cfg.getLeaseDuration() > 0)
+	    				log.info("Holding update leases of " + cfg.getLeaseDuration() + " seconds in the statistics model");
+	    			if (cfg.getMaxCharacteristicSets() > 0)
+	    				log.info("Collecting up to " + cfg.getMaxCharacteristicSets() + " characteristic sets per dataset (keeps the properties of every subject in memory)");
+	    			if (cfg.getJoinKeySketchSize() == 0)
+	    				log.info("Join key sketches DISABLED");
+	    			log.info("Processing up to " + cfg.getConcurrentSources() + " RDF source" + ((cfg.getConcurrentSources() != 1) ? "s" : "") + " concurrently, " + cfg.getConcurrentSourcesPerHost() + " per host");
 
 	        		GeneratorMultiple multiGen = new GeneratorMultiple(cfg);
 	        		Model stats = multiGen.generate();
@@ -202,6 +272,22 @@ public class generate {
 
 	}
 	
+	/**
+	 * @param list comma separated datatype URIs, xsd: prefix allowed
+	 * @return datatype URIs
+	 */
+	private static List<String> parseDatatypes(String list) {
+		List<String> types = new ArrayList<String>();
+		for (String t : list.split(",")) {
+			t = t.trim();
+			if (t.startsWith("xsd:"))
+				t = XSD.getURI() + t.substring(4);
+			if (t.length() > 0)
+				types.add(t);
+		}
+		return types;
+	}
+	
 	/**
 	 * @param msg
 	 */
@@ -66,4 +66,10 @@ public class Constants {
 			"PREFIX producer3: <http://www4.wiwiss.fu-berlin.de/bizer/bsbm/v01/instances/dataFromProducer3/>\n" +
 			"PREFIX vendor1: <http://www4.wiwiss.fu-berlin.de/bizer/bsbm/v01/instances/dataFromVendor1/>\n" +
 			"PREFIX ratingSite1: <http://www4.wiwiss.fu-berlin.de/bizer/bsbm/v01/instances/dataFromRatingSite1/>\n";
+	
+	public static final String ISWC_PREFIXES = "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
+			"PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n" +
+			"PREFIX dc: <http://purl.org/dc/elements/1.1/>\n" +
+			"PREFIX foaf: <http://xmlns.com/foaf/0.1/>\n" +
+			"PREFIX skos: <http://www.w3.org/2004/02/skos/core#>\n";
 }
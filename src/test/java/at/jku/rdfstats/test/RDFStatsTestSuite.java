@@ -22,6 +22,7 @@ import at.jku.rdfstats.test.codec.HistogramCodecTestPackage;
 import at.jku.rdfstats.test.coverage.CombinedCoverageTest;
 import at.jku.rdfstats.test.coverage.CoverageTestPackage;
 import at.jku.rdfstats.test.coverage.SimpleCoverageTest;
+import at.jku.rdfstats.test.generator.GeneratorTestPackage;
 import at.jku.rdfstats.test.misc.MiscTestPackage;
 import at.jku.rdfstats.test.model.ModelTestPackage;
 
@@ -39,6 +40,7 @@ public class RDFStatsTestSuite extends TestSuite {
 		addTest(CoverageTestPackage.suite());
 		addTest(MiscTestPackage.suite());
 		addTest(ModelTestPackage.suite());
+		addTest(GeneratorTestPackage.suite());
 	}
 	
 	public static Test suite() {
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.builder;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.Histogram;
+import at.jku.rdfstats.hist.OrderedStringHistogram;
+import at.jku.rdfstats.hist.URIHistogram;
+import at.jku.rdfstats.hist.builder.GenericSingleBinHistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramCodec;
+import at.jku.rdfstats.hist.builder.HyperLogLog;
+import at.jku.rdfstats.hist.builder.OrderedStringHistogramBuilder;
+import at.jku.rdfstats.hist.builder.URIHistogramBuilder;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * @author dorgon
+ *
+ */
+public class DistinctValuesEstimationTest extends TestCase {
+	private final RDFStatsConfiguration approxConf = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, null, null, null, null, false, null);
+	
+	private final double maxError = 3 * new HyperLogLog().getStandardError();
+	
+	@Override
+	protected void setUp() throws Exception {
+		approxConf.setApproximateDatatypes(Arrays.asList(XSDDatatype.XSDstring.getURI(), RDFS.Resource.getURI(), Stats.blankNode.getURI()));
+	}
+	
+	public void testOrderedString() throws Exception {
+		OrderedStringHistogramBuilder exact = new OrderedStringHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDstring.getURI(), 20);
+		OrderedStringHistogramBuilder approx = new OrderedStringHistogramBuilder(approxConf, XSDDatatype.XSDstring.getURI(), 20);
+		assertFalse(exact.estimatesDistinctValues());
+		assertTrue(approx.estimatesDistinctValues());
+		
+		for (int i=0; i<100000; i++) {
+			String val = "value " + ((i * 7919) % 30000);
+			exact.addValue(val);
+			approx.addValue(val);
+		}
+		
+		OrderedStringHistogram e = (OrderedStringHistogram) exact.getHistogram();
+		OrderedStringHistogram a = (OrderedStringHistogram) approx.getHistogram();
+		assertEquals(30000, e.getDistinctValues());
+		assertEquals(0f, e.getDistinctValuesError());
+		HistogramAssert.assertApproximates(e, a, maxError);
+		
+		// bins are only cut to prefixes, hence every value is covered
+		for (int i=0; i<a.getNumBins(); i++)
+			assertTrue(a.getLabel(i).startsWith("value ") || "value ".startsWith(a.getLabel(i)));
+		
+		Histogram<?> decoded = HistogramCodec.base64decode(HistogramCodec.base64encode(a));
+		assertEquals(a.getDistinctValues(), decoded.getDistinctValues());
+		assertEquals(a.getDistinctValuesError(), decoded.getDistinctValuesError());
+	}
+	
+	public void testURI() throws Exception {
+		URIHistogramBuilder exact = new URIHistogramBuilder(RDFStatsConfiguration.getDefault(), RDFS.Resource.getURI(), 10);
+		URIHistogramBuilder approx = new URIHistogramBuilder(approxConf, RDFS.Resource.getURI(), 10);
+		for (int i=0; i<100000; i++) {
+			String uri = "http://example" + (i % 7) + ".org/resource/" + (i % 40) + "/item" + ((i * 31) % 20000);
+			exact.addValue(uri);
+			approx.addValue(uri);
+		}
+		
+		URIHistogram e = (URIHistogram) exact.getHistogram();
+		URIHistogram a = (URIHistogram) approx.getHistogram();
+		HistogramAssert.assertApproximates(e, a, maxError);
+		for (int i=0; i<a.getNumBins(); i++)
+			assertTrue(a.getLabel(i).startsWith("http://example"));
+	}
+	
+	public void testBlankNodes() throws Exception {
+		GenericSingleBinHistogramBuilder exact = new GenericSingleBinHistogramBuilder(RDFStatsConfiguration.getDefault(), Stats.blankNode.getURI(), 10);
+		GenericSingleBinHistogramBuilder approx = new GenericSingleBinHistogramBuilder(approxConf, Stats.blankNode.getURI(), 10);
+		for (int i=0; i<50000; i++) {
+			Node n = Node.createAnon(new AnonId("b" + (i % 12345)));
+			exact.addNodeValue(n);
+			approx.addNodeValue(n);
+		}
+		HistogramAssert.assertApproximates(exact.getHistogram(), approx.getHistogram(), maxError);
+	}
+}
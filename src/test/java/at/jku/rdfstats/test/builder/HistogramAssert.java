@@ -0,0 +1,70 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.builder;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import at.jku.rdfstats.hist.Histogram;
+import at.jku.rdfstats.hist.OrderedStringHistogram;
+
+/**
+ * assertions comparing approximated histograms to the exact ones built from the same values
+ * 
+ * @author dorgon
+ *
+ */
+public class HistogramAssert extends Assert {
+	
+	/**
+	 * asserts equal totals and value lengths, estimated distinct values within the error
+	 * bound and bins summing up to the total
+	 * 
+	 * @param exact
+	 * @param approx
+	 * @param maxError maximum relative error of the distinct values estimate
+	 */
+	public static void assertApproximates(Histogram<?> exact, Histogram<?> approx, double maxError) {
+		assertEquals(exact.getTotalValues(), approx.getTotalValues());
+		assertEquals(exact.getDistinctValues(), approx.getDistinctValues(), maxError * exact.getDistinctValues());
+		assertTrue(approx.getDistinctValuesError() > 0f);
+		assertTrue(Arrays.equals(exact.getValueLengths(), approx.getValueLengths()));
+		
+		int sum = 0;
+		for (int i=0; i<approx.getNumBins(); i++) {
+			if (approx instanceof OrderedStringHistogram) {
+				int distinct = ((OrderedStringHistogram) approx).getDistinctBinValues(i);
+				assertTrue(distinct >= 1);
+				assertTrue(distinct <= approx.getBinQuantity(i));
+			}
+			sum += approx.getBinQuantity(i);
+		}
+		assertEquals(approx.getTotalValues(), sum);
+	}
+	
+	/**
+	 * asserts the same bins with quantities within the error bound
+	 * 
+	 * @param exact
+	 * @param approx
+	 * @param maxError maximum error of a bin quantity relative to the total values
+	 */
+	public static void assertBinsApproximate(Histogram<?> exact, Histogram<?> approx, double maxError) {
+		assertEquals(exact.getNumBins(), approx.getNumBins());
+		for (int i=0; i<exact.getNumBins(); i++)
+			assertEquals("bin " + i, exact.getBinQuantity(i), approx.getBinQuantity(i), maxError * exact.getTotalValues());
+	}
+}
@@ -35,6 +35,8 @@ public class HistogramBuilderTestPackage extends TestCase {
 		s.addTestSuite(DateHistogramBuilderTest.class);
 		s.addTestSuite(OrderedStringHistogramBuilderTest.class);
 		s.addTestSuite(URIHistogramBuilderTest.class);
+		s.addTestSuite(SketchHistogramBuilderTest.class);
+		s.addTestSuite(DistinctValuesEstimationTest.class);
 		return s;
 	}
 }
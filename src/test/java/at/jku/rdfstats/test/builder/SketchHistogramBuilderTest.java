@@ -0,0 +1,204 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.builder;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.Histogram;
+import at.jku.rdfstats.hist.IntegerHistogram;
+import at.jku.rdfstats.hist.builder.DateHistogramBuilder;
+import at.jku.rdfstats.hist.builder.DateSketchHistogramBuilder;
+import at.jku.rdfstats.hist.builder.DoubleHistogramBuilder;
+import at.jku.rdfstats.hist.builder.DoubleSketchHistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramBuilderFactory;
+import at.jku.rdfstats.hist.builder.HistogramCodec;
+import at.jku.rdfstats.hist.builder.HyperLogLog;
+import at.jku.rdfstats.hist.builder.IntegerHistogramBuilder;
+import at.jku.rdfstats.hist.builder.IntegerSketchHistogramBuilder;
+import at.jku.rdfstats.hist.builder.LongHistogramBuilder;
+import at.jku.rdfstats.hist.builder.LongSketchHistogramBuilder;
+import at.jku.rdfstats.hist.builder.QuantileSketch;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * @author dorgon
+ *
+ */
+public class SketchHistogramBuilderTest extends TestCase {
+	private static final double DISTINCT_ERROR = 3 * new HyperLogLog().getStandardError();
+	private static final double RANK_ERROR = new QuantileSketch().getRankError();
+	
+	public void testQuantileSketch() {
+		QuantileSketch s = new QuantileSketch();
+		int n = 1000000;
+		for (int i=0; i<n; i++)
+			s.update((i * 7919L) % n); // permutation of 0..n-1
+		
+		assertEquals(n, s.getN());
+		assertEquals(0L, s.getMin());
+		assertEquals(n-1, s.getMax());
+		assertTrue(s.getRetainedItems() < 3 * QuantileSketch.DEFAULT_K + 100);
+		
+		double maxError = s.getRankError() * n;
+		for (long key = 0; key < n; key += n / 20)
+			assertEquals(key, s.getRank(key), maxError);
+		assertEquals(n / 2, s.getQuantile(0.5), maxError);
+		assertEquals(0L, s.getQuantile(0.0));
+		assertEquals(n-1, s.getQuantile(1.0));
+		
+		long[] counts = s.getBinCounts(new long[] { n / 4, n / 2, 3 * n / 4 });
+		long sum = 0;
+		for (long c : counts) {
+			assertEquals(n / 4, c, maxError);
+			sum += c;
+		}
+		assertEquals(n, sum);
+	}
+
+	public void testQuantileSketchMerge() {
+		QuantileSketch a = new QuantileSketch(), b = new QuantileSketch();
+		for (int i=0; i<100000; i++)
+			a.update(i);
+		for (int i=100000; i<300000; i++)
+			b.update(i);
+		a.merge(b);
+		
+		assertEquals(300000, a.getN());
+		assertEquals(0L, a.getMin());
+		assertEquals(299999L, a.getMax());
+		assertEquals(100000, a.getRank(100000), a.getRankError() * 300000);
+		assertEquals(200000, a.getRank(200000), a.getRankError() * 300000);
+	}
+	
+	public void testDoubleKeys() {
+		double[] values = { Double.NEGATIVE_INFINITY, -1e300, -2.5, -0.0, 0.0, Double.MIN_VALUE, 1.0, 3.75, 1e300, Double.POSITIVE_INFINITY };
+		for (int i=0; i<values.length; i++) {
+			assertEquals(values[i], QuantileSketch.toDouble(QuantileSketch.toKey(values[i])));
+			if (i > 0)
+				assertTrue(QuantileSketch.toKey(values[i-1]) < QuantileSketch.toKey(values[i]));
+		}
+	}
+	
+	public void testHyperLogLog() {
+		HyperLogLog h = new HyperLogLog(), h2 = new HyperLogLog();
+		for (long i=0; i<10; i++)
+			h.offer(HyperLogLog.hash(i));
+		assertEquals(10, h.estimate());
+		
+		for (long i=0; i<500000; i++) {
+			h.offer(HyperLogLog.hash(i % 200000));
+			h2.offer(HyperLogLog.hash(i));
+		}
+		assertEquals(200000, h.estimate(), 3 * h.getStandardError() * 200000);
+		h.merge(h2);
+		assertEquals(500000, h.estimate(), 3 * h.getStandardError() * 500000);
+	}
+	
+	public void testSmallInput() throws Exception {
+		IntegerHistogramBuilder exact = new IntegerHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDint.getURI(), 10);
+		IntegerSketchHistogramBuilder approx = new IntegerSketchHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDint.getURI(), 10);
+		int[] data = { 53, 123, 34, 12, 40, 30, 230, 40, 30, 10, 23, 34, 45, 12, 67, 45, 54, 23, 32, 34, 23, 34, 45, 56, 45, 34, 44, 33, 22, 37, 34, 56, 45, 34, 36, 38, 38, 97 };
+		for (int val : data) {
+			exact.addValue(val);
+			approx.addValue(val);
+		}
+		
+		// the sketch is exact below its capacity
+		IntegerHistogram e = (IntegerHistogram) exact.getHistogram();
+		IntegerHistogram a = (IntegerHistogram) approx.getHistogram();
+		assertTrue(Arrays.equals(e.getBinData(), a.getBinData()));
+		assertEquals(e.getDistinctValues(), a.getDistinctValues());
+		assertEquals(e.getMin(), a.getMin());
+		assertEquals(e.getMax(), a.getMax());
+		assertTrue(Arrays.equals(e.getValueLengths(), a.getValueLengths()));
+		assertEquals(IntegerHistogramBuilder.class, a.getBuilderClass());
+		assertEquals(0f, e.getDistinctValuesError());
+		assertTrue(a.getDistinctValuesError() > 0f);
+		
+		// the estimation error is appended to the encoding
+		IntegerHistogram decoded = (IntegerHistogram) HistogramCodec.base64decode(HistogramCodec.base64encode(a));
+		assertTrue(Arrays.equals(a.getBinData(), decoded.getBinData()));
+		assertEquals(a.getDistinctValuesError(), decoded.getDistinctValuesError());
+		assertEquals(0f, HistogramCodec.base64decode(HistogramCodec.base64encode(e)).getDistinctValuesError());
+	}
+	
+	public void testLongDistribution() throws Exception {
+		Random rnd = new Random(1);
+		LongHistogramBuilder exact = new LongHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDlong.getURI(), 20);
+		LongSketchHistogramBuilder approx = new LongSketchHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDlong.getURI(), 20);
+		for (int i=0; i<300000; i++) {
+			long val = (long) (rnd.nextGaussian() * 1e9);
+			exact.addValue(val);
+			approx.addValue(val);
+		}
+		HistogramAssert.assertApproximates(exact.getHistogram(), approx.getHistogram(), DISTINCT_ERROR);
+		HistogramAssert.assertBinsApproximate(exact.getHistogram(), approx.getHistogram(), RANK_ERROR);
+	}
+	
+	public void testDoubleDistribution() throws Exception {
+		Random rnd = new Random(2);
+		DoubleHistogramBuilder exact = new DoubleHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDdouble.getURI(), 20);
+		DoubleSketchHistogramBuilder approx = new DoubleSketchHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDdouble.getURI(), 20);
+		for (int i=0; i<200000; i++) {
+			double val = Math.exp(rnd.nextDouble() * 5) - 40.0;
+			exact.addValue(val);
+			approx.addValue(val);
+		}
+		HistogramAssert.assertApproximates(exact.getHistogram(), approx.getHistogram(), DISTINCT_ERROR);
+		HistogramAssert.assertBinsApproximate(exact.getHistogram(), approx.getHistogram(), RANK_ERROR);
+	}
+	
+	public void testDateDistribution() throws Exception {
+		Random rnd = new Random(3);
+		DateHistogramBuilder exact = new DateHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDdateTime.getURI(), 20);
+		DateSketchHistogramBuilder approx = new DateSketchHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDdateTime.getURI(), 20);
+		for (int i=0; i<100000; i++) {
+			Date val = new Date(1200000000000L + rnd.nextInt(1000000) * 1000L);
+			exact.addValue(val);
+			approx.addValue(val);
+		}
+		HistogramAssert.assertApproximates(exact.getHistogram(), approx.getHistogram(), DISTINCT_ERROR);
+		HistogramAssert.assertBinsApproximate(exact.getHistogram(), approx.getHistogram(), RANK_ERROR);
+	}
+	
+	public void testFactory() throws Exception {
+		RDFStatsConfiguration conf = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, null, null, null, null, false, null);
+		conf.setApproximateDatatypes(Arrays.asList(XSDDatatype.XSDint.getURI()));
+		conf.setSketchSize(100);
+		assertEquals(100, conf.getSketchSize());
+		
+		HistogramBuilder<?> b = HistogramBuilderFactory.createBuilder(XSDDatatype.XSDint.getURI(), null, 10, conf);
+		assertEquals(IntegerSketchHistogramBuilder.class, b.getClass());
+		b = HistogramBuilderFactory.createBuilder(XSDDatatype.XSDlong.getURI(), null, 10, conf);
+		assertEquals(LongHistogramBuilder.class, b.getClass());
+		
+		// decoded by the exact builder
+		IntegerSketchHistogramBuilder approx = new IntegerSketchHistogramBuilder(conf, XSDDatatype.XSDint.getURI(), 10);
+		for (int i=0; i<10000; i++)
+			approx.addValue(i % 1234);
+		Histogram<Integer> h = approx.getHistogram();
+		Histogram<?> decoded = HistogramCodec.base64decode(HistogramCodec.base64encode(h));
+		assertTrue(Arrays.equals(h.getBinData(), decoded.getBinData()));
+		assertEquals(h.getDistinctValues(), decoded.getDistinctValues());
+	}
+}
@@ -74,4 +74,17 @@ public class URIHistogramBuilderTest extends TestCase {
 //		System.out.println(h);
 		assertEquals(7, h.getNumBins());
 	}
+	
+	public void testUncompressedTrailingSlash() {
+		URIHistogramBuilder b = new URIHistogramBuilder(RDFStatsConfiguration.getDefault(), RDFS.Resource.getURI(), 10);
+		b.addValue("http://h3.org/");
+		b.addValue("http://h3.org");
+		
+		URIHistogram h = (URIHistogram) b.getHistogram();
+		assertEquals(2, h.getNumBins());
+		assertEquals("http://h3.org", h.getLabel(0));
+		assertEquals("http://h3.org/", h.getLabel(1));
+		assertEquals(1, h.getBinQuantity(0));
+		assertEquals(2, h.getDistinctValues());
+	}
 }
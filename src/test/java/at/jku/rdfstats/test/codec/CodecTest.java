@@ -19,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 import junit.framework.TestCase;
+import at.jku.rdfstats.hist.ComparableDomainHistogram;
 import at.jku.rdfstats.hist.Histogram;
 import at.jku.rdfstats.hist.builder.HistogramBuilderException;
 import at.jku.rdfstats.hist.builder.HistogramCodec;
@@ -72,14 +73,39 @@ public class CodecTest extends TestCase {
 	 * @throws HistogramBuilderException
 	 */
 	public static void performCodecTest(Histogram<?> h) throws HistogramBuilderException {
-		String encoded = HistogramCodec.base64encode(h);
+		performCodecTest(h, HistogramCodec.VERSION_20090910);
+		performCodecTest(h, HistogramCodec.VERSION);
+	}
+	
+	/**
+	 * @param h
+	 * @param version
+	 * @throws HistogramBuilderException
+	 */
+	public static void performCodecTest(Histogram<?> h, int version) throws HistogramBuilderException {
+		String encoded = HistogramCodec.base64encode(h, version);
 		Histogram<?> hDecoded = HistogramCodec.base64decode(encoded);
 		assertEquals(h.getNumBins(), hDecoded.getNumBins());
 		assertEquals(h.getDatatypeUri(), hDecoded.getDatatypeUri());
+		assertEquals(h.getTotalValues(), hDecoded.getTotalValues());
+		assertEquals(h.getDistinctValues(), hDecoded.getDistinctValues());
+		if (h instanceof ComparableDomainHistogram<?>) {
+			assertEquals(((ComparableDomainHistogram<?>) h).getMin(), ((ComparableDomainHistogram<?>) hDecoded).getMin());
+			assertEquals(((ComparableDomainHistogram<?>) h).getMax(), ((ComparableDomainHistogram<?>) hDecoded).getMax());
+		}
 
 		int[] origData = h.getBinData();
 		int[] decodedData = hDecoded.getBinData();
 		for (int i=0; i<origData.length; i++)
 			assertEquals(origData[i], decodedData[i]);
+		
+		Histogram<?> hView = HistogramCodec.view(encoded);
+		assertEquals(h.getDatatypeUri(), hView.getDatatypeUri());
+		assertEquals(h.getTotalValues(), hView.getTotalValues());
+		assertEquals(h.getDistinctValues(), hView.getDistinctValues());
+		assertEquals(h.getDistinctValuesError(), hView.getDistinctValuesError());
+		assertEquals(h.getMaxValueLength(), hView.getMaxValueLength());
+		for (int i=0; i<origData.length; i++)
+			assertEquals(origData[i], hView.getBinQuantity(i));
 	}
 }
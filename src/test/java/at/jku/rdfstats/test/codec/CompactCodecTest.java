@@ -0,0 +1,123 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.codec;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.hist.LongHistogram;
+import at.jku.rdfstats.hist.OrderedStringHistogram;
+import at.jku.rdfstats.hist.builder.HistogramBuilderException;
+import at.jku.rdfstats.hist.builder.HistogramCodec;
+import at.jku.rdfstats.hist.builder.LongHistogramBuilder;
+import at.jku.rdfstats.hist.builder.OrderedStringHistogramBuilder;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.sparql.util.Base64;
+
+/**
+ * tests the compact format {@link HistogramCodec#VERSION}
+ * 
+ * @author dorgon
+ *
+ */
+public class CompactCodecTest extends TestCase {
+	
+	public void testVarInts() {
+		class ByteStreamTester extends HistogramCodec {
+			void performTests() {
+				int[] ints = { 0, 1, -1, 63, -64, 64, 344, -1342, Integer.MAX_VALUE, Integer.MIN_VALUE };
+				long[] longs = { 0L, -1L, 7131452343432123124L, Long.MAX_VALUE, Long.MIN_VALUE };
+				CompactOutputStream out = new CompactOutputStream();
+				for (int i : ints)
+					writeInt(out, i);
+				for (long l : longs)
+					writeLong(out, l);
+				writeIntRange(out, Integer.MIN_VALUE, Integer.MAX_VALUE);
+				writeLongRange(out, Long.MIN_VALUE, Long.MAX_VALUE);
+				writeLongRange(out, 1000L, 1005L);
+				
+				byte[] bytes = out.toByteArray();
+				CompactInputStream in = new CompactInputStream(bytes);
+				for (int i : ints)
+					assertEquals(i, readInt(in));
+				for (long l : longs)
+					assertEquals(l, readLong(in));
+				int[] ir = readIntRange(in);
+				assertEquals(Integer.MIN_VALUE, ir[0]);
+				assertEquals(Integer.MAX_VALUE, ir[1]);
+				long[] lr = readLongRange(in);
+				assertEquals(Long.MIN_VALUE, lr[0]);
+				assertEquals(Long.MAX_VALUE, lr[1]);
+				lr = readLongRange(in);
+				assertEquals(1000L, lr[0]);
+				assertEquals(1005L, lr[1]);
+				assertEquals(0, in.available());
+				
+				// small values take a single byte
+				out = new CompactOutputStream();
+				writeInt(out, -64);
+				assertEquals(1, out.size());
+			}
+		}
+		new ByteStreamTester().performTests();
+	}
+	
+	public void testFrontCodedLabels() throws HistogramBuilderException {
+		int n = 40; // several blocks
+		String[] labels = new String[n];
+		int[] bins = new int[n];
+		int[] distinct = new int[n];
+		for (int i=0; i<n; i++) {
+			labels[i] = "http://example.org/resource/" + (char) ('a' + i / 10) + "/\u00e4\ud834\udd1e" + (i % 10);
+			bins[i] = i + 1;
+			distinct[i] = 1;
+		}
+		OrderedStringHistogram h = new OrderedStringHistogram(XSDDatatype.XSDstring.getURI(), bins, n * (n + 1) / 2, n,
+				labels[0], labels[n-1], new int[] { 10, 15, 20 }, labels, distinct, OrderedStringHistogramBuilder.class);
+		
+		byte[] compact = HistogramCodec.encode(h, HistogramCodec.VERSION);
+		byte[] old = HistogramCodec.encode(h, HistogramCodec.VERSION_20090910);
+		assertTrue(compact.length * 2 < old.length);
+		
+		OrderedStringHistogram decoded = (OrderedStringHistogram) HistogramCodec.decode(compact);
+		OrderedStringHistogram view = (OrderedStringHistogram) HistogramCodec.view(Base64.encodeBytes(compact));
+		for (int i=0; i<n; i++) {
+			assertEquals(labels[i], decoded.getLabel(i));
+			assertEquals(labels[i], view.getLabel(i));
+			assertEquals(i, view.getBinIndex(labels[i] + "x"));
+		}
+		assertEquals(labels[n-1], view.getMax());
+	}
+	
+	public void testChecksum() throws HistogramBuilderException {
+		LongHistogram h = new LongHistogram(XSDDatatype.XSDlong.getURI(), new int[] { 1, 2, 3 }, 6, 6, 10L, 100L,
+				new int[] { 2, 2, 3 }, LongHistogramBuilder.class);
+		byte[] bytes = HistogramCodec.encode(h, HistogramCodec.VERSION);
+		assertEquals(6, HistogramCodec.decode(bytes).getTotalValues());
+		
+		bytes[bytes.length - 6] ^= 0x10;
+		try {
+			HistogramCodec.decode(bytes);
+			fail("Corrupt histogram not detected.");
+		} catch (HistogramBuilderException expected) {}
+	}
+	
+	public void testUnknownVersion() {
+		try {
+			HistogramCodec.decode(new byte[] { 0, 0, 0, 1, 0, 0, 0, 0 });
+			fail("Unknown version not detected.");
+		} catch (HistogramBuilderException expected) {}
+	}
+}
@@ -35,6 +35,8 @@ public class HistogramCodecTestPackage extends TestCase {
 		s.addTestSuite(DoubleHistogramCodecTest.class);
 		s.addTestSuite(DateHistogramCodecTest.class);
 		s.addTestSuite(OrderedStringHistogramCodecTest.class);
+		s.addTestSuite(HistogramViewTest.class);
+		s.addTestSuite(CompactCodecTest.class);
 		return s;
 	}
 }
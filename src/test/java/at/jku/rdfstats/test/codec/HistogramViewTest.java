@@ -0,0 +1,100 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.codec;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.OrderedStringHistogram;
+import at.jku.rdfstats.hist.OrderedStringHistogramView;
+import at.jku.rdfstats.hist.builder.HistogramBuilderException;
+import at.jku.rdfstats.hist.builder.HistogramCodec;
+import at.jku.rdfstats.hist.builder.OrderedStringHistogramBuilder;
+import at.jku.rdfstats.hist.builder.URIHistogramBuilder;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * @author dorgon
+ *
+ */
+public class HistogramViewTest extends TestCase {
+	
+	public void testOrderedStringView() throws HistogramBuilderException {
+		OrderedStringHistogram h = new OrderedStringHistogram(
+				XSDDatatype.XSDstring.getURI(),
+				new int[] { 203, 30, 1, 2, 10, 100 },
+				346,
+				126,
+				"A",
+				"Voodoo",
+				new int[] { 10, 15, 20 },
+				new String[] { "A", "AB", "C", "F", "Foo", "Voodoo" },
+				new int[] { 20, 1, 1, 2, 2, 100 },
+				OrderedStringHistogramBuilder.class);
+		String encoded = HistogramCodec.base64encode(h);
+		OrderedStringHistogramView v = (OrderedStringHistogramView) HistogramCodec.view(encoded);
+		
+		assertEquals("A", v.getMin());
+		assertEquals("Voodoo", v.getMax());
+		assertEquals(346, v.getTotalValues());
+		assertEquals(2, v.getDistinctBinValues(4));
+		assertEquals("Foo", v.getLabel(4));
+		assertEquals(6, v.getLabels().length);
+		assertEquals(OrderedStringHistogramBuilder.class, v.getBuilderClass());
+		
+		String[] probes = { "", "A", "AB", "ABC", "B", "C", "Cx", "F", "Fo", "Foo", "Foobar", "G", "Voodoo", "Voodoo2", "Z" };
+		for (String p : probes) {
+			assertEquals(p, h.getBinIndex(p), v.getBinIndex(p));
+			assertEquals(p, h.getEstimatedQuantity(p), v.getEstimatedQuantity(p));
+			assertEquals(p, h.getCumulativeQuantity(p), v.getCumulativeQuantity(p));
+		}
+		
+		// views can be encoded again
+		assertEquals(encoded, HistogramCodec.base64encode(v));
+	}
+	
+	public void testBuilderHistograms() throws HistogramBuilderException {
+		OrderedStringHistogramBuilder b = new OrderedStringHistogramBuilder(RDFStatsConfiguration.getDefault(), XSDDatatype.XSDstring.getURI(), 8);
+		String[] data = new String[] { "A", "ABRACADABRA", "ABRACAD", "ABRACADA", "ABRACADA", "ABRAC", "AB","AB","AB","AB", "BCD", "BCE", "B", "B", "C", "CD" };
+		for (String string : data) 
+			b.addValue(string);
+		OrderedStringHistogram h = (OrderedStringHistogram) b.getHistogram();
+		OrderedStringHistogramView v = (OrderedStringHistogramView) HistogramCodec.view(HistogramCodec.base64encode(h));
+		
+		for (int i=0; i<h.getNumBins(); i++)
+			assertEquals(h.getLabel(i), v.getLabel(i));
+		for (String p : data)
+			assertEquals(p, h.getLabel(h.getBinIndex(p)), v.getLabel(v.getBinIndex(p)));
+	}
+	
+	public void testURIView() throws HistogramBuilderException {
+		URIHistogramBuilder b = new URIHistogramBuilder(RDFStatsConfiguration.getDefault(), RDFS.Resource.getURI(), 4);
+		for (int i=0; i<50; i++)
+			b.addValue("http://example.org/" + (i % 5) + "/item" + i);
+		OrderedStringHistogram h = (OrderedStringHistogram) b.getHistogram();
+		String encoded = HistogramCodec.base64encode(h);
+		OrderedStringHistogramView v = (OrderedStringHistogramView) HistogramCodec.view(encoded);
+		
+		assertEquals(URIHistogramBuilder.class, v.getBuilderClass());
+		assertEquals(h.getTotalValues(), v.getTotalValues());
+		for (int i=0; i<h.getNumBins(); i++)
+			assertEquals(h.getLabel(i), v.getLabel(i));
+		String uri = "http://example.org/3/item13";
+		assertEquals(h.getBinIndex(uri), v.getBinIndex(uri));
+		assertEquals(encoded, HistogramCodec.base64encode(v));
+	}
+}
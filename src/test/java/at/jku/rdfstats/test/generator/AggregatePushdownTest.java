@@ -0,0 +1,278 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.generator;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.CharacteristicSets;
+import at.jku.rdfstats.GeneratorException;
+import at.jku.rdfstats.JoinKeySketches;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.hist.DateHistogram;
+import at.jku.rdfstats.hist.Histogram;
+import at.jku.rdfstats.hist.builder.HistogramBuilder;
+import at.jku.rdfstats.hist.builder.HistogramBuilderFactory;
+import at.jku.rdfstats.hist.builder.HistogramCodec;
+import at.jku.rdfstats.generator.AggregatePushdown;
+import at.jku.rdfstats.generator.RDFStatsGeneratorModel;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.QuerySolutionMap;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.sparql.expr.NodeValue;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+/**
+ * Compares histograms calculated from aggregates with the histograms of the builders. The
+ * endpoint is simulated by answering the aggregate queries over a list of values.
+ * 
+ * @author dorgon
+ *
+ */
+public class AggregatePushdownTest extends TestCase {
+	private static final String P = "http://example.org/p";
+	private static final int PREF_SIZE = 5;
+	
+	private final RDFStatsConfiguration config = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, PREF_SIZE, null, null, null, false, TimeZone.getTimeZone("UTC"));
+	
+	public void testNumericRanges() throws Exception {
+		Random rnd = new Random(42);
+		List<Node> values = new ArrayList<Node>();
+		for (int i=0; i<200; i++) {
+			values.add(literal(Integer.toString(rnd.nextInt(1000) - 300), XSDDatatype.XSDint));
+			values.add(literal(Long.toString(rnd.nextInt(1000000) * 1000L), XSDDatatype.XSDlong));
+			values.add(literal(Long.toString(rnd.nextInt(50)), XSDDatatype.XSDinteger));
+			values.add(literal(Double.toString(rnd.nextGaussian() * 100), XSDDatatype.XSDdouble));
+		}
+		assertPushdown(values, 4);
+	}
+	
+	public void testDateTimes() throws Exception {
+		Random rnd = new Random(7);
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+		List<Node> values = new ArrayList<Node>();
+		for (int i=0; i<100; i++)
+			values.add(literal(fmt.format(new Date(1200000000000L + rnd.nextInt(100000) * 3333L)), XSDDatatype.XSDdateTime));
+		assertPushdown(values, 1);
+	}
+	
+	public void testFewDistinctValues() throws Exception {
+		List<Node> values = new ArrayList<Node>();
+		for (String v : new String[] { "3", "3", "8", "8", "8" })
+			values.add(literal(v, XSDDatatype.XSDint));
+		values.add(literal("1.5", XSDDatatype.XSDdouble)); // single value
+		values.add(literal("2008-01-01T00:00:00Z", XSDDatatype.XSDdateTime));
+		values.add(literal("2009-01-01T00:00:00Z", XSDDatatype.XSDdateTime));
+		assertPushdown(values, 3);
+	}
+	
+	public void testUnsupportedRanges() throws Exception {
+		List<Node> values = new ArrayList<Node>();
+		values.add(Node.createLiteral("abc"));
+		values.add(Node.createURI("http://example.org/x"));
+		values.add(literal("1.5", XSDDatatype.XSDfloat));
+		FakeEndpoint pd = new FakeEndpoint(values);
+		assertTrue(pd.generate(P).isEmpty());
+		
+		// rdf:type values are not pushed down (no query at all)
+		assertTrue(pd.generate(RDF.type.getURI()).isEmpty());
+		assertEquals(1, pd.queries);
+		
+		assertNull(AggregatePushdown.getExcludeFilter(new HashSet<String>()));
+		String filter = AggregatePushdown.getExcludeFilter(Arrays.asList(XSDDatatype.XSDint.getURI(), XSDDatatype.XSDdouble.getURI()));
+		assertTrue(filter.contains("datatype(?val) != <" + XSDDatatype.XSDint.getURI() + ">"));
+		assertTrue(filter.contains("datatype(?val) != <" + XSDDatatype.XSDdouble.getURI() + ">"));
+	}
+	
+	public void testJoinStatistics() throws Exception {
+		Model data = ModelFactory.createDefaultModel();
+		Property p = data.createProperty(P), q = data.createProperty("http://example.org/q");
+		for (int i=0; i<20; i++) {
+			Resource s = data.createResource("http://example.org/s" + i);
+			if (i % 2 == 0)
+				s.addProperty(p, data.createTypedLiteral(Integer.toString(i), XSDDatatype.XSDint));
+			if (i % 3 == 0)
+				s.addProperty(p, data.createResource("http://example.org/o" + (i % 4)));
+			s.addProperty(q, "q" + i);
+		}
+		JoinStatisticsGenerator gen = new JoinStatisticsGenerator(config, data);
+		String filter = AggregatePushdown.getExcludeFilter(Arrays.asList(XSDDatatype.XSDint.getURI()));
+		
+		CharacteristicSets.Collector allSets = new CharacteristicSets.Collector(), filteredSets = new CharacteristicSets.Collector();
+		JoinKeySketches.Collector allKeys = new JoinKeySketches.Collector(8), filteredKeys = new JoinKeySketches.Collector(8);
+		assertEquals(2, gen.build(P, null, allSets, allKeys).size());
+		assertEquals(1, gen.build(P, filter, filteredSets, filteredKeys).size()); // int values are pushed down
+		gen.build(q.getURI(), null, allSets, allKeys);
+		gen.build(q.getURI(), null, filteredSets, filteredKeys);
+		
+		// the subjects of the pushed-down values are still collected
+		assertTrue(filteredSets.isComplete());
+		assertEquals(allSets.getCharacteristicSets(100).encode(), filteredSets.getCharacteristicSets(100).encode());
+		assertEquals(allKeys.getJoinKeySketches().encode(), filteredKeys.getJoinKeySketches().encode());
+		assertEquals(17, filteredKeys.getJoinKeySketches().getSubjectKeys(P).getTriples());
+	}
+	
+	private void assertPushdown(List<Node> values, int expectedRanges) throws Exception {
+		Map<String, HistogramBuilder<?>> builders = new HashMap<String, HistogramBuilder<?>>();
+		for (Node val : values) {
+			String type = val.getLiteralDatatypeURI();
+			HistogramBuilder<?> b = builders.get(type);
+			if (b == null) {
+				b = HistogramBuilderFactory.createBuilder(type, P, PREF_SIZE, config);
+				builders.put(type, b);
+			}
+			b.addNodeValue(val);
+		}
+		
+		Map<String, Histogram<?>> actual = new FakeEndpoint(values).generate(P);
+		assertEquals(expectedRanges, actual.size());
+		for (String type : actual.keySet())
+			assertEquals("range " + type, HistogramCodec.base64encode(builders.get(type).getHistogram()), HistogramCodec.base64encode(actual.get(type)));
+	}
+	
+	private static Node literal(String lex, XSDDatatype type) {
+		return Node.createLiteral(lex, null, type);
+	}
+	
+	/** exposes the histogram scan of a property over a local model */
+	private static class JoinStatisticsGenerator extends RDFStatsGeneratorModel {
+		JoinStatisticsGenerator(RDFStatsConfiguration config, Model data) throws GeneratorException {
+			super(config, data, Stats.SPARQLEndpoint.getURI(), "http://localhost/sparql");
+		}
+		
+		Map<String, Histogram<?>> build(String p, String filter, CharacteristicSets.Collector cs, JoinKeySketches.Collector keys) {
+			return buildPropertyHistograms(p, filter, cs, keys);
+		}
+	}
+	
+	/**
+	 * answers the aggregate queries issued by {@link AggregatePushdown} over a list of values
+	 */
+	private class FakeEndpoint extends AggregatePushdown {
+		private final List<Node> values;
+		private final Model m = ModelFactory.createDefaultModel();
+		int queries = 0;
+		
+		FakeEndpoint(List<Node> values) {
+			super("http://localhost/sparql", config);
+			this.values = values;
+		}
+		
+		@Override
+		protected List<QuerySolution> select(String qry) {
+			queries++;
+			List<QuerySolution> result = new ArrayList<QuerySolution>();
+			
+			if (qry.startsWith("SELECT ?t ")) {
+				Set<String> types = new HashSet<String>(find(qry, "datatype\\(\\?val\\) = <(.*?)>"));
+				for (String t : types) {
+					List<Node> vals = valuesOf(t);
+					if (vals.isEmpty())
+						continue;
+					Node min = vals.get(0), max = vals.get(0);
+					long minLen = Long.MAX_VALUE, maxLen = 0, sumLen = 0;
+					for (Node v : vals) {
+						if (NodeValue.compare(NodeValue.makeNode(v), NodeValue.makeNode(min)) < 0) min = v;
+						if (NodeValue.compare(NodeValue.makeNode(v), NodeValue.makeNode(max)) > 0) max = v;
+						int len = v.getLiteralLexicalForm().length();
+						minLen = Math.min(minLen, len);
+						maxLen = Math.max(maxLen, len);
+						sumLen += len;
+					}
+					QuerySolutionMap s = new QuerySolutionMap();
+					s.add("t", m.createResource(t));
+					s.add("n", m.createTypedLiteral(vals.size()));
+					s.add("d", m.createTypedLiteral(new HashSet<Node>(vals).size()));
+					s.add("min", m.asRDFNode(min));
+					s.add("max", m.asRDFNode(max));
+					s.add("minLen", m.createTypedLiteral(minLen));
+					s.add("maxLen", m.createTypedLiteral(maxLen));
+					s.add("sumLen", m.createTypedLiteral(sumLen));
+					result.add(s);
+				}
+			} else if (qry.contains("FLOOR(")) {
+				List<Node> vals = valuesOf(find(qry, "datatype\\(\\?val\\) = <(.*?)>").get(0));
+				double min = Double.parseDouble(find(qry, "\\?val - \"(.*?)\"").get(0));
+				double width = Double.parseDouble(find(qry, "\\) / \"(.*?)\"").get(0));
+				Map<Long, Integer> bins = new HashMap<Long, Integer>();
+				for (Node v : vals) {
+					long bin = (long) Math.floor((Double.parseDouble(v.getLiteralLexicalForm()) - min) / width);
+					bins.put(bin, (bins.containsKey(bin) ? bins.get(bin) : 0) + 1);
+				}
+				for (Long bin : bins.keySet()) {
+					QuerySolutionMap s = new QuerySolutionMap();
+					s.add("bin", m.createTypedLiteral(bin));
+					s.add("n", m.createTypedLiteral(bins.get(bin)));
+					result.add(s);
+				}
+			} else {
+				List<Node> vals = valuesOf(find(qry, "datatype\\(\\?val\\) = <(.*?)>").get(0));
+				Matcher mt = Pattern.compile("\\?val >= \"(.*?)\"\\^\\^<.*?>, 1, 0\\)\\) AS \\?(c\\d+)").matcher(qry);
+				QuerySolutionMap s = new QuerySolutionMap();
+				while (mt.find()) {
+					try {
+						long boundary = DateHistogram.parseNodeValueImpl(literal(mt.group(1), XSDDatatype.XSDdateTime)).getTime();
+						int count = 0;
+						for (Node v : vals)
+							if (DateHistogram.parseNodeValueImpl(v).getTime() >= boundary)
+								count++;
+						s.add(mt.group(2), m.createTypedLiteral(count));
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+				result.add(s);
+			}
+			return result;
+		}
+		
+		private List<Node> valuesOf(String type) {
+			List<Node> vals = new ArrayList<Node>();
+			for (Node v : values)
+				if (v.isLiteral() && type.equals(v.getLiteralDatatypeURI()))
+					vals.add(v);
+			return vals;
+		}
+		
+		private List<String> find(String qry, String regex) {
+			List<String> found = new ArrayList<String>();
+			Matcher mt = Pattern.compile(regex).matcher(qry);
+			while (mt.find())
+				found.add(mt.group(1));
+			return found;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.generator;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.test.Constants;
+
+import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.util.Locator;
+import com.hp.hpl.jena.util.LocatorFile;
+import com.hp.hpl.jena.util.TypedStream;
+
+/**
+ * @author dorgon
+ *
+ */
+public class DocumentGeneratorTest extends TestCase {
+	
+	public void testDocumentParsedOnce() throws Exception {
+		CountingLocator locator = new CountingLocator();
+		FileManager previous = FileManager.get();
+		FileManager fm = new FileManager();
+		fm.addLocator(locator);
+		fm.addLocatorFile();
+		fm.addLocatorURL();
+		fm.addLocatorClassLoader(fm.getClass().getClassLoader());
+		fm.setLocationMapper(previous.getLocationMapper());
+		FileManager.setGlobalFileManager(fm);
+		try {
+			RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorDocument(RDFStatsConfiguration.getDefault(), Constants.ISWC_EXAMPLE_DATA);
+			gen.generate();
+			RDFStatsModel stats = gen.getRDFStatsModel();
+			assertEquals(1, stats.getDatasets().size());
+			assertTrue(stats.getDatasets().get(0).getProperties().size() > 1); // subjects, properties and each property queried
+			assertEquals(1, locator.opened);
+		} finally {
+			FileManager.setGlobalFileManager(previous);
+		}
+	}
+	
+	/** counts how often the test document is opened */
+	private static class CountingLocator implements Locator {
+		private final Locator files = new LocatorFile(null);
+		int opened = 0;
+		
+		public TypedStream open(String filenameOrURI) {
+			if (!filenameOrURI.endsWith(Constants.ISWC_EXAMPLE_DATA.substring("file:".length())))
+				return null; // not the test document, use the standard locators
+			TypedStream in = files.open(filenameOrURI);
+			if (in != null)
+				opened++;
+			return in;
+		}
+		
+		public String getName() {
+			return "CountingLocator";
+		}
+	}
+}
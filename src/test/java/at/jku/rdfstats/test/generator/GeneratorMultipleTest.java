@@ -0,0 +1,67 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.generator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.GeneratorMultiple;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.test.Constants;
+
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * @author dorgon
+ *
+ */
+public class GeneratorMultipleTest extends TestCase {
+
+	public void testConcurrentDocuments() throws Exception {
+		List<String> docs = new ArrayList<String>();
+		docs.add(Constants.DATATYPE_SAMPLES_DATA);
+		docs.add(Constants.ISWC_EXAMPLE_DATA);
+		docs.add("file:testing/multiple-types-data.n3");
+		docs.add(Constants.ISWC_EXAMPLE_DATA); // duplicate, processed once
+
+		RDFStatsConfiguration cfg = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, docs, null, null, null, null, false, null);
+		cfg.setConcurrentSources(3);
+		cfg.setMaxCharacteristicSets(1000);
+		GeneratorMultiple gen = new GeneratorMultiple(cfg);
+		RDFStatsModel actual = RDFStatsModelFactory.create(gen.generate());
+
+		assertEquals(3, gen.getResults().size());
+		for (GeneratorMultiple.SourceResult r : gen.getResults())
+			assertTrue(r.isSuccessful());
+		assertEquals(3, actual.getDatasets().size());
+
+		for (int i=0; i<3; i++) {
+			RDFStatsConfiguration single = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, null, null, null, null, false, null);
+			single.setMaxCharacteristicSets(1000);
+			RDFStatsGeneratorBase g = RDFStatsGeneratorFactory.generatorDocument(single, docs.get(i));
+			g.generate();
+			RDFStatsModel expected = g.getRDFStatsModel();
+			RDFStatsDataset ds = expected.getDatasets().get(0);
+			StreamGeneratorTest.compare(expected, actual, ds.getSourceUrl());
+		}
+	}
+}
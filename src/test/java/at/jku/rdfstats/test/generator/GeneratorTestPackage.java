@@ -0,0 +1,38 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.generator;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * @author dorgon
+ *
+ */
+public class GeneratorTestPackage extends TestCase {
+
+	public static Test suite() {
+		TestSuite s = new TestSuite("Generator tests");
+		s.addTestSuite(DocumentGeneratorTest.class);
+		s.addTestSuite(StreamGeneratorTest.class);
+		s.addTestSuite(ParallelGeneratorTest.class);
+		s.addTestSuite(GeneratorMultipleTest.class);
+		s.addTestSuite(PagedGeneratorTest.class);
+		s.addTestSuite(AggregatePushdownTest.class);
+		return s;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.generator;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.GeneratorException;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.generator.PagedSolutionIterator;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.generator.RDFStatsGeneratorModel;
+import at.jku.rdfstats.test.Constants;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+
+/**
+ * @author dorgon
+ *
+ */
+public class PagedGeneratorTest extends TestCase {
+
+	public void testPagedIterator() throws Exception {
+		Model data = FileManager.get().loadModel(Constants.ISWC_EXAMPLE_DATA);
+		RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorModel(data, Stats.RDFDocument.getURI(), Constants.ISWC_EXAMPLE_DATA);
+
+		for (int pageSize : new int[] { 0, 1, 7, (int) data.size(), 100000 }) {
+			PagedSolutionIterator it = new PagedSolutionIterator(gen, QueryFactory.create("SELECT ?s ?p ?o WHERE { ?s ?p ?o }"), pageSize, true);
+			Set<String> seen = new HashSet<String>();
+			int n = 0;
+			try {
+				while (it.hasNext()) {
+					seen.add(it.next().toString());
+					n++;
+				}
+			} finally {
+				it.close();
+			}
+			assertEquals(data.size(), n);
+			assertEquals(data.size(), seen.size()); // no duplicates across pages
+		}
+	}
+
+	public void testCappedEndpoint() throws Exception {
+		Model data = FileManager.get().loadModel(Constants.ISWC_EXAMPLE_DATA);
+		int cap = (int) data.size() / 4; // endpoint returns fewer results than requested per page
+		CappedGenerator gen = new CappedGenerator(data, cap);
+		
+		PagedSolutionIterator it = new PagedSolutionIterator(gen, QueryFactory.create("SELECT ?s ?p ?o WHERE { ?s ?p ?o }"), cap * 2, true);
+		Set<String> seen = new HashSet<String>();
+		int n = 0;
+		try {
+			while (it.hasNext()) {
+				seen.add(it.next().toString());
+				n++;
+			}
+		} finally {
+			it.close();
+		}
+		assertEquals(data.size(), n);
+		assertEquals(data.size(), seen.size());
+		assertEquals(data.size() / cap + 1, gen.queries); // stops on the first page shorter than the cap
+	}
+
+	public void testPagedGenerator() throws Exception {
+		RDFStatsModel expected = generate(0, false);
+		StreamGeneratorTest.compare(expected, generate(5, false), expected.getDatasets().get(0).getSourceUrl());
+		StreamGeneratorTest.compare(expected, generate(5, true), expected.getDatasets().get(0).getSourceUrl());
+	}
+
+	private RDFStatsModel generate(int pageSize, boolean ordered) throws Exception {
+		RDFStatsConfiguration cfg = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, null, null, null, null, false, null);
+		cfg.setPageSize(pageSize);
+		cfg.setOrderedPaging(ordered);
+		cfg.setMaxCharacteristicSets(1000);
+		RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorDocument(cfg, Constants.DATATYPE_SAMPLES_DATA);
+		gen.generate();
+		return gen.getRDFStatsModel();
+	}
+	
+	/** simulates an endpoint limiting results to a maximum number per query */
+	private static class CappedGenerator extends RDFStatsGeneratorModel {
+		private final int cap;
+		private int queries = 0;
+		
+		CappedGenerator(Model model, int cap) throws GeneratorException {
+			super(model, Stats.SPARQLEndpoint.getURI(), "http://example.org/sparql");
+			this.cap = cap;
+		}
+		
+		@Override
+		public synchronized QueryExecution getQueryExecution(Query q) {
+			queries++;
+			if (!q.hasLimit() || q.getLimit() > cap) {
+				q = q.cloneQuery();
+				q.setLimit(cap);
+			}
+			return super.getQueryExecution(q);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.generator;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.test.Constants;
+
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * @author dorgon
+ *
+ */
+public class ParallelGeneratorTest extends TestCase {
+
+	public void testParallelDocument() throws Exception {
+		RDFStatsModel expected = generate(Constants.DATATYPE_SAMPLES_DATA, 1);
+		RDFStatsModel actual = generate(Constants.DATATYPE_SAMPLES_DATA, 4);
+		StreamGeneratorTest.compare(expected, actual, expected.getDatasets().get(0).getSourceUrl());
+	}
+
+	public void testParallelISWC() throws Exception {
+		RDFStatsModel expected = generate(Constants.ISWC_EXAMPLE_DATA, 1);
+		RDFStatsModel actual = generate(Constants.ISWC_EXAMPLE_DATA, 8);
+		StreamGeneratorTest.compare(expected, actual, expected.getDatasets().get(0).getSourceUrl());
+	}
+
+	private RDFStatsModel generate(String docUrl, int parallelism) throws Exception {
+		RDFStatsConfiguration cfg = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, null, null, null, null, false, null);
+		cfg.setParallelism(parallelism);
+		cfg.setMaxCharacteristicSets(1000);
+		assertEquals(parallelism, cfg.getParallelism());
+		RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorDocument(cfg, docUrl);
+		gen.generate();
+		return gen.getRDFStatsModel();
+	}
+}
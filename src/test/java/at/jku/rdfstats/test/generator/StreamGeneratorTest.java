@@ -0,0 +1,91 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.generator;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.CharacteristicSets;
+import at.jku.rdfstats.GeneratorException;
+import at.jku.rdfstats.JoinKeySketches;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.test.Constants;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+
+/**
+ * @author dorgon
+ *
+ */
+public class StreamGeneratorTest extends TestCase {
+
+	public void testStreamDocument() throws Exception {
+		RDFStatsModel expected = generate(RDFStatsGeneratorFactory.generatorDocument(config(), Constants.DATATYPE_SAMPLES_DATA));
+		RDFStatsModel actual = generate(RDFStatsGeneratorFactory.generatorStream(config(), Constants.DATATYPE_SAMPLES_DATA));
+		compare(expected, actual, expected.getDatasets().get(0).getSourceUrl());
+	}
+
+	public void testStreamGraph() throws Exception {
+		Model data = FileManager.get().loadModel(Constants.ISWC_EXAMPLE_DATA);
+		RDFStatsModel expected = generate(RDFStatsGeneratorFactory.generatorModel(config(), data, Stats.RDFDocument.getURI(), Constants.ISWC_EXAMPLE_DATA));
+		RDFStatsModel actual = generate(RDFStatsGeneratorFactory.generatorStream(config(), data.getGraph(), Stats.RDFDocument.getURI(), Constants.ISWC_EXAMPLE_DATA));
+		compare(expected, actual, Constants.ISWC_EXAMPLE_DATA);
+	}
+
+	private RDFStatsConfiguration config() {
+		RDFStatsConfiguration cfg = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, null, null, null, null, false, null);
+		cfg.setMaxCharacteristicSets(1000);
+		return cfg;
+	}
+
+	private RDFStatsModel generate(RDFStatsGeneratorBase gen) throws GeneratorException {
+		gen.generate();
+		return gen.getRDFStatsModel();
+	}
+
+	public static void compare(RDFStatsModel expected, RDFStatsModel actual, String sourceUrl) throws RDFStatsModelException {
+		assertEquals(expected.getSubjectHistogramEncoded(sourceUrl, false), actual.getSubjectHistogramEncoded(sourceUrl, false));
+		assertEquals(expected.getSubjectHistogramEncoded(sourceUrl, true), actual.getSubjectHistogramEncoded(sourceUrl, true));
+
+		assertEquals(expected.getPropertyHistogramProperties(sourceUrl).size(), actual.getPropertyHistogramProperties(sourceUrl).size());
+		for (String p : expected.getPropertyHistogramProperties(sourceUrl)) {
+			assertEquals(expected.getPropertyHistogramRanges(sourceUrl, p).size(), actual.getPropertyHistogramRanges(sourceUrl, p).size());
+			for (String r : expected.getPropertyHistogramRanges(sourceUrl, p))
+				assertEquals(expected.getPropertyHistogramEncoded(sourceUrl, p, r), actual.getPropertyHistogramEncoded(sourceUrl, p, r));
+		}
+		
+		RDFStatsDataset ds = expected.getDatasets().get(0);
+		CharacteristicSets cs = ds.getCharacteristicSets();
+		assertNotNull(cs);
+		assertEquals(cs.encode(), actual.getDataset(ds.getSourceUrl()).getCharacteristicSets().encode());
+		
+		// blank node labels differ between the runs, so only the sizes are compared
+		JoinKeySketches expectedKeys = ds.getJoinKeySketches();
+		JoinKeySketches actualKeys = actual.getDataset(ds.getSourceUrl()).getJoinKeySketches();
+		assertNotNull(expectedKeys);
+		assertEquals(expectedKeys.getProperties(), actualKeys.getProperties());
+		for (String p : expectedKeys.getProperties()) {
+			assertEquals(expectedKeys.getSubjectKeys(p).getTriples(), actualKeys.getSubjectKeys(p).getTriples());
+			assertEquals(expectedKeys.getObjectKeys(p).getTriples(), actualKeys.getObjectKeys(p).getTriples());
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.misc;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.hist.builder.LongCountMap;
+
+/**
+ * @author dorgon
+ *
+ */
+public class LongCountMapTest extends TestCase {
+	
+	public void testCounts() {
+		LongCountMap map = new LongCountMap();
+		Map<Long, Integer> expected = new TreeMap<Long, Integer>();
+		Random rnd = new Random(5);
+		for (int i=0; i<100000; i++) {
+			long key = (rnd.nextBoolean()) ? rnd.nextInt(1000) - 500 : rnd.nextLong();
+			map.add(key);
+			expected.put(key, (expected.containsKey(key) ? expected.get(key) : 0) + 1);
+		}
+		map.add(0L);
+		expected.put(0L, (expected.containsKey(0L) ? expected.get(0L) : 0) + 1);
+		
+		assertEquals(expected.size(), map.size());
+		long[] keys = map.getSortedKeys();
+		int i = 0;
+		for (Long key : expected.keySet()) {
+			assertEquals(key.longValue(), keys[i++]);
+			assertEquals(expected.get(key).intValue(), map.get(key));
+		}
+		assertEquals(0, map.get(123456789012L));
+	}
+	
+	public void testEmpty() {
+		LongCountMap map = new LongCountMap();
+		assertEquals(0, map.size());
+		assertEquals(0, map.getSortedKeys().length);
+		assertEquals(0, map.get(0L));
+	}
+}
@@ -29,6 +29,8 @@ public class MiscTestPackage extends TestCase {
 		TestSuite s = new TestSuite("Misc tests");
 		s.addTestSuite(HistogramBuilderFactoryTest.class);
 		s.addTestSuite(PrefixSearchTreeMapTest.class);
+		s.addTestSuite(LongCountMapTest.class);
+		s.addTestSuite(PrefixTrieTest.class);
 		return s;
 	}
 }
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.misc;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.hist.builder.HyperLogLog;
+import at.jku.rdfstats.hist.builder.PrefixTrie;
+import at.jku.rdfstats.hist.builder.URIHistogramBuilder;
+
+/**
+ * @author dorgon
+ *
+ */
+public class PrefixTrieTest extends TestCase {
+	
+	public void testCharacterLevels() {
+		PrefixTrie trie = new PrefixTrie(PrefixTrie.CHARACTERS, false);
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		Random rnd = new Random(7);
+		int maxLength = 0;
+		for (int i=0; i<20000; i++) {
+			StringBuilder sb = new StringBuilder();
+			int len = rnd.nextInt(12);
+			for (int j=0; j<len; j++)
+				sb.append((char) ('a' + rnd.nextInt(4)));
+			String s = sb.toString();
+			trie.add(s);
+			counts.put(s, (counts.containsKey(s) ? counts.get(s) : 0) + 1);
+			maxLength = Math.max(maxLength, len);
+		}
+		assertEquals(counts.size(), trie.size());
+		assertEquals(20000, trie.getTotal());
+		
+		int[] sizes = trie.getLevelSizes();
+		assertEquals(maxLength + 1, sizes.length);
+		for (int length=0; length<=maxLength; length++) {
+			// expected bins: values cut to length
+			TreeMap<String, Integer> bins = new TreeMap<String, Integer>();
+			Map<String, Set<String>> distinct = new HashMap<String, Set<String>>();
+			for (String s : counts.keySet()) {
+				String label = (s.length() > length) ? s.substring(0, length) : s;
+				bins.put(label, (bins.containsKey(label) ? bins.get(label) : 0) + counts.get(s));
+				if (!distinct.containsKey(label))
+					distinct.put(label, new HashSet<String>());
+				distinct.get(label).add(s);
+			}
+			
+			assertEquals(bins.size(), sizes[length]);
+			List<PrefixTrie.Bin> result = trie.getBins(length);
+			assertEquals(bins.size(), result.size());
+			int i = 0;
+			for (String label : bins.keySet()) {
+				PrefixTrie.Bin bin = result.get(i++);
+				assertEquals(label, bin.getLabel());
+				assertEquals(bins.get(label).intValue(), bin.getQuantity());
+				assertEquals(distinct.get(label).size(), bin.getDistinct());
+			}
+		}
+	}
+	
+	public void testURIs() {
+		PrefixTrie trie = new PrefixTrie(URIHistogramBuilder.SEPARATORS, true);
+		String[] data = { "http://dbpedia.org", "http://dbpedia.org/", "http://dbpedia.org/", "http://dbpedia.org/resource/Vienna",
+				"http://dbpedia.org/resource/Vienna/", "http://dbpedia.org/resource/Austria", "http://google.com/foo", "urn:x" };
+		for (String s : data)
+			trie.add(s);
+		assertEquals(7, trie.size());
+		
+		int[] sizes = trie.getLevelSizes();
+		assertEquals(4, sizes.length);
+		assertEquals(3, sizes[0]); // domains and urn:x
+		assertEquals(4, sizes[1]);
+		assertEquals(5, sizes[2]);
+		assertEquals(7, sizes[3]); // uncut, trailing slashes are only ignored at cut levels
+		
+		List<PrefixTrie.Bin> bins = trie.getBins(0);
+		assertEquals("http://dbpedia.org", bins.get(0).getLabel());
+		assertEquals(6, bins.get(0).getQuantity());
+		assertEquals(5, bins.get(0).getDistinct());
+		assertEquals("http://google.com", bins.get(1).getLabel());
+		assertEquals("urn:x", bins.get(2).getLabel());
+		
+		bins = trie.getBins(1);
+		assertEquals("http://dbpedia.org", bins.get(0).getLabel());
+		assertEquals(3, bins.get(0).getQuantity());
+		assertEquals(2, bins.get(0).getDistinct());
+		assertEquals("http://dbpedia.org/resource", bins.get(1).getLabel());
+		assertEquals(3, bins.get(1).getQuantity());
+		assertEquals("http://google.com/foo", bins.get(2).getLabel());
+		
+		bins = trie.getBins(2);
+		assertEquals("http://dbpedia.org/resource/Austria", bins.get(1).getLabel());
+		assertEquals("http://dbpedia.org/resource/Vienna", bins.get(2).getLabel());
+		assertEquals(2, bins.get(2).getQuantity());
+		
+		// the deepest level keeps each key, also those with trailing slashes
+		for (int level : new int[] { 3, Integer.MAX_VALUE }) {
+			bins = trie.getBins(level);
+			assertEquals(7, bins.size());
+			assertEquals("http://dbpedia.org", bins.get(0).getLabel());
+			assertEquals(1, bins.get(0).getQuantity());
+			assertEquals("http://dbpedia.org/", bins.get(1).getLabel());
+			assertEquals(2, bins.get(1).getQuantity());
+			assertEquals("http://dbpedia.org/resource/Vienna", bins.get(3).getLabel());
+			assertEquals("http://dbpedia.org/resource/Vienna/", bins.get(4).getLabel());
+			for (PrefixTrie.Bin bin : bins)
+				assertEquals(1, bin.getDistinct());
+		}
+		
+		assertEquals("http://dbpedia.org", trie.cut("http://dbpedia.org/resource/Linz", 0));
+		assertEquals("http://dbpedia.org/resource", trie.cut("http://dbpedia.org/resource/Linz", 1));
+		assertEquals("http://dbpedia.org/resource/Linz", trie.cut("http://dbpedia.org/resource/Linz", 2));
+	}
+	
+	public void testTruncate() {
+		PrefixTrie trie = new PrefixTrie(PrefixTrie.CHARACTERS, false);
+		for (int i=0; i<30000; i++) {
+			String s = "v" + (i % 10) + "-" + (i % 5000);
+			trie.add(s, HyperLogLog.hash(s));
+		}
+		assertEquals(5000, trie.size());
+		
+		trie.truncate(2);
+		assertEquals(10, trie.size());
+		assertEquals(30000, trie.getTotal());
+		for (int i=0; i<1000; i++) {
+			String s = "v" + (i % 10) + "-new" + i;
+			trie.add(trie.cut(s, 2), HyperLogLog.hash(s));
+		}
+		assertEquals(10, trie.size());
+		
+		List<PrefixTrie.Bin> bins = trie.getBins(Integer.MAX_VALUE);
+		assertEquals(10, bins.size());
+		double maxError = 3 * HyperLogLog.getStandardError(PrefixTrie.COUNTER_PRECISION);
+		for (int i=0; i<10; i++) {
+			assertEquals("v" + i, bins.get(i).getLabel());
+			assertEquals(3100, bins.get(i).getQuantity());
+			assertEquals(600, bins.get(i).getDistinct(), maxError * 600);
+		}
+	}
+	
+	public void testEmpty() {
+		PrefixTrie trie = new PrefixTrie(PrefixTrie.CHARACTERS, false);
+		assertEquals(0, trie.size());
+		assertEquals(1, trie.getLevelSizes().length);
+		assertEquals(0, trie.getBins(0).size());
+	}
+}
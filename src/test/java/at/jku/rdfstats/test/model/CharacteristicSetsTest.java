@@ -0,0 +1,180 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.CharacteristicSets;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+import static at.jku.rdfstats.test.Constants.*;
+import static at.jku.rdfstats.test.model.EstimationAssert.*;
+
+/**
+ * @author dorgon
+ *
+ */
+public class CharacteristicSetsTest extends TestCase {
+	private static final String P = "http://example.org/p";
+	private static final String Q = "http://example.org/q";
+	private static final String R = "http://example.org/r";
+	
+	public void testCollector() throws Exception {
+		CharacteristicSets.Collector c = new CharacteristicSets.Collector();
+		for (int i = 0; i < 10; i++) { // 10 x { p, p, q }
+			Node s = Node.createURI("http://example.org/a" + i);
+			c.add(s, P);
+			c.add(s, Q);
+			c.add(s, P);
+		}
+		for (int i = 0; i < 5; i++) // 5 x { p }
+			c.add(Node.createURI("http://example.org/b" + i), P);
+		c.add(Node.createURI("http://example.org/c"), R); // 1 x { r }
+		
+		CharacteristicSets cs = c.getCharacteristicSets(10);
+		assertEquals(3, cs.size());
+		assertEquals(16, cs.getSubjectsTotal());
+		assertEquals(Arrays.asList(P, Q), cs.getProperties(0));
+		assertEquals(10, cs.getSubjects(0));
+		assertEquals(20, cs.getOccurrences(0, P));
+		assertEquals(15, cs.getSubjects(Arrays.asList(P)));
+		assertEquals(10, cs.getSubjects(Arrays.asList(Q, P)));
+		
+		// 10 subjects x 2 p-values x 1 q-value
+		assertEquals(20d, cs.estimateStar(Arrays.asList(P, Q)));
+		// 10 x 2 x 2 + 5 x 1 x 1
+		assertEquals(45d, cs.estimateStar(Arrays.asList(P, P)));
+		assertEquals(0d, cs.estimateStar(Arrays.asList(P, R)));
+		
+		// every subject has 1 solution at least, at most 2 p-values x 1 q-value
+		assertTrue(Arrays.equals(new double[] { 10, 20 }, cs.boundStar(Arrays.asList(P, Q))));
+		assertTrue(Arrays.equals(new double[] { 15, 45 }, cs.boundStar(Arrays.asList(P, P))));
+		assertTrue(Arrays.equals(new double[] { 10, 10 }, cs.boundStar(Arrays.asList(Q)))); // exact
+		assertTrue(Arrays.equals(new double[] { 0, 0 }, cs.boundStar(Arrays.asList(P, R))));
+		
+		CharacteristicSets decoded = CharacteristicSets.decode(cs.encode());
+		assertEquals(cs.encode(), decoded.encode());
+		assertEquals(45d, decoded.estimateStar(Arrays.asList(P, P)));
+		
+		// { p } is merged into { p, q }, { r } has no superset and is dropped
+		CharacteristicSets limited = c.getCharacteristicSets(1);
+		assertEquals(1, limited.size());
+		assertEquals(15, limited.getSubjects(0));
+		assertEquals(25, limited.getOccurrences(0, P));
+		assertEquals(1, limited.getDroppedSubjects());
+		assertEquals(16, limited.getSubjectsTotal());
+		assertEquals(5, limited.getMergedSubjects(0));
+		assertEquals(2, limited.getMaxOccurrences(0, P));
+		
+		// the average misses that merged subjects lack q: 15 x 25/15 x 10/15 = 27.8 but actually 20 solutions,
+		// the merged subjects may have no solution and the dropped ones aren't part of the star
+		assertEquals(25d * 10 / 15, limited.estimateStar(Arrays.asList(P, Q)), 0.001);
+		assertTrue(Arrays.equals(new double[] { 10, 30 }, limited.boundStar(Arrays.asList(P, Q))));
+		assertTrue(Arrays.equals(new double[] { 0, 1 }, limited.boundStar(Arrays.asList(R))));
+		assertEquals(limited.encode(), CharacteristicSets.decode(limited.encode()).encode());
+		
+		c.invalidate();
+		assertFalse(c.isComplete());
+	}
+	
+	public void testMerge() throws Exception {
+		// the scans of p and q collect into their own collectors like the parallel generator's workers
+		CharacteristicSets.Collector all = new CharacteristicSets.Collector();
+		CharacteristicSets.Collector scanP = new CharacteristicSets.Collector();
+		CharacteristicSets.Collector scanQ = new CharacteristicSets.Collector();
+		for (int i = 0; i < 20; i++) {
+			Node s = Node.createURI("http://example.org/a" + i);
+			for (int j = 0; j <= i % 3; j++) {
+				all.add(s, P);
+				scanP.add(s, P);
+			}
+			if (i % 2 == 0) {
+				all.add(s, Q);
+				scanQ.add(s, Q);
+			}
+		}
+		
+		CharacteristicSets.Collector merged = new CharacteristicSets.Collector();
+		merged.addAll(scanP);
+		merged.addAll(scanQ);
+		assertTrue(merged.isComplete());
+		assertEquals(all.getCharacteristicSets(10).encode(), merged.getCharacteristicSets(10).encode());
+		assertEquals(all.getCharacteristicSets(1).encode(), merged.getCharacteristicSets(1).encode());
+		
+		CharacteristicSets.Collector scanR = new CharacteristicSets.Collector();
+		scanR.add(Node.createURI("http://example.org/a0"), R);
+		scanR.invalidate();
+		merged.addAll(scanR);
+		assertFalse(merged.isComplete());
+		merged.addAll(scanP);
+		assertFalse(merged.isComplete());
+	}
+	
+	public void testStarEstimation() throws Exception {
+		Model data = FileManager.get().loadModel(ISWC_EXAMPLE_DATA);
+		RDFStatsConfiguration config = RDFStatsConfiguration.create(ModelFactory.createDefaultModel(), null, null, null, null, null, null, false, null);
+		config.setMaxCharacteristicSets(1000);
+		RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorModel(config, data, Stats.RDFDocument.getURI(), ISWC_EXAMPLE_DATA);
+		gen.generate();
+		RDFStatsModel stats = gen.getRDFStatsModel();
+		RDFStatsDataset ds = stats.getDatasets().get(0);
+		assertNotNull(ds.getCharacteristicSets());
+		
+		String star = ISWC_PREFIXES + "SELECT * WHERE { ?s rdf:type ?t ; rdfs:label ?l ; foaf:name ?n }";
+		long actual = count(data, star);
+		assertTrue(actual > 0);
+		Long[] e = ds.triplesForQuery(star);
+		assertEquals(actual, (long) e[1]);
+		assertTrue(e[0] > 0 && e[0] <= actual && e[2] >= actual);
+		assertTrue(e[0] < e[2]); // some subjects have several values of a property
+		
+		// joined groups of the same star
+		String join = ISWC_PREFIXES + "SELECT * WHERE { { ?s rdf:type ?t } { ?s rdfs:label ?l ; foaf:name ?n } }";
+		assertEquals(actual, count(data, join));
+		assertEquals(Arrays.asList(e), Arrays.asList(ds.triplesForQuery(join)));
+		
+		// a constant object narrows the star, the estimate is bounded by the star without it
+		String typed = ISWC_PREFIXES + "SELECT * WHERE { ?s rdf:type foaf:Person ; rdfs:label ?l ; foaf:name ?n }";
+		Long[] t = ds.triplesForQuery(typed);
+		assertEquals(0L, (long) t[0]);
+		assertTrue(t[1] <= actual && t[2].equals(e[2]));
+		
+		// shared objects narrow the star as well
+		Long[] shared = ds.triplesForQuery(ISWC_PREFIXES + "SELECT * WHERE { ?s rdfs:label ?l ; foaf:name ?l }");
+		assertEquals(0L, (long) shared[0]);
+		
+		// characteristic sets are persisted with the statistics
+		StringWriter w = new StringWriter();
+		stats.getWrappedModel().write(w, "N3");
+		Model m = ModelFactory.createDefaultModel();
+		m.read(new StringReader(w.toString()), null, "N3");
+		RDFStatsDataset loaded = RDFStatsModelFactory.create(m).getDatasets().get(0);
+		assertEquals(ds.getCharacteristicSets().encode(), loaded.getCharacteristicSets().encode());
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.jku.rdfstats.test.model;
+
+import junit.framework.Assert;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * assertions comparing cardinality estimates to the actual result sizes of queries
+ * 
+ * @author dorgon
+ *
+ */
+public class EstimationAssert extends Assert {
+	
+	/**
+	 * asserts the estimate is within a factor of 2 of the actual result size and its range includes it
+	 * 
+	 * @param actual
+	 * @param estimate { min, estimate, max }
+	 */
+	public static void assertEstimate(long actual, Long[] estimate) {
+		assertTrue(actual > 0);
+		assertTrue("estimate " + estimate[1] + " for " + actual, estimate[1] >= actual / 2 && estimate[1] <= actual * 2);
+		assertTrue(estimate[0] <= actual && estimate[2] >= actual);
+	}
+	
+	/**
+	 * @param data
+	 * @param qry a SELECT query in ARQ syntax
+	 * @return the actual number of solutions
+	 */
+	public static long count(Model data, String qry) {
+		Query q = QueryFactory.create(qry, Syntax.syntaxARQ);
+		ResultSet r = QueryExecutionFactory.create(q, data).execSelect();
+		long n = 0;
+		while (r.hasNext()) {
+			r.next();
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.HistogramCache;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.RDFStatsModelImpl;
+import at.jku.rdfstats.hist.GenericSingleBinHistogram;
+import at.jku.rdfstats.hist.Histogram;
+
+import com.hp.hpl.jena.sparql.vocabulary.FOAF;
+import com.hp.hpl.jena.vocabulary.XSD;
+import static at.jku.rdfstats.test.Constants.*;
+
+/**
+ * @author dorgon
+ *
+ */
+public class HistogramCacheTest extends TestCase {
+	private static final String RANGE = XSD.xstring.getURI();
+	
+	public void testCollidingKeys() {
+		// "Aa" and "BB" have the same hash code
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		
+		HistogramCache c = new HistogramCache();
+		Histogram<?> h1 = histogram(1);
+		Histogram<?> h2 = histogram(2);
+		c.put(null, "Aa", RANGE, h1, 100);
+		c.put(null, "BB", RANGE, h2, 100);
+		assertSame(h1, c.get(null, "Aa", RANGE));
+		assertSame(h2, c.get(null, "BB", RANGE));
+		assertNull(c.get("http://example.org/sparql", "Aa", RANGE));
+		assertEquals(2, c.getHitCount());
+		assertEquals(1, c.getMissCount());
+	}
+	
+	public void testEviction() {
+		HistogramCache c = new HistogramCache(1000, 1);
+		for (int i = 0; i < 10; i++)
+			c.put(null, "p" + i, RANGE, histogram(i), 200);
+		assertEquals(5, c.size());
+		assertEquals(1000, c.getWeight());
+		assertEquals(5, c.getEvictionCount());
+		assertNull(c.get(null, "p0", RANGE));
+		assertNotNull(c.get(null, "p9", RANGE));
+		
+		// recently accessed entries are kept
+		assertNotNull(c.get(null, "p5", RANGE));
+		c.put(null, "p10", RANGE, histogram(10), 200);
+		assertNotNull(c.get(null, "p5", RANGE));
+		assertNull(c.get(null, "p6", RANGE));
+		
+		// too heavy
+		c.put(null, "p11", RANGE, histogram(11), 2000);
+		assertNull(c.get(null, "p11", RANGE));
+		assertEquals(5, c.size());
+	}
+	
+	public void testRemove() {
+		HistogramCache c = new HistogramCache();
+		String src = "http://example.org/sparql";
+		c.put(src, "p", RANGE, histogram(1), 100);
+		c.put(null, "p", RANGE, histogram(1), 100);
+		c.put("http://example.org/other", "p", RANGE, histogram(1), 100);
+		c.remove(src, "p", RANGE);
+		assertNull(c.get(src, "p", RANGE));
+		assertNull(c.get(null, "p", RANGE));
+		assertNotNull(c.get("http://example.org/other", "p", RANGE));
+		
+		c.put(src, "q", RANGE, histogram(1), 100);
+		c.put(null, "q", RANGE, histogram(1), 100);
+		c.removeSource(src);
+		assertEquals(1, c.size());
+		assertEquals(100, c.getWeight());
+	}
+	
+	public void testVersions() {
+		HistogramCache c = new HistogramCache();
+		Object v1 = new String("a");
+		Object v2 = new String("a");
+		Histogram<?> h = histogram(1);
+		c.put(null, "p", RANGE, h, 100, v1);
+		assertSame(h, c.get(null, "p", RANGE, v1));
+		assertSame(h, c.get(null, "p", RANGE));
+		assertNull(c.get(null, "p", RANGE, v2)); // equal, but another version
+		
+		c.put(null, "p", RANGE, histogram(2), 100, v2);
+		assertNull(c.get(null, "p", RANGE, v1));
+		assertEquals(1, c.size());
+	}
+	
+	public void testModelCache() throws RDFStatsModelException {
+		RDFStatsModel m = RDFStatsModelFactory.create(ISWC_EXAMPLE_STATS, "N3");
+		HistogramCache c = ((RDFStatsModelImpl) m).getHistogramCache();
+		Histogram<?> h = m.getPropertyHistogram(null, FOAF.name.getURI(), RANGE);
+		assertSame(h, m.getPropertyHistogram(null, FOAF.name.getURI(), RANGE));
+		assertEquals(1, c.size());
+		assertEquals(1, c.getHitCount());
+		assertTrue(c.getWeight() > 0);
+	}
+	
+	private Histogram<?> histogram(int total) {
+		return new GenericSingleBinHistogram(RANGE, total, total, new int[] { 1, 1, 1 }, null);
+	}
+}
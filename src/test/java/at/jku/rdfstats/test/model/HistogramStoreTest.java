@@ -0,0 +1,188 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.HistogramStore;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.RDFStatsUpdatableModel;
+import at.jku.rdfstats.hist.Histogram;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import static at.jku.rdfstats.test.Constants.*;
+
+/**
+ * @author dorgon
+ *
+ */
+public class HistogramStoreTest extends TestCase {
+	private static final String SRC = "http://example.org/sparql";
+	private static final String RANGE = "http://www.w3.org/2001/XMLSchema#string";
+	
+	private File file;
+	
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("histograms", ".bin");
+		file.delete();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+	
+	public void testAppendAndReopen() throws RDFStatsModelException, IOException {
+		HistogramStore s = new HistogramStore(file);
+		s.put(SRC, "http://example.org/p", RANGE, new byte[] { 1, 2, 3 });
+		s.put(SRC, null, RANGE, new byte[] { 4 });
+		s.put(SRC, "http://example.org/\u00e4", RANGE, new byte[] { 5, 6 });
+		s.put(SRC, "http://example.org/p", RANGE, new byte[] { 7, 8 }); // supersedes
+		assertTrue(s.remove(SRC, "http://example.org/\u00e4", RANGE));
+		assertFalse(s.remove(SRC, "http://example.org/q", RANGE));
+		assertEquals(2, s.size());
+		assertBytes(new byte[] { 7, 8 }, s.get(SRC, "http://example.org/p", RANGE));
+		assertBytes(new byte[] { 4 }, s.get(SRC, null, RANGE));
+		assertNull(s.get(SRC, "http://example.org/\u00e4", RANGE));
+		assertTrue(s.getGarbage() > 0);
+		s.close();
+		long length = file.length();
+		
+		// incomplete trailing record of an interrupted append
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(length);
+		raf.writeInt(1000);
+		raf.write(new byte[] { 1, 2, 3 });
+		raf.close();
+		
+		s = new HistogramStore(file);
+		assertEquals(2, s.size());
+		assertBytes(new byte[] { 7, 8 }, s.get(SRC, "http://example.org/p", RANGE));
+		assertBytes(new byte[] { 4 }, s.get(SRC, null, RANGE));
+		
+		// overwrites the incomplete record
+		s.put(SRC, "http://example.org/q", RANGE, new byte[] { 9 });
+		s.compact();
+		assertEquals(0, s.getGarbage());
+		assertEquals(3, s.size());
+		assertBytes(new byte[] { 9 }, s.get(SRC, "http://example.org/q", RANGE));
+		assertBytes(new byte[] { 7, 8 }, s.get(SRC, "http://example.org/p", RANGE));
+		
+		s.removeSource(SRC);
+		assertEquals(0, s.size());
+		s.close();
+	}
+	
+	public void testRefresh() throws RDFStatsModelException {
+		HistogramStore writer = new HistogramStore(file);
+		HistogramStore reader = new HistogramStore(file);
+		writer.put(SRC, "http://example.org/p", RANGE, new byte[] { 1 });
+		assertFalse(reader.contains(SRC, "http://example.org/p", RANGE));
+		reader.refresh();
+		assertBytes(new byte[] { 1 }, reader.get(SRC, "http://example.org/p", RANGE));
+		writer.close();
+		reader.close();
+	}
+	
+	public void testSharedAppends() throws RDFStatsModelException {
+		// e.g. two processes appending to the same store without refreshing in between
+		HistogramStore a = new HistogramStore(file);
+		HistogramStore b = new HistogramStore(file);
+		a.put(SRC, "http://example.org/p", RANGE, new byte[] { 1 });
+		b.put(SRC, "http://example.org/q", RANGE, new byte[] { 2 });
+		a.put(SRC, "http://example.org/r", RANGE, new byte[] { 3, 4 });
+		assertBytes(new byte[] { 2 }, a.get(SRC, "http://example.org/q", RANGE)); // indexed when appending
+		a.close();
+		b.close();
+		
+		HistogramStore s = new HistogramStore(file);
+		assertEquals(3, s.size());
+		assertBytes(new byte[] { 1 }, s.get(SRC, "http://example.org/p", RANGE));
+		assertBytes(new byte[] { 2 }, s.get(SRC, "http://example.org/q", RANGE));
+		assertBytes(new byte[] { 3, 4 }, s.get(SRC, "http://example.org/r", RANGE));
+		s.close();
+	}
+	
+	public void testNoStore() throws IOException, RDFStatsModelException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.writeInt(12345678);
+		raf.writeInt(1);
+		raf.close();
+		try {
+			new HistogramStore(file);
+			fail("Invalid histogram store not detected.");
+		} catch (RDFStatsModelException expected) {}
+	}
+	
+	public void testModel() throws RDFStatsModelException {
+		RDFStatsModel example = RDFStatsModelFactory.create(ISWC_EXAMPLE_STATS, "N3");
+		RDFStatsDataset exampleDs = example.getDatasets().get(0);
+		String src = exampleDs.getSourceUrl();
+		String p = example.getPropertyHistogramProperties(src).get(0);
+		String range = example.getPropertyHistogramRanges(src, p).get(0);
+		
+		Model rdf = ModelFactory.createDefaultModel();
+		HistogramStore store = new HistogramStore(file);
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.create(rdf, store).asUpdatableModel();
+		assertTrue(m.updateFrom(example, false));
+		assertFalse(rdf.contains(null, RDF.value));
+		assertTrue(store.size() > 0);
+		assertEquals(example.getPropertyHistogramEncoded(src, p, range), m.getPropertyHistogramEncoded(src, p, range));
+		assertEquals(example.getSubjectHistogramEncoded(src, false), m.getSubjectHistogramEncoded(src, false));
+		assertEquals(example.getPropertyHistogramEncoded(src, p, range), m.getPropertyHistogramEncoded(null, p, range));
+		Histogram<?> h = m.getPropertyHistogram(src, p, range);
+		assertEquals(example.getPropertyHistogram(src, p, range).getTotalValues(), h.getTotalValues());
+		store.close();
+		
+		// reopened
+		store = new HistogramStore(file);
+		RDFStatsModel m2 = RDFStatsModelFactory.create(rdf, store);
+		assertEquals(example.getPropertyHistogramEncoded(src, p, range), m2.getPropertyHistogramEncoded(src, p, range));
+		
+		// removed items are removed from the store
+		int size = store.size();
+		RDFStatsUpdatableModel u = m2.asUpdatableModel();
+		RDFStatsDataset ds = u.getDataset(src);
+		u.requestExclusiveWriteLock(ds);
+		try {
+			u.addOrUpdateSubjectHistogram(ds, false, example.getSubjectHistogramEncoded(src, false));
+			u.removeUnchangedItems(ds);
+		} finally {
+			u.returnExclusiveWriteLock(ds);
+		}
+		assertEquals(1, store.size());
+		assertTrue(size > 1);
+		assertNull(m2.getPropertyHistogram(src, p, range));
+		store.close();
+	}
+	
+	private static void assertBytes(byte[] expected, ByteBuffer actual) {
+		assertNotNull(actual);
+		assertEquals(expected.length, actual.remaining());
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], actual.get(i));
+	}
+}
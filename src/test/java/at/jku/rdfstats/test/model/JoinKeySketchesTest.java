@@ -0,0 +1,143 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.JoinKeySketches;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+import static at.jku.rdfstats.test.Constants.*;
+import static at.jku.rdfstats.test.model.EstimationAssert.*;
+
+/**
+ * @author dorgon
+ *
+ */
+public class JoinKeySketchesTest extends TestCase {
+	private static final String P = "http://example.org/p";
+	private static final String Q = "http://example.org/q";
+	
+	public void testOverlap() throws Exception {
+		// objects of p: b0..b999, subjects of q: b500..b1499 => 500 shared keys
+		JoinKeySketches.Collector exact = new JoinKeySketches.Collector(4096);
+		JoinKeySketches.Collector approx = new JoinKeySketches.Collector(256);
+		for (int i = 0; i < 1000; i++) {
+			Node a = Node.createURI("http://example.org/a" + i);
+			Node b = Node.createURI("http://example.org/b" + i);
+			Node b2 = Node.createURI("http://example.org/b" + (i + 500));
+			Node lit = Node.createLiteral("v" + i);
+			for (JoinKeySketches.Collector c : new JoinKeySketches.Collector[] { exact, approx }) {
+				c.add(a, P, b);
+				c.add(a, P, b); // duplicate keys are counted once
+				c.add(b2, Q, lit);
+			}
+		}
+		
+		JoinKeySketches e = exact.getJoinKeySketches();
+		assertTrue(e.getObjectKeys(P).isExact());
+		assertEquals(1000d, e.getObjectKeys(P).getDistinct());
+		assertEquals(2000, e.getObjectKeys(P).getTriples());
+		assertEquals(0, e.getObjectKeys(Q).getTriples()); // literals aren't keys
+		assertEquals(500d, JoinKeySketches.estimateOverlap(e.getObjectKeys(P), e.getSubjectKeys(Q)));
+		assertEquals(0d, JoinKeySketches.estimateOverlap(e.getObjectKeys(P), e.getSubjectKeys(P)));
+		
+		JoinKeySketches a = approx.getJoinKeySketches();
+		assertFalse(a.getObjectKeys(P).isExact());
+		assertEquals(1000d, a.getObjectKeys(P).getDistinct(), 250);
+		assertEquals(500d, JoinKeySketches.estimateOverlap(a.getObjectKeys(P), a.getSubjectKeys(Q)), 150);
+		
+		JoinKeySketches decoded = JoinKeySketches.decode(a.encode());
+		assertEquals(a.encode(), decoded.encode());
+		assertEquals(a.getObjectKeys(P).getDistinct(), decoded.getObjectKeys(P).getDistinct());
+		
+		approx.remove(P);
+		approx.add(Node.createURI("http://example.org/c"), P, Node.createURI("http://example.org/d"));
+		assertNull(approx.getJoinKeySketches().getObjectKeys(P));
+	}
+	
+	public void testMerge() throws Exception {
+		// the scans of p and q collect into their own collectors like the parallel generator's workers
+		JoinKeySketches.Collector all = new JoinKeySketches.Collector(64);
+		JoinKeySketches.Collector scanP = new JoinKeySketches.Collector(64);
+		JoinKeySketches.Collector scanQ = new JoinKeySketches.Collector(64);
+		JoinKeySketches.Collector scanP2 = new JoinKeySketches.Collector(64);
+		for (int i = 0; i < 300; i++) {
+			Node a = Node.createURI("http://example.org/a" + i);
+			Node b = Node.createURI("http://example.org/b" + i);
+			all.add(a, P, b);
+			all.add(b, Q, a);
+			((i < 150) ? scanP : scanP2).add(a, P, b); // same property merged twice
+			scanQ.add(b, Q, a);
+		}
+		
+		JoinKeySketches.Collector merged = new JoinKeySketches.Collector(64);
+		merged.addAll(scanP);
+		merged.addAll(scanQ);
+		merged.addAll(scanP2);
+		assertEquals(all.getJoinKeySketches().encode(), merged.getJoinKeySketches().encode());
+		
+		JoinKeySketches.Collector failed = new JoinKeySketches.Collector(64);
+		failed.remove(Q);
+		merged.addAll(failed);
+		assertNull(merged.getJoinKeySketches().getSubjectKeys(Q));
+		merged.addAll(scanQ);
+		assertNull(merged.getJoinKeySketches().getSubjectKeys(Q));
+		assertNotNull(merged.getJoinKeySketches().getSubjectKeys(P));
+	}
+	
+	public void testChainEstimation() throws Exception {
+		Model data = FileManager.get().loadModel(ISWC_EXAMPLE_DATA);
+		RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorModel(RDFStatsConfiguration.getDefault(), data, Stats.RDFDocument.getURI(), ISWC_EXAMPLE_DATA);
+		gen.generate();
+		RDFStatsModel stats = gen.getRDFStatsModel();
+		RDFStatsDataset ds = stats.getDatasets().get(0);
+		assertNotNull(ds.getJoinKeySketches());
+		
+		// papers and the names of their authors
+		String chain = ISWC_PREFIXES + "SELECT * WHERE { ?doc dc:creator ?p . ?p foaf:name ?n }";
+		assertEstimate(count(data, chain), ds.triplesForQuery(chain));
+		
+		String join = ISWC_PREFIXES + "SELECT * WHERE { { ?doc dc:creator ?p } { ?p foaf:name ?n } }";
+		assertEstimate(count(data, join), ds.triplesForQuery(join));
+		
+		// subjects without a join partner are kept
+		String optional = ISWC_PREFIXES + "SELECT * WHERE { ?p rdf:type foaf:Person OPTIONAL { ?p foaf:mbox ?m } }";
+		Long[] e = ds.triplesForQuery(optional);
+		assertEstimate(count(data, optional), e);
+		assertTrue(e[0] >= count(data, ISWC_PREFIXES + "SELECT * WHERE { ?p rdf:type foaf:Person }"));
+		
+		// join key sketches are persisted with the statistics
+		StringWriter w = new StringWriter();
+		stats.getWrappedModel().write(w, "N3");
+		Model m = ModelFactory.createDefaultModel();
+		m.read(new StringReader(w.toString()), null, "N3");
+		RDFStatsDataset loaded = RDFStatsModelFactory.create(m).getDatasets().get(0);
+		assertEquals(ds.getJoinKeySketches().encode(), loaded.getJoinKeySketches().encode());
+	}
+}
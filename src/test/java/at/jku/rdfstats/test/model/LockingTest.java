@@ -0,0 +1,230 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import java.util.Calendar;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.DatasetLockManager;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.RDFStatsUpdatableModel;
+import at.jku.rdfstats.RDFStatsUpdatableModelImpl;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.shared.Lock;
+
+/**
+ * @author dorgon
+ *
+ */
+public class LockingTest extends TestCase {
+	private static final String SRC = "http://example.org/sparql";
+	
+	public void testTryLock() throws InterruptedException {
+		final DatasetLockManager m = new DatasetLockManager();
+		m.lock(SRC);
+		assertSame(Thread.currentThread(), m.getOwner(SRC));
+		assertTrue(m.tryLock(null, 0)); // independent of the dataset locks
+		
+		final boolean[] result = new boolean[2];
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				result[0] = m.tryLock(SRC, 50);
+				result[1] = m.tryLock(SRC, 5000);
+			}
+		};
+		t.start();
+		Thread.sleep(500);
+		m.unlock(SRC);
+		t.join();
+		
+		assertFalse(result[0]);
+		assertTrue(result[1]);
+		assertSame(t, m.getOwner(SRC));
+		assertEquals(1, m.getTimeoutCount());
+		assertEquals(3, m.getAcquisitionCount());
+		assertEquals(1, m.getContentionCount());
+		assertTrue(m.getMaxWaitMillis() < 5000);
+		assertTrue(m.unlock(SRC));
+		assertFalse(m.unlock(SRC));
+	}
+	
+	public void testSharedModel() throws RDFStatsModelException, InterruptedException {
+		Model rdf = ModelFactory.createDefaultModel();
+		final RDFStatsUpdatableModel m1 = RDFStatsModelFactory.createUpdatable(rdf);
+		final RDFStatsUpdatableModel m2 = RDFStatsModelFactory.createUpdatable(rdf);
+		RDFStatsDataset ds = m1.addDatasetAndLock(SRC, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		final RDFStatsDataset ds2 = m2.getDataset(SRC);
+		assertFalse(m2.tryExclusiveWriteLock(ds2, 0));
+		
+		final long[] acquired = new long[1];
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				m2.requestExclusiveWriteLock(ds2);
+				acquired[0] = System.currentTimeMillis();
+				try {
+					m2.returnExclusiveWriteLock(ds2);
+				} catch (RDFStatsModelException e) {
+					fail(e.getMessage());
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(200);
+		long returned = System.currentTimeMillis();
+		m1.returnExclusiveWriteLock(ds);
+		t.join();
+		
+		// handed over without polling gaps
+		assertTrue(acquired[0] - returned < 1000);
+		assertEquals(1, ((RDFStatsUpdatableModelImpl) m1).getLockManager().getContentionCount());
+	}
+	
+	public void testLease() throws RDFStatsModelException {
+		Model rdf = ModelFactory.createDefaultModel();
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(rdf);
+		m.setLeaseDuration(60);
+		RDFStatsDataset ds = m.addDatasetAndLock(SRC, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		Resource r = ds.getWrappedResource();
+		assertTrue(r.hasProperty(Stats.leaseOwner));
+		assertTrue(r.hasProperty(Stats.leaseExpires));
+		m.returnExclusiveWriteLock(ds);
+		assertFalse(r.hasProperty(Stats.leaseOwner));
+		
+		// lease of another process
+		Calendar expires = Calendar.getInstance();
+		expires.add(Calendar.MINUTE, 1);
+		r.addProperty(Stats.leaseOwner, "4711@otherhost");
+		r.addProperty(Stats.leaseExpires, rdf.createTypedLiteral(expires));
+		assertFalse(m.tryExclusiveWriteLock(ds, 100));
+		assertNull(((RDFStatsUpdatableModelImpl) m).getLockManager().getOwner(SRC));
+		
+		// expired
+		r.removeAll(Stats.leaseExpires);
+		expires.add(Calendar.MINUTE, -2);
+		r.addProperty(Stats.leaseExpires, rdf.createTypedLiteral(expires));
+		assertTrue(m.tryExclusiveWriteLock(ds, 100));
+		assertFalse(r.hasProperty(Stats.leaseOwner, "4711@otherhost"));
+		m.returnExclusiveWriteLock(ds);
+		assertFalse(r.hasProperty(Stats.leaseOwner));
+	}
+	
+	public void testLeaseRenewal() throws Exception {
+		final Model rdfA = ModelFactory.createDefaultModel();
+		Model rdfB = ModelFactory.createDefaultModel();
+		RDFStatsUpdatableModel a = RDFStatsModelFactory.createUpdatable(rdfA);
+		RDFStatsUpdatableModel b = RDFStatsModelFactory.createUpdatable(rdfB);
+		a.setLeaseDuration(1);
+		b.setLeaseDuration(1);
+		RDFStatsDataset dsA = a.addDatasetAndLock(SRC, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		RDFStatsDataset dsB = b.addDatasetAndLock(SRC, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		
+		// a long write section of model A doesn't delay the renewals of model B
+		final CountDownLatch locked = new CountDownLatch(1);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				rdfA.enterCriticalSection(Lock.WRITE);
+				try {
+					locked.countDown();
+					Thread.sleep(2000);
+				} catch (InterruptedException ignore) {
+				} finally {
+					rdfA.leaveCriticalSection();
+				}
+			}
+		};
+		writer.start();
+		assertTrue(locked.await(5, TimeUnit.SECONDS));
+		long before = leaseExpires(dsB);
+		Thread.sleep(1000);
+		assertTrue(leaseExpires(dsB) > before);
+		
+		writer.join();
+		before = leaseExpires(dsA);
+		Thread.sleep(1000);
+		assertTrue(leaseExpires(dsA) > before);
+		
+		a.returnExclusiveWriteLock(dsA);
+		b.returnExclusiveWriteLock(dsB);
+		assertFalse(dsA.getWrappedResource().hasProperty(Stats.leaseOwner));
+		assertFalse(dsB.getWrappedResource().hasProperty(Stats.leaseOwner));
+	}
+	
+	public void testLeaseTakenOver() throws Exception {
+		final Model rdf = ModelFactory.createDefaultModel();
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(rdf);
+		m.setLeaseDuration(1);
+		final RDFStatsDataset ds = m.addDatasetAndLock(SRC, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		
+		// the renewals wait for the write section until the lease has expired, then another process takes it over
+		final String other = "4711@otherhost";
+		Thread foreign = new Thread() {
+			@Override
+			public void run() {
+				rdf.enterCriticalSection(Lock.WRITE);
+				try {
+					Thread.sleep(1500);
+					Resource r = ds.getWrappedResource();
+					r.removeAll(Stats.leaseOwner);
+					r.removeAll(Stats.leaseExpires);
+					Calendar c = Calendar.getInstance();
+					c.add(Calendar.SECOND, 10);
+					r.addProperty(Stats.leaseOwner, other);
+					r.addProperty(Stats.leaseExpires, rdf.createTypedLiteral(c));
+				} catch (InterruptedException ignore) {
+				} finally {
+					rdf.leaveCriticalSection();
+				}
+			}
+		};
+		foreign.start();
+		foreign.join();
+		long expires = leaseExpires(ds);
+		Thread.sleep(1000);
+		
+		// the renewal leaves the lease of the other process alone and further modifications fail
+		assertEquals(other, ds.getWrappedResource().getProperty(Stats.leaseOwner).getString());
+		assertEquals(expires, leaseExpires(ds));
+		try {
+			m.updateDataset(ds, "me@localhost", Calendar.getInstance());
+			fail("Modification without the lease.");
+		} catch (RDFStatsModelException expected) {}
+		
+		m.returnExclusiveWriteLock(ds);
+		assertEquals(other, ds.getWrappedResource().getProperty(Stats.leaseOwner).getString());
+	}
+	
+	private static long leaseExpires(RDFStatsDataset ds) {
+		Model m = ds.getWrappedResource().getModel();
+		m.enterCriticalSection(Lock.READ);
+		try {
+			return ((XSDDateTime) ds.getWrappedResource().getProperty(Stats.leaseExpires).getLiteral().getValue()).asCalendar().getTimeInMillis();
+		} finally {
+			m.leaveCriticalSection();
+		}
+	}
+}
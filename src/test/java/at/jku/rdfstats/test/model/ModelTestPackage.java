@@ -29,6 +29,14 @@ public class ModelTestPackage extends TestCase {
 		TestSuite s = new TestSuite("RDFStatsModel tests");
 		s.addTestSuite(RDFStatsModelTest.class);
 		s.addTestSuite(RDFStatsUpdatableModelTest.class);
+		s.addTestSuite(StatisticsCatalogTest.class);
+		s.addTestSuite(HistogramCacheTest.class);
+		s.addTestSuite(HistogramStoreTest.class);
+		s.addTestSuite(LockingTest.class);
+		s.addTestSuite(PreparedEstimateTest.class);
+		s.addTestSuite(CharacteristicSetsTest.class);
+		s.addTestSuite(JoinKeySketchesTest.class);
+		s.addTestSuite(OperatorEstimationTest.class);
 		return s;
 	}
 }
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.PlanCalculator;
+import at.jku.rdfstats.RDFStatsConfiguration;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.generator.RDFStatsGeneratorBase;
+import at.jku.rdfstats.generator.RDFStatsGeneratorFactory;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.sparql.algebra.Algebra;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.op.OpDatasetNames;
+import com.hp.hpl.jena.sparql.algebra.op.OpFilter;
+import com.hp.hpl.jena.sparql.algebra.op.OpUnion;
+import com.hp.hpl.jena.sparql.expr.E_Exists;
+import com.hp.hpl.jena.sparql.expr.Expr;
+import com.hp.hpl.jena.sparql.expr.ExprList;
+import com.hp.hpl.jena.sparql.sse.SSE;
+import com.hp.hpl.jena.util.FileManager;
+import static at.jku.rdfstats.test.Constants.*;
+
+/**
+ * @author dorgon
+ *
+ */
+public class OperatorEstimationTest extends TestCase {
+	private Model data;
+	private RDFStatsModel stats;
+	private RDFStatsDataset ds;
+	
+	@Override
+	protected void setUp() throws Exception {
+		data = FileManager.get().loadModel(ISWC_EXAMPLE_DATA);
+		RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorModel(RDFStatsConfiguration.getDefault(), data, Stats.RDFDocument.getURI(), ISWC_EXAMPLE_DATA);
+		gen.generate();
+		stats = gen.getRDFStatsModel();
+		ds = stats.getDatasets().get(0);
+	}
+	
+	public void testGroupBy() throws Exception {
+		assertEstimate("SELECT ?p (count(*) AS ?c) WHERE { ?doc dc:creator ?p } GROUP BY ?p");
+		assertEstimate("SELECT ?doc (count(*) AS ?c) WHERE { ?doc dc:creator ?p } GROUP BY ?doc");
+		assertEstimate("SELECT ?t (count(*) AS ?c) WHERE { ?x rdf:type ?t } GROUP BY ?t");
+		
+		Long[] e = estimate("SELECT (count(*) AS ?c) WHERE { ?doc dc:creator ?p }");
+		assertEquals(1L, (long) e[0]);
+		assertEquals(1L, (long) e[2]);
+	}
+	
+	public void testGroupByService() throws Exception {
+		Long[] all = new PlanCalculator(stats).calculate(compile("SELECT * WHERE { SERVICE <" + ISWC_EXAMPLE_DATA + "> { ?doc dc:creator ?p } }"));
+		assertTrue(all[2] > 0);
+		
+		// no dataset outside of the SERVICE, the number of groups is unknown and bounded by the solutions only
+		Long[] e = new PlanCalculator(stats).calculate(compile("SELECT ?p (count(*) AS ?c) WHERE { SERVICE <" + ISWC_EXAMPLE_DATA + "> { ?doc dc:creator ?p } } GROUP BY ?p"));
+		assertEquals(1L, (long) e[0]);
+		assertEquals(all[1], e[1]);
+		assertEquals(all[2], e[2]);
+	}
+	
+	public void testPaths() throws Exception {
+		assertEstimate("SELECT * WHERE { ?doc dc:creator/foaf:name ?n }");
+		assertEstimate("SELECT * WHERE { ?p ^dc:creator ?doc }");
+		assertEstimate("SELECT * WHERE { ?a (foaf:name|foaf:mbox) ?b }");
+		assertEstimate("SELECT * WHERE { ?a skos:broader/skos:broader ?b }");
+		assertEstimate("SELECT * WHERE { ?a skos:broader+ ?b }");
+		assertEstimate("SELECT * WHERE { ?a skos:broader* ?b }");
+	}
+	
+	public void testMinusAndExists() throws Exception {
+		Op persons = SSE.parseOp("(bgp (?p <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://xmlns.com/foaf/0.1/Person>))");
+		Long[] all = ds.triplesForQueryPlan(persons);
+		
+		Long[] e = ds.triplesForQueryPlan(SSE.parseOp("(diff " + persons + " (bgp (?p <http://xmlns.com/foaf/0.1/mbox> ?m)))"));
+		assertEquals(0L, (long) e[0]);
+		assertTrue(e[1] <= all[1]);
+		assertEquals(all[2], e[2]);
+		
+		// no shared variables, nothing is removed
+		e = ds.triplesForQueryPlan(SSE.parseOp("(diff " + persons + " (bgp (?x <http://xmlns.com/foaf/0.1/mbox> ?m)))"));
+		assertEquals(all[1], e[1]);
+		
+		e = ds.triplesForQueryPlan(OpFilter.filter(new E_Exists(SSE.parseOp("(bgp (?p <http://xmlns.com/foaf/0.1/mbox> ?m))")), persons));
+		assertEquals(0L, (long) e[0]);
+		assertTrue(e[1] < all[1]);
+		assertEquals(all[2], e[2]);
+		
+		// EXISTS applies on top of the fallback selectivity of a filter without histograms for its variables
+		Op join = SSE.parseOp("(join (bgp (?p ?x ?o)) (bgp (?o ?y ?n)))");
+		Expr unknown = SSE.parseExpr("(= ?p ?n)");
+		Long[] filtered = ds.triplesForQueryPlan(OpFilter.filter(unknown, join));
+		ExprList both = new ExprList(unknown);
+		both.add(new E_Exists(SSE.parseOp("(bgp (?p <http://xmlns.com/foaf/0.1/mbox> ?m))")));
+		e = ds.triplesForQueryPlan(OpFilter.filter(both, join));
+		assertTrue(filtered[1] > 1);
+		assertEquals((long) Math.ceil(filtered[1] * PlanCalculator.EXISTS_SELECTIVITY), (long) e[1]);
+	}
+	
+	public void testUnionWithUnknownBranch() throws Exception {
+		Op persons = SSE.parseOp("(bgp (?p <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://xmlns.com/foaf/0.1/Person>))");
+		Op invalid = SSE.parseOp("(bgp (?s <http://example.org/p> <http://example.org/o>))"); // no histogram
+		assertNull(ds.triplesForQueryPlan(invalid));
+		Long[] all = ds.triplesForQueryPlan(persons);
+		
+		// the unknown branch is bounded by the triples of the dataset
+		Long[] e = ds.triplesForQueryPlan(new OpUnion(invalid, persons));
+		assertNotNull(e);
+		assertEquals(all[0], e[0]);
+		assertTrue(e[1] >= all[1]);
+		assertEquals(ds.getTriplesTotal() + all[2], (long) e[2]);
+		
+		e = ds.triplesForQueryPlan(OpFilter.filter(SSE.parseExpr("(bound ?p)"), new OpUnion(persons, invalid)));
+		assertNotNull(e);
+		assertEquals(ds.getTriplesTotal() + all[2], (long) e[2]);
+	}
+	
+	public void testFilterSelectivity() throws Exception {
+		data = FileManager.get().loadModel(DATATYPE_SAMPLES_DATA);
+		RDFStatsGeneratorBase gen = RDFStatsGeneratorFactory.generatorModel(RDFStatsConfiguration.getDefault(), data, Stats.RDFDocument.getURI(), DATATYPE_SAMPLES_DATA);
+		gen.generate();
+		ds = gen.getRDFStatsModel().getDatasets().get(0);
+		
+		String prefix = "PREFIX v: <" + TESTING_NS + ">\n";
+		String[] queries = new String[] {
+				"SELECT * WHERE { { ?x v:samples_intnumber ?i } { ?x v:samples_city ?c } FILTER (?i < 100) }",
+				"SELECT * WHERE { { ?x v:samples_intnumber ?i } { ?x v:samples_city ?c } FILTER (?i > 100) }",
+				"SELECT * WHERE { { ?x v:samples_intnumber ?i } { ?x v:samples_city ?c } FILTER (?i < 100 && ?c < \"M\") }",
+				"SELECT * WHERE { ?x v:samples_city ?c OPTIONAL { ?x v:samples_intnumber ?i } FILTER (?i < 100) }",
+				"SELECT * WHERE { { ?x v:samples_intnumber ?i } UNION { ?x v:samples_id ?i } FILTER (?i < 100) }"
+		};
+		for (String qry : queries) {
+			assertEstimate(prefix + qry);
+			assertEquals(estimate(prefix + qry)[1], ds.prepare(ISWC_PREFIXES + prefix + qry).estimate()[1]);
+		}
+	}
+	
+	public void testUnsupportedOperators() throws Exception {
+		Long[] e = estimate("SELECT * WHERE { GRAPH ?g { ?doc dc:creator ?p } }");
+		assertEquals(0L, (long) e[0]);
+		assertTrue(e[2] >= count("SELECT * WHERE { ?doc dc:creator ?p }"));
+		
+		// bounded by the triples of the dataset
+		e = ds.triplesForQueryPlan(new OpDatasetNames(Node.createVariable("g")));
+		assertEquals(0L, (long) e[0]);
+		assertTrue(e[1] <= e[2]);
+		assertEquals((long) ds.getTriplesTotal(), (long) e[2]);
+	}
+	
+	private Long[] estimate(String qry) throws Exception {
+		return ds.triplesForQuery(QueryFactory.create(ISWC_PREFIXES + qry, Syntax.syntaxARQ));
+	}
+	
+	private Op compile(String qry) {
+		return Algebra.compile(QueryFactory.create(ISWC_PREFIXES + qry, Syntax.syntaxARQ));
+	}
+	
+	private void assertEstimate(String qry) throws Exception {
+		EstimationAssert.assertEstimate(count(qry), estimate(qry));
+	}
+	
+	private long count(String qry) {
+		return EstimationAssert.count(data, ISWC_PREFIXES + qry);
+	}
+}
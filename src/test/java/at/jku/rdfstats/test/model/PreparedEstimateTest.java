@@ -0,0 +1,96 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.PreparedEstimate;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.RDFStatsModelFactory;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.op.OpFilter;
+import com.hp.hpl.jena.sparql.algebra.op.OpTriple;
+import com.hp.hpl.jena.sparql.core.Substitute;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.expr.E_GreaterThan;
+import com.hp.hpl.jena.sparql.expr.ExprVar;
+import static at.jku.rdfstats.test.Constants.*;
+
+/**
+ * @author dorgon
+ *
+ */
+public class PreparedEstimateTest extends TestCase {
+	private static final String BSBM_VOC = "http://www4.wiwiss.fu-berlin.de/bizer/bsbm/v01/vocabulary/";
+	
+	private RDFStatsDataset ds;
+	
+	@Override
+	protected void setUp() throws Exception {
+		RDFStatsModel stats = RDFStatsModelFactory.create(BSBM100_SAMPLES_STATS);
+		ds = stats.getDataset(null);
+	}
+	
+	public void testFilterParameter() throws RDFStatsModelException {
+		PreparedEstimate pe = ds.prepare(BSBM_PREFIXES + "SELECT * WHERE { ?s a bsbm:Product ; bsbm:productPropertyNumeric1 ?n . FILTER (?n > ?min) }");
+		for (int min : new int[] { 0, 100, 500, 2000 }) {
+			Map<String, Node> params = new HashMap<String, Node>();
+			params.put("min", Node.createLiteral(String.valueOf(min), null, XSDDatatype.XSDinteger));
+			Long[] expected = ds.triplesForQuery(BSBM_PREFIXES + "SELECT * WHERE { ?s a bsbm:Product ; bsbm:productPropertyNumeric1 ?n . FILTER (?n > " + min + ") }");
+			assertEquals(Arrays.asList(expected), Arrays.asList(pe.estimate(params)));
+			assertEquals(Arrays.asList(expected), Arrays.asList(pe.estimate(params))); // again, with memoized patterns
+		}
+	}
+	
+	public void testPatternParameter() throws RDFStatsModelException {
+		String template = BSBM_PREFIXES + "SELECT DISTINCT * WHERE { { ?product bsbm:productFeature ?f } { ?f a bsbm:ProductFeature ; rdfs:label ?l } }";
+		PreparedEstimate pe = ds.prepare(template);
+		assertEquals(Arrays.asList(ds.triplesForQuery(template)), Arrays.asList(pe.estimate()));
+		
+		for (String product : new String[] { "Product1", "Product2", "NoSuchProduct" }) {
+			Binding b = new BindingMap();
+			b.add(Var.alloc("product"), Node.createURI(BSBM_NS_PRODUCER1 + product));
+			assertEquals(Arrays.asList(ds.triplesForQueryPlan(Substitute.substitute(pe.getPlan(), b))), Arrays.asList(pe.estimate(b)));
+		}
+	}
+	
+	public void testFilteredTriple() throws RDFStatsModelException {
+		Var n = Var.alloc("n");
+		Var min = Var.alloc("min");
+		Op plan = OpFilter.filter(new E_GreaterThan(new ExprVar(n), new ExprVar(min)),
+				new OpTriple(Triple.create(Var.alloc("s"), Node.createURI(BSBM_VOC + "productPropertyNumeric1"), n)));
+		PreparedEstimate pe = ds.prepare(plan);
+		
+		for (int i : new int[] { 0, 100, 500, 2000 }) {
+			Binding b = new BindingMap();
+			b.add(min, Node.createLiteral(String.valueOf(i), null, XSDDatatype.XSDinteger));
+			Long[] expected = ds.triplesForQueryPlan(Substitute.substitute(plan, b));
+			assertNotNull(expected);
+			assertEquals(Arrays.asList(expected), Arrays.asList(pe.estimate(b)));
+		}
+	}
+}
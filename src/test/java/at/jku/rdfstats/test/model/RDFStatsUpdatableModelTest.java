@@ -19,9 +19,14 @@ import java.util.Calendar;
 import java.util.TimeZone;
 
 import junit.framework.TestCase;
+import at.jku.rdfstats.DatasetSummary;
+import at.jku.rdfstats.HistogramBatch;
 import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsDatasetImpl;
+import at.jku.rdfstats.RDFStatsModel;
 import at.jku.rdfstats.RDFStatsModelException;
 import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.RDFStatsModelImpl;
 import at.jku.rdfstats.RDFStatsUpdatableModel;
 import at.jku.rdfstats.hist.Histogram;
 import at.jku.rdfstats.hist.IntegerHistogram;
@@ -33,7 +38,9 @@ import at.jku.rdfstats.vocabulary.Stats;
 import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.sparql.vocabulary.FOAF;
+import com.hp.hpl.jena.vocabulary.RDF;
 import com.hp.hpl.jena.vocabulary.RDFS;
 
 
@@ -139,6 +146,142 @@ public class RDFStatsUpdatableModelTest extends TestCase {
 		assertEquals(h3.getBinWidth(), ((IntegerHistogram) m.getPropertyHistogram(endpoint3, p, range)).getBinWidth());
 	}
 	
+	public void testSummary() throws RDFStatsModelException, HistogramBuilderException {
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(ModelFactory.createDefaultModel());
+		String endpoint = "http://localhost:8888/sparql";
+		String range = XSDDatatype.XSDint.getURI();
+		IntegerHistogram h1 = new IntegerHistogram(range, new int[] {3, 0, 10, 0, 1}, 14, 14, 0, 10, new int[] { 10, 15, 20 }, IntegerHistogramBuilder.class);
+		IntegerHistogram h2 = new IntegerHistogram(range, new int[] {1, 3, 1, 10, 0}, 15, 15, -23, 10, new int[] { 10, 15, 20 }, IntegerHistogramBuilder.class);
+		
+		RDFStatsDataset ds = m.addDatasetAndLock(endpoint, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		RDFStatsDataset other = m.addDatasetAndLock("http://example.org/sparql", Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		try {
+			m.addOrUpdatePropertyHistogram(ds, FOAF.name.getURI(), range, HistogramCodec.base64encode(h1));
+			m.addOrUpdatePropertyHistogram(ds, FOAF.mbox.getURI(), range, HistogramCodec.base64encode(h2));
+			m.addOrUpdateSubjectHistogram(ds, false, HistogramCodec.base64encode(h1));
+			m.addOrUpdatePropertyHistogram(other, FOAF.name.getURI(), range, HistogramCodec.base64encode(h1));
+			
+			DatasetSummary summary = ((RDFStatsDatasetImpl) ds).getSummary();
+			assertEquals(29, summary.getTriplesTotal());
+			assertEquals(14, (int) summary.getURISubjectsTotal());
+			assertNull(summary.getSubjectsTotal()); // no blank node histogram
+			assertEquals(2, summary.getProperties().size());
+			assertSame(summary, ((RDFStatsDatasetImpl) m.getDataset(endpoint)).getSummary());
+			
+			// a new version for ds, the aggregates of the other dataset are kept
+			DatasetSummary otherSummary = ((RDFStatsDatasetImpl) other).getSummary();
+			m.addOrUpdateSubjectHistogram(ds, true, HistogramCodec.base64encode(h2));
+			assertEquals(29, (int) ds.getSubjectsTotal());
+			assertNotSame(summary, ((RDFStatsDatasetImpl) ds).getSummary());
+			assertSame(otherSummary, ((RDFStatsDatasetImpl) other).getSummary());
+			assertEquals(14, (int) other.getTriplesTotal());
+		} finally {
+			m.returnExclusiveWriteLock(ds);
+			m.returnExclusiveWriteLock(other);
+		}
+	}
+	
+	public void testStoredSummary() throws RDFStatsModelException, HistogramBuilderException {
+		Model model = ModelFactory.createDefaultModel();
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(model);
+		String endpoint = "http://localhost:8888/sparql";
+		String range = XSDDatatype.XSDint.getURI();
+		IntegerHistogram h1 = new IntegerHistogram(range, new int[] {3, 0, 10, 0, 1}, 14, 14, 0, 10, new int[] { 10, 15, 20 }, IntegerHistogramBuilder.class);
+		IntegerHistogram h2 = new IntegerHistogram(range, new int[] {3, 0, 10, 0, 1}, 14, 7, 0, 10, new int[] { 10, 15, 20 }, IntegerHistogramBuilder.class);
+		
+		RDFStatsDataset ds = m.addDatasetAndLock(endpoint, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		try {
+			HistogramBatch batch = m.createBatch(ds);
+			batch.addPropertyHistogram(FOAF.name.getURI(), range, HistogramCodec.base64encode(h1));
+			batch.addPropertyHistogram(FOAF.name.getURI(), XSDDatatype.XSDstring.getURI(), HistogramCodec.base64encode(h2));
+			batch.addPropertyHistogram(FOAF.mbox.getURI(), range, HistogramCodec.base64encode(h2));
+			batch.addSubjectHistogram(false, HistogramCodec.base64encode(h1));
+			batch.addSubjectHistogram(true, HistogramCodec.base64encode(h2));
+			batch.commit();
+			
+			DatasetSummary summary = m.updateSummary(ds);
+			assertEquals(42, summary.getTriplesTotal());
+			assertEquals(28, (int) summary.getSubjectsTotal());
+			assertEquals(28, (int) summary.getPropertyTotal(FOAF.name.getURI()));
+			assertEquals(21, (int) summary.getPropertyDistinct(FOAF.name.getURI()));
+			assertEquals(0.5f, summary.getPropertyEntropy(FOAF.name.getURI())); // product over both ranges
+			assertNull(summary.getPropertyTotal(FOAF.homepage.getURI()));
+			assertTrue(ds.getWrappedResource().hasProperty(Stats.summary));
+		} finally {
+			m.returnExclusiveWriteLock(ds);
+		}
+		
+		// loaded statistics answer from the stored summary without decoding histograms
+		RDFStatsModel loaded = RDFStatsModelFactory.create(model);
+		RDFStatsDataset lds = loaded.getDataset(endpoint);
+		assertEquals(42, (int) lds.getTriplesTotal());
+		assertEquals(28, (int) lds.getSubjectsTotal());
+		assertEquals(0.5f, lds.getPropertyEntropy(FOAF.name.getURI()));
+		assertEquals(1.0f, lds.getPropertyEntropy(FOAF.homepage.getURI()));
+		assertEquals(0.5f, lds.getPropertyEntropySorted().firstKey());
+		assertEquals(0, ((RDFStatsModelImpl) loaded).getHistogramCache().getMissCount());
+		
+		// changed histograms invalidate the stored summary
+		m.requestExclusiveWriteLock(ds);
+		try {
+			m.addOrUpdatePropertyHistogram(ds, FOAF.mbox.getURI(), range, HistogramCodec.base64encode(h1));
+			assertFalse(ds.getWrappedResource().hasProperty(Stats.summary));
+			assertEquals(42, (int) loaded.getDataset(endpoint).getTriplesTotal());
+			assertEquals(1.0f, loaded.getDataset(endpoint).getPropertyEntropy(FOAF.mbox.getURI()));
+		} finally {
+			m.returnExclusiveWriteLock(ds);
+		}
+		
+		DatasetSummary decoded = DatasetSummary.decode(((RDFStatsDatasetImpl) ds).getSummary().encode());
+		assertEquals(42, decoded.getTriplesTotal());
+		assertEquals(0.5f, decoded.getPropertyEntropy(FOAF.name.getURI()));
+		assertEquals(14, (int) decoded.getAnonymousSubjectsTotal());
+	}
+	
+	public void testBatch() throws RDFStatsModelException, HistogramBuilderException {
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(ModelFactory.createDefaultModel());
+		String endpoint = "http://localhost:8888/sparql";
+		String range = XSDDatatype.XSDint.getURI();
+		IntegerHistogram h1 = new IntegerHistogram(range, new int[] {3, 0, 10, 0, 1}, 14, 14, 0, 10, new int[] { 10, 15, 20 }, IntegerHistogramBuilder.class);
+		IntegerHistogram h2 = new IntegerHistogram(range, new int[] {1, 3, 1, 10, 0}, 15, 15, -23, 10, new int[] { 10, 15, 20 }, IntegerHistogramBuilder.class);
+		
+		RDFStatsDataset ds = m.addDatasetAndLock(endpoint, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		try {
+			HistogramBatch batch = m.createBatch(ds);
+			for (int i = 0; i < 100; i++)
+				batch.addPropertyHistogram("http://example.org/p" + i, range, HistogramCodec.base64encode(h1));
+			batch.addSubjectHistogram(false, HistogramCodec.base64encode(h1));
+			assertEquals(101, batch.size());
+			assertEquals(101, batch.commit());
+			assertEquals(0, batch.size());
+			
+			// update half of them, the others are removed
+			m.removeUnchangedItems(ds); // resets changed items
+			for (int i = 0; i < 50; i++)
+				batch.addPropertyHistogram("http://example.org/p" + i, range, HistogramCodec.base64encode(h2));
+			batch.addPropertyHistogram("http://example.org/new", range, HistogramCodec.base64encode(h2));
+			assertEquals(1, batch.commit());
+			m.removeUnchangedItems(ds);
+		} finally {
+			m.returnExclusiveWriteLock(ds);
+		}
+		
+		assertEquals(51, m.getPropertyHistogramProperties(endpoint).size());
+		assertEquals(15, m.getPropertyHistogram(endpoint, "http://example.org/p7", range).getTotalValues());
+		assertEquals(15, m.getPropertyHistogram(endpoint, "http://example.org/new", range).getTotalValues());
+		assertNull(m.getPropertyHistogram(endpoint, "http://example.org/p77", range));
+		assertNull(m.getSubjectHistogram(endpoint, false));
+		assertEquals(51, m.getWrappedModel().listStatements(null, RDF.value, (RDFNode) null).toList().size());
+		
+		// not locked
+		try {
+			HistogramBatch batch = m.createBatch(ds);
+			batch.addSubjectHistogram(true, HistogramCodec.base64encode(h1));
+			batch.commit();
+			fail("Unauthorized batch commit not detected.");
+		} catch (RDFStatsModelException expected) {}
+	}
+	
 //	public void testGetOrCreateDimensions() {
 //		RDFStatsUpdatableTestModel m = new RDFStatsUpdatableTestModel(FileManager.get().loadModel("file:testing/statistics.n3", "N3"));
 //		m.testRangeDim();
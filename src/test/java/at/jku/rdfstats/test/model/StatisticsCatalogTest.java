@@ -0,0 +1,260 @@
+/**
+ * Copyright 2008-2009 Institute for Applied Knowledge Processing, Johannes Kepler University Linz
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.jku.rdfstats.test.model;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import at.jku.rdfstats.HistogramBatch;
+import at.jku.rdfstats.RDFStatsDataset;
+import at.jku.rdfstats.RDFStatsModel;
+import at.jku.rdfstats.RDFStatsModelException;
+import at.jku.rdfstats.RDFStatsModelFactory;
+import at.jku.rdfstats.RDFStatsUpdatableModel;
+import at.jku.rdfstats.StatisticsCatalog;
+import at.jku.rdfstats.vocabulary.SCOVO;
+import at.jku.rdfstats.vocabulary.Stats;
+
+import com.hp.hpl.jena.graph.GraphEventManager;
+import com.hp.hpl.jena.graph.impl.SimpleEventManager;
+import com.hp.hpl.jena.mem.GraphMem;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.shared.Lock;
+import com.hp.hpl.jena.sparql.vocabulary.FOAF;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+import com.hp.hpl.jena.vocabulary.XSD;
+import static at.jku.rdfstats.test.Constants.*;
+
+/**
+ * @author dorgon
+ *
+ */
+public class StatisticsCatalogTest extends TestCase {
+	private static final String SOURCE = "http://example.org/sparql";
+	
+	public void testBuild() throws RDFStatsModelException {
+		RDFStatsModel m = RDFStatsModelFactory.create(ISWC_EXAMPLE_STATS, "N3");
+		StatisticsCatalog c = StatisticsCatalog.build(m.getWrappedModel());
+		String sourceUrl = m.getDatasets().get(0).getSourceUrl();
+		
+		assertEquals(1, c.getDatasets().size());
+		assertEquals(c.getDataset(null), c.getDataset(sourceUrl));
+		assertNull(c.getDataset("http://example.org/other"));
+		
+		assertEquals(26, c.getPropertyHistogramProperties(null).size());
+		assertEquals(c.getPropertyHistogramProperties(null), c.getPropertyHistogramProperties(sourceUrl));
+		assertEquals(12, c.getPropertyHistogramProperties(sourceUrl, XSD.xstring.getURI()).size());
+		assertEquals(1, c.getPropertyHistogramRanges(sourceUrl, RDFS.label.getURI()).size());
+		assertEquals(0, c.getPropertyHistogramProperties("http://example.org/other").size());
+		
+		Resource item = c.getPropertyHistogram(sourceUrl, FOAF.name.getURI(), XSD.xstring.getURI());
+		assertNotNull(item);
+		assertEquals(item.getProperty(RDF.value).getString(), m.getPropertyHistogramEncoded(null, FOAF.name.getURI(), XSD.xstring.getURI()));
+		assertNull(c.getPropertyHistogram(sourceUrl, FOAF.name.getURI(), XSD.xint.getURI()));
+		assertNotNull(c.getSubjectHistogram(sourceUrl, RDFS.Resource.getURI()));
+	}
+	
+	public void testUpdates() throws RDFStatsModelException {
+		Model model = ModelFactory.createDefaultModel();
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(model);
+		assertEquals(0, m.getDatasets().size());
+		
+		RDFStatsDataset ds = m.addDatasetAndLock(SOURCE, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		assertNotNull(m.getDataset(SOURCE));
+		assertTrue(m.addOrUpdatePropertyHistogram(ds, FOAF.name.getURI(), XSD.xstring.getURI(), "a"));
+		assertTrue(m.addOrUpdatePropertyHistogram(ds, FOAF.name.getURI(), XSD.xint.getURI(), "b"));
+		assertFalse(m.addOrUpdatePropertyHistogram(ds, FOAF.name.getURI(), XSD.xstring.getURI(), "c"));
+		assertTrue(m.addOrUpdateSubjectHistogram(ds, false, "d"));
+		assertEquals(2, m.getPropertyHistogramRanges(SOURCE, FOAF.name.getURI()).size());
+		assertEquals("c", m.getPropertyHistogramEncoded(SOURCE, FOAF.name.getURI(), XSD.xstring.getURI()));
+		assertEquals("d", m.getSubjectHistogramEncoded(SOURCE, false));
+		assertNull(m.getSubjectHistogramEncoded(SOURCE, true));
+		
+		// items added directly to the wrapped model
+		Resource item = model.createResource();
+		item.addProperty(RDF.type, Stats.PropertyHistogram);
+		item.addProperty(SCOVO.dataset, ds.getWrappedResource());
+		item.addProperty(Stats.propertyDimension, FOAF.mbox);
+		item.addProperty(Stats.rangeDimension, RDFS.Resource);
+		item.addProperty(RDF.value, "e");
+		assertEquals(2, m.getPropertyHistogramProperties(SOURCE).size());
+		assertEquals("e", m.getPropertyHistogramEncoded(null, FOAF.mbox.getURI(), RDFS.Resource.getURI()));
+		
+		// keep a single item upon the next update
+		m.returnExclusiveWriteLock(ds);
+		m.requestExclusiveWriteLock(ds);
+		m.keepPropertyHistogram(ds, FOAF.name.getURI(), XSD.xstring.getURI());
+		m.removeUnchangedItems(ds);
+		assertEquals(1, m.getPropertyHistogramProperties(SOURCE).size());
+		assertEquals(1, m.getPropertyHistogramRanges(SOURCE, FOAF.name.getURI()).size());
+		assertNull(m.getSubjectHistogramEncoded(SOURCE, false));
+		
+		m.removeDataset(ds);
+		m.returnExclusiveWriteLock(ds);
+		assertNull(m.getDataset(SOURCE));
+		assertEquals(0, m.getPropertyHistogramProperties(SOURCE).size());
+	}
+	
+	public void testDuplicates() throws RDFStatsModelException {
+		Model model = ModelFactory.createDefaultModel();
+		RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(model);
+		RDFStatsDataset ds = m.addDatasetAndLock(SOURCE, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		m.addOrUpdatePropertyHistogram(ds, FOAF.name.getURI(), XSD.xstring.getURI(), "a");
+		m.returnExclusiveWriteLock(ds);
+		
+		Resource item = model.createResource();
+		item.addProperty(RDF.type, Stats.PropertyHistogram);
+		item.addProperty(SCOVO.dataset, ds.getWrappedResource());
+		item.addProperty(Stats.propertyDimension, FOAF.name);
+		item.addProperty(Stats.rangeDimension, XSD.xstring);
+		
+		assertEquals(1, m.getPropertyHistogramProperties(SOURCE).size());
+		try {
+			m.getPropertyHistogramEncoded(SOURCE, FOAF.name.getURI(), XSD.xstring.getURI());
+			fail("Duplicate histogram items not detected.");
+		} catch (RDFStatsModelException expected) {}
+	}
+	
+	public void testSnapshotIsolation() throws Exception {
+		final Model model = ModelFactory.createDefaultModel();
+		final RDFStatsUpdatableModel m = RDFStatsModelFactory.createUpdatable(model);
+		RDFStatsDataset ds = m.addDatasetAndLock(SOURCE, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		m.addOrUpdatePropertyHistogram(ds, FOAF.name.getURI(), XSD.xstring.getURI(), "a");
+		m.returnExclusiveWriteLock(ds);
+		
+		// a writer holding the Jena write lock, e.g. a generator, doesn't block readers
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				model.enterCriticalSection(Lock.WRITE);
+				try {
+					locked.countDown();
+					release.await();
+				} catch (InterruptedException ignore) {
+				} finally {
+					model.leaveCriticalSection();
+				}
+			}
+		};
+		writer.start();
+		assertTrue(locked.await(5, TimeUnit.SECONDS));
+		
+		final List<Object> read = new ArrayList<Object>();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					RDFStatsDataset d = m.getDataset(SOURCE);
+					read.add(d.getSourceUrl());
+					read.add(d.getCreator());
+					read.add(m.getPropertyHistogramEncoded(SOURCE, FOAF.name.getURI(), XSD.xstring.getURI()));
+				} catch (RDFStatsModelException e) {
+					read.add(e);
+				}
+			}
+		};
+		reader.start();
+		reader.join(5000);
+		boolean blocked = reader.isAlive();
+		release.countDown();
+		writer.join();
+		reader.join();
+		assertFalse("Reader blocked by the write lock.", blocked);
+		assertEquals(Arrays.asList(SOURCE, "me@localhost", "a"), read);
+		
+		// a new version is published when the batch is committed
+		m.requestExclusiveWriteLock(ds);
+		HistogramBatch batch = m.createBatch(ds);
+		batch.addPropertyHistogram(FOAF.name.getURI(), XSD.xstring.getURI(), "b");
+		assertEquals("a", m.getPropertyHistogramEncoded(SOURCE, FOAF.name.getURI(), XSD.xstring.getURI()));
+		batch.commit();
+		assertEquals("b", m.getPropertyHistogramEncoded(SOURCE, FOAF.name.getURI(), XSD.xstring.getURI()));
+		m.updateDataset(ds, "you@localhost", Calendar.getInstance());
+		assertEquals("you@localhost", m.getDataset(SOURCE).getCreator());
+		m.returnExclusiveWriteLock(ds);
+	}
+	
+	public void testSharedInvalidator() throws Exception {
+		CountingGraph graph = new CountingGraph();
+		Model model = ModelFactory.createModelForGraph(graph);
+		RDFStatsUpdatableModel a = RDFStatsModelFactory.createUpdatable(model);
+		RDFStatsModel b = RDFStatsModelFactory.create(model);
+		assertEquals(1, graph.getListenerCount());
+		
+		// e.g. a generator or getRDFStatsModel() creating instances repeatedly
+		for (int i=0; i<100; i++)
+			assertEquals(0, RDFStatsModelFactory.create(model).getDatasets().size());
+		assertEquals(1, graph.getListenerCount());
+		
+		// writes through one instance invalidate the others
+		RDFStatsDataset ds = a.addDatasetAndLock(SOURCE, Stats.SPARQLEndpoint.getURI(), "me@localhost", Calendar.getInstance());
+		a.addOrUpdatePropertyHistogram(ds, FOAF.name.getURI(), XSD.xstring.getURI(), "a");
+		a.returnExclusiveWriteLock(ds);
+		assertEquals("a", b.getPropertyHistogramEncoded(SOURCE, FOAF.name.getURI(), XSD.xstring.getURI()));
+		assertEquals("a", a.getPropertyHistogramEncoded(SOURCE, FOAF.name.getURI(), XSD.xstring.getURI()));
+		
+		// direct changes invalidate all instances
+		model.removeAll(null, Stats.sourceUrl, null);
+		assertNull(a.getDataset(SOURCE));
+		assertNull(b.getDataset(SOURCE));
+		
+		// the invalidator doesn't keep unused instances and their histogram caches alive
+		WeakReference<RDFStatsModel> unused = new WeakReference<RDFStatsModel>(RDFStatsModelFactory.create(model));
+		for (int i=0; i<10 && unused.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(unused.get());
+		assertEquals(1, graph.getListenerCount());
+	}
+	
+	/** in-memory graph counting its listeners */
+	private static class CountingGraph extends GraphMem {
+		private CountingEventManager events;
+		
+		@Override
+		public GraphEventManager getEventManager() {
+			if (events == null)
+				events = new CountingEventManager(this);
+			return events;
+		}
+		
+		int getListenerCount() {
+			return events != null ? events.getListenerCount() : 0;
+		}
+	}
+	
+	private static class CountingEventManager extends SimpleEventManager {
+		CountingEventManager(GraphMem graph) {
+			super(graph);
+		}
+		
+		int getListenerCount() {
+			return listeners.size();
+		}
+	}
+}